@@ -1,7 +1,6 @@
 package com.tudoujun.distribute.common;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author xiaowenjun
@@ -18,9 +17,20 @@ public class Constants {
      * 分块传输，每一块的大小
      */
     public static final int CHUNKED_SIZE = (int) (MAX_BYTES * 0.5F);
+    /**
+     * 分块请求合并后的最大字节数，超过时关闭连接
+     */
+    public static final int MAX_CHUNKED_REQUEST_BYTES = 512 * 1024 * 1024;
+
+    /**
+     * 消息体超过该大小时使用零拷贝，消息体直接引用数据帧的切片
+     */
+    public static final int ZERO_COPY_THRESHOLD = 64 * 1024;
 
     /**
-     * 应用请求计数器
+     * 默认的网络包协议版本，滚动升级期间可通过 -Dtudoujun.packet.wireVersion=0 先使用旧版本协议，
+     * 收到对端的二进制协议包后，该连接会自动切换为二进制协议
      */
-    public static AtomicLong REQUEST_COUNTER = new AtomicLong(1);
+    public static final byte DEFAULT_WIRE_VERSION = Byte.parseByte(System.getProperty("tudoujun.packet.wireVersion",
+            String.valueOf(NettyPacket.WIRE_VERSION_BINARY)));
 }
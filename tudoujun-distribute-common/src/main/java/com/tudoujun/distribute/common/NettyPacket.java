@@ -1,5 +1,6 @@
 package com.tudoujun.distribute.common;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +12,10 @@ import com.tudoujun.distribute.common.enums.PacketType;
 import com.tudoujun.distribute.model.common.NettyPacketHeader;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,9 +25,17 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * @author xiaowenjun
  * @description
+ * 旧版本协议（WIRE_VERSION_LEGACY）：
  * | -------------------- | -------------------- | -------------- | --------------------- |
  * | HeaderLength         | Actual Header Length | ContentLength  | Actual Content Length |
  * | -------------------- | -------------------- | -------------- | --------------------- |
+ * 二进制协议（WIRE_VERSION_BINARY），首字节最高位为1，和旧版本的HeaderLength首字节（恒为0）区分：
+ * | ------- | ----- | ---------- | -------- | ------ | ----------- | -------- | ------------- | ------------- | ------- |
+ * | Version | Flags | PacketType | Sequence | NodeId | TimeoutInMs | ExtCount | Ext Key/Value | ContentLength | Content |
+ * | 1B      | 1B    | 4B         | 8B       | 4B     | 4B          | 2B       | ...           | 4B            | ...     |
+ * | ------- | ----- | ---------- | -------- | ------ | ----------- | -------- | ------------- | ------------- | ------- |
+ * 消息体超过 Constants.ZERO_COPY_THRESHOLD 时，消息体为入站数据帧的切片（bodyBuf），不会拷贝到堆内存，
+ * 此时网络包持有引用计数：handlePackage 返回后由 AbstractChannelHandler 释放，异步使用前需要 retain
  * @create: 2025/02/19 14:49
  */
 @Slf4j
@@ -30,7 +43,39 @@ import lombok.extern.slf4j.Slf4j;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class NettyPacket {
+public class NettyPacket implements ReferenceCounted {
+
+    /**
+     * 旧版本协议，请求头为protobuf序列化的map
+     */
+    public static final byte WIRE_VERSION_LEGACY = 0;
+    /**
+     * 二进制协议，固定字段 + 扩展请求头
+     */
+    public static final byte WIRE_VERSION_BINARY = 1;
+
+    private static final int BINARY_MARK = 0x80;
+
+    private static final byte FLAG_BROADCAST = 1;
+    private static final byte FLAG_CHUNKED = 1 << 1;
+    private static final byte FLAG_ERROR = 1 << 2;
+    private static final byte FLAG_RESPONSE = 1 << 3;
+    private static final byte FLAG_REDIRECT = 1 << 4;
+    private static final byte FLAG_FORWARDED = 1 << 5;
+    private static final byte FLAG_CHUNKED_REQUEST = 1 << 6;
+
+    private static final String KEY_PACKET_TYPE = "packetType";
+    private static final String KEY_SEQUENCE = "sequence";
+    private static final String KEY_NODE_ID = "nodeId";
+    private static final String KEY_TIMEOUT = "timeoutInMs";
+    private static final String KEY_BROADCAST = "broadcast";
+    private static final String KEY_CHUNKED = "supportChunked";
+    private static final String KEY_ERROR = "error";
+    private static final String KEY_RESPONSE = "response";
+    private static final String KEY_REDIRECT = "redirect";
+    private static final String KEY_FORWARDED = "forwarded";
+    private static final String KEY_CHUNKED_REQUEST = "chunkedRequest";
+    private static final String KEY_RETRY_AFTER = "retryAfterInMs";
 
     /**
      * 消息体
@@ -38,47 +83,228 @@ public class NettyPacket {
     private byte[] body;
 
     /**
-     * 请求头
+     * 零拷贝的消息体，入站时为数据帧的切片，出站时直接组合进待发送的缓冲区
      */
-    private Map<String, String> header;
+    private ByteBuf bodyBuf;
 
+    /**
+     * 扩展请求头，固定字段之外的自定义key
+     */
+    @Builder.Default
+    private Map<String, String> header = new HashMap<>();
+
+    /**
+     * 请求包类型
+     */
+    private int packetType;
+
+    /**
+     * 请求序列号，0表示没有序列号
+     */
+    private long sequence;
+
+    @Builder.Default
+    private int nodeId = -1;
+
+    private int timeoutInMs;
+
+    private byte flags;
+
+    /**
+     * 解包时使用的协议版本
+     */
+    @Builder.Default
+    private byte wireVersion = WIRE_VERSION_BINARY;
+
+    /**
+     * 复制网络包，消息体为ByteBuf时共享同一块内存，但副本持有独立的引用计数
+     */
     public static NettyPacket copy(NettyPacket nettyPacket) {
-        return new NettyPacket(nettyPacket.getBody(), new HashMap<>(nettyPacket.getHeader()));
+        ByteBuf bodyBuf = nettyPacket.bodyBuf == null ? null : nettyPacket.bodyBuf.retainedDuplicate();
+        return copyHeader(nettyPacket, nettyPacket.body, bodyBuf);
+    }
+
+    private static NettyPacket copyHeader(NettyPacket nettyPacket, byte[] body, ByteBuf bodyBuf) {
+        return new NettyPacket(body, bodyBuf, new HashMap<>(nettyPacket.getHeader()), nettyPacket.getPacketType(),
+                nettyPacket.getSequence(), nettyPacket.getNodeId(), nettyPacket.getTimeoutInMs(), nettyPacket.getFlags(),
+                nettyPacket.getWireVersion());
+    }
+
+    /**
+     * 获取堆内存形式的消息体，消息体为ByteBuf时会拷贝一次
+     */
+    public byte[] getBody() {
+        if (body == null && bodyBuf != null) {
+            body = ByteBufUtil.getBytes(bodyBuf);
+        }
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        releaseBodyBuf();
+        this.body = body;
+    }
+
+    /**
+     * 获取ByteBuf形式的消息体，不会发生拷贝，也不会增加引用计数
+     */
+    public ByteBuf getBodyBuf() {
+        if (bodyBuf != null) {
+            return bodyBuf;
+        }
+        return body == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(body);
+    }
+
+    /**
+     * 获取ByteBuf形式的消息体，返回的ByteBuf由调用方负责释放
+     */
+    public ByteBuf retainedBodyBuf() {
+        if (bodyBuf != null) {
+            return bodyBuf.retainedSlice();
+        }
+        return body == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(body);
+    }
+
+    public int getBodyLength() {
+        if (bodyBuf != null) {
+            return bodyBuf.readableBytes();
+        }
+        return body == null ? 0 : body.length;
+    }
+
+    private void releaseBodyBuf() {
+        if (bodyBuf != null) {
+            bodyBuf.release();
+            bodyBuf = null;
+        }
+    }
+
+    @Override
+    public int refCnt() {
+        return bodyBuf == null ? 1 : bodyBuf.refCnt();
+    }
+
+    @Override
+    public NettyPacket retain() {
+        if (bodyBuf != null) {
+            bodyBuf.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public NettyPacket retain(int increment) {
+        if (bodyBuf != null) {
+            bodyBuf.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public NettyPacket touch() {
+        if (bodyBuf != null) {
+            bodyBuf.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public NettyPacket touch(Object hint) {
+        if (bodyBuf != null) {
+            bodyBuf.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return bodyBuf != null && bodyBuf.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return bodyBuf != null && bodyBuf.release(decrement);
+    }
+
+    private void setFlag(byte flag, boolean value) {
+        flags = (byte) (value ? flags | flag : flags & ~flag);
+    }
+
+    private boolean hasFlag(byte flag) {
+        return (flags & flag) != 0;
     }
 
     /**
      * 是否需要广播给其它节点
      */
     public void setBroadcast(boolean broadcast) {
-        header.put("broadcast", String.valueOf(broadcast));
+        setFlag(FLAG_BROADCAST, broadcast);
     }
 
     public boolean getBroadcast() {
-        return Boolean.parseBoolean(header.getOrDefault("broadcast", String.valueOf("false")));
+        return hasFlag(FLAG_BROADCAST);
     }
 
     /**
-     * 请求序列号
+     * 是否为响应包
      */
-    public void setSequence(String sequence) {
-        if (sequence != null) {
-            header.put("sequence", sequence);
-        }
+    public void setResponse(boolean response) {
+        setFlag(FLAG_RESPONSE, response);
     }
 
-    public String getSequence() {
-        return header.get("sequence");
+    public boolean isResponse() {
+        return hasFlag(FLAG_RESPONSE);
     }
 
     /**
-     * 请求包类型
+     * 是否为重定向响应，消息体为SlotRedirect，请求的路径不属于当前节点
+     */
+    public void setRedirect(boolean redirect) {
+        setFlag(FLAG_REDIRECT, redirect);
+    }
+
+    public boolean isRedirect() {
+        return hasFlag(FLAG_REDIRECT);
+    }
+
+    /**
+     * 是否为其它节点代为转发的请求，转发的请求不会被再次转发，避免节点之间来回转发
+     */
+    public void setForwarded(boolean forwarded) {
+        setFlag(FLAG_FORWARDED, forwarded);
+    }
+
+    public boolean isForwarded() {
+        return hasFlag(FLAG_FORWARDED);
+    }
+
+    /**
+     * 请求是否分块发送：消息体超过分块大小时发送方拆成多个同序列号的分块，以空消息体的分块结束，
+     * 接收方在网络层合并后再交给处理器；和supportChunked（是否接受分块响应）相互独立
      */
-    public void setPacketType(int packetType) {
-        header.put("packetType", String.valueOf(packetType));
+    public void setChunkedRequest(boolean chunkedRequest) {
+        setFlag(FLAG_CHUNKED_REQUEST, chunkedRequest);
     }
 
-    public int getPacketType() {
-        return Integer.parseInt(header.getOrDefault("packetType", "0"));
+    public boolean isChunkedRequest() {
+        return hasFlag(FLAG_CHUNKED_REQUEST);
+    }
+
+    /**
+     * 是否通过旧版本协议收到的包
+     */
+    public boolean isLegacy() {
+        return wireVersion == WIRE_VERSION_LEGACY;
+    }
+
+    /**
+     * 沿用请求在旧版本协议中的原始序列号，保证旧版本节点能匹配上响应
+     */
+    public void inheritLegacySequence(NettyPacket request) {
+        String legacySequence = request.getHeader().get(KEY_SEQUENCE);
+        if (legacySequence != null) {
+            header.put(KEY_SEQUENCE, legacySequence);
+        }
     }
 
     public void setUserToken(String token) {
@@ -98,27 +324,40 @@ public class NettyPacket {
     }
 
     public void setError(String error) {
-        header.put("error", error);
+        setFlag(FLAG_ERROR, error != null);
+        if (error != null) {
+            header.put(KEY_ERROR, error);
+        } else {
+            header.remove(KEY_ERROR);
+        }
     }
 
     public String getError() {
-        return header.getOrDefault("error", null);
+        return hasFlag(FLAG_ERROR) ? header.getOrDefault(KEY_ERROR, "") : null;
     }
 
     public boolean isSuccess() {
-        return getError() == null;
+        return !hasFlag(FLAG_ERROR);
     }
 
     public boolean isError() {
         return !isSuccess();
     }
 
-    public void setNodeId(int nodeId) {
-        header.put("nodeId", String.valueOf(nodeId));
+    /**
+     * 服务端繁忙拒绝了请求，对端应该在retryAfterInMs之后重试，请求没有被处理过，重试是安全的
+     */
+    public void setBusy(long retryAfterInMs) {
+        setError("服务繁忙，请稍后重试");
+        header.put(KEY_RETRY_AFTER, String.valueOf(retryAfterInMs));
+    }
+
+    public boolean isBusy() {
+        return isError() && header.containsKey(KEY_RETRY_AFTER);
     }
 
-    public int getNodeId() {
-        return Integer.parseInt(header.getOrDefault("nodeId", "-1"));
+    public long getRetryAfterInMs() {
+        return Long.parseLong(header.getOrDefault(KEY_RETRY_AFTER, "0"));
     }
 
     public void setAck(int ack) {
@@ -129,20 +368,12 @@ public class NettyPacket {
         return Integer.parseInt(header.getOrDefault("ack", "0"));
     }
 
-    public void setTimeoutInMs(int timeoutInMs) {
-        header.put("timeoutInMs", String.valueOf(timeoutInMs));
-    }
-
-    public int getTimeoutInMs() {
-        return Integer.parseInt(header.getOrDefault("timeoutInMs", "0"));
-    }
-
-    public void setSupportChunked(boolean chunkedFinish) {
-        header.put("supportChunked", String.valueOf(chunkedFinish));
+    public void setSupportChunked(boolean supportChunked) {
+        setFlag(FLAG_CHUNKED, supportChunked);
     }
 
     public boolean isSupportChunked() {
-        return Boolean.parseBoolean(header.getOrDefault("supportChunked", "false"));
+        return hasFlag(FLAG_CHUNKED);
     }
 
     /**
@@ -151,63 +382,74 @@ public class NettyPacket {
     public static NettyPacket buildPacket(byte[] body, PacketType packetType) {
         NettyPacket nettyPacket = NettyPacket.builder()
                 .body(body)
-                .header(new HashMap<>())
                 .build();
         nettyPacket.setPacketType(packetType.getValue());
         return nettyPacket;
     }
 
     /**
-     * 合并消息体
+     * 合并消息体，分块追加到CompositeByteBuf中，不会拷贝已经收到的分块
+     * 调用方仍持有otherPacket的引用计数
      */
     public void mergeChunkedBody(NettyPacket otherPacket) {
-        int newBodyLength = body.length + otherPacket.getBody().length;
-        byte[] newBody = new byte[newBodyLength];
-        System.arraycopy(body, 0, newBody, 0, body.length);
-        System.arraycopy(otherPacket.getBody(), 0, newBody, body.length, otherPacket.getBody().length);
-        this.body = newBody;
+        if (otherPacket.getBodyLength() == 0) {
+            return;
+        }
+        CompositeByteBuf composite;
+        if (bodyBuf instanceof CompositeByteBuf) {
+            composite = (CompositeByteBuf) bodyBuf;
+        } else {
+            composite = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+            composite.addComponent(true, retainedBodyBuf());
+            releaseBodyBuf();
+            bodyBuf = composite;
+        }
+        body = null;
+        composite.addComponent(true, otherPacket.retainedBodyBuf());
     }
 
     /**
-     * 拆分消息体
+     * 拆分消息体，每个分块都是原消息体的切片，持有独立的引用计数，不会拷贝消息体
      */
     public List<NettyPacket> partitionChunk(boolean supportChunked, int maxPackageSize) {
         if (!supportChunked) {
             return Collections.singletonList(this);
         }
 
-        int bodyLength = this.body.length;
+        int bodyLength = getBodyLength();
         if (bodyLength <= maxPackageSize) {
             return Collections.singletonList(this);
         }
 
-        int packageCount = bodyLength / maxPackageSize;
-        if (bodyLength % maxPackageSize > 0) {
-            packageCount++;
+        List<NettyPacket> results = slice(maxPackageSize);
+        for (NettyPacket packet : results) {
+            packet.setSupportChunked(true);
+        }
+        return results;
+    }
+
+    /**
+     * 拆分分块发送的请求，分块保留原请求的所有标识；消息体不超过分块大小时清除分块标识，原样发送
+     */
+    public List<NettyPacket> partitionRequest(int maxPackageSize) {
+        if (!isChunkedRequest() || getBodyLength() <= maxPackageSize) {
+            setChunkedRequest(false);
+            return Collections.singletonList(this);
         }
+        return slice(maxPackageSize);
+    }
 
-        int remainLength = bodyLength;
+    private List<NettyPacket> slice(int maxPackageSize) {
+        int bodyLength = getBodyLength();
+        ByteBuf whole = getBodyBuf();
         List<NettyPacket> results = new ArrayList<>();
-        for (int i = 0; i < packageCount; i++) {
-            int partitionBodyLength = Math.min(remainLength, maxPackageSize);
-            byte[] partitionBody = new byte[partitionBodyLength];
-            System.arraycopy(body, bodyLength - remainLength, partitionBody, 0, partitionBodyLength);
-            remainLength -= partitionBodyLength;
-            NettyPacket partitionPacket = NettyPacket.builder()
-                    .header(header)
-                    .body(partitionBody)
-                    .build();
-            partitionPacket.setSupportChunked(true);
-            results.add(partitionPacket);
+        for (int offset = 0; offset < bodyLength; offset += maxPackageSize) {
+            int partitionBodyLength = Math.min(bodyLength - offset, maxPackageSize);
+            ByteBuf partitionBody = whole.retainedSlice(whole.readerIndex() + offset, partitionBodyLength);
+            results.add(copyHeader(this, null, partitionBody));
         }
         // 结束标识包
-        NettyPacket tailPacket = NettyPacket.builder()
-                .header(header)
-                .body(new byte[0])
-                .build();
-        tailPacket.setSupportChunked(true);
-        results.add(tailPacket);
-
+        results.add(copyHeader(this, new byte[0], null));
         return results;
     }
 
@@ -215,28 +457,162 @@ public class NettyPacket {
      * 将数据写入ByteBuf
      */
     public void write(ByteBuf out) {
-        NettyPacketHeader nettyPacketHeader = NettyPacketHeader.newBuilder().putAllHeaders(header).build();
+        write(out, WIRE_VERSION_BINARY);
+    }
+
+    /**
+     * 按指定的协议版本将数据写入ByteBuf
+     */
+    public void write(ByteBuf out, byte version) {
+        writeHeader(out, version);
+        if (bodyBuf != null) {
+            out.writeBytes(bodyBuf, bodyBuf.readerIndex(), bodyBuf.readableBytes());
+        } else if (body != null) {
+            out.writeBytes(body);
+        }
+    }
+
+    /**
+     * 写入消息体之前的部分（包含ContentLength），消息体由调用方零拷贝地拼接在后面
+     */
+    public void writeHeader(ByteBuf out, byte version) {
+        if (version == WIRE_VERSION_LEGACY) {
+            writeLegacyHeader(out);
+            return;
+        }
+        out.writeByte(BINARY_MARK | WIRE_VERSION_BINARY);
+        out.writeByte(flags);
+        out.writeInt(packetType);
+        out.writeLong(sequence);
+        out.writeInt(nodeId);
+        out.writeInt(timeoutInMs);
+        out.writeShort(header.size());
+        for (Map.Entry<String, String> entry : header.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(key.length);
+            out.writeBytes(key);
+            out.writeInt(value.length);
+            out.writeBytes(value);
+        }
+        out.writeInt(getBodyLength());
+    }
+
+    private void writeLegacyHeader(ByteBuf out) {
+        Map<String, String> legacyHeader = new HashMap<>(header);
+        legacyHeader.put(KEY_PACKET_TYPE, String.valueOf(packetType));
+        if (sequence != 0) {
+            legacyHeader.putIfAbsent(KEY_SEQUENCE, String.valueOf(sequence));
+        }
+        legacyHeader.put(KEY_NODE_ID, String.valueOf(nodeId));
+        legacyHeader.put(KEY_TIMEOUT, String.valueOf(timeoutInMs));
+        legacyHeader.put(KEY_BROADCAST, String.valueOf(getBroadcast()));
+        legacyHeader.put(KEY_CHUNKED, String.valueOf(isSupportChunked()));
+        legacyHeader.put(KEY_RESPONSE, String.valueOf(isResponse()));
+        if (isRedirect()) {
+            legacyHeader.put(KEY_REDIRECT, "true");
+        }
+        if (isForwarded()) {
+            legacyHeader.put(KEY_FORWARDED, "true");
+        }
+        if (isChunkedRequest()) {
+            legacyHeader.put(KEY_CHUNKED_REQUEST, "true");
+        }
+        NettyPacketHeader nettyPacketHeader = NettyPacketHeader.newBuilder().putAllHeaders(legacyHeader).build();
         byte[] headerBytes = nettyPacketHeader.toByteArray();
         out.writeInt(headerBytes.length);
         out.writeBytes(headerBytes);
-        out.writeInt(body.length);
-        out.writeBytes(body);
+        out.writeInt(getBodyLength());
     }
 
     /**
-     * 解包
+     * 解包，根据首字节自动识别协议版本
      */
     public static NettyPacket parsePacket(ByteBuf byteBuf) throws InvalidProtocolBufferException {
+        int mark = byteBuf.getUnsignedByte(byteBuf.readerIndex());
+        if ((mark & BINARY_MARK) == 0) {
+            return parseLegacyPacket(byteBuf);
+        }
+        int version = mark & ~BINARY_MARK;
+        if (version != WIRE_VERSION_BINARY) {
+            throw new IllegalStateException("不支持的协议版本: " + version);
+        }
+        byteBuf.skipBytes(1);
+        NettyPacket nettyPacket = new NettyPacket();
+        nettyPacket.flags = byteBuf.readByte();
+        nettyPacket.packetType = byteBuf.readInt();
+        nettyPacket.sequence = byteBuf.readLong();
+        nettyPacket.nodeId = byteBuf.readInt();
+        nettyPacket.timeoutInMs = byteBuf.readInt();
+        int extCount = byteBuf.readUnsignedShort();
+        Map<String, String> header = extCount == 0 ? new HashMap<>() : new HashMap<>(extCount * 2);
+        for (int i = 0; i < extCount; i++) {
+            String key = byteBuf.readCharSequence(byteBuf.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+            String value = byteBuf.readCharSequence(byteBuf.readInt(), StandardCharsets.UTF_8).toString();
+            header.put(key, value);
+        }
+        nettyPacket.header = header;
+        readBody(nettyPacket, byteBuf);
+        nettyPacket.wireVersion = WIRE_VERSION_BINARY;
+        return nettyPacket;
+    }
+
+    private static NettyPacket parseLegacyPacket(ByteBuf byteBuf) throws InvalidProtocolBufferException {
         int headerLength = byteBuf.readInt();
         byte[] headerBytes = new byte[headerLength];
         byteBuf.readBytes(headerBytes);
         NettyPacketHeader nettyPacketHeader = NettyPacketHeader.parseFrom(headerBytes);
+
+        Map<String, String> header = new HashMap<>(nettyPacketHeader.getHeadersMap());
+        NettyPacket nettyPacket = new NettyPacket();
+        readBody(nettyPacket, byteBuf);
+        nettyPacket.wireVersion = WIRE_VERSION_LEGACY;
+        nettyPacket.packetType = Integer.parseInt(defaultIfNull(header.remove(KEY_PACKET_TYPE), "0"));
+        nettyPacket.nodeId = Integer.parseInt(defaultIfNull(header.remove(KEY_NODE_ID), "-1"));
+        nettyPacket.timeoutInMs = Integer.parseInt(defaultIfNull(header.remove(KEY_TIMEOUT), "0"));
+        nettyPacket.setBroadcast(Boolean.parseBoolean(header.remove(KEY_BROADCAST)));
+        nettyPacket.setSupportChunked(Boolean.parseBoolean(header.remove(KEY_CHUNKED)));
+        String response = header.remove(KEY_RESPONSE);
+        nettyPacket.setRedirect(Boolean.parseBoolean(header.remove(KEY_REDIRECT)));
+        nettyPacket.setForwarded(Boolean.parseBoolean(header.remove(KEY_FORWARDED)));
+        nettyPacket.setChunkedRequest(Boolean.parseBoolean(header.remove(KEY_CHUNKED_REQUEST)));
+        nettyPacket.setFlag(FLAG_ERROR, header.containsKey(KEY_ERROR));
+        // 旧版本的序列号形如 name-123，原样保留在扩展请求头中，响应时原样带回
+        String legacySequence = header.remove(KEY_SEQUENCE);
+        if (legacySequence != null) {
+            int index = legacySequence.lastIndexOf('-');
+            try {
+                nettyPacket.sequence = Long.parseLong(legacySequence.substring(index + 1));
+                if (index >= 0) {
+                    header.put(KEY_SEQUENCE, legacySequence);
+                }
+            } catch (NumberFormatException e) {
+                header.put(KEY_SEQUENCE, legacySequence);
+            }
+        }
+        // 旧版本节点没有响应标识：本节点发出的序列号是纯数字，对端原样带回的才是响应；
+        // 带name-前缀的是旧版本节点自己发起的请求，数字部分可能和本节点等待中的请求相同，不能当作响应匹配
+        nettyPacket.setResponse(response != null ? Boolean.parseBoolean(response)
+                : nettyPacket.sequence != 0 && !header.containsKey(KEY_SEQUENCE));
+        nettyPacket.header = header;
+        return nettyPacket;
+    }
+
+    /**
+     * 读取消息体，超过阈值的消息体直接保留数据帧的切片，避免拷贝到堆内存
+     */
+    private static void readBody(NettyPacket nettyPacket, ByteBuf byteBuf) {
         int bodyLength = byteBuf.readInt();
-        byte[] bodyBytes = new byte[bodyLength];
-        byteBuf.readBytes(bodyBytes);
-        return NettyPacket.builder()
-                .header(nettyPacketHeader.getHeadersMap())
-                .body(bodyBytes)
-                .build();
+        if (bodyLength >= Constants.ZERO_COPY_THRESHOLD) {
+            nettyPacket.bodyBuf = byteBuf.readRetainedSlice(bodyLength);
+        } else {
+            byte[] bodyBytes = new byte[bodyLength];
+            byteBuf.readBytes(bodyBytes);
+            nettyPacket.body = bodyBytes;
+        }
+    }
+
+    private static String defaultIfNull(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
     }
 }
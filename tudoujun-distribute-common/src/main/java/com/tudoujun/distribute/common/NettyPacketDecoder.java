@@ -3,6 +3,8 @@ package com.tudoujun.distribute.common;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
 
 /**
@@ -12,6 +14,11 @@ import io.netty.util.ReferenceCountUtil;
  */
 public class NettyPacketDecoder extends LengthFieldBasedFrameDecoder {
 
+    /**
+     * 对端使用的协议版本，编码时按该版本回写，实现滚动升级期间的协议协商
+     */
+    public static final AttributeKey<Byte> WIRE_VERSION = AttributeKey.valueOf("nettyPacketWireVersion");
+
     public NettyPacketDecoder(int maxFrameLength) {
         super(maxFrameLength, 0, 3, 0, 3);
     }
@@ -21,7 +28,13 @@ public class NettyPacketDecoder extends LengthFieldBasedFrameDecoder {
         ByteBuf byteBuf = (ByteBuf) super.decode(ctx, in);
         if (byteBuf != null) {
             try {
-                return NettyPacket.parsePacket(byteBuf);
+                NettyPacket nettyPacket = NettyPacket.parsePacket(byteBuf);
+                Attribute<Byte> wireVersion = ctx.channel().attr(WIRE_VERSION);
+                Byte current = wireVersion.get();
+                if (current == null || current != nettyPacket.getWireVersion()) {
+                    wireVersion.set(nettyPacket.getWireVersion());
+                }
+                return nettyPacket;
             } finally {
                 ReferenceCountUtil.release(byteBuf);
             }
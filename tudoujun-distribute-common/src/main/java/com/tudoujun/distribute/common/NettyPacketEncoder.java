@@ -1,18 +1,47 @@
 package com.tudoujun.distribute.common;
 
+import java.util.List;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
 /**
  * @author xiaowenjun
- * @description
+ * @description 大消息体不拷贝，请求头和消息体组合成CompositeByteBuf发送
  * @create: 2025/02/19 14:49
  */
-public class NettyPacketEncoder extends MessageToByteEncoder<NettyPacket> {
+public class NettyPacketEncoder extends MessageToMessageEncoder<NettyPacket> {
+
+    private static final int HEADER_SIZE_HINT = 64;
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, NettyPacket msg, ByteBuf out) throws Exception {
-        msg.write(out);
+    protected void encode(ChannelHandlerContext ctx, NettyPacket msg, List<Object> out) throws Exception {
+        Byte attr = ctx.channel().attr(NettyPacketDecoder.WIRE_VERSION).get();
+        byte wireVersion = attr == null ? Constants.DEFAULT_WIRE_VERSION : attr;
+        int bodyLength = msg.getBodyLength();
+        if (bodyLength < Constants.ZERO_COPY_THRESHOLD) {
+            ByteBuf buf = ctx.alloc().ioBuffer(HEADER_SIZE_HINT + bodyLength);
+            try {
+                msg.write(buf, wireVersion);
+            } catch (Exception e) {
+                buf.release();
+                throw e;
+            }
+            out.add(buf);
+            return;
+        }
+
+        ByteBuf header = ctx.alloc().ioBuffer(HEADER_SIZE_HINT);
+        try {
+            msg.writeHeader(header, wireVersion);
+        } catch (Exception e) {
+            header.release();
+            throw e;
+        }
+        CompositeByteBuf composite = ctx.alloc().compositeBuffer(2);
+        composite.addComponents(true, header, msg.retainedBodyBuf());
+        out.add(composite);
     }
 }
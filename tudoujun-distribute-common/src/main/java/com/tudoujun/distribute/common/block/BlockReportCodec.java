@@ -0,0 +1,72 @@
+package com.tudoujun.distribute.common.block;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * @author xiaowenjun
+ * @description 全量数据块汇报的编码：块id升序排列后写入和前一个块id的差值，块id和长度都用varint编码，
+ * 最后整体deflate压缩。连续分配的块id差值通常只有1个字节，压缩后每个块只占几个字节
+ * @create: 2025/04/08 10:40
+ */
+public class BlockReportCodec {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BlockReportCodec() {
+    }
+
+    /**
+     * 编码前count个数据块，blockIds需要已经升序排列
+     */
+    public static byte[] encode(long[] blockIds, long[] lengths, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, count * 4));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(bytes, deflater, BUFFER_SIZE)) {
+            CodedOutputStream out = CodedOutputStream.newInstance(deflaterOut, BUFFER_SIZE);
+            out.writeUInt32NoTag(count);
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                out.writeUInt64NoTag(blockIds[i] - previous);
+                out.writeUInt64NoTag(lengths[i]);
+                previous = blockIds[i];
+            }
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码并逐个回调数据块，返回数据块数量
+     */
+    public static int decode(InputStream compressed, BlockConsumer consumer) throws IOException {
+        Inflater inflater = new Inflater();
+        try (InflaterInputStream in = new InflaterInputStream(compressed, inflater, BUFFER_SIZE)) {
+            CodedInputStream input = CodedInputStream.newInstance(in);
+            input.setSizeLimit(Integer.MAX_VALUE);
+            int count = input.readUInt32();
+            long blockId = 0;
+            for (int i = 0; i < count; i++) {
+                blockId += input.readUInt64();
+                consumer.accept(blockId, input.readUInt64());
+            }
+            return count;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public interface BlockConsumer {
+        void accept(long blockId, long length);
+    }
+}
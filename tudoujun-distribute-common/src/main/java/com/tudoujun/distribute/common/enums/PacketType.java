@@ -15,8 +15,31 @@ import lombok.Getter;
 public enum PacketType {
 
     UNKNOWN(0, "未知的包类型"),
-    NAME_NODE_CONTROLLER_VOTE(19, "NameNode投票选举的票据"),
+    MKDIR(1, "创建目录"),
+    CREATE_FILE(2, "创建文件"),
+    DELETE_FILE(3, "删除文件或目录"),
+    RENAME_FILE(4, "重命名或移动文件"),
+    LIST_FILES(5, "列出目录下的文件"),
+    GET_FILE_STATUS(6, "查询文件或目录信息"),
+    FETCH_SLOT_TABLE(7, "获取槽位分配表"),
     NAME_NODE_PEER_AWARE(20, "NameNode相互之间发起连接时的感知请求"),
+    NAME_NODE_MIGRATE_SLOTS(22, "Controller通知源节点迁移槽位"),
+    NAME_NODE_MIGRATION_CHUNK(23, "槽位迁移的数据块"),
+    NAME_NODE_MIGRATION_DONE(24, "源节点通知Controller槽位迁移完成"),
+    NAME_NODE_FORWARD_BATCH(25, "批量转发给路径所属节点的请求"),
+    NAME_NODE_RAFT_REQUEST_VOTE(26, "Controller选举：请求投票，包括预投票"),
+    NAME_NODE_RAFT_APPEND_ENTRIES(27, "Controller日志复制，没有日志时作为心跳"),
+    NAME_NODE_RAFT_INSTALL_SNAPSHOT(28, "Controller日志落后太多时发送快照"),
+    NAME_NODE_HEARTBEAT(29, "NameNode之间的心跳，用于故障检测"),
+    NAME_NODE_REPLICATION_BATCH(30, "槽位所属节点复制给副本节点的一批编辑日志"),
+    NAME_NODE_REPLICA_READ_INDEX(31, "副本节点读之前向所属节点查询最新的复制序号"),
+    NAME_NODE_MIGRATION_ABORT(32, "源节点取消槽位迁移，目标节点丢弃已经收到的数据"),
+    DATA_NODE_REGISTER(40, "DataNode向NameNode注册"),
+    DATA_NODE_HEARTBEAT(41, "DataNode向NameNode发送心跳"),
+    DATA_NODE_INCREMENTAL_BLOCK_REPORT(42, "DataNode增量汇报新增和删除的数据块"),
+    DATA_NODE_FULL_BLOCK_REPORT(43, "DataNode全量汇报所有数据块"),
+    WRITE_BLOCK(50, "写入数据块"),
+    READ_BLOCK(51, "读取数据块"),
     ;
 
     private final Integer value;
@@ -0,0 +1,31 @@
+package com.tudoujun.distribute.common.enums;
+
+import java.util.Arrays;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description 读请求的一致性要求，决定只读请求能否由槽位的副本节点响应
+ * @create: 2025/04/07 10:20
+ */
+@Getter
+@AllArgsConstructor
+public enum ReadConsistency {
+
+    OWNER(0, "只由槽位所属节点响应"),
+    BOUNDED_STALENESS(1, "副本落后所属节点不超过指定时间时由副本响应"),
+    READ_INDEX(2, "副本先向所属节点查询最新的复制序号，应用到该序号之后再响应"),
+    ;
+
+    private final Integer value;
+    private final String description;
+
+    public static ReadConsistency of(int value) {
+        return Arrays.stream(values())
+                .filter(t -> t.getValue().equals(value))
+                .findFirst()
+                .orElse(OWNER);
+    }
+}
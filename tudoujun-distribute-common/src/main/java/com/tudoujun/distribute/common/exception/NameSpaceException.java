@@ -0,0 +1,13 @@
+package com.tudoujun.distribute.common.exception;
+
+/**
+ * @author xiaowenjun
+ * @description 文件目录树操作异常，例如路径不合法、文件已存在、父目录不存在
+ * @create: 2025/03/18 10:40
+ */
+public class NameSpaceException extends RuntimeException {
+
+    public NameSpaceException(String msg) {
+        super(msg);
+    }
+}
@@ -2,12 +2,14 @@ package com.tudoujun.distribute.common.network;
 
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.tudoujun.distribute.common.NettyPacket;
 
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -19,6 +21,8 @@ import lombok.extern.slf4j.Slf4j;
 @ChannelHandler.Sharable
 public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapter {
 
+    private static final long DEFAULT_RETRY_AFTER_IN_MS = 100;
+
     private Set<Integer> interestPackageTypes;
 
     @Override
@@ -29,17 +33,68 @@ public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapte
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         Executor executor = getExecutor();
-        if (executor != null) {
-            executor.execute(() -> channelReadInternal(ctx, msg));
-        } else {
+        if (executor == null) {
             channelReadInternal(ctx, msg);
+            return;
+        }
+        if (!isInterested((NettyPacket) msg)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            if (executor instanceof BackpressureExecutor backpressureExecutor) {
+                backpressureExecutor.execute(laneKey(ctx, (NettyPacket) msg),
+                        isThrottled((NettyPacket) msg) ? ctx.channel() : null, () -> channelReadInternal(ctx, msg));
+            } else if (executor instanceof KeyedSerialExecutor keyedSerialExecutor) {
+                keyedSerialExecutor.execute(laneKey(ctx, (NettyPacket) msg), () -> channelReadInternal(ctx, msg));
+            } else {
+                executor.execute(() -> channelReadInternal(ctx, msg));
+            }
+        } catch (RejectedExecutionException e) {
+            onRejected(ctx, (NettyPacket) msg, executor);
+        }
+    }
+
+    /**
+     * 执行器拒绝时不能在网络线程抛出异常丢掉消息：请求告知对端稍后重试；
+     * 响应和没有序列号的消息对端无法重试，直接在网络线程中处理
+     */
+    private void onRejected(ChannelHandlerContext ctx, NettyPacket nettyPacket, Executor executor) {
+        if (nettyPacket.isResponse() || nettyPacket.getSequence() == 0) {
+            channelReadInternal(ctx, nettyPacket);
+            return;
+        }
+        long retryAfterInMs = executor instanceof BackpressureExecutor backpressureExecutor
+                ? backpressureExecutor.getRetryAfterInMs() : DEFAULT_RETRY_AFTER_IN_MS;
+        try {
+            new RequestWrapper(ctx, nettyPacket).sendBusy(retryAfterInMs);
+        } finally {
+            ReferenceCountUtil.release(nettyPacket);
         }
+        if (log.isDebugEnabled()) {
+            log.debug("处理队列已满，拒绝请求: [packetType={} sequence={}]", nettyPacket.getPacketType(), nettyPacket.getSequence());
+        }
+    }
+
+    /**
+     * 该消息所在的连接是否受背压控制，处理队列超过高水位时暂停读取；响应不暂停，避免本节点发出的请求等不到响应
+     */
+    protected boolean isThrottled(NettyPacket nettyPacket) {
+        return !nettyPacket.isResponse();
+    }
+
+    /**
+     * 按key串行的执行器下决定消息的执行顺序：key相同的消息按收到的顺序执行，返回null时不保证顺序。
+     * 默认同一个连接上的消息按顺序执行
+     */
+    protected Object laneKey(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+        return ctx.channel();
     }
 
     private void channelReadInternal(ChannelHandlerContext ctx, Object msg) {
         NettyPacket nettyPacket = (NettyPacket) msg;
         boolean consumedMsg = false;
-        if (getPackageTypes().isEmpty() || getPackageTypes().contains(nettyPacket.getPacketType())) {
+        if (isInterested(nettyPacket)) {
             try {
                 consumedMsg = handlePackage(ctx, nettyPacket);
             } catch (Exception e) {
@@ -49,9 +104,16 @@ public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapte
 
         if (!consumedMsg) {
             ctx.fireChannelRead(msg);
+        } else {
+            // 消息被消费后释放消息体，需要异步使用消息体的处理器要在handlePackage中先retain
+            ReferenceCountUtil.release(msg);
         }
     }
 
+    private boolean isInterested(NettyPacket nettyPacket) {
+        return getPackageTypes().isEmpty() || getPackageTypes().contains(nettyPacket.getPacketType());
+    }
+
     private Set<Integer> getPackageTypes() {
         if (interestPackageTypes == null) {
             return interestPackageTypes();
@@ -67,7 +129,7 @@ public abstract class AbstractChannelHandler extends ChannelInboundHandlerAdapte
     }
 
     /**
-     * 处理网络包
+     * 处理网络包，返回true时网络包会在方法返回后被释放
      * @param ctx 上下文
      * @param nettyPacket 网络包
      * @exception Exception 序列化异常
@@ -0,0 +1,184 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.tudoujun.distribute.common.utils.NamedThreadFactory;
+import com.tudoujun.distribute.common.utils.VirtualThreads;
+
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 带背压的处理器线程池：提交任务后队列长度达到高水位时，暂停提交任务的连接的自动读取，
+ * 数据留在TCP缓冲区里，由对端的发送窗口限速；任务执行完后队列长度降到低水位时恢复所有暂停的连接。
+ * 暂停之前已经读出的数据仍会提交进来，队列满时拒绝任务，由调用方告知对端稍后重试。
+ * ORDERED和VIRTUAL模式下任务交给KeyedSerialExecutor按key串行执行，队列长度是已提交还没有执行完的任务数
+ * @create: 2025/04/09 10:00
+ */
+@Slf4j
+public class BackpressureExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+    private final KeyedSerialExecutor keyedExecutor;
+    private final ExecutorMode mode;
+    private final int queueSize;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long retryAfterInMs;
+    private final Set<Channel> pausedChannels = ConcurrentHashMap.newKeySet();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder pauseCount = new LongAdder();
+
+    /**
+     * @param highWatermark 队列长度达到该值时暂停连接，小于等于0时取队列容量的3/4
+     * @param lowWatermark 队列长度降到该值时恢复连接，小于0时取高水位的一半
+     * @param retryAfterInMs 拒绝请求时建议对端等待多久后重试
+     */
+    public BackpressureExecutor(String name, int coreSize, int maximumPoolSize, int queueSize, int highWatermark,
+                                int lowWatermark, long retryAfterInMs) {
+        this(name, ExecutorMode.POOL, coreSize, maximumPoolSize, queueSize, highWatermark, lowWatermark, retryAfterInMs);
+    }
+
+    /**
+     * @param mode ORDERED模式下使用maximumPoolSize个线程的work-stealing线程池，coreSize不生效；
+     *             VIRTUAL模式下线程数都不生效，queueSize限制同时处理的任务数
+     */
+    public BackpressureExecutor(String name, ExecutorMode mode, int coreSize, int maximumPoolSize, int queueSize,
+                                int highWatermark, int lowWatermark, long retryAfterInMs) {
+        if (mode == ExecutorMode.VIRTUAL && !VirtualThreads.isSupported()) {
+            log.warn("当前JDK不支持虚拟线程，回退到ORDERED模式: [name={} java.version={}]", name,
+                    System.getProperty("java.version"));
+            mode = ExecutorMode.ORDERED;
+        }
+        this.mode = mode;
+        if (mode == ExecutorMode.VIRTUAL) {
+            this.executor = null;
+            this.keyedExecutor = new KeyedSerialExecutor(name, VirtualThreads.newThreadPerTaskExecutor(name));
+        } else if (mode == ExecutorMode.ORDERED) {
+            this.executor = null;
+            this.keyedExecutor = new KeyedSerialExecutor(name, maximumPoolSize);
+        } else {
+            this.executor = new ThreadPoolExecutor(coreSize, maximumPoolSize, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueSize), new NamedThreadFactory(name, true));
+            this.keyedExecutor = null;
+        }
+        this.queueSize = queueSize;
+        this.highWatermark = highWatermark > 0 ? Math.min(highWatermark, queueSize) : Math.max(1, queueSize * 3 / 4);
+        this.lowWatermark = lowWatermark >= 0 ? Math.min(lowWatermark, this.highWatermark) : this.highWatermark / 2;
+        this.retryAfterInMs = retryAfterInMs;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(null, null, task);
+    }
+
+    /**
+     * 提交任务，pauseChannel不为null时队列超过高水位会暂停该连接的自动读取
+     * @param key ORDERED模式下key相同的任务按提交顺序执行，为null时不保证顺序；POOL模式下忽略
+     * @throws RejectedExecutionException 队列已满
+     */
+    public void execute(Object key, Channel pauseChannel, Runnable task) {
+        Runnable wrapped = () -> {
+            try {
+                task.run();
+            } finally {
+                if (!pausedChannels.isEmpty() && getQueueDepth() <= lowWatermark) {
+                    resumeAll();
+                }
+            }
+        };
+        try {
+            if (keyedExecutor == null) {
+                executor.execute(wrapped);
+            } else if (keyedExecutor.getPendingCount() >= queueSize) {
+                throw new RejectedExecutionException("处理队列已满: " + queueSize);
+            } else {
+                keyedExecutor.execute(key, wrapped);
+            }
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            throw e;
+        }
+        if (pauseChannel != null && getQueueDepth() >= highWatermark) {
+            pause(pauseChannel);
+        }
+    }
+
+    private void pause(Channel channel) {
+        // 先暂停再登记，恢复时只恢复登记过的连接，不会出现暂停了却没有登记的连接
+        channel.config().setAutoRead(false);
+        if (!pausedChannels.add(channel)) {
+            return;
+        }
+        pauseCount.increment();
+        if (log.isDebugEnabled()) {
+            log.debug("处理队列超过高水位，暂停读取: [channel={} queueDepth={}]", channel, getQueueDepth());
+        }
+        // 暂停期间队列可能已经处理完，没有任务再触发恢复
+        if (getQueueDepth() <= lowWatermark) {
+            resumeAll();
+        }
+    }
+
+    private void resumeAll() {
+        for (Channel channel : pausedChannels) {
+            if (pausedChannels.remove(channel)) {
+                channel.config().setAutoRead(true);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return keyedExecutor == null ? executor.getQueue().size() : keyedExecutor.getPendingCount();
+    }
+
+    /**
+     * 因为队列已满被拒绝的任务数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 暂停连接的次数
+     */
+    public long getPauseCount() {
+        return pauseCount.sum();
+    }
+
+    public int getPausedChannelCount() {
+        return pausedChannels.size();
+    }
+
+    /**
+     * 实际使用的执行方式，不支持虚拟线程时和配置的不同
+     */
+    public ExecutorMode getMode() {
+        return mode;
+    }
+
+    public long getRetryAfterInMs() {
+        return retryAfterInMs;
+    }
+
+    public int getActiveCount() {
+        return keyedExecutor == null ? executor.getActiveCount() : keyedExecutor.getActiveCount();
+    }
+
+    public void shutdown() {
+        if (keyedExecutor == null) {
+            executor.shutdown();
+        } else {
+            keyedExecutor.shutdown();
+        }
+    }
+}
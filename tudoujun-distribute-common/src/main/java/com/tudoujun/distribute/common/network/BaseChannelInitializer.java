@@ -21,11 +21,17 @@ import io.netty.handler.codec.LengthFieldPrepender;
 public class BaseChannelInitializer extends ChannelInitializer<SocketChannel> {
 
     private final List<AbstractChannelHandler> handlers = new LinkedList<>();
+    private int flushBatchMaxSize;
+    private long flushBatchMaxDelayInMicros;
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
+        if (flushBatchMaxSize > 1) {
+            ch.pipeline().addLast(new FlushBatchingHandler(flushBatchMaxSize, flushBatchMaxDelayInMicros));
+        }
         ch.pipeline().addLast(
                 new NettyPacketDecoder(Constants.MAX_BYTES),
+                new ChunkedRequestAggregator(),
                 new LengthFieldPrepender(3),
                 new NettyPacketEncoder()
         );
@@ -34,6 +40,14 @@ public class BaseChannelInitializer extends ChannelInitializer<SocketChannel> {
         }
     }
 
+    /**
+     * 开启flush合并，maxBatchSize小于等于1时不合并
+     */
+    public void setFlushBatching(int maxBatchSize, long maxDelayInMicros) {
+        this.flushBatchMaxSize = maxBatchSize;
+        this.flushBatchMaxDelayInMicros = maxDelayInMicros;
+    }
+
     /**
      * 添加自定义Handler
      */
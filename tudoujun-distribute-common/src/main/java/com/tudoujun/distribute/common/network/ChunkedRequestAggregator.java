@@ -0,0 +1,65 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tudoujun.distribute.common.Constants;
+import com.tudoujun.distribute.common.NettyPacket;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 合并分块发送的请求：在网络线程中按序列号把分块追加到第一个分块的CompositeByteBuf上，
+ * 收到空消息体的结束分块后把完整的请求交给后面的处理器，分块不会因为处理器的线程池而乱序。
+ * 每个连接独立一个实例，不能共享
+ * @create: 2025/04/08 10:20
+ */
+@Slf4j
+public class ChunkedRequestAggregator extends ChannelInboundHandlerAdapter {
+
+    private final Map<Long, NettyPacket> pending = new HashMap<>();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof NettyPacket packet) || !packet.isChunkedRequest() || packet.isResponse()) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        long sequence = packet.getSequence();
+        NettyPacket merged = pending.get(sequence);
+        if (packet.getBodyLength() > 0) {
+            if (merged == null) {
+                pending.put(sequence, packet);
+                return;
+            }
+            merged.mergeChunkedBody(packet);
+            packet.release();
+            if (merged.getBodyLength() > Constants.MAX_CHUNKED_REQUEST_BYTES) {
+                log.error("分块请求超过上限，关闭连接: [remote={} sequence={} bytes={}]", ctx.channel().remoteAddress(),
+                        sequence, merged.getBodyLength());
+                ctx.close();
+            }
+            return;
+        }
+        packet.release();
+        pending.remove(sequence);
+        if (merged == null) {
+            log.warn("收到没有分块的结束标识，忽略: [remote={} sequence={}]", ctx.channel().remoteAddress(), sequence);
+            return;
+        }
+        merged.setChunkedRequest(false);
+        ctx.fireChannelRead(merged);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (NettyPacket packet : pending.values()) {
+            packet.release();
+        }
+        pending.clear();
+        super.channelInactive(ctx);
+    }
+}
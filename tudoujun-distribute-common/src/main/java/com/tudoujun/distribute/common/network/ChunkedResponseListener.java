@@ -0,0 +1,17 @@
+package com.tudoujun.distribute.common.network;
+
+import com.tudoujun.distribute.common.NettyPacket;
+
+/**
+ * @author xiaowenjun
+ * @description 分块响应监听器，收到一块处理一块，不在内存中累积整个响应
+ * @create: 2025/03/07 11:02
+ */
+public interface ChunkedResponseListener {
+
+    /**
+     * 收到一个分块，在网络线程中回调，不能长时间阻塞
+     * 方法返回后分块会被释放，需要继续持有时先retain
+     */
+    void onChunk(NettyPacket chunk) throws Exception;
+}
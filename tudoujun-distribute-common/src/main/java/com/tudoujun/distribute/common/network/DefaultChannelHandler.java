@@ -1,13 +1,15 @@
 package com.tudoujun.distribute.common.network;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
-import com.tudoujun.distribute.common.utils.DefaultScheduler;
 import com.tudoujun.distribute.common.utils.NetUtils;
 
 import io.netty.channel.ChannelHandlerContext;
@@ -25,13 +27,28 @@ public class DefaultChannelHandler extends AbstractChannelHandler {
     private String name;
     private volatile SocketChannel socketChannel;
     private volatile boolean hasOtherHandlers = false;
-    private List<NettyPacketListener> nettyPacketListeners = new ArrayList<>();
-    private List<ConnectListener> connectListeners = new ArrayList<>();
+    /**
+     * 监听器很少变更，写时复制成新数组，收到消息时直接遍历当前数组，不加锁，回调过程中增删监听器也不影响遍历
+     */
+    private volatile NettyPacketListener[] nettyPacketListeners = new NettyPacketListener[0];
+    private volatile ConnectListener[] connectListeners = new ConnectListener[0];
+    /**
+     * 不为null时消息监听器在该执行器中回调，慢监听器不阻塞网络线程和响应的匹配
+     */
+    private volatile Executor listenerExecutor;
     private SyncRequestSupport syncRequestSupport;
 
-    public DefaultChannelHandler(String name, DefaultScheduler defaultScheduler, long requestTimeout) {
+    public DefaultChannelHandler(String name, long requestTimeout) {
         this.name = name;
-        this.syncRequestSupport = new SyncRequestSupport(name, defaultScheduler, requestTimeout);
+        this.syncRequestSupport = new SyncRequestSupport(name, requestTimeout);
+    }
+
+    public RequestMetrics getRequestMetrics() {
+        return syncRequestSupport.getRequestMetrics();
+    }
+
+    public int getInFlightCount() {
+        return syncRequestSupport.getInFlightCount();
     }
 
     public void setHasOtherHandlers(boolean hasOtherHandlers) {
@@ -56,6 +73,27 @@ public class DefaultChannelHandler extends AbstractChannelHandler {
         return syncRequestSupport.sendRequest(nettyPacket);
     }
 
+    /**
+     * 发送消息，分块响应逐块回调监听器，同步等待所有分块处理完毕
+     */
+    public NettyPacket sendSync(NettyPacket nettyPacket, ChunkedResponseListener listener) throws InterruptedException, RequestTimeoutException {
+        return syncRequestSupport.sendRequest(nettyPacket, listener);
+    }
+
+    /**
+     * 异步发送消息，收到响应时在网络线程中完成future
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket) {
+        return syncRequestSupport.sendAsync(nettyPacket);
+    }
+
+    /**
+     * 异步发送消息，分块响应逐块回调监听器
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket, ChunkedResponseListener listener) {
+        return syncRequestSupport.sendAsync(nettyPacket, listener);
+    }
+
     /**
      * 发送消息，不需要同步响应
      */
@@ -64,6 +102,18 @@ public class DefaultChannelHandler extends AbstractChannelHandler {
         socketChannel.writeAndFlush(nettyPacket);
     }
 
+    /**
+     * 批量发送消息，不需要同步响应，全部写入后只flush一次
+     */
+    public void sendBatch(List<NettyPacket> nettyPackets) {
+        SocketChannel channel = socketChannel;
+        for (NettyPacket nettyPacket : nettyPackets) {
+            syncRequestSupport.setSequence(nettyPacket);
+            channel.write(nettyPacket, channel.voidPromise());
+        }
+        channel.flush();
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         socketChannel = (SocketChannel)ctx.channel();
@@ -82,21 +132,54 @@ public class DefaultChannelHandler extends AbstractChannelHandler {
         ctx.fireChannelInactive();
     }
 
+    /**
+     * 响应按序列号在并发Map中匹配，不需要加锁；没有消息监听器时不创建RequestWrapper
+     */
     @Override
     protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) throws Exception {
-        synchronized (this) {
-            boolean ret = syncRequestSupport.onResponse(nettyPacket);
-            RequestWrapper requestWrapper = new RequestWrapper(ctx, nettyPacket);
-            invokeListeners(requestWrapper);
-            return !hasOtherHandlers || ret;
+        boolean ret = syncRequestSupport.onResponse(nettyPacket);
+        NettyPacketListener[] listeners = nettyPacketListeners;
+        if (listeners.length > 0) {
+            Executor executor = listenerExecutor;
+            if (executor == null) {
+                invokeListeners(listeners, new RequestWrapper(ctx, nettyPacket));
+            } else {
+                offloadListeners(executor, listeners, ctx, nettyPacket);
+            }
+        }
+        return !hasOtherHandlers || ret;
+    }
+
+    /**
+     * 在执行器中回调监听器，回调完之前持有一份消息的引用；执行器按连接串行时同一个连接的消息按收到的顺序回调
+     */
+    private void offloadListeners(Executor executor, NettyPacketListener[] listeners, ChannelHandlerContext ctx,
+                                  NettyPacket nettyPacket) {
+        nettyPacket.retain();
+        Runnable task = () -> {
+            try {
+                invokeListeners(listeners, new RequestWrapper(ctx, nettyPacket));
+            } finally {
+                nettyPacket.release();
+            }
+        };
+        try {
+            if (executor instanceof KeyedSerialExecutor keyedSerialExecutor) {
+                keyedSerialExecutor.execute(ctx.channel(), task);
+            } else {
+                executor.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            log.warn("监听器执行器已满，在网络线程中回调: [name={}]", name);
+            task.run();
         }
     }
 
     /**
      * 回调消息监听器
      */
-    private void invokeListeners(RequestWrapper requestWrapper) {
-        for (NettyPacketListener listener : nettyPacketListeners) {
+    private void invokeListeners(NettyPacketListener[] listeners, RequestWrapper requestWrapper) {
+        for (NettyPacketListener listener : listeners) {
             try {
                 listener.onMessage(requestWrapper);
             } catch (Exception e) {
@@ -126,19 +209,30 @@ public class DefaultChannelHandler extends AbstractChannelHandler {
     /**
      * 添加消息监听器
      */
-    public void addNettyPacketListener(NettyPacketListener listener) {
-        nettyPacketListeners.add(listener);
+    public synchronized void addNettyPacketListener(NettyPacketListener listener) {
+        NettyPacketListener[] listeners = Arrays.copyOf(nettyPacketListeners, nettyPacketListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        nettyPacketListeners = listeners;
+    }
+
+    public synchronized void addConnectListener(ConnectListener listener) {
+        ConnectListener[] listeners = Arrays.copyOf(connectListeners, connectListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        connectListeners = listeners;
     }
 
-    public void addConnectListener(ConnectListener listener) {
-        connectListeners.add(listener);
+    public synchronized void clearNettyPacketListener() {
+        nettyPacketListeners = new NettyPacketListener[0];
     }
 
-    public void clearNettyPacketListener() {
-        nettyPacketListeners.clear();
+    public synchronized void clearConnectListener() {
+        connectListeners = new ConnectListener[0];
     }
 
-    public void clearConnectListener() {
-        connectListeners.clear();
+    /**
+     * 设置回调消息监听器的执行器，为null时在网络线程中回调
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
     }
 }
@@ -0,0 +1,21 @@
+package com.tudoujun.distribute.common.network;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description 消息处理器执行请求的方式
+ * @create: 2025/04/09 14:20
+ */
+@Getter
+@AllArgsConstructor
+public enum ExecutorMode {
+
+    POOL("共享线程池，同一个连接上的请求可能乱序执行"),
+    ORDERED("按连接或者分片key串行，不同key在work-stealing线程池上并行"),
+    VIRTUAL("和ORDERED一样按key串行，每个任务一个虚拟线程，任务可以阻塞；需要JDK 21+，不支持时回退到ORDERED"),
+    ;
+
+    private final String description;
+}
@@ -0,0 +1,76 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * @author xiaowenjun
+ * @description 合并flush：攒够maxBatchSize次flush或者等待maxDelayInMicros后才真正flush一次，
+ * 把连续的小包合并成一次系统调用写出。每个连接独立一个实例，不能共享
+ * @create: 2025/03/11 10:15
+ */
+public class FlushBatchingHandler extends ChannelDuplexHandler {
+
+    private final int maxBatchSize;
+    private final long maxDelayInMicros;
+    private int pendingFlushes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public FlushBatchingHandler(int maxBatchSize, long maxDelayInMicros) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayInMicros = maxDelayInMicros;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (++pendingFlushes >= maxBatchSize || maxDelayInMicros <= 0) {
+            flushNow(ctx);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = ctx.executor().schedule(() -> flushNow(ctx), maxDelayInMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 写缓冲区超过高水位时立即flush，避免等待定时任务时继续堆积
+        if (!ctx.channel().isWritable()) {
+            flushNow(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushNow(ctx);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pendingFlushes > 0) {
+            pendingFlushes = 0;
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.tudoujun.distribute.common.network;
+
+/**
+ * @author xiaowenjun
+ * @description 按long类型序列号保存等待响应的请求：开放寻址（线性探测）的哈希表，key直接存在long数组里，不装箱，
+ * 增删查不分配对象，只有扩容缩容时才分配新数组。
+ * 1. 按序列号低位分成SEGMENTS个段，每段一把锁，发送线程、网络线程和超时线程很少落在同一段上；
+ * 2. 段内把序列号打散后再定位：连续的序列号如果连续存放会连成一整段探测链，删除最早的请求时要移动整段；
+ * 3. 0表示空槽，不能作为key，和协议里序列号为0表示没有序列号一致
+ * @create: 2025/04/09 17:30
+ */
+public class InFlightTable<V> {
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public InFlightTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private Segment segmentOf(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("key不能为0");
+        }
+        return segments[(int) key & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 保存key对应的值，返回之前的值
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        return (V) segmentOf(key).put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) segmentOf(key).get(key);
+    }
+
+    /**
+     * 删除key，返回删除的值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        return (V) segmentOf(key).remove(key, null);
+    }
+
+    /**
+     * key当前对应的是value（同一个对象）时才删除，超时和响应同时到达时只有一方能删除成功
+     */
+    public boolean remove(long key, V value) {
+        return value != null && segmentOf(key).remove(key, value) != null;
+    }
+
+    /**
+     * 当前的元素个数，不加锁，并发修改时是近似值
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    private static final class Segment {
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int mask = INITIAL_CAPACITY - 1;
+        private volatile int size;
+
+        private static int slot(long key, int mask) {
+            long h = (key >>> SEGMENT_SHIFT) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        synchronized Object put(long key, Object value) {
+            int pos = slot(key, mask);
+            long curr;
+            while ((curr = keys[pos]) != 0) {
+                if (curr == key) {
+                    Object old = values[pos];
+                    values[pos] = value;
+                    return old;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[pos] = key;
+            values[pos] = value;
+            // 装载因子不超过1/2，探测长度保持很短
+            if (++size > (mask + 1) >> 1) {
+                rehash((mask + 1) << 1);
+            }
+            return null;
+        }
+
+        synchronized Object get(long key) {
+            int pos = slot(key, mask);
+            long curr;
+            while ((curr = keys[pos]) != 0) {
+                if (curr == key) {
+                    return values[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * expected不为null时只有值是同一个对象才删除
+         */
+        synchronized Object remove(long key, Object expected) {
+            int pos = slot(key, mask);
+            long curr;
+            while ((curr = keys[pos]) != 0) {
+                if (curr == key) {
+                    Object old = values[pos];
+                    if (expected != null && old != expected) {
+                        return null;
+                    }
+                    shiftKeys(pos);
+                    // 突发请求过后缩容，扩容和缩容的阈值拉开避免反复分配
+                    if (--size < (mask + 1) >> 3 && mask + 1 > INITIAL_CAPACITY) {
+                        rehash((mask + 1) >> 1);
+                    }
+                    return old;
+                }
+                pos = (pos + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * 删除pos位置的元素，把后面同一探测链上的元素往前移，不使用墓碑标记
+         */
+        private void shiftKeys(int pos) {
+            int last;
+            long curr;
+            while (true) {
+                last = pos;
+                pos = (pos + 1) & mask;
+                while (true) {
+                    if ((curr = keys[pos]) == 0) {
+                        keys[last] = 0;
+                        values[last] = null;
+                        return;
+                    }
+                    int slot = slot(curr, mask);
+                    // 元素的理想位置不在(last, pos]之间时可以移到last
+                    if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                        break;
+                    }
+                    pos = (pos + 1) & mask;
+                }
+                keys[last] = curr;
+                values[last] = values[pos];
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            int newMask = capacity - 1;
+            long[] newKeys = new long[capacity];
+            Object[] newValues = new Object[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key == 0) {
+                    continue;
+                }
+                int pos = slot(key, newMask);
+                while (newKeys[pos] != 0) {
+                    pos = (pos + 1) & newMask;
+                }
+                newKeys[pos] = key;
+                newValues[pos] = oldValues[i];
+            }
+            keys = newKeys;
+            values = newValues;
+            mask = newMask;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 按key串行的执行器：同一个key的任务按提交顺序在一条通道（lane）上依次执行，不同通道在work-stealing线程池上并行。
+ * 1. key是连接时通道保存在连接的属性上，随连接一起回收；其他key按哈希分到固定数量的通道上，不同key可能共用一条通道；
+ * 2. key为null的任务不需要顺序，直接提交到线程池；
+ * 3. 一条通道每次最多连续执行BATCH个任务后重新排队，避免一个繁忙的连接长期占用线程。
+ * 默认使用work-stealing线程池，任务里不要长时间阻塞；也可以指定每个任务一个虚拟线程的执行器，任务可以阻塞
+ * @create: 2025/04/09 14:00
+ */
+@Slf4j
+public class KeyedSerialExecutor implements Executor {
+
+    private static final int BATCH = 64;
+    private static final int STRIPES = 256;
+    private static final AtomicInteger INSTANCE_ID = new AtomicInteger();
+
+    private final ExecutorService pool;
+    private final AttributeKey<Lane> laneKey;
+    private final Lane[] stripes = new Lane[STRIPES];
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public KeyedSerialExecutor(String name, int parallelism) {
+        this(name, newWorkStealingPool(name, parallelism));
+    }
+
+    /**
+     * @param pool 执行通道和无序任务的线程池，关闭时一起关闭
+     */
+    public KeyedSerialExecutor(String name, ExecutorService pool) {
+        this.pool = pool;
+        this.laneKey = AttributeKey.newInstance(name + "-lane-" + INSTANCE_ID.getAndIncrement());
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Lane();
+        }
+    }
+
+    private static ForkJoinPool newWorkStealingPool(String name, int parallelism) {
+        AtomicInteger threadId = new AtomicInteger();
+        return new ForkJoinPool(Math.max(1, parallelism), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName(name + "-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, (t, e) -> log.error("执行任务发生异常: ", e), true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(null, task);
+    }
+
+    /**
+     * 提交任务，key相同的任务按提交顺序执行
+     */
+    public void execute(Object key, Runnable task) {
+        pendingCount.incrementAndGet();
+        try {
+            if (key == null) {
+                pool.execute(() -> runTask(task));
+            } else {
+                laneOf(key).add(task);
+            }
+        } catch (RejectedExecutionException e) {
+            pendingCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private Lane laneOf(Object key) {
+        if (key instanceof Channel channel) {
+            Lane lane = channel.attr(laneKey).get();
+            if (lane == null) {
+                Lane newLane = new Lane();
+                lane = channel.attr(laneKey).setIfAbsent(newLane);
+                if (lane == null) {
+                    lane = newLane;
+                }
+            }
+            return lane;
+        }
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            log.error("执行任务发生异常: ", e);
+        } finally {
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * 已经提交还没有执行完的任务数，包括正在执行的任务
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 正在执行任务的线程数，每个任务一个线程的执行器没有线程数的概念，返回已提交还没有执行完的任务数
+     */
+    public int getActiveCount() {
+        return pool instanceof ForkJoinPool forkJoinPool ? forkJoinPool.getActiveThreadCount() : getPendingCount();
+    }
+
+    public long getStealCount() {
+        return pool instanceof ForkJoinPool forkJoinPool ? forkJoinPool.getStealCount() : 0;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 一条串行通道：scheduled为true时通道已经在线程池里排队或者正在执行，新任务只入队不重复提交
+     */
+    private class Lane implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(Runnable task) {
+            tasks.offer(task);
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                runTask(task);
+            }
+            if (!tasks.isEmpty()) {
+                pool.execute(this);
+                return;
+            }
+            scheduled.set(false);
+            // 置为空闲之前新提交的任务看到的是已调度，需要这里重新调度
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+    }
+}
@@ -2,7 +2,12 @@ package com.tudoujun.distribute.common.network;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
@@ -13,13 +18,11 @@ import org.apache.commons.collections4.CollectionUtils;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.ResourceLeakDetector;
 import lombok.extern.slf4j.Slf4j;
 
@@ -31,14 +34,21 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class NetClient {
 
+    private static final long CONNECT_CHECK_INTERVAL_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
     private final String name;
     private BaseChannelInitializer baseChannelInitializer;
     private DefaultScheduler defaultScheduler;
     private EventLoopGroup connectThreadGroup;
+    private EventLoop eventLoop;
+    private boolean sharedEventLoop;
+    private TransportType transportType;
     private DefaultChannelHandler defaultChannelHandler;
     private int retryTime;
     private List<NetClientFailListener> netClientFailListeners = new ArrayList<>();
     private AtomicBoolean started = new AtomicBoolean(true);
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private final Condition connectedCondition = connectLock.newCondition();
 
     public NetClient(String name, DefaultScheduler defaultScheduler) {
         this(name, defaultScheduler, -1, 3000);
@@ -48,18 +58,40 @@ public class NetClient {
         this(name, defaultScheduler, retryTime, 3000);
     }
 
+    /**
+     * 使用共享的客户端事件循环组
+     */
     public NetClient(String name, DefaultScheduler defaultScheduler, int retryTime, long requestTimeout) {
+        this(name, defaultScheduler, retryTime, requestTimeout, SharedEventLoopGroups.clientGroup(),
+                TransportType.defaultTransport(), true);
+    }
+
+    /**
+     * 使用独立的单线程事件循环组，关闭客户端时一起关闭
+     */
+    public NetClient(String name, DefaultScheduler defaultScheduler, int retryTime, long requestTimeout, TransportType transportType) {
+        this(name, defaultScheduler, retryTime, requestTimeout,
+                transportType.newEventLoopGroup(1, new NamedThreadFactory("NetClient-Event-", false)), transportType, false);
+    }
+
+    /**
+     * @param eventLoopGroup 事件循环组，需要和transportType匹配
+     * @param shared 是否为共享的事件循环组，共享时关闭客户端只关闭连接，不关闭事件循环组
+     */
+    public NetClient(String name, DefaultScheduler defaultScheduler, int retryTime, long requestTimeout,
+                     EventLoopGroup eventLoopGroup, TransportType transportType, boolean shared) {
         this.name = name;
         this.retryTime = retryTime;
         this.defaultScheduler = defaultScheduler;
-        this.connectThreadGroup = new NioEventLoopGroup(1,
-                new NamedThreadFactory("NetClient-Event-", false));
-        this.defaultChannelHandler = new DefaultChannelHandler(name, defaultScheduler, requestTimeout);
+        this.transportType = transportType;
+        this.connectThreadGroup = eventLoopGroup;
+        // 固定绑定一个事件循环，断线重连后仍由同一个线程处理该连接
+        this.eventLoop = eventLoopGroup.next();
+        this.sharedEventLoop = shared;
+        this.defaultChannelHandler = new DefaultChannelHandler(name, requestTimeout);
         this.defaultChannelHandler.addConnectListener(connected -> {
             if (connected) {
-                synchronized (NetClient.this) {
-                    NetClient.this.notifyAll();
-                }
+                signalConnectWaiters();
             }
         });
         this.baseChannelInitializer = new BaseChannelInitializer();
@@ -76,25 +108,41 @@ public class NetClient {
 
     /**
      * 同步等待确保连接已经建立
-     * 如果连接断开了，会阻塞等到连接建立
+     * 如果连接断开了，会阻塞等到连接建立。使用Lock而不是对象锁等待，虚拟线程等待时不会占住载体线程
      */
     public void ensureConnected(int timeout) throws InterruptedException {
-        int remainTimeout = timeout;
-        synchronized (this) {
-            while(!isConnected()) {
+        if (isConnected()) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        connectLock.lock();
+        try {
+            while (!isConnected()) {
                 if (!started.get()) {
                     throw new InterruptedException("无法连接上服务器:" + name);
                 }
+                long waitNanos = CONNECT_CHECK_INTERVAL_IN_NANOS;
                 if (timeout > 0) {
-                    if (remainTimeout <= 0) {
+                    long remainNanos = deadline - System.nanoTime();
+                    if (remainNanos <= 0) {
                         throw new InterruptedException("无法连接上服务器:" + name);
                     }
-                    wait(10);
-                    remainTimeout -= 10;
-                } else {
-                    wait(10);
+                    waitNanos = Math.min(waitNanos, remainNanos);
                 }
+                // 连接建立时会被唤醒，定时检查是为了发现客户端已经关闭
+                connectedCondition.awaitNanos(waitNanos);
             }
+        } finally {
+            connectLock.unlock();
+        }
+    }
+
+    private void signalConnectWaiters() {
+        connectLock.lock();
+        try {
+            connectedCondition.signalAll();
+        } finally {
+            connectLock.unlock();
         }
     }
 
@@ -118,26 +166,33 @@ public class NetClient {
      */
     private void connect(String hostname, int port, final int connectTimes, int delay) {
         defaultScheduler.scheduleOnce("连接服务器", () -> {
+            if (!started.get()) {
+                return;
+            }
             Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(connectThreadGroup)
+            bootstrap.group(eventLoop)
                     .option(ChannelOption.TCP_NODELAY, true)
                     .option(ChannelOption.SO_KEEPALIVE, true)
                     .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                    .channel(NioSocketChannel.class)
+                    .channel(transportType.channelClass())
                     .handler(baseChannelInitializer);
+            transportType.configure(bootstrap);
             ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.ADVANCED);
-            try {
-                ChannelFuture channelFuture = bootstrap.connect(hostname, port).sync();
-                channelFuture.channel().closeFuture().addListener((ChannelFutureListener)f -> f.channel().close());
-                channelFuture.channel().closeFuture().sync();
-            } catch (InterruptedException e) {
-                log.info("发起连接后同步等待连接被打断");
-            } catch (Exception e) {
-                log.error("发起连接过程中出现异常: [ex={} started={} name={}]", e.getMessage(), started, name);
-            } finally {
-                int curConnectTimes = connectTimes + 1;
-                maybeRetry(hostname, port, curConnectTimes);
-            }
+            int curConnectTimes = connectTimes + 1;
+            // 连接建立和断开都通过回调处理，不占用调度线程同步等待
+            bootstrap.connect(hostname, port).addListener((ChannelFutureListener) channelFuture -> {
+                if (!channelFuture.isSuccess()) {
+                    log.error("发起连接过程中出现异常: [ex={} started={} name={}]",
+                            channelFuture.cause().getMessage(), started, name);
+                    maybeRetry(hostname, port, curConnectTimes);
+                    return;
+                }
+                if (!started.get()) {
+                    // 连接建立过程中客户端已经关闭
+                    channelFuture.channel().close();
+                }
+                channelFuture.channel().closeFuture().addListener(f -> maybeRetry(hostname, port, curConnectTimes));
+            });
         }, delay);
     }
 
@@ -172,6 +227,28 @@ public class NetClient {
         return defaultChannelHandler.sendSync(nettyPacket);
     }
 
+    /**
+     * 发送请求，分块响应逐块回调监听器，同步等待所有分块处理完毕
+     */
+    public NettyPacket sendSync(NettyPacket nettyPacket, ChunkedResponseListener listener) throws InterruptedException, RequestTimeoutException {
+        ensureConnected();
+        return defaultChannelHandler.sendSync(nettyPacket, listener);
+    }
+
+    /**
+     * 异步发送请求，不等待连接建立，连接未建立时返回失败的future
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket) {
+        return defaultChannelHandler.sendAsync(nettyPacket);
+    }
+
+    /**
+     * 异步发送请求，分块响应逐块回调监听器
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket, ChunkedResponseListener listener) {
+        return defaultChannelHandler.sendAsync(nettyPacket, listener);
+    }
+
     /**
      * 发送结果，异步通过listener获取结果
      */
@@ -180,6 +257,32 @@ public class NetClient {
         defaultChannelHandler.send(nettyPacket);
     }
 
+    /**
+     * 批量发送消息，合并为一次flush
+     */
+    public void sendBatch(List<NettyPacket> nettyPackets) throws InterruptedException {
+        ensureConnected();
+        defaultChannelHandler.sendBatch(nettyPackets);
+    }
+
+    /**
+     * 开启flush合并，需要在connect之前调用
+     */
+    public void setFlushBatching(int maxBatchSize, long maxDelayInMicros) {
+        baseChannelInitializer.setFlushBatching(maxBatchSize, maxDelayInMicros);
+    }
+
+    public RequestMetrics getRequestMetrics() {
+        return defaultChannelHandler.getRequestMetrics();
+    }
+
+    /**
+     * 已发送还未收到响应的请求数量
+     */
+    public int getInFlightCount() {
+        return defaultChannelHandler.getInFlightCount();
+    }
+
     /**
      * 是否连接上
      */
@@ -195,11 +298,17 @@ public class NetClient {
             log.debug("Shutdown NetClient : [name={}]", name);
         }
         started.set(false);
-        if (connectThreadGroup != null) {
+        if (sharedEventLoop) {
+            SocketChannel socketChannel = socketChannel();
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } else if (connectThreadGroup != null) {
             connectThreadGroup.shutdownGracefully();
         }
         defaultChannelHandler.clearConnectListener();
         defaultChannelHandler.clearNettyPacketListener();
+        signalConnectWaiters();
     }
 
     /**
@@ -213,6 +322,13 @@ public class NetClient {
         defaultChannelHandler.addNettyPacketListener(nettyPacketListener);
     }
 
+    /**
+     * 消息监听器在listenerExecutor中回调，不阻塞网络线程；传入KeyedSerialExecutor时保持消息的顺序
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        defaultChannelHandler.setListenerExecutor(listenerExecutor);
+    }
+
     public void addNetClientFailListener(NetClientFailListener netClientFailListener) {
         netClientFailListeners.add(netClientFailListener);
     }
@@ -11,14 +11,17 @@ import org.apache.commons.collections4.CollectionUtils;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.EpollServerDomainSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -34,22 +37,44 @@ public class NetServer {
     private EventLoopGroup boss;
     private EventLoopGroup worker;
     private BaseChannelInitializer baseChannelInitializer;
-    private boolean supportEpoll;
+    private TransportType transportType;
+    private boolean sharedWorker;
+    private final ChannelGroup childChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
     public NetServer(String name, DefaultScheduler defaultScheduler) {
-        this(name, defaultScheduler, 0, false);
+        this(name, defaultScheduler, 0, TransportType.defaultTransport());
     }
 
     public NetServer(String name, DefaultScheduler defaultScheduler, int workThreads) {
-        this(name, defaultScheduler, workThreads, false);
+        this(name, defaultScheduler, workThreads, TransportType.defaultTransport());
     }
 
+    /**
+     * @param supportEpoll 为true时优先使用epoll，不可用时回退到NIO
+     */
     public NetServer(String name, DefaultScheduler defaultScheduler, int workerThreads, boolean supportEpoll) {
+        this(name, defaultScheduler, workerThreads, supportEpoll ? TransportType.select(true) : TransportType.NIO);
+    }
+
+    public NetServer(String name, DefaultScheduler defaultScheduler, int workerThreads, TransportType transportType) {
         this.name = name;
         this.defaultScheduler = defaultScheduler;
-        this.boss = new NioEventLoopGroup(0, new NamedThreadFactory("NettyServer-Boss-", false));
-        this.worker = new NioEventLoopGroup(workerThreads, new NamedThreadFactory("NettyServer-Worker-", false));
-        this.supportEpoll = supportEpoll;
+        this.transportType = transportType;
+        this.boss = transportType.newEventLoopGroup(0, new NamedThreadFactory("NettyServer-Boss-", false));
+        this.worker = transportType.newEventLoopGroup(workerThreads, new NamedThreadFactory("NettyServer-Worker-", false));
+        this.baseChannelInitializer = new BaseChannelInitializer();
+    }
+
+    /**
+     * 使用外部共享的worker事件循环组，关闭服务时不会关闭该事件循环组
+     */
+    public NetServer(String name, DefaultScheduler defaultScheduler, EventLoopGroup sharedWorker, TransportType transportType) {
+        this.name = name;
+        this.defaultScheduler = defaultScheduler;
+        this.transportType = transportType;
+        this.boss = transportType.newEventLoopGroup(1, new NamedThreadFactory("NettyServer-Boss-", false));
+        this.worker = sharedWorker;
+        this.sharedWorker = true;
         this.baseChannelInitializer = new BaseChannelInitializer();
     }
 
@@ -57,6 +82,13 @@ public class NetServer {
         this.baseChannelInitializer = baseChannelInitializer;
     }
 
+    /**
+     * 开启flush合并，需要在bind之前调用
+     */
+    public void setFlushBatching(int maxBatchSize, long maxDelayInMicros) {
+        baseChannelInitializer.setFlushBatching(maxBatchSize, maxDelayInMicros);
+    }
+
     /**
      * 添加自定义的handlers
      */
@@ -99,15 +131,24 @@ public class NetServer {
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(boss, worker)
-                    .channel(supportEpoll ? EpollServerDomainSocketChannel.class : NioServerSocketChannel.class)
+                    .channel(transportType.serverChannelClass())
                     .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                     .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .handler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            // 记录接收到的连接，使用共享worker时关闭服务需要主动关闭这些连接
+                            childChannels.add((Channel) msg);
+                            ctx.fireChannelRead(msg);
+                        }
+                    })
                     .childHandler(baseChannelInitializer);
+            transportType.configure(bootstrap);
             ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.ADVANCED);
             List<ChannelFuture> channelFuture = new ArrayList<>();
             for (int port : ports) {
                 ChannelFuture future = bootstrap.bind(port);
-                log.info("Netty Server started on port : {}",port);
+                log.info("Netty Server started on port : [port={} transport={}]", port, transportType);
                 channelFuture.add(future);
             }
             for (ChannelFuture future : channelFuture) {
@@ -118,7 +159,11 @@ public class NetServer {
             }
         } finally {
             boss.shutdownGracefully();
-            worker.shutdownGracefully();
+            if (!sharedWorker) {
+                worker.shutdownGracefully();
+            } else {
+                childChannels.close();
+            }
         }
     }
 
@@ -129,7 +174,11 @@ public class NetServer {
         log.info("Shutdown NetServer: [name={}]", name);
         if (boss != null && worker != null) {
             boss.shutdownGracefully();
-            worker.shutdownGracefully();
+            if (!sharedWorker) {
+                worker.shutdownGracefully();
+            } else {
+                childChannels.close();
+            }
         }
     }
 }
@@ -0,0 +1,55 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author xiaowenjun
+ * @description 请求统计：成功、超时、失败的请求数和成功请求的累计耗时
+ * @create: 2025/03/10 14:31
+ */
+public class RequestMetrics {
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeout = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalCostInMs = new LongAdder();
+
+    public void recordCompleted(long costInMs) {
+        completed.increment();
+        totalCostInMs.add(costInMs);
+    }
+
+    public void recordTimeout() {
+        timeout.increment();
+    }
+
+    public void recordFailed() {
+        failed.increment();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeout.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * 成功请求的平均耗时
+     */
+    public double getAvgCostInMs() {
+        long count = completed.sum();
+        return count == 0 ? 0 : (double) totalCostInMs.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics[completed=" + getCompletedCount() + ", timeout=" + getTimeoutCount()
+                + ", failed=" + getFailedCount() + ", avgCostInMs=" + getAvgCostInMs() + "]";
+    }
+}
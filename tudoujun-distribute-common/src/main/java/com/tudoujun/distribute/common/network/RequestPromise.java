@@ -1,110 +1,149 @@
 package com.tudoujun.distribute.common.network;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.enums.PacketType;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
 
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * @author xiaowenjun
- * @description 同步获取结果
+ * @description 请求结果，收到完整响应时在网络线程中直接完成future，不需要线程轮询等待
  * @create: 2025/02/21 16:56
  */
 @Slf4j
 public class RequestPromise {
 
-    private NettyPacket request;
+    private final NettyPacket request;
     private NettyPacket response;
+    private final ChunkedResponseListener chunkedResponseListener;
+    private final CompletableFuture<NettyPacket> future = new CompletableFuture<>();
+    private boolean done;
+    private volatile Timeout timeout;
 
     private final long startTime;
-    private boolean timeout;
-    private volatile boolean receiveResponseCompleted = false;
 
     public RequestPromise(NettyPacket request) {
+        this(request, null);
+    }
+
+    /**
+     * @param chunkedResponseListener 不为空时分块响应逐块交给监听器处理，getResult只返回不带消息体的响应头
+     */
+    public RequestPromise(NettyPacket request, ChunkedResponseListener chunkedResponseListener) {
         this.request = request;
+        this.chunkedResponseListener = chunkedResponseListener;
         this.startTime = System.currentTimeMillis();
     }
 
     /**
-     * 获取响应结果
+     * 异步获取响应结果，future的回调在网络线程中执行，耗时的处理需要使用xxxAsync方法切换线程
+     * 响应的消息体可能是池化缓冲区的切片，调用方使用完毕后需要release
      */
-    public NettyPacket getResult() throws RequestTimeoutException {
-        waitForResult();
-        return response;
+    public CompletableFuture<NettyPacket> future() {
+        return future;
     }
 
     /**
-     * 结果返回
+     * 获取响应结果，响应的消息体可能是池化缓冲区的切片，调用方使用完毕后需要release
      */
-    public void setResult(NettyPacket nettyPacket) {
-        synchronized (this) {
-            if (nettyPacket.isSupportChunked()) {
-                if (nettyPacket.getBody().length == 0) {
-                    this.receiveResponseCompleted = true;
-                    notifyAll();
-                } else {
-                    if (this.response == null) {
-                        this.response = nettyPacket;
-                    } else {
-                        this.response.mergeChunkedBody(nettyPacket);
-                    }
-                }
-            } else {
-                this.request = nettyPacket;
-                this.receiveResponseCompleted = true;
-                notifyAll();
+    public NettyPacket getResult() throws RequestTimeoutException, InterruptedException {
+        return await(future);
+    }
+
+    /**
+     * 同步等待异步请求的结果
+     */
+    public static NettyPacket await(CompletableFuture<NettyPacket> future) throws RequestTimeoutException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
+            throw new IllegalStateException(cause);
         }
     }
 
     /**
-     * 等到结果返回
+     * 结果返回，分块响应累积到CompositeByteBuf中，整体为线性开销
      */
-    protected void waitForResult() throws RequestTimeoutException {
+    public void setResult(NettyPacket nettyPacket) {
+        NettyPacket result = null;
         synchronized (this) {
-            try {
-                while (!receiveResponseCompleted && !timeout) {
-                    wait(10);
-                }
-
-                if (timeout) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("同步请求超时了: [cost={} s, request={}, sequence={}]", (System.currentTimeMillis() - startTime) / 1000,
-                                PacketType.of(request.getPacketType()).getDescription(), request.getSequence());
-                    }
-                    throw new RequestTimeoutException("请求超时: " + PacketType.of(request.getPacketType()).getDescription());
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("同步请求成功了: [cost={} s, request={}, sequence={}, isSupportChunked={}, isChuckFinsh={} ]",
-                                (System.currentTimeMillis() - startTime) / 1000, PacketType.of(request.getPacketType()).getDescription(),
-                                request.getSequence(), response.isSupportChunked(), !response.isSupportChunked() || response.getBody().length == 0);
-                    }
-                }
-            } catch (InterruptedException e) {
-                log.info("RequestPromise#waitForResult is interrupt!");
+            if (done || future.isDone()) {
+                nettyPacket.release();
+                return;
+            }
+            boolean chunkFinished = !nettyPacket.isSupportChunked() || nettyPacket.getBodyLength() == 0;
+            if (chunkedResponseListener != null) {
+                deliverChunk(nettyPacket);
+            }
+            if (this.response == null) {
+                this.response = nettyPacket;
+            } else {
+                this.response.mergeChunkedBody(nettyPacket);
+                nettyPacket.release();
+            }
+            if (chunkFinished) {
+                done = true;
+                result = this.response;
+                this.response = null;
+            }
+        }
+
+        if (result != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("同步请求成功了: [cost={} ms, request={}, sequence={}, isSupportChunked={}]",
+                        System.currentTimeMillis() - startTime, PacketType.of(request.getPacketType()).getDescription(),
+                        request.getSequence(), result.isSupportChunked());
+            }
+            if (!future.complete(result)) {
+                result.release();
             }
         }
     }
 
     /**
-     * 判断是否超时
+     * 把分块交给监听器处理，处理完毕后只保留响应头
      */
-    public boolean isTimeout(long timeout) {
-        if (this.timeout) {
-            return true;
+    private void deliverChunk(NettyPacket nettyPacket) {
+        if (nettyPacket.getBodyLength() == 0) {
+            return;
         }
-
-        long now = System.currentTimeMillis();
-        long timeoutInMs = request.getTimeoutInMs();
-        if (timeoutInMs < 0) {
-            return false;
+        try {
+            chunkedResponseListener.onChunk(nettyPacket);
+        } catch (Exception e) {
+            log.error("Exception occur on invoke chunked response listener: ", e);
+        } finally {
+            nettyPacket.setBody(new byte[0]);
         }
+    }
+
+    public NettyPacket getRequest() {
+        return request;
+    }
+
+    public long getCostInMs() {
+        return System.currentTimeMillis() - startTime;
+    }
 
-        if (timeoutInMs > 0) {
-            return startTime + timeoutInMs < now;
-        } else {
-            return startTime + timeout < now;
+    /**
+     * 绑定时间轮中的超时任务，请求完成时取消
+     */
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public void cancelTimeout() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
         }
     }
 
@@ -112,13 +151,28 @@ public class RequestPromise {
      * 标记超时
      */
     public void markTimeout() {
-        if (this.timeout) {
-            return;
+        if (log.isDebugEnabled()) {
+            log.debug("同步请求超时了: [cost={} ms, request={}, sequence={}]", System.currentTimeMillis() - startTime,
+                    PacketType.of(request.getPacketType()).getDescription(), request.getSequence());
         }
-        timeout = true;
+        fail(new RequestTimeoutException("请求超时: " + PacketType.of(request.getPacketType()).getDescription()));
+    }
+
+    /**
+     * 请求失败，例如写入网络失败
+     */
+    public void fail(Throwable cause) {
         synchronized (this) {
-            notifyAll();
+            if (done) {
+                return;
+            }
+            done = true;
+            if (response != null) {
+                response.release();
+                response = null;
+            }
         }
+        future.completeExceptionally(cause);
     }
 
 }
@@ -0,0 +1,34 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.common.utils.NamedThreadFactory;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+/**
+ * @author xiaowenjun
+ * @description 所有连接共享的请求超时时间轮，插入和取消都是O(1)，超时误差在一个tick以内
+ * @create: 2025/03/10 14:26
+ */
+public class RequestTimeoutTimer {
+
+    private static final long TICK_DURATION_MS = 10;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private static final Timer TIMER = new HashedWheelTimer(new NamedThreadFactory("Request-Timeout-Timer"),
+            TICK_DURATION_MS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+
+    private RequestTimeoutTimer() {
+    }
+
+    /**
+     * 在delayInMs毫秒后执行超时任务
+     */
+    public static Timeout newTimeout(TimerTask task, long delayInMs) {
+        return TIMER.newTimeout(task, delayInMs, TimeUnit.MILLISECONDS);
+    }
+}
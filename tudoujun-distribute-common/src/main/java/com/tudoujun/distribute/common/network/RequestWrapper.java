@@ -1,6 +1,8 @@
 package com.tudoujun.distribute.common.network;
 
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 import com.google.protobuf.MessageLite;
 import com.tudoujun.distribute.common.Constants;
@@ -21,8 +23,9 @@ public class RequestWrapper {
     private OnResponseListener listener;
     private ChannelHandlerContext ctx;
     private NettyPacket request;
-    private String requestSequence;
+    private long requestSequence;
     private int nodeId;
+    private Consumer<NettyPacket> responseSink;
 
     public RequestWrapper(ChannelHandlerContext ctx, NettyPacket request) {
         this(ctx, request, -1, null);
@@ -36,11 +39,19 @@ public class RequestWrapper {
         this.listener = listener;
     }
 
+    /**
+     * 不对应网络连接的请求，例如批量转发中拆出的单个请求，响应交给responseSink而不是写回连接
+     */
+    public RequestWrapper(NettyPacket request, int nodeId, Consumer<NettyPacket> responseSink) {
+        this(null, request, nodeId, null);
+        this.responseSink = responseSink;
+    }
+
     public NettyPacket getRequest() {
         return request;
     }
 
-    public String getRequestSequence() {
+    public long getRequestSequence() {
         return requestSequence;
     }
 
@@ -48,28 +59,124 @@ public class RequestWrapper {
         return ctx;
     }
 
+    /**
+     * 请求在handlePackage返回后会被释放，需要在其它线程中继续使用请求时先retain，用完后release
+     */
+    public RequestWrapper retain() {
+        request.retain();
+        return this;
+    }
+
+    public void release() {
+        request.release();
+    }
+
     public void sendResponse() {
-        sendResponse(null);
+        sendResponse((MessageLite) null);
     }
 
     public void sendResponse(MessageLite response) {
-        byte[] body = response == null ? new byte[0] : response.toByteArray();
+        sendResponse(response == null ? new byte[0] : response.toByteArray());
+    }
+
+    /**
+     * 直接以字节数组作为响应的消息体，对端支持分块时按分块大小拆分发送
+     */
+    public void sendResponse(byte[] body) {
         NettyPacket responsePacket = NettyPacket.buildPacket(body, PacketType.of(request.getPacketType()));
         List<NettyPacket> responses = responsePacket.partitionChunk(request.isSupportChunked(), Constants.CHUNKED_SIZE);
         if (responses.size() > 0) {
             log.info("返回响应通过chunked方式发送，共{}块", responses.size());
         }
+        // 所有分块写完后只flush一次，合并成尽量少的系统调用
         for (NettyPacket packet : responses) {
-            sendResponse(packet, requestSequence);
+            writeResponse(packet, requestSequence);
+        }
+        flush();
+    }
+
+    /**
+     * 在condition完成后才发送响应，例如修改同步到编辑日志之后再确认，condition失败时发送异常响应
+     */
+    public void sendResponseAfter(CompletionStage<?> condition, MessageLite response) {
+        condition.whenComplete((result, cause) -> {
+            if (cause != null) {
+                sendError(cause.getMessage());
+            } else {
+                sendResponse(response);
+            }
+        });
+    }
+
+    /**
+     * 发送异常响应，对端通过NettyPacket#getError获取异常信息
+     */
+    public void sendError(String error) {
+        NettyPacket responsePacket = NettyPacket.buildPacket(new byte[0], PacketType.of(request.getPacketType()));
+        responsePacket.setError(error);
+        sendResponse(responsePacket, requestSequence);
+    }
+
+    /**
+     * 发送繁忙响应，请求没有被处理，对端在retryAfterInMs之后重试
+     */
+    public void sendBusy(long retryAfterInMs) {
+        NettyPacket responsePacket = NettyPacket.buildPacket(new byte[0], PacketType.of(request.getPacketType()));
+        responsePacket.setBusy(retryAfterInMs);
+        sendResponse(responsePacket, requestSequence);
+    }
+
+    /**
+     * 发送重定向响应，告知对端请求应该发往哪个节点
+     */
+    public void sendRedirect(MessageLite redirect) {
+        NettyPacket responsePacket = NettyPacket.buildPacket(redirect.toByteArray(), PacketType.of(request.getPacketType()));
+        responsePacket.setRedirect(true);
+        sendResponse(responsePacket, requestSequence);
+    }
+
+    /**
+     * 转发其它节点返回的响应，保留消息体、异常和重定向标记，序列号换成原始请求的序列号
+     */
+    public void relayResponse(byte[] body, String error, boolean redirect) {
+        NettyPacket responsePacket = NettyPacket.buildPacket(body, PacketType.of(request.getPacketType()));
+        responsePacket.setError(error);
+        responsePacket.setRedirect(redirect);
+        sendResponse(responsePacket, requestSequence);
+    }
+
+    /**
+     * 发送响应，响应的引用计数交由网络层释放
+     */
+    public void sendResponse(NettyPacket response, long sequence) {
+        writeResponse(response, sequence);
+        flush();
+    }
+
+    private void flush() {
+        if (ctx != null) {
+            ctx.flush();
         }
     }
 
-    public void sendResponse(NettyPacket response, String sequence) {
+    /**
+     * 写入响应但不flush，批量写入后需要调用flush
+     */
+    private void writeResponse(NettyPacket response, long sequence) {
         response.setSequence(sequence);
+        if (sequence != 0 && sequence == requestSequence) {
+            response.setResponse(true);
+            response.inheritLegacySequence(request);
+        }
         response.setNodeId(nodeId);
-        ctx.writeAndFlush(response);
+        int bodyLength = response.getBodyLength();
+        if (responseSink != null) {
+            responseSink.accept(response);
+        } else {
+            ctx.write(response, ctx.voidPromise());
+        }
         if (listener != null) {
-            this.listener.onResponse(response.getBody().length);
+            this.listener.onResponse(bodyLength);
         }
     }
 
@@ -0,0 +1,40 @@
+package com.tudoujun.distribute.common.network;
+
+import com.tudoujun.distribute.common.utils.NamedThreadFactory;
+
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * @author xiaowenjun
+ * @description 进程内共享的事件循环组，所有NetClient共用一组固定大小的线程，
+ * 集群节点变多时线程数和上下文切换保持不变。线程数可通过 -Dtudoujun.network.clientThreads 指定
+ * @create: 2025/03/13 10:20
+ */
+public class SharedEventLoopGroups {
+
+    private static final int CLIENT_THREADS = Integer.getInteger("tudoujun.network.clientThreads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile EventLoopGroup clientGroup;
+
+    private SharedEventLoopGroups() {
+    }
+
+    /**
+     * 共享的客户端事件循环组，使用默认的传输层，随进程退出，不需要关闭
+     */
+    public static EventLoopGroup clientGroup() {
+        EventLoopGroup group = clientGroup;
+        if (group == null) {
+            synchronized (SharedEventLoopGroups.class) {
+                group = clientGroup;
+                if (group == null) {
+                    group = TransportType.defaultTransport().newEventLoopGroup(CLIENT_THREADS,
+                            new NamedThreadFactory("NetClient-Shared-Event-", true));
+                    clientGroup = group;
+                }
+            }
+        }
+        return group;
+    }
+}
@@ -1,14 +1,14 @@
 package com.tudoujun.distribute.common.network;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.tudoujun.distribute.common.Constants;
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.enums.PacketType;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
-import com.tudoujun.distribute.common.utils.DefaultScheduler;
 
 import io.netty.channel.socket.SocketChannel;
 import lombok.extern.slf4j.Slf4j;
@@ -21,13 +21,32 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class SyncRequestSupport {
 
-    private Map<String, RequestPromise> promiseMap = new ConcurrentHashMap<>();
-    private SocketChannel socketChannel;
-    private String name;
+    /**
+     * 每个连接独立的序列号，只需要在这个连接上唯一，不再和所有连接争用一个全局计数器；0表示没有序列号。
+     * 起始值随机，同一条连接两端发起的请求序列号不会步调一致地从1开始递增，
+     * 旧版本协议的请求和响应在解包时按序列号格式区分，不依赖数字本身不重复
+     */
+    private final AtomicLong sequenceGenerator = new AtomicLong(ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE));
+    private final InFlightTable<RequestPromise> promiseTable = new InFlightTable<>();
+    private volatile SocketChannel socketChannel;
+    private final String name;
+    private final long requestTimeout;
+    private final RequestMetrics requestMetrics = new RequestMetrics();
 
-    public SyncRequestSupport(String name, DefaultScheduler defaultScheduler, long requestTimeout) {
+    public SyncRequestSupport(String name, long requestTimeout) {
         this.name = name;
-        defaultScheduler.schedule("定时检测超时", () -> checkRequestTimeout(requestTimeout), 0, 1000, TimeUnit.MILLISECONDS);
+        this.requestTimeout = requestTimeout;
+    }
+
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
+    /**
+     * 正在等待响应的请求数
+     */
+    public int getInFlightCount() {
+        return promiseTable.size();
     }
 
     public void setSocketChannel(SocketChannel socketChannel) {
@@ -37,29 +56,75 @@ public class SyncRequestSupport {
     /**
      * 同步发送请求
      */
-    public NettyPacket sendRequest(NettyPacket request) throws RequestTimeoutException {
-        setSequence(request);
-        RequestPromise promise = new RequestPromise(request);
-        promiseMap.put(request.getSequence(), promise);
-        socketChannel.writeAndFlush(request);
+    public NettyPacket sendRequest(NettyPacket request) throws RequestTimeoutException, InterruptedException {
+        return sendRequest(request, null);
+    }
+
+    /**
+     * 同步发送请求，分块响应逐块回调监听器，适合快照等大响应的流式处理
+     */
+    public NettyPacket sendRequest(NettyPacket request, ChunkedResponseListener listener) throws RequestTimeoutException, InterruptedException {
+        return RequestPromise.await(sendAsync(request, listener));
+    }
+
+    /**
+     * 异步发送请求，收到响应时在网络线程中完成future
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket request) {
+        return sendAsync(request, null);
+    }
+
+    /**
+     * 异步发送请求，分块响应逐块回调监听器，全部分块处理完毕后完成future；
+     * 请求标记为chunkedRequest并且消息体超过分块大小时分块发送
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket request, ChunkedResponseListener listener) {
+        SocketChannel channel = this.socketChannel;
+        if (channel == null || !channel.isActive()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Socket channel is disconnect"));
+        }
+        long sequence = nextSequence();
+        request.setSequence(sequence);
+        RequestPromise promise = new RequestPromise(request, listener);
+        promiseTable.put(sequence, promise);
+        scheduleTimeout(sequence, promise);
+        // 分块发送的请求拆成同序列号的多个包，依次写入后只flush一次，写入失败只需要看最后一个包
+        List<NettyPacket> packets = request.partitionRequest(Constants.CHUNKED_SIZE);
+        if (packets.size() > 1) {
+            request.release();
+            for (int i = 0; i < packets.size() - 1; i++) {
+                channel.write(packets.get(i), channel.voidPromise());
+            }
+        }
+        channel.writeAndFlush(packets.get(packets.size() - 1)).addListener(future -> {
+            if (!future.isSuccess() && promiseTable.remove(sequence, promise)) {
+                promise.cancelTimeout();
+                requestMetrics.recordFailed();
+                promise.fail(future.cause());
+            }
+        });
         if (log.isDebugEnabled()) {
-            log.debug("发送请求并同步等待结果: [request={} sequence={}]",
-                    PacketType.of(request.getPacketType()).getDescription(), request.getSequence());
+            log.debug("发送请求: [request={} sequence={}]", PacketType.of(request.getPacketType()).getDescription(), sequence);
         }
-        return promise.getResult();
+        return promise.future();
     }
 
     /**
-     * 收到响应
+     * 收到响应，匹配上的响应复制一份交给RequestPromise，副本持有独立的引用计数
      */
     public boolean onResponse(NettyPacket response) {
-        String sequence = response.getSequence();
-        if (sequence != null) {
-            boolean isChunkFinish = !response.isSupportChunked() || response.getBody().length == 0;
-            RequestPromise wrapper = isChunkFinish ? promiseMap.remove(sequence) : promiseMap.get(sequence);
+        long sequence = response.getSequence();
+        // 旧版本协议的响应标识在解包时按序列号格式推断
+        if (sequence != 0 && response.isResponse()) {
+            boolean isChunkFinish = !response.isSupportChunked() || response.getBodyLength() == 0;
+            RequestPromise wrapper = isChunkFinish ? promiseTable.remove(sequence) : promiseTable.get(sequence);
 
             if (wrapper != null) {
-                wrapper.setResult(response);
+                if (isChunkFinish) {
+                    wrapper.cancelTimeout();
+                    requestMetrics.recordCompleted(wrapper.getCostInMs());
+                }
+                wrapper.setResult(NettyPacket.copy(response));
                 return true;
             }
         }
@@ -74,20 +139,32 @@ public class SyncRequestSupport {
         if (socketChannel == null || !socketChannel.isActive()) {
             throw new IllegalStateException("Socket channel is disconnect");
         }
-        nettyPacket.setSequence(name + "-" + Constants.REQUEST_COUNTER.getAndIncrement());
+        nettyPacket.setSequence(nextSequence());
     }
 
     /**
-     * 定时检查请求是否超时，避免请求hang死
+     * 生成这个连接上的下一个请求序号
      */
-    private void checkRequestTimeout(long requestTimeout) {
-        synchronized (this) {
-            promiseMap.forEach((__, value) -> {
-                if (value.isTimeout(requestTimeout)) {
-                    value.markTimeout();
-                }
-            });
+    public long nextSequence() {
+        return sequenceGenerator.getAndIncrement();
+    }
+
+    /**
+     * 在时间轮中登记请求的超时时间，到期时请求仍未完成则标记超时，避免请求hang死
+     * 请求的timeoutInMs小于0表示永不超时，等于0表示使用连接默认的超时时间
+     */
+    private void scheduleTimeout(long sequence, RequestPromise promise) {
+        long timeoutInMs = promise.getRequest().getTimeoutInMs();
+        if (timeoutInMs < 0) {
+            return;
         }
+        long delay = timeoutInMs > 0 ? timeoutInMs : requestTimeout;
+        promise.setTimeout(RequestTimeoutTimer.newTimeout(timeout -> {
+            if (promiseTable.remove(sequence, promise)) {
+                requestMetrics.recordTimeout();
+                promise.markTimeout();
+            }
+        }, delay));
     }
 
 }
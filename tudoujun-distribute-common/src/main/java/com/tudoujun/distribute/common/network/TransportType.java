@@ -0,0 +1,131 @@
+package com.tudoujun.distribute.common.network;
+
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 网络传输层实现，Linux下优先使用epoll TCP，不可用时回退到NIO，客户端和服务端共用
+ * @create: 2025/03/12 09:40
+ */
+@Slf4j
+public enum TransportType {
+
+    /**
+     * JDK NIO，所有平台可用
+     */
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+
+    /**
+     * Linux epoll TCP：边缘触发、SO_REUSEPORT、TCP_QUICKACK
+     */
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public void configure(ServerBootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true)
+                    .option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .childOption(EpollChannelOption.TCP_QUICKACK, true);
+        }
+
+        @Override
+        public void configure(Bootstrap bootstrap) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                    .option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+    },
+    ;
+
+    /**
+     * 默认传输层，可通过 -Dtudoujun.network.transport=nio|epoll|auto 指定，auto时epoll可用则使用epoll
+     */
+    private static final TransportType DEFAULT = select(System.getProperty("tudoujun.network.transport", "auto"));
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends ServerSocketChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> channelClass();
+
+    /**
+     * 设置服务端特有的参数
+     */
+    public void configure(ServerBootstrap bootstrap) {
+    }
+
+    /**
+     * 设置客户端特有的参数
+     */
+    public void configure(Bootstrap bootstrap) {
+    }
+
+    public static TransportType defaultTransport() {
+        return DEFAULT;
+    }
+
+    /**
+     * 优先使用epoll，不可用时回退到NIO
+     */
+    public static TransportType select(boolean preferEpoll) {
+        if (preferEpoll && Epoll.isAvailable()) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    private static TransportType select(String name) {
+        if (NIO.name().equalsIgnoreCase(name)) {
+            return NIO;
+        }
+        TransportType transportType = select(true);
+        if (EPOLL.name().equalsIgnoreCase(name) && transportType != EPOLL) {
+            log.warn("epoll不可用，回退到NIO: ", Epoll.unavailabilityCause());
+        }
+        return transportType;
+    }
+}
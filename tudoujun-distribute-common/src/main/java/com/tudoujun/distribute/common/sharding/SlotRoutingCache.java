@@ -0,0 +1,90 @@
+package com.tudoujun.distribute.common.sharding;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.tudoujun.distribute.model.namenode.SlotRedirect;
+
+/**
+ * @author xiaowenjun
+ * @description 客户端的路由缓存：缓存完整的槽位分配表，按路径直接找到所属的NameNode。
+ * 收到重定向时先记录该槽位的新归属，后续请求不再经过错误的节点；
+ * 重定向的版本比缓存的分配表新时，调用方应该重新获取完整的分配表
+ * @create: 2025/03/26 10:50
+ */
+public class SlotRoutingCache {
+
+    private volatile SlotTable slotTable;
+    /**
+     * 通过重定向学到的槽位归属，优先于分配表
+     */
+    private final int[] redirectedOwners = new int[SlotTable.SLOT_COUNT];
+    private final Map<Integer, String> redirectedServers = new ConcurrentHashMap<>();
+    private volatile int pathDepth = 1;
+    private volatile long latestVersion;
+
+    public SlotRoutingCache() {
+        Arrays.fill(redirectedOwners, SlotTable.NO_OWNER);
+    }
+
+    /**
+     * 路径所属节点的服务地址，不知道时返回null，调用方可以发给任意节点，由对方重定向
+     */
+    public String route(String path) {
+        int slot = SlotTable.slotOf(path, pathDepth);
+        int owner = redirectedOwners[slot];
+        if (owner != SlotTable.NO_OWNER) {
+            String server = redirectedServers.get(owner);
+            if (server != null) {
+                return server;
+            }
+        }
+        SlotTable table = slotTable;
+        if (table == null) {
+            return null;
+        }
+        return table.serverOf(table.ownerOf(slot));
+    }
+
+    /**
+     * 使用新的分配表，旧版本的分配表会被忽略
+     */
+    public synchronized void update(SlotTable table) {
+        SlotTable current = slotTable;
+        if (current != null && current.getVersion() >= table.getVersion()) {
+            return;
+        }
+        slotTable = table;
+        pathDepth = table.getPathDepth();
+        latestVersion = Math.max(latestVersion, table.getVersion());
+        Arrays.fill(redirectedOwners, SlotTable.NO_OWNER);
+        redirectedServers.clear();
+    }
+
+    /**
+     * 记录重定向的结果，返回缓存的分配表是否已经过期
+     */
+    public synchronized boolean onRedirect(SlotRedirect redirect) {
+        SlotTable current = slotTable;
+        if (current == null || redirect.getVersion() >= current.getVersion()) {
+            pathDepth = Math.max(1, redirect.getPathDepth());
+            redirectedServers.put(redirect.getOwnerNodeId(), redirect.getOwnerServer());
+            redirectedOwners[redirect.getSlot()] = redirect.getOwnerNodeId();
+        }
+        latestVersion = Math.max(latestVersion, redirect.getVersion());
+        return isStale();
+    }
+
+    /**
+     * 是否知道有比缓存更新的分配表
+     */
+    public boolean isStale() {
+        SlotTable current = slotTable;
+        return current == null || current.getVersion() < latestVersion;
+    }
+
+    public SlotTable getSlotTable() {
+        return slotTable;
+    }
+}
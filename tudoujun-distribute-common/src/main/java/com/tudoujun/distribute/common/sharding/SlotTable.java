@@ -0,0 +1,145 @@
+package com.tudoujun.distribute.common.sharding;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tudoujun.distribute.model.namenode.SlotAssignment;
+
+/**
+ * @author xiaowenjun
+ * @description 槽位分配表，不可变：路径取前pathDepth级作为分片键，哈希到固定数量的槽位上，
+ * 每个槽位属于一个NameNode，按路径路由只需要一次哈希和一次数组访问。
+ * 客户端和NameNode使用同一个哈希算法，保证路由结果一致
+ * @create: 2025/03/26 10:20
+ */
+public class SlotTable {
+
+    public static final int SLOT_COUNT = 16384;
+    public static final int NO_OWNER = -1;
+
+    private final long version;
+    private final int controllerNodeId;
+    private final int pathDepth;
+    private final int[] owners;
+    private final Map<Integer, String> servers;
+
+    /**
+     * @param owners 每个槽位所属的节点id，长度为SLOT_COUNT
+     * @param servers 节点id对应的服务地址 host:port
+     */
+    public SlotTable(long version, int controllerNodeId, int pathDepth, int[] owners, Map<Integer, String> servers) {
+        if (owners.length != SLOT_COUNT) {
+            throw new IllegalArgumentException("槽位数量必须为" + SLOT_COUNT + ": " + owners.length);
+        }
+        this.version = version;
+        this.controllerNodeId = controllerNodeId;
+        this.pathDepth = Math.max(1, pathDepth);
+        this.owners = owners;
+        this.servers = Collections.unmodifiableMap(new HashMap<>(servers));
+    }
+
+    /**
+     * 计算路径所属的槽位：取前depth级路径，逐字符哈希，忽略多余的/，不创建子串
+     */
+    public static int slotOf(String path, int depth) {
+        int h = 0;
+        int level = 0;
+        boolean inComponent = false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/') {
+                inComponent = false;
+                continue;
+            }
+            if (!inComponent) {
+                if (++level > depth) {
+                    break;
+                }
+                inComponent = true;
+                h = 31 * h + '/';
+            }
+            h = 31 * h + c;
+        }
+        // murmur3的fmix32，打散相近的分片键
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (SLOT_COUNT - 1);
+    }
+
+    public int slotOf(String path) {
+        return slotOf(path, pathDepth);
+    }
+
+    public int ownerOf(int slot) {
+        return owners[slot];
+    }
+
+    public int ownerOf(String path) {
+        return owners[slotOf(path, pathDepth)];
+    }
+
+    public String serverOf(int nodeId) {
+        return servers.get(nodeId);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getControllerNodeId() {
+        return controllerNodeId;
+    }
+
+    public int getPathDepth() {
+        return pathDepth;
+    }
+
+    public Map<Integer, String> getServers() {
+        return servers;
+    }
+
+    /**
+     * 槽位分配的副本
+     */
+    public int[] copyOwners() {
+        return owners.clone();
+    }
+
+    /**
+     * 节点拥有的槽位数量
+     */
+    public int countOf(int nodeId) {
+        int count = 0;
+        for (int owner : owners) {
+            if (owner == nodeId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public SlotAssignment toProto() {
+        SlotAssignment.Builder builder = SlotAssignment.newBuilder()
+                .setVersion(version)
+                .setControllerNodeId(controllerNodeId)
+                .setPathDepth(pathDepth)
+                .putAllServers(servers);
+        for (int owner : owners) {
+            builder.addOwners(owner);
+        }
+        return builder.build();
+    }
+
+    public static SlotTable fromProto(SlotAssignment assignment) {
+        int[] owners = new int[assignment.getOwnersCount()];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = assignment.getOwners(i);
+        }
+        return new SlotTable(assignment.getVersion(), assignment.getControllerNodeId(), assignment.getPathDepth(), owners,
+                assignment.getServersMap());
+    }
+}
@@ -0,0 +1,116 @@
+package com.tudoujun.distribute.common.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.BackpressureExecutor;
+import com.tudoujun.distribute.common.network.ExecutorMode;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * @author xiaowenjun
+ * @description 处理器同步阻塞时（模拟sendSync等待其他节点响应）不同执行方式的吞吐量：
+ * 客户端一次流水线发送CONCURRENCY个请求，服务端每个请求阻塞BLOCK_IN_MS后响应。
+ * POOL受线程数限制，VIRTUAL每个请求一个虚拟线程，JDK 21以下回退到ORDERED
+ * @create: 2025/04/09 16:30
+ */
+public class BlockingHandlerBenchmark {
+
+    private static final int CONCURRENCY = 10_000;
+    private static final int ROUNDS = 3;
+    private static final int THREADS = 64;
+    private static final long BLOCK_IN_MS = 20;
+
+    public static void main(String[] args) throws Exception {
+        run(9620, ExecutorMode.POOL);
+        run(9621, ExecutorMode.VIRTUAL);
+        System.exit(0);
+    }
+
+    private static void run(int port, ExecutorMode mode) throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Blocking-Scheduler-");
+        BackpressureExecutor executor = new BackpressureExecutor("Blocking-Handler-" + mode, mode, THREADS, THREADS,
+                CONCURRENCY * 2, 0, -1, 100);
+        NetServer netServer = new NetServer("Blocking-Server", defaultScheduler);
+        netServer.addHandlers(Collections.singletonList(new BlockingHandler(executor)));
+        new Thread(() -> {
+            try {
+                netServer.bind(port);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        NetClient netClient = new NetClient("Blocking-Client", defaultScheduler, -1, 120_000);
+        netClient.connect("localhost", port);
+        netClient.ensureConnected();
+
+        long start = System.nanoTime();
+        long failed = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            List<CompletableFuture<NettyPacket>> futures = new ArrayList<>(CONCURRENCY);
+            for (int j = 0; j < CONCURRENCY; j++) {
+                futures.add(netClient.sendAsync(NettyPacket.buildPacket(new byte[16], PacketType.NAME_NODE_PEER_AWARE)));
+            }
+            for (CompletableFuture<NettyPacket> future : futures) {
+                NettyPacket response = future.join();
+                if (response.isError()) {
+                    failed++;
+                }
+                response.release();
+            }
+        }
+        long cost = System.nanoTime() - start;
+        long requests = (long) CONCURRENCY * ROUNDS;
+        System.out.printf("%s (actual %s): %.0f requests/s failed=%d rejected=%d%n", mode, executor.getMode(),
+                requests * 1e9 / cost, failed, executor.getRejectedCount());
+
+        netClient.shutdown();
+        netServer.shutdown();
+        executor.shutdown();
+        defaultScheduler.shutdown();
+    }
+
+    private static class BlockingHandler extends AbstractChannelHandler {
+
+        private final BackpressureExecutor executor;
+
+        BlockingHandler(BackpressureExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) throws Exception {
+            Thread.sleep(BLOCK_IN_MS);
+            new RequestWrapper(ctx, nettyPacket).sendResponse();
+            return true;
+        }
+
+        @Override
+        protected Object laneKey(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            return null;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        protected Executor getExecutor() {
+            return executor;
+        }
+    }
+}
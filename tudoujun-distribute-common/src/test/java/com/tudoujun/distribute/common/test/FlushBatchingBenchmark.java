@@ -0,0 +1,111 @@
+package com.tudoujun.distribute.common.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.BaseChannelInitializer;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.socket.SocketChannel;
+
+/**
+ * @author xiaowenjun
+ * @description 对比开启flush合并前后，服务端每个请求真正flush到socket的次数(近似write系统调用次数)
+ * @create: 2025/03/11 14:02
+ */
+public class FlushBatchingBenchmark {
+
+    private static final int BURST = 64;
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        run(9601, 0, 0);
+        run(9602, 32, 200);
+    }
+
+    private static void run(int port, int maxBatchSize, long maxDelayInMicros) throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("FlushBatching-Scheduler-");
+        LongAdder flushes = new LongAdder();
+        NetServer netServer = new NetServer("FlushBatching-Server", defaultScheduler);
+        BaseChannelInitializer initializer = new BaseChannelInitializer() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                super.initChannel(ch);
+                ch.pipeline().addFirst(new ChannelOutboundHandlerAdapter() {
+                    @Override
+                    public void flush(ChannelHandlerContext ctx) throws Exception {
+                        flushes.increment();
+                        ctx.flush();
+                    }
+                });
+            }
+        };
+        initializer.setFlushBatching(maxBatchSize, maxDelayInMicros);
+        netServer.setChannelInitializer(initializer);
+        netServer.addHandlers(Collections.singletonList(new EchoHandler()));
+        new Thread(() -> {
+            try {
+                netServer.bind(port);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        NetClient netClient = new NetClient("FlushBatching-Client", defaultScheduler);
+        netClient.setFlushBatching(maxBatchSize, maxDelayInMicros);
+        netClient.connect("localhost", port);
+        netClient.ensureConnected();
+
+        // 预热
+        burst(netClient, ROUNDS / 4);
+        flushes.reset();
+        long start = System.nanoTime();
+        burst(netClient, ROUNDS);
+        long cost = System.nanoTime() - start;
+        long requests = (long) BURST * ROUNDS;
+        System.out.printf("maxBatchSize=%d maxDelay=%dus: server flushes/request=%.3f, %.0f requests/s%n",
+                maxBatchSize, maxDelayInMicros, (double) flushes.sum() / requests, requests * 1e9 / cost);
+
+        netClient.shutdown();
+        netServer.shutdown();
+        defaultScheduler.shutdown();
+    }
+
+    private static void burst(NetClient netClient, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            List<CompletableFuture<NettyPacket>> futures = new ArrayList<>(BURST);
+            for (int j = 0; j < BURST; j++) {
+                futures.add(netClient.sendAsync(NettyPacket.buildPacket(new byte[32], PacketType.NAME_NODE_PEER_AWARE)));
+            }
+            for (CompletableFuture<NettyPacket> future : futures) {
+                future.join().release();
+            }
+        }
+    }
+
+    private static class EchoHandler extends AbstractChannelHandler {
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            new RequestWrapper(ctx, nettyPacket).sendResponse();
+            return true;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.tudoujun.distribute.common.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.tudoujun.distribute.common.network.InFlightTable;
+
+/**
+ * @author xiaowenjun
+ * @description 对比ConcurrentHashMap<Long, V>和InFlightTable保存等待响应的请求：
+ * 模拟一个连接上始终有WINDOW个请求在等待响应，每发送一个新请求就完成最早的请求，统计每秒操作数和每个请求分配的字节数。
+ * 开始前先用随机操作和HashMap对比检查InFlightTable的正确性
+ * @create: 2025/04/09 17:45
+ */
+public class InFlightTableBenchmark {
+
+    private static final int WINDOW = 1024;
+    private static final int REQUESTS = 5_000_000;
+    private static final Object PROMISE = new Object();
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        verify();
+        for (int i = 0; i < 3; i++) {
+            runMap(new ConcurrentHashMap<>());
+            runTable(new InFlightTable<>());
+        }
+    }
+
+    private static void verify() {
+        InFlightTable<Long> table = new InFlightTable<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(17);
+        for (int i = 0; i < 2_000_000; i++) {
+            // key范围比较小，让插入、覆盖、删除和扩容缩容都频繁发生
+            long key = 1 + random.nextInt(i < 1_000_000 ? 4096 : 64);
+            Long value = (long) i;
+            switch (random.nextInt(4)) {
+                case 0, 1 -> check(table.put(key, value), expected.put(key, value));
+                case 2 -> check(table.remove(key), expected.remove(key));
+                default -> check(table.get(key), expected.get(key));
+            }
+        }
+        if (table.size() != expected.size()) {
+            throw new IllegalStateException("size不一致: " + table.size() + " != " + expected.size());
+        }
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            // 值不是同一个对象时不删除
+            if (table.remove(entry.getKey(), Long.valueOf(-1)) || !table.remove(entry.getKey(), entry.getValue())) {
+                throw new IllegalStateException("remove(key, value)结果不正确: " + entry.getKey());
+            }
+        }
+        if (table.size() != 0) {
+            throw new IllegalStateException("全部删除后size不为0: " + table.size());
+        }
+        System.out.println("verify ok");
+    }
+
+    private static void check(Long actual, Long expected) {
+        if (actual != expected && (actual == null || !actual.equals(expected))) {
+            throw new IllegalStateException(actual + " != " + expected);
+        }
+    }
+
+    private static void runMap(Map<Long, Object> map) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long sequence = 1;
+        for (int i = 0; i < REQUESTS; i++) {
+            map.put(sequence, PROMISE);
+            if (sequence > WINDOW) {
+                sink = map.remove(sequence - WINDOW);
+            }
+            sequence++;
+        }
+        report("ConcurrentHashMap", start, bytes);
+    }
+
+    private static void runTable(InFlightTable<Object> table) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long sequence = 1;
+        for (int i = 0; i < REQUESTS; i++) {
+            table.put(sequence, PROMISE);
+            if (sequence > WINDOW) {
+                sink = table.remove(sequence - WINDOW);
+            }
+            sequence++;
+        }
+        report("InFlightTable", start, bytes);
+    }
+
+    private static void report(String name, long start, long bytes) {
+        long cost = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytes;
+        System.out.printf("%s: %.0f requests/s allocated=%.1f bytes/request%n", name, REQUESTS * 1e9 / cost,
+                (double) allocated / REQUESTS);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
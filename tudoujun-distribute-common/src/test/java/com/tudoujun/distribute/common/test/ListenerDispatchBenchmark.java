@@ -0,0 +1,116 @@
+package com.tudoujun.distribute.common.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.KeyedSerialExecutor;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.NettyPacketListener;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * @author xiaowenjun
+ * @description 一个连接上流水线发送请求，对比客户端不同消息监听器下每秒收到的响应数：
+ * 没有监听器、很快的监听器、每条消息阻塞SLOW_LISTENER_IN_MICROS的慢监听器在网络线程回调，以及慢监听器交给执行器回调
+ * @create: 2025/04/09 17:00
+ */
+public class ListenerDispatchBenchmark {
+
+    private static final int PORT = 9630;
+    private static final int BURST = 256;
+    private static final int ROUNDS = 400;
+    private static final long SLOW_LISTENER_IN_MICROS = 50;
+
+    public static void main(String[] args) throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Listener-Scheduler-");
+        NetServer netServer = new NetServer("Listener-Server", defaultScheduler);
+        netServer.addHandlers(Collections.singletonList(new EchoHandler()));
+        new Thread(() -> {
+            try {
+                netServer.bind(PORT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        LongAdder received = new LongAdder();
+        run(defaultScheduler, "no listener", null, false, received);
+        run(defaultScheduler, "fast listener", requestWrapper -> received.increment(), false, received);
+        NettyPacketListener slow = requestWrapper -> {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(SLOW_LISTENER_IN_MICROS));
+            received.increment();
+        };
+        run(defaultScheduler, "slow listener inline", slow, false, received);
+        run(defaultScheduler, "slow listener offloaded", slow, true, received);
+        System.exit(0);
+    }
+
+    private static void run(DefaultScheduler defaultScheduler, String name, NettyPacketListener listener, boolean offload,
+                            LongAdder received) throws Exception {
+        NetClient netClient = new NetClient("Listener-Client", defaultScheduler, -1, 60_000);
+        KeyedSerialExecutor listenerExecutor = null;
+        if (listener != null) {
+            netClient.addNettyPacketListener(listener);
+        }
+        if (offload) {
+            listenerExecutor = new KeyedSerialExecutor("Listener-Callback", 1);
+            netClient.setListenerExecutor(listenerExecutor);
+        }
+        netClient.connect("localhost", PORT);
+        netClient.ensureConnected();
+        // 预热
+        burst(netClient, ROUNDS / 4);
+        received.reset();
+
+        long start = System.nanoTime();
+        burst(netClient, ROUNDS);
+        long cost = System.nanoTime() - start;
+        long responses = (long) BURST * ROUNDS;
+        System.out.printf("%s: %.0f responses/s listenerCalls=%d%n", name, responses * 1e9 / cost, received.sum());
+
+        netClient.shutdown();
+        if (listenerExecutor != null) {
+            listenerExecutor.shutdown();
+        }
+    }
+
+    private static void burst(NetClient netClient, int rounds) {
+        List<CompletableFuture<NettyPacket>> futures = new ArrayList<>(BURST);
+        for (int i = 0; i < rounds; i++) {
+            futures.clear();
+            for (int j = 0; j < BURST; j++) {
+                futures.add(netClient.sendAsync(NettyPacket.buildPacket(new byte[32], PacketType.NAME_NODE_PEER_AWARE)));
+            }
+            for (CompletableFuture<NettyPacket> future : futures) {
+                future.join().release();
+            }
+        }
+    }
+
+    private static class EchoHandler extends AbstractChannelHandler {
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            new RequestWrapper(ctx, nettyPacket).sendResponse();
+            return true;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.tudoujun.distribute.common.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.common.NettyPacketHeader;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * @author xiaowenjun
+ * @description 滚动升级期间新旧版本节点混合：旧版本节点发起的请求序列号形如 name-5，
+ * 数字部分和本节点正在等待响应的请求序列号相同时，旧版本的请求要交给监听器处理，本节点的请求要等到真正的响应
+ * @create: 2025/04/10 10:00
+ */
+public class MixedVersionSequenceTest {
+
+    private static final int PORT = 9640;
+    private static final String OLD_PEER_PREFIX = "NameNode-PeerNode-2-1-";
+    private static final String KEY_SEQUENCE = "sequence";
+    private static final String KEY_PACKET_TYPE = "packetType";
+
+    public static void main(String[] args) throws Exception {
+        checkParse();
+        checkConnection();
+        System.exit(0);
+    }
+
+    /**
+     * 只看解包结果：旧版本请求、旧版本响应、新版本节点用旧版本协议发出的请求和响应
+     */
+    private static void checkParse() throws Exception {
+        NettyPacket oldRequest = parse(legacyFrame(OLD_PEER_PREFIX + 5, "peer-request"));
+        check(!oldRequest.isResponse() && oldRequest.getSequence() == 5, "旧版本请求被当成了响应");
+        oldRequest.release();
+
+        NettyPacket oldResponse = parse(legacyFrame("5", "local-response"));
+        check(oldResponse.isResponse() && oldResponse.getSequence() == 5, "旧版本响应没有识别出来");
+        oldResponse.release();
+
+        for (boolean response : new boolean[]{false, true}) {
+            NettyPacket packet = NettyPacket.buildPacket(new byte[0], PacketType.NAME_NODE_PEER_AWARE);
+            packet.setSequence(5);
+            packet.setResponse(response);
+            ByteBuf buf = Unpooled.buffer();
+            packet.write(buf, NettyPacket.WIRE_VERSION_LEGACY);
+            NettyPacket parsed = parse(buf);
+            check(parsed.isResponse() == response, "新版本节点旧协议的响应标识不正确: response=" + response);
+            parsed.release();
+        }
+        System.out.println("parse ok");
+    }
+
+    /**
+     * 模拟的旧版本节点收到请求后，先用相同的数字发起自己的请求，再返回真正的响应
+     */
+    private static void checkConnection() throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Mixed-Scheduler-");
+        OldPeerHandler oldPeer = new OldPeerHandler();
+        NetServer netServer = new NetServer("Mixed-Server", defaultScheduler);
+        netServer.addHandlers(Collections.singletonList(oldPeer));
+        new Thread(() -> {
+            try {
+                netServer.bind(PORT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        CompletableFuture<String> peerRequest = new CompletableFuture<>();
+        NetClient netClient = new NetClient("Mixed-Client", defaultScheduler, -1, 5000);
+        netClient.addNettyPacketListener(requestWrapper -> {
+            NettyPacket request = requestWrapper.getRequest();
+            if (!request.isResponse()) {
+                peerRequest.complete(new String(request.getBody(), StandardCharsets.UTF_8));
+                requestWrapper.sendResponse();
+            }
+        });
+        netClient.connect("localhost", PORT);
+        netClient.ensureConnected();
+
+        NettyPacket request = NettyPacket.buildPacket("local-request".getBytes(StandardCharsets.UTF_8),
+                PacketType.NAME_NODE_PEER_AWARE);
+        CompletableFuture<NettyPacket> future = netClient.sendAsync(request);
+        long sequence = request.getSequence();
+        NettyPacket response = future.get(5, TimeUnit.SECONDS);
+        String responseBody = new String(response.getBody(), StandardCharsets.UTF_8);
+        response.release();
+
+        check("local-response".equals(responseBody), "本节点的请求匹配到了旧版本节点的请求: " + responseBody);
+        check("peer-request".equals(peerRequest.get(5, TimeUnit.SECONDS)), "旧版本节点的请求没有交给监听器");
+        String echoed = oldPeer.peerResponseSequence.get(5, TimeUnit.SECONDS);
+        check((OLD_PEER_PREFIX + sequence).equals(echoed), "旧版本节点收到的响应序列号不正确: " + echoed);
+        System.out.printf("connection ok: sequence=%d response=%s peerRequest=%s echoed=%s%n", sequence, responseBody,
+                peerRequest.get(), echoed);
+
+        netClient.shutdown();
+        netServer.shutdown();
+        defaultScheduler.shutdown();
+    }
+
+    /**
+     * 按旧版本的格式组装数据帧：请求头只有包类型和字符串序列号，没有响应标识
+     */
+    private static ByteBuf legacyFrame(String sequence, String body) {
+        Map<String, String> header = new HashMap<>();
+        header.put(KEY_PACKET_TYPE, String.valueOf(PacketType.NAME_NODE_PEER_AWARE.getValue()));
+        header.put(KEY_SEQUENCE, sequence);
+        byte[] headerBytes = NettyPacketHeader.newBuilder().putAllHeaders(header).build().toByteArray();
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(headerBytes.length);
+        buf.writeBytes(headerBytes);
+        buf.writeInt(bodyBytes.length);
+        buf.writeBytes(bodyBytes);
+        return buf;
+    }
+
+    private static NettyPacket parse(ByteBuf buf) throws Exception {
+        try {
+            return NettyPacket.parsePacket(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static class OldPeerHandler extends AbstractChannelHandler {
+
+        private final CompletableFuture<String> peerResponseSequence = new CompletableFuture<>();
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            if (nettyPacket.isResponse()) {
+                peerResponseSequence.complete(nettyPacket.getHeader().get(KEY_SEQUENCE));
+                return true;
+            }
+            String sequence = String.valueOf(nettyPacket.getSequence());
+            ctx.write(legacyFrame(OLD_PEER_PREFIX + sequence, "peer-request"));
+            ctx.writeAndFlush(legacyFrame(sequence, "local-response"));
+            return true;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.tudoujun.distribute.common.test;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * @author xiaowenjun
+ * @description 对比旧版本protobuf请求头和二进制请求头的编解码耗时
+ * @create: 2025/03/06 10:21
+ */
+public class NettyPacketCodecBenchmark {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        NettyPacket packet = NettyPacket.buildPacket(new byte[64], PacketType.NAME_NODE_RAFT_APPEND_ENTRIES);
+        packet.setSequence(123456789L);
+        packet.setNodeId(3);
+        packet.setTimeoutInMs(3000);
+
+        for (byte version : new byte[]{NettyPacket.WIRE_VERSION_LEGACY, NettyPacket.WIRE_VERSION_BINARY}) {
+            run(packet, version, WARMUP);
+            long cost = run(packet, version, ITERATIONS);
+            System.out.printf("wireVersion=%d write+parsePacket: %.1f ns/op%n", version, (double) cost / ITERATIONS);
+        }
+    }
+
+    private static long run(NettyPacket packet, byte version, int iterations) throws Exception {
+        ByteBuf buf = Unpooled.buffer(256);
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            buf.clear();
+            packet.write(buf, version);
+            NettyPacket parsed = NettyPacket.parsePacket(buf);
+            checksum += parsed.getPacketType() + parsed.getSequence() + parsed.getNodeId() + parsed.getTimeoutInMs();
+        }
+        long cost = System.nanoTime() - start;
+        if (checksum == 0) {
+            System.out.println("unexpected checksum");
+        }
+        buf.release();
+        return cost;
+    }
+}
@@ -0,0 +1,146 @@
+package com.tudoujun.distribute.common.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.BackpressureExecutor;
+import com.tudoujun.distribute.common.network.ExecutorMode;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+
+/**
+ * @author xiaowenjun
+ * @description 对比两种执行方式下处理器的吞吐量和同一个连接上请求的乱序次数：
+ * CONNECTIONS个连接各自流水线发送带递增序号的请求，服务端每个请求做一点计算后响应，检查每个连接上收到的序号是否递增
+ * @create: 2025/04/09 15:00
+ */
+public class OrderedExecutorBenchmark {
+
+    private static final int CONNECTIONS = 16;
+    private static final int BURST = 256;
+    private static final int ROUNDS = 200;
+    private static final int THREADS = 8;
+    private static final AttributeKey<long[]> LAST_SEQ = AttributeKey.valueOf("OrderedExecutorBenchmark.lastSeq");
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        run(9610, ExecutorMode.POOL);
+        run(9611, ExecutorMode.ORDERED);
+        System.exit(0);
+    }
+
+    private static void run(int port, ExecutorMode mode) throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Ordered-Scheduler-");
+        BackpressureExecutor executor = new BackpressureExecutor("Ordered-Handler-" + mode, mode, THREADS, THREADS,
+                CONNECTIONS * BURST * 2, 0, -1, 100);
+        SeqHandler handler = new SeqHandler(executor);
+        NetServer netServer = new NetServer("Ordered-Server", defaultScheduler);
+        netServer.addHandlers(Collections.singletonList(handler));
+        new Thread(() -> {
+            try {
+                netServer.bind(port);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        List<NetClient> clients = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            NetClient netClient = new NetClient("Ordered-Client-" + i, defaultScheduler);
+            netClient.connect("localhost", port);
+            netClient.ensureConnected();
+            clients.add(netClient);
+        }
+
+        long[] seqs = new long[CONNECTIONS];
+        // 预热
+        burst(clients, seqs, ROUNDS / 4);
+        handler.outOfOrder.reset();
+        long start = System.nanoTime();
+        burst(clients, seqs, ROUNDS);
+        long cost = System.nanoTime() - start;
+        long requests = (long) CONNECTIONS * BURST * ROUNDS;
+        System.out.printf("%s: %.0f requests/s outOfOrder=%d rejected=%d%n", mode, requests * 1e9 / cost,
+                handler.outOfOrder.sum(), executor.getRejectedCount());
+
+        for (NetClient netClient : clients) {
+            netClient.shutdown();
+        }
+        netServer.shutdown();
+        executor.shutdown();
+        defaultScheduler.shutdown();
+    }
+
+    private static void burst(List<NetClient> clients, long[] seqs, int rounds) {
+        List<CompletableFuture<NettyPacket>> futures = new ArrayList<>(BURST * clients.size());
+        for (int i = 0; i < rounds; i++) {
+            futures.clear();
+            for (int j = 0; j < BURST; j++) {
+                for (int c = 0; c < clients.size(); c++) {
+                    byte[] body = ByteBuffer.allocate(8).putLong(++seqs[c]).array();
+                    futures.add(clients.get(c).sendAsync(NettyPacket.buildPacket(body, PacketType.NAME_NODE_PEER_AWARE)));
+                }
+            }
+            for (CompletableFuture<NettyPacket> future : futures) {
+                future.join().release();
+            }
+        }
+    }
+
+    private static class SeqHandler extends AbstractChannelHandler {
+
+        private final BackpressureExecutor executor;
+        private final LongAdder outOfOrder = new LongAdder();
+
+        SeqHandler(BackpressureExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            long seq = nettyPacket.getBodyBuf().getLong(nettyPacket.getBodyBuf().readerIndex());
+            long[] lastSeq = ctx.channel().attr(LAST_SEQ).setIfAbsent(new long[1]);
+            if (lastSeq == null) {
+                lastSeq = ctx.channel().attr(LAST_SEQ).get();
+            }
+            synchronized (lastSeq) {
+                if (seq < lastSeq[0]) {
+                    outOfOrder.increment();
+                }
+                lastSeq[0] = Math.max(lastSeq[0], seq);
+            }
+            // 模拟一点处理开销
+            long hash = seq;
+            for (int i = 0; i < 2000; i++) {
+                hash = hash * 31 + i;
+            }
+            sink = hash;
+            new RequestWrapper(ctx, nettyPacket).sendResponse();
+            return true;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        protected Executor getExecutor() {
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.tudoujun.distribute.common.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.network.TransportType;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.epoll.Epoll;
+
+/**
+ * @author xiaowenjun
+ * @description 对比NIO和epoll传输层在本机回环网络上的请求吞吐量
+ * @create: 2025/03/12 11:05
+ */
+public class TransportBenchmark {
+
+    private static final int BURST = 64;
+    private static final int ROUNDS = 3000;
+    private static final int BODY_SIZE = 512;
+
+    public static void main(String[] args) throws Exception {
+        run(9611, TransportType.NIO);
+        if (Epoll.isAvailable()) {
+            run(9612, TransportType.EPOLL);
+        } else {
+            System.out.println("epoll is unavailable: " + Epoll.unavailabilityCause());
+        }
+    }
+
+    private static void run(int port, TransportType transportType) throws Exception {
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Transport-Scheduler-");
+        NetServer netServer = new NetServer("Transport-Server", defaultScheduler, 1, transportType);
+        netServer.addHandlers(Collections.singletonList(new EchoHandler()));
+        new Thread(() -> {
+            try {
+                netServer.bind(port);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+
+        NetClient netClient = new NetClient("Transport-Client", defaultScheduler, -1, 3000, transportType);
+        netClient.connect("localhost", port);
+        netClient.ensureConnected();
+
+        // 预热
+        burst(netClient, ROUNDS / 4);
+        long start = System.nanoTime();
+        burst(netClient, ROUNDS);
+        long cost = System.nanoTime() - start;
+        long requests = (long) BURST * ROUNDS;
+        System.out.printf("transport=%s: %.0f requests/s, %.1f us/request%n",
+                transportType, requests * 1e9 / cost, cost / 1e3 / requests);
+
+        netClient.shutdown();
+        netServer.shutdown();
+        defaultScheduler.shutdown();
+    }
+
+    private static void burst(NetClient netClient, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            List<CompletableFuture<NettyPacket>> futures = new ArrayList<>(BURST);
+            for (int j = 0; j < BURST; j++) {
+                futures.add(netClient.sendAsync(NettyPacket.buildPacket(new byte[BODY_SIZE], PacketType.NAME_NODE_PEER_AWARE)));
+            }
+            for (CompletableFuture<NettyPacket> future : futures) {
+                future.join().release();
+            }
+        }
+    }
+
+    private static class EchoHandler extends AbstractChannelHandler {
+
+        @Override
+        protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+            new RequestWrapper(ctx, nettyPacket).sendResponse();
+            return true;
+        }
+
+        @Override
+        protected Set<Integer> interestPackageTypes() {
+            return Collections.emptySet();
+        }
+    }
+}
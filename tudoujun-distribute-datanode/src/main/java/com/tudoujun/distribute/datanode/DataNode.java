@@ -0,0 +1,56 @@
+package com.tudoujun.distribute.datanode;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.datanode.config.DataNodeConfig;
+import com.tudoujun.distribute.datanode.namenode.NameNodeClient;
+import com.tudoujun.distribute.datanode.server.DataNodeApis;
+import com.tudoujun.distribute.datanode.server.DataNodeServer;
+import com.tudoujun.distribute.datanode.storage.BlockStorage;
+
+/**
+ * @author xiaowenjun
+ * @description
+ * @create: 2025/04/08 15:20
+ */
+public class DataNode {
+
+    private final DefaultScheduler defaultScheduler;
+    private final BlockStorage blockStorage;
+    private final NameNodeClient nameNodeClient;
+    private final DataNodeServer dataNodeServer;
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    public DataNode(DataNodeConfig dataNodeConfig) {
+        this.defaultScheduler = new DefaultScheduler("DataNode-Scheduler-");
+        this.blockStorage = new BlockStorage(new File(dataNodeConfig.getStorageDir()));
+        this.nameNodeClient = new NameNodeClient(dataNodeConfig, blockStorage, defaultScheduler);
+        this.dataNodeServer = new DataNodeServer(dataNodeConfig, defaultScheduler, new DataNodeApis(dataNodeConfig, blockStorage));
+    }
+
+    /**
+     * 加载本地数据块后开始向NameNode注册和汇报，然后绑定端口，阻塞到服务关闭
+     */
+    public void start() throws Exception {
+        if (started.compareAndSet(false, true)) {
+            blockStorage.load();
+            nameNodeClient.start();
+            dataNodeServer.start();
+        }
+    }
+
+    public BlockStorage getBlockStorage() {
+        return blockStorage;
+    }
+
+    public void shutdown() {
+        if (started.compareAndSet(true, false)) {
+            nameNodeClient.shutdown();
+            dataNodeServer.shutdown();
+            defaultScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.tudoujun.distribute.datanode.config;
+
+import com.tudoujun.distribute.common.network.ExecutorMode;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * @author xiaowenjun
+ * @description
+ * @create: 2025/04/08 14:00
+ */
+@Data
+@Builder
+public class DataNodeConfig {
+
+    private int dataNodeId;
+    /**
+     * 注册到NameNode的主机名，客户端通过它访问DataNode
+     */
+    @Builder.Default
+    private String hostname = "localhost";
+    private int port;
+    /**
+     * 所属的NameNode，格式为 hostname:port
+     */
+    private String nameNodeServer;
+    /**
+     * 数据块存放的目录
+     */
+    private String storageDir;
+
+    private int dataNodeApiCoreSize;
+    private int dataNodeApiMaximumPoolSize;
+    private int dataNodeApiQueueSize;
+    /**
+     * 处理读写请求的方式，读写数据块会阻塞在磁盘IO上，JDK 21+可以使用VIRTUAL，不用按并发量调整线程数
+     */
+    @Builder.Default
+    private ExecutorMode dataNodeApiExecutorMode = ExecutorMode.POOL;
+
+    /**
+     * 向NameNode发送心跳的间隔
+     */
+    @Builder.Default
+    private long heartbeatIntervalInMs = 3000;
+    /**
+     * 增量汇报：最多攒多久发送一次新增和删除的数据块
+     */
+    @Builder.Default
+    private long incrementalReportIntervalInMs = 1000;
+    /**
+     * 增量汇报：攒够多少个变化就立即发送
+     */
+    @Builder.Default
+    private int incrementalReportMaxSize = 4096;
+    /**
+     * 全量汇报的间隔，注册或者重新注册后会立即发送一次
+     */
+    @Builder.Default
+    private long fullReportIntervalInMs = 6 * 60 * 60 * 1000L;
+    /**
+     * 发送全量汇报的超时时间
+     */
+    @Builder.Default
+    private int fullReportTimeoutInMs = 60_000;
+}
@@ -0,0 +1,231 @@
+package com.tudoujun.distribute.datanode.namenode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.block.BlockReportCodec;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.common.utils.DefaultThread;
+import com.tudoujun.distribute.datanode.config.DataNodeConfig;
+import com.tudoujun.distribute.datanode.storage.BlockListener;
+import com.tudoujun.distribute.datanode.storage.BlockStorage;
+import com.tudoujun.distribute.model.datanode.DataNodeHeartbeatRequest;
+import com.tudoujun.distribute.model.datanode.DataNodeHeartbeatResponse;
+import com.tudoujun.distribute.model.datanode.DataNodeRegisterRequest;
+import com.tudoujun.distribute.model.datanode.FullBlockReport;
+import com.tudoujun.distribute.model.datanode.IncrementalBlockReport;
+import com.tudoujun.distribute.model.datanode.ReportedBlock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 和所属NameNode通信：注册、心跳、增量汇报和全量汇报都在同一个线程里串行发送，收到响应后才发送下一个，
+ * NameNode按发送顺序处理同一个DataNode的汇报。
+ * 1. 注册成功后立即发送一次全量汇报，之后每隔fullReportIntervalInMs发送一次，全量汇报压缩后分块发送；
+ * 2. 数据块的新增和删除先记录下来，攒够incrementalReportMaxSize个或者等待incrementalReportIntervalInMs后合并发送，
+ * 同一个数据块先新增再删除时只汇报最后的状态，发送失败时保留到下一次；
+ * 3. 心跳响应要求重新注册时（NameNode重启或者判定DataNode过期）重新注册并发送全量汇报
+ * @create: 2025/04/08 14:40
+ */
+@Slf4j
+public class NameNodeClient implements BlockListener, Runnable {
+
+    private static final long REQUEST_TIMEOUT_IN_MS = 10_000;
+
+    private final DataNodeConfig dataNodeConfig;
+    private final BlockStorage blockStorage;
+    private final NetClient netClient;
+    /**
+     * 还没有汇报的变化，块id对应新增后的长度，删除时为-1
+     */
+    private Map<Long, Long> pendingChanges = new LinkedHashMap<>();
+    private volatile boolean running = true;
+    private boolean registered;
+    private long nextHeartbeatTime;
+    private long nextFullReportTime;
+    private Thread thread;
+
+    public NameNodeClient(DataNodeConfig dataNodeConfig, BlockStorage blockStorage, DefaultScheduler defaultScheduler) {
+        this.dataNodeConfig = dataNodeConfig;
+        this.blockStorage = blockStorage;
+        this.netClient = new NetClient("DataNode-NameNode-Client", defaultScheduler, -1, REQUEST_TIMEOUT_IN_MS);
+        this.nextHeartbeatTime = System.nanoTime();
+        this.nextFullReportTime = nextHeartbeatTime;
+        this.blockStorage.addListener(this);
+    }
+
+    public void start() {
+        String[] server = dataNodeConfig.getNameNodeServer().split(":");
+        netClient.connect(server[0], Integer.parseInt(server[1]));
+        thread = new DefaultThread("DataNode-NameNode-Actor", this, true);
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        netClient.shutdown();
+    }
+
+    @Override
+    public synchronized void onBlockReceived(long blockId, long length) {
+        addChange(blockId, length);
+    }
+
+    @Override
+    public synchronized void onBlockDeleted(long blockId) {
+        addChange(blockId, -1L);
+    }
+
+    private void addChange(long blockId, long length) {
+        pendingChanges.put(blockId, length);
+        if (pendingChanges.size() >= dataNodeConfig.getIncrementalReportMaxSize()) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                netClient.ensureConnected();
+                if (!registered) {
+                    register();
+                    registered = true;
+                    nextFullReportTime = System.nanoTime();
+                }
+                long now = System.nanoTime();
+                if (now - nextHeartbeatTime >= 0) {
+                    heartbeat();
+                    nextHeartbeatTime = now + TimeUnit.MILLISECONDS.toNanos(dataNodeConfig.getHeartbeatIntervalInMs());
+                }
+                if (registered && now - nextFullReportTime >= 0) {
+                    fullReport();
+                    nextFullReportTime = now + TimeUnit.MILLISECONDS.toNanos(dataNodeConfig.getFullReportIntervalInMs());
+                }
+                if (registered) {
+                    incrementalReport();
+                }
+                awaitChanges();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.warn("和NameNode通信失败，稍后重试: [error={}]", e.getMessage());
+                try {
+                    Thread.sleep(dataNodeConfig.getHeartbeatIntervalInMs());
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 等到下一次心跳、攒够增量汇报的数量或者到达增量汇报的间隔
+     */
+    private synchronized void awaitChanges() throws InterruptedException {
+        long waitInMs = Math.min(dataNodeConfig.getIncrementalReportIntervalInMs(),
+                TimeUnit.NANOSECONDS.toMillis(nextHeartbeatTime - System.nanoTime()));
+        if (waitInMs > 0 && pendingChanges.size() < dataNodeConfig.getIncrementalReportMaxSize()) {
+            wait(waitInMs);
+        }
+    }
+
+    private void register() throws Exception {
+        call(PacketType.DATA_NODE_REGISTER, DataNodeRegisterRequest.newBuilder()
+                .setDataNodeId(dataNodeConfig.getDataNodeId())
+                .setHostname(dataNodeConfig.getHostname())
+                .setPort(dataNodeConfig.getPort())
+                .setCapacity(blockStorage.getCapacity())
+                .setUsed(blockStorage.getUsed())
+                .build(), false);
+        log.info("注册到NameNode: [dataNodeId={} nameNode={}]", dataNodeConfig.getDataNodeId(), dataNodeConfig.getNameNodeServer());
+    }
+
+    private void heartbeat() throws Exception {
+        byte[] response = call(PacketType.DATA_NODE_HEARTBEAT, DataNodeHeartbeatRequest.newBuilder()
+                .setDataNodeId(dataNodeConfig.getDataNodeId())
+                .setCapacity(blockStorage.getCapacity())
+                .setUsed(blockStorage.getUsed())
+                .setBlockCount(blockStorage.getBlockCount())
+                .build(), false);
+        if (DataNodeHeartbeatResponse.parseFrom(response).getReregister()) {
+            log.warn("NameNode要求重新注册: [dataNodeId={}]", dataNodeConfig.getDataNodeId());
+            registered = false;
+        }
+    }
+
+    private void incrementalReport() throws Exception {
+        Map<Long, Long> changes;
+        synchronized (this) {
+            if (pendingChanges.isEmpty()) {
+                return;
+            }
+            changes = pendingChanges;
+            pendingChanges = new LinkedHashMap<>();
+        }
+        IncrementalBlockReport.Builder report = IncrementalBlockReport.newBuilder()
+                .setDataNodeId(dataNodeConfig.getDataNodeId());
+        for (Map.Entry<Long, Long> entry : changes.entrySet()) {
+            if (entry.getValue() < 0) {
+                report.addDeleted(entry.getKey());
+            } else {
+                report.addReceived(ReportedBlock.newBuilder().setBlockId(entry.getKey()).setLength(entry.getValue()));
+            }
+        }
+        try {
+            call(PacketType.DATA_NODE_INCREMENTAL_BLOCK_REPORT, report.build(), false);
+        } catch (Exception e) {
+            // 发送失败的变化放回去，之后发生的变化更新，覆盖旧的状态
+            synchronized (this) {
+                changes.putAll(pendingChanges);
+                pendingChanges = changes;
+            }
+            throw e;
+        }
+    }
+
+    private void fullReport() throws Exception {
+        long start = System.nanoTime();
+        BlockStorage.BlockSnapshot snapshot = blockStorage.snapshot();
+        byte[] blocks = BlockReportCodec.encode(snapshot.blockIds(), snapshot.lengths(), snapshot.count());
+        call(PacketType.DATA_NODE_FULL_BLOCK_REPORT, FullBlockReport.newBuilder()
+                .setDataNodeId(dataNodeConfig.getDataNodeId())
+                .setBlockCount(snapshot.count())
+                .setBlocks(ByteString.copyFrom(blocks))
+                .build(), true);
+        log.info("全量汇报完成: [dataNodeId={} blocks={} compressedBytes={} cost={}ms]", dataNodeConfig.getDataNodeId(),
+                snapshot.count(), blocks.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 同步发送请求并返回响应的消息体，NameNode返回异常时抛出异常；全量汇报分块发送，使用单独的超时时间
+     */
+    private byte[] call(PacketType packetType, MessageLite body, boolean fullReport) throws Exception {
+        NettyPacket request = NettyPacket.buildPacket(body.toByteArray(), packetType);
+        if (fullReport) {
+            request.setChunkedRequest(true);
+            request.setTimeoutInMs(dataNodeConfig.getFullReportTimeoutInMs());
+        }
+        NettyPacket response = netClient.sendSync(request);
+        try {
+            if (response.isError()) {
+                // NameNode不认识该DataNode时重新注册
+                registered = false;
+                throw new IllegalStateException(packetType.getDescription() + "失败: " + response.getError());
+            }
+            return response.getBody();
+        } finally {
+            response.release();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.tudoujun.distribute.datanode.server;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.BackpressureExecutor;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.datanode.config.DataNodeConfig;
+import com.tudoujun.distribute.datanode.storage.BlockStorage;
+import com.tudoujun.distribute.model.datanode.ReadBlockRequest;
+import com.tudoujun.distribute.model.datanode.WriteBlockRequest;
+
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 处理客户端读写数据块的请求，写入的请求体超过分块大小时由网络层合并后再交给这里处理，
+ * 读取的响应在客户端支持时分块返回
+ * @create: 2025/04/08 15:10
+ */
+@Slf4j
+public class DataNodeApis extends AbstractChannelHandler {
+
+    private final DataNodeConfig dataNodeConfig;
+    private final BlockStorage blockStorage;
+    private static final long BUSY_RETRY_AFTER_IN_MS = 100;
+
+    private final BackpressureExecutor executor;
+
+    public DataNodeApis(DataNodeConfig dataNodeConfig, BlockStorage blockStorage) {
+        this.dataNodeConfig = dataNodeConfig;
+        this.blockStorage = blockStorage;
+        this.executor = new BackpressureExecutor("DataNode-Api", dataNodeConfig.getDataNodeApiExecutorMode(),
+                dataNodeConfig.getDataNodeApiCoreSize(), dataNodeConfig.getDataNodeApiMaximumPoolSize(),
+                dataNodeConfig.getDataNodeApiQueueSize(), 0, -1, BUSY_RETRY_AFTER_IN_MS);
+    }
+
+    @Override
+    protected boolean handlePackage(ChannelHandlerContext ctx, NettyPacket request) throws Exception {
+        RequestWrapper requestWrapper = new RequestWrapper(ctx, request, dataNodeConfig.getDataNodeId(), null);
+        PacketType packetType = PacketType.of(request.getPacketType());
+        try {
+            switch (packetType) {
+                case WRITE_BLOCK -> handleWriteBlockRequest(requestWrapper);
+                case READ_BLOCK -> handleReadBlockRequest(requestWrapper);
+                default -> requestWrapper.sendError("不支持的请求类型: " + packetType);
+            }
+        } catch (Exception e) {
+            log.error("处理数据块请求失败: [request={}]", packetType, e);
+            requestWrapper.sendError(e.getMessage());
+        }
+        return true;
+    }
+
+    private void handleWriteBlockRequest(RequestWrapper requestWrapper) throws Exception {
+        WriteBlockRequest request = WriteBlockRequest.parseFrom(requestWrapper.getRequest().getBodyBuf().nioBuffer());
+        blockStorage.writeBlock(request.getBlockId(), request.getData().asReadOnlyByteBuffer());
+        requestWrapper.sendResponse();
+    }
+
+    private void handleReadBlockRequest(RequestWrapper requestWrapper) throws Exception {
+        ReadBlockRequest request = ReadBlockRequest.parseFrom(requestWrapper.getRequest().getBody());
+        byte[] data = blockStorage.readBlock(request.getBlockId());
+        if (data == null) {
+            requestWrapper.sendError("数据块不存在: " + request.getBlockId());
+            return;
+        }
+        requestWrapper.sendResponse(data);
+    }
+
+    @Override
+    protected Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 数据块的读写之间没有顺序要求，同一个连接上的请求也可以并行处理
+     */
+    @Override
+    protected Object laneKey(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+        return null;
+    }
+
+    @Override
+    protected Set<Integer> interestPackageTypes() {
+        return Set.of(PacketType.WRITE_BLOCK.getValue(), PacketType.READ_BLOCK.getValue());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,39 @@
+package com.tudoujun.distribute.datanode.server;
+
+import java.util.Collections;
+
+import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.datanode.config.DataNodeConfig;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description
+ * @create: 2025/04/08 15:00
+ */
+@Slf4j
+public class DataNodeServer {
+
+    private final DataNodeApis dataNodeApis;
+    private final NetServer netServer;
+    private final DataNodeConfig dataNodeConfig;
+
+    public DataNodeServer(DataNodeConfig dataNodeConfig, DefaultScheduler defaultScheduler, DataNodeApis dataNodeApis) {
+        this.dataNodeApis = dataNodeApis;
+        this.netServer = new NetServer("DataNode-Server-", defaultScheduler);
+        this.dataNodeConfig = dataNodeConfig;
+    }
+
+    public void start() throws InterruptedException {
+        this.netServer.addHandlers(Collections.singletonList(dataNodeApis));
+        this.netServer.bind(dataNodeConfig.getPort());
+    }
+
+    public void shutdown() {
+        log.info("Shutdown DataNodeServer");
+        this.netServer.shutdown();
+        this.dataNodeApis.shutdown();
+    }
+}
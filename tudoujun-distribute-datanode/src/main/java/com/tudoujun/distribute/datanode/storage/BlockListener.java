@@ -0,0 +1,19 @@
+package com.tudoujun.distribute.datanode.storage;
+
+/**
+ * @author xiaowenjun
+ * @description 本地数据块变化的监听器，用于向NameNode增量汇报
+ * @create: 2025/04/08 14:10
+ */
+public interface BlockListener {
+
+    /**
+     * 数据块写入完成
+     */
+    void onBlockReceived(long blockId, long length);
+
+    /**
+     * 数据块已经删除
+     */
+    void onBlockDeleted(long blockId);
+}
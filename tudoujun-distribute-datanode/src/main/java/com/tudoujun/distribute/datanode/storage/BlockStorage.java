@@ -0,0 +1,180 @@
+package com.tudoujun.distribute.datanode.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 本地磁盘上的数据块：按块id的低8位分散到256个子目录，文件名为 blk_块id。
+ * 写入时先写临时文件并刷盘，再原子重命名，重启后扫描目录恢复数据块列表，未完成的临时文件直接删除
+ * @create: 2025/04/08 14:15
+ */
+@Slf4j
+public class BlockStorage {
+
+    private static final int SUB_DIRS = 256;
+    private static final String BLOCK_PREFIX = "blk_";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File storageDir;
+    private final Map<Long, Long> blocks = new ConcurrentHashMap<>();
+    private final AtomicLong used = new AtomicLong();
+    private final CopyOnWriteArrayList<BlockListener> listeners = new CopyOnWriteArrayList<>();
+
+    public BlockStorage(File storageDir) {
+        this.storageDir = storageDir;
+    }
+
+    /**
+     * 创建子目录并扫描已有的数据块
+     */
+    public void load() throws IOException {
+        for (int i = 0; i < SUB_DIRS; i++) {
+            File subDir = subDir(i);
+            if (!subDir.isDirectory() && !subDir.mkdirs()) {
+                throw new IOException("创建数据块目录失败: " + subDir);
+            }
+            File[] files = subDir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    Files.deleteIfExists(file.toPath());
+                    continue;
+                }
+                if (!name.startsWith(BLOCK_PREFIX)) {
+                    continue;
+                }
+                try {
+                    long blockId = Long.parseLong(name.substring(BLOCK_PREFIX.length()));
+                    blocks.put(blockId, file.length());
+                    used.addAndGet(file.length());
+                } catch (NumberFormatException e) {
+                    log.warn("忽略无法识别的文件: [file={}]", file);
+                }
+            }
+        }
+        log.info("加载本地数据块完成: [dir={} blocks={} used={}]", storageDir, blocks.size(), used.get());
+    }
+
+    public void addListener(BlockListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 写入数据块，数据块不可修改，已经存在时抛出异常
+     */
+    public void writeBlock(long blockId, ByteBuffer data) throws IOException {
+        if (blocks.containsKey(blockId)) {
+            throw new IllegalStateException("数据块已经存在: " + blockId);
+        }
+        File file = blockFile(blockId);
+        Path tmp = new File(file.getParentFile(), file.getName() + TMP_SUFFIX).toPath();
+        long length = data.remaining();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (blocks.putIfAbsent(blockId, length) != null) {
+            throw new IllegalStateException("数据块已经存在: " + blockId);
+        }
+        used.addAndGet(length);
+        for (BlockListener listener : listeners) {
+            listener.onBlockReceived(blockId, length);
+        }
+    }
+
+    /**
+     * 读取整个数据块，不存在时返回null
+     */
+    public byte[] readBlock(long blockId) throws IOException {
+        if (!blocks.containsKey(blockId)) {
+            return null;
+        }
+        return Files.readAllBytes(blockFile(blockId).toPath());
+    }
+
+    public boolean deleteBlock(long blockId) throws IOException {
+        Long length = blocks.remove(blockId);
+        if (length == null) {
+            return false;
+        }
+        Files.deleteIfExists(blockFile(blockId).toPath());
+        used.addAndGet(-length);
+        for (BlockListener listener : listeners) {
+            listener.onBlockDeleted(blockId);
+        }
+        return true;
+    }
+
+    /**
+     * 当前所有数据块按块id升序排列的快照，用于全量汇报
+     */
+    public BlockSnapshot snapshot() {
+        long[] blockIds = new long[blocks.size()];
+        int count = 0;
+        for (Long blockId : blocks.keySet()) {
+            if (count == blockIds.length) {
+                blockIds = Arrays.copyOf(blockIds, count * 2 + 1);
+            }
+            blockIds[count++] = blockId;
+        }
+        Arrays.sort(blockIds, 0, count);
+        long[] lengths = new long[count];
+        int valid = 0;
+        for (int i = 0; i < count; i++) {
+            Long length = blocks.get(blockIds[i]);
+            // 复制块id之后被删除的数据块不汇报，删除会通过增量汇报告知NameNode
+            if (length != null) {
+                blockIds[valid] = blockIds[i];
+                lengths[valid++] = length;
+            }
+        }
+        return new BlockSnapshot(blockIds, lengths, valid);
+    }
+
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getCapacity() {
+        return storageDir.getTotalSpace();
+    }
+
+    private File blockFile(long blockId) {
+        return new File(subDir((int) (blockId & (SUB_DIRS - 1))), BLOCK_PREFIX + blockId);
+    }
+
+    private File subDir(int index) {
+        return new File(storageDir, "subdir" + index);
+    }
+
+    /**
+     * 前count个元素有效
+     */
+    public record BlockSnapshot(long[] blockIds, long[] lengths, int count) {
+    }
+}
@@ -0,0 +1,166 @@
+package com.tudoujun.distribute.datanode.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+import com.google.protobuf.ByteString;
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.datanode.DataNode;
+import com.tudoujun.distribute.datanode.config.DataNodeConfig;
+import com.tudoujun.distribute.model.datanode.ReadBlockRequest;
+import com.tudoujun.distribute.model.datanode.WriteBlockRequest;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.block.BlockMap;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上启动1个NameNode和1个DataNode：
+ * 1. 通过客户端写入BLOCKS个小数据块和1个超过分块大小的大数据块，大数据块分块发送和读取，检查读回的内容；
+ * 2. 检查增量汇报后NameNode上的副本位置，然后删除一部分数据块，检查删除也汇报到了NameNode；
+ * 3. 停止DataNode并删除一部分数据块文件，在过期之前重启，检查重新注册后的全量汇报能清理掉丢失的副本
+ * @create: 2025/04/08 16:30
+ */
+public class DataNodeBlockReportTest {
+
+    private static final int NAME_NODE_PORT = 9791;
+    private static final int DATA_NODE_PORT = 9792;
+    private static final int DATA_NODE_ID = 1;
+    private static final int BLOCKS = 2000;
+    private static final int DELETED = 100;
+    private static final long LARGE_BLOCK_ID = 1_000_000;
+    private static final int LOST = 50;
+
+    public static void main(String[] args) throws Exception {
+        NameNode nameNode = new NameNode(NameNodeConfig.builder()
+                .nameNodeId(1)
+                .port(NAME_NODE_PORT)
+                .nameNodeApiCoreSize(4)
+                .nameNodeApiMaximumPoolSize(8)
+                .nameNodeApiQueueSize(4096)
+                .build());
+        startDaemon("NameNode", nameNode::start);
+
+        File storageDir = Files.createTempDirectory("datanode-test").toFile();
+        DataNode dataNode = new DataNode(config(storageDir, DATA_NODE_PORT));
+        startDaemon("DataNode", dataNode::start);
+
+        NetClient client = new NetClient("DataNode-Test-Client", new DefaultScheduler("DataNode-Test-Scheduler-"), -1, 30_000);
+        client.connect("localhost", DATA_NODE_PORT);
+        client.ensureConnected(10_000);
+
+        byte[] small = new byte[4096];
+        ThreadLocalRandom.current().nextBytes(small);
+        long start = System.nanoTime();
+        for (int i = 1; i <= BLOCKS; i++) {
+            writeBlock(client, i, small);
+        }
+        System.out.printf("write %d blocks: %.0f blocks/s%n", BLOCKS, BLOCKS / ((System.nanoTime() - start) / 1e9));
+
+        byte[] large = new byte[12 * 1024 * 1024];
+        ThreadLocalRandom.current().nextBytes(large);
+        start = System.nanoTime();
+        writeBlock(client, LARGE_BLOCK_ID, large);
+        long writeCost = System.nanoTime() - start;
+        NettyPacket read = NettyPacket.buildPacket(ReadBlockRequest.newBuilder().setBlockId(LARGE_BLOCK_ID).build().toByteArray(),
+                PacketType.READ_BLOCK);
+        read.setSupportChunked(true);
+        NettyPacket response = client.sendSync(read);
+        boolean same = Arrays.equals(large, response.getBody());
+        response.release();
+        System.out.printf("large block: write=%.1f ms read back equal=%b%n", writeCost / 1e6, same);
+
+        BlockMap blockMap = nameNode.getBlockManager().getBlockMap();
+        start = System.nanoTime();
+        boolean reported = await(() -> blockMap.size() == BLOCKS + 1);
+        System.out.printf("incremental report: reported=%b size=%d length=%d replicas=%s in %.0f ms%n", reported,
+                blockMap.size(), blockMap.getLength(LARGE_BLOCK_ID), Arrays.toString(blockMap.getReplicas(1)),
+                (System.nanoTime() - start) / 1e6);
+
+        for (int i = 1; i <= DELETED; i++) {
+            dataNode.getBlockStorage().deleteBlock(i);
+        }
+        boolean deleted = await(() -> blockMap.size() == BLOCKS + 1 - DELETED && !blockMap.contains(1));
+        System.out.printf("delete report: reported=%b size=%d%n", deleted, blockMap.size());
+
+        // DataNode停止期间丢失一部分数据块文件，在过期之前重启，全量汇报后NameNode删除丢失的副本
+        dataNode.shutdown();
+        for (int i = DELETED + 1; i <= DELETED + LOST; i++) {
+            Files.delete(new File(storageDir, "subdir" + (i & 255) + "/blk_" + i).toPath());
+        }
+        DataNode restarted = new DataNode(config(storageDir, DATA_NODE_PORT + 1));
+        startDaemon("DataNode-Restarted", restarted::start);
+        start = System.nanoTime();
+        int expected = BLOCKS + 1 - DELETED - LOST;
+        // 副本计数在删除副本之后才更新，两个都要等到
+        boolean cleaned = await(() -> blockMap.size() == expected
+                && nameNode.getBlockManager().getDataNode(DATA_NODE_ID).getReplicaCount() == expected);
+        System.out.printf("full report after restart: lost replicas removed=%b size=%d replicaCount=%d expected=%d in %.0f ms%n",
+                cleaned, blockMap.size(), nameNode.getBlockManager().getDataNode(DATA_NODE_ID).getReplicaCount(), expected,
+                (System.nanoTime() - start) / 1e6);
+        System.exit(0);
+    }
+
+    private static DataNodeConfig config(File storageDir, int port) {
+        return DataNodeConfig.builder()
+                .dataNodeId(DATA_NODE_ID)
+                .port(port)
+                .nameNodeServer("localhost:" + NAME_NODE_PORT)
+                .storageDir(storageDir.getAbsolutePath())
+                .dataNodeApiCoreSize(4)
+                .dataNodeApiMaximumPoolSize(8)
+                .dataNodeApiQueueSize(4096)
+                .heartbeatIntervalInMs(500)
+                .build();
+    }
+
+    private static void writeBlock(NetClient client, long blockId, byte[] data) throws Exception {
+        NettyPacket request = NettyPacket.buildPacket(WriteBlockRequest.newBuilder()
+                .setBlockId(blockId)
+                .setData(ByteString.copyFrom(data))
+                .build()
+                .toByteArray(), PacketType.WRITE_BLOCK);
+        request.setChunkedRequest(true);
+        NettyPacket response = client.sendSync(request);
+        try {
+            if (response.isError()) {
+                throw new IllegalStateException("write block failed: " + response.getError());
+            }
+        } finally {
+            response.release();
+        }
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static void startDaemon(String name, Starter starter) {
+        Thread thread = new Thread(() -> {
+            try {
+                starter.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private interface Starter {
+        void start() throws Exception;
+    }
+}
@@ -1,14 +1,22 @@
 package com.tudoujun.distribute.namenode;
 
+import java.io.File;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.namenode.block.BlockManager;
 import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.editlog.FSEditLog;
+import com.tudoujun.distribute.namenode.fs.Checkpointer;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
 import com.tudoujun.distribute.namenode.server.NameNodeApis;
 import com.tudoujun.distribute.namenode.server.NameNodeServer;
 import com.tudoujun.distribute.namenode.shard.ShardingManager;
 import com.tudoujun.distribute.namenode.shard.controller.ControllerManager;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.replication.ReplicationManager;
+
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * @author xiaowenjun
@@ -23,28 +31,77 @@ public class NameNode {
     private final NameNodeServer nameNodeServer;
     private final PeerNameNodes peerNameNodes;
     private final ShardingManager shardingManager;
+    private final ReplicationManager replicationManager;
+    private final BlockManager blockManager;
+    private final FSDirectory fsDirectory;
+    private final FSEditLog editLog;
+    private final Checkpointer checkpointer;
+    private final NameNodeConfig nameNodeConfig;
 
     private final AtomicBoolean started = new AtomicBoolean(false);
 
     public NameNode(NameNodeConfig nameNodeConfig) {
+        this.nameNodeConfig = nameNodeConfig;
         this.defaultScheduler = new DefaultScheduler("NameNode-Scheduler-");
         this.peerNameNodes = new PeerNameNodes(defaultScheduler, nameNodeConfig);
-        this.controllerManager = new ControllerManager(nameNodeConfig, peerNameNodes);
-        this.nameNodeApis = new NameNodeApis(peerNameNodes, nameNodeConfig, controllerManager, defaultScheduler);
+        this.controllerManager = new ControllerManager(nameNodeConfig, peerNameNodes, defaultScheduler);
+        this.fsDirectory = new FSDirectory();
+        this.editLog = StringUtils.isBlank(nameNodeConfig.getEditLogDir()) ? null
+                : new FSEditLog(new File(nameNodeConfig.getEditLogDir()), nameNodeConfig.getEditLogSyncBatchSize(),
+                nameNodeConfig.getEditLogSyncMaxDelayInMs(), nameNodeConfig.getEditLogSegmentSize());
+        this.checkpointer = editLog == null ? null : new Checkpointer(fsDirectory, editLog,
+                new File(StringUtils.defaultIfBlank(nameNodeConfig.getFsImageDir(), nameNodeConfig.getEditLogDir())),
+                nameNodeConfig.getCheckpointTxns(), nameNodeConfig.getCheckpointIntervalInMs());
+        this.shardingManager = new ShardingManager(nameNodeConfig, peerNameNodes, controllerManager, fsDirectory);
+        this.replicationManager = new ReplicationManager(nameNodeConfig, peerNameNodes, fsDirectory, shardingManager,
+                defaultScheduler);
+        this.blockManager = new BlockManager(nameNodeConfig, defaultScheduler);
+        this.nameNodeApis = new NameNodeApis(peerNameNodes, nameNodeConfig, controllerManager, defaultScheduler, fsDirectory,
+                shardingManager, replicationManager, blockManager);
         this.nameNodeServer = new NameNodeServer(nameNodeConfig, defaultScheduler, nameNodeApis);
-        this.shardingManager = new ShardingManager(nameNodeConfig, peerNameNodes, controllerManager);
     }
 
     public void start() throws Exception {
         if (started.compareAndSet(false, true)) {
+            if (checkpointer != null) {
+                checkpointer.load(nameNodeConfig.getFsImageLoadParallelism());
+                checkpointer.start();
+            }
+            peerNameNodes.start();
             shardingManager.start();
+            controllerManager.start();
+            replicationManager.start();
+            blockManager.start();
             nameNodeServer.start();
         }
     }
 
+    public ControllerManager getControllerManager() {
+        return controllerManager;
+    }
+
+    public BlockManager getBlockManager() {
+        return blockManager;
+    }
+
+    public NameNodeApis getNameNodeApis() {
+        return nameNodeApis;
+    }
+
     public void shutdown() {
         if (started.compareAndSet(true, false)) {
             nameNodeServer.shutdown();
+            nameNodeApis.getExecutor().shutdown();
+            controllerManager.shutdown();
+            replicationManager.shutdown();
+            peerNameNodes.shutdown();
+            if (checkpointer != null) {
+                checkpointer.shutdown();
+            }
+            if (editLog != null) {
+                editLog.close();
+            }
+            defaultScheduler.shutdown();
         }
     }
 }
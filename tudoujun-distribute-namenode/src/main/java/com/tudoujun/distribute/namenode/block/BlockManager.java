@@ -0,0 +1,147 @@
+package com.tudoujun.distribute.namenode.block;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.common.block.BlockReportCodec;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.datanode.DataNodeHeartbeatRequest;
+import com.tudoujun.distribute.model.datanode.DataNodeHeartbeatResponse;
+import com.tudoujun.distribute.model.datanode.DataNodeRegisterRequest;
+import com.tudoujun.distribute.model.datanode.FullBlockReport;
+import com.tudoujun.distribute.model.datanode.IncrementalBlockReport;
+import com.tudoujun.distribute.model.datanode.ReportedBlock;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 管理DataNode和数据块的副本位置：
+ * 1. DataNode注册后定时发送心跳，超过dataNodeExpireIntervalInMs没有心跳时删除它上面的所有副本位置，之后的心跳要求它重新注册；
+ * 2. 增量汇报逐个添加新增的副本、删除已删除的副本；
+ * 3. 全量汇报先添加汇报的所有副本，块映射中该DataNode的副本数和汇报的不一致时才扫描一遍块映射，删除没有汇报的副本。
+ * 同一个DataNode的汇报由DataNode串行发送，收到响应后才发送下一个，不会乱序
+ * @create: 2025/04/08 11:50
+ */
+@Slf4j
+public class BlockManager {
+
+    private final NameNodeConfig nameNodeConfig;
+    private final DefaultScheduler defaultScheduler;
+    private final BlockMap blockMap;
+    private final Map<Integer, DataNodeInfo> dataNodes = new ConcurrentHashMap<>();
+
+    public BlockManager(NameNodeConfig nameNodeConfig, DefaultScheduler defaultScheduler) {
+        this.nameNodeConfig = nameNodeConfig;
+        this.defaultScheduler = defaultScheduler;
+        this.blockMap = new BlockMap(nameNodeConfig.getBlockMapSegments(), nameNodeConfig.getBlockMapExpectedBlocks(),
+                nameNodeConfig.getMaxBlockReplicas());
+    }
+
+    public void start() {
+        long interval = Math.max(1, nameNodeConfig.getDataNodeExpireIntervalInMs() / 3);
+        defaultScheduler.schedule("DataNode过期检查", this::removeExpiredDataNodes, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * DataNode注册，已经注册过的DataNode保留原来的副本位置，由之后的全量汇报修正
+     */
+    public void onRegister(RequestWrapper requestWrapper) throws Exception {
+        DataNodeRegisterRequest request = DataNodeRegisterRequest.parseFrom(requestWrapper.getRequest().getBody());
+        DataNodeInfo dataNode = dataNodes.computeIfAbsent(request.getDataNodeId(), DataNodeInfo::new);
+        dataNode.update(request.getHostname(), request.getPort(), request.getCapacity(), request.getUsed(),
+                System.nanoTime());
+        log.info("DataNode注册: [dataNodeId={} server={}:{} capacity={} used={}]", request.getDataNodeId(),
+                request.getHostname(), request.getPort(), request.getCapacity(), request.getUsed());
+        requestWrapper.sendResponse();
+    }
+
+    public void onHeartbeat(RequestWrapper requestWrapper) throws Exception {
+        DataNodeHeartbeatRequest request = DataNodeHeartbeatRequest.parseFrom(requestWrapper.getRequest().getBody());
+        DataNodeInfo dataNode = dataNodes.get(request.getDataNodeId());
+        if (dataNode != null) {
+            dataNode.heartbeat(request.getCapacity(), request.getUsed(), System.nanoTime());
+        }
+        requestWrapper.sendResponse(DataNodeHeartbeatResponse.newBuilder().setReregister(dataNode == null).build());
+    }
+
+    public void onIncrementalReport(RequestWrapper requestWrapper) throws Exception {
+        IncrementalBlockReport report = IncrementalBlockReport.parseFrom(requestWrapper.getRequest().getBody());
+        DataNodeInfo dataNode = dataNodes.get(report.getDataNodeId());
+        if (dataNode == null) {
+            requestWrapper.sendError("DataNode未注册: " + report.getDataNodeId());
+            return;
+        }
+        long delta = 0;
+        for (ReportedBlock block : report.getReceivedList()) {
+            if (blockMap.addReplica(block.getBlockId(), block.getLength(), dataNode.getDataNodeId())) {
+                delta++;
+            }
+        }
+        for (long blockId : report.getDeletedList()) {
+            if (blockMap.removeReplica(blockId, dataNode.getDataNodeId())) {
+                delta--;
+            }
+        }
+        dataNode.addReplicaCount(delta);
+        requestWrapper.sendResponse();
+    }
+
+    public void onFullReport(RequestWrapper requestWrapper) throws Exception {
+        long start = System.nanoTime();
+        FullBlockReport report = FullBlockReport.parseFrom(requestWrapper.getRequest().getBody());
+        DataNodeInfo dataNode = dataNodes.get(report.getDataNodeId());
+        if (dataNode == null) {
+            requestWrapper.sendError("DataNode未注册: " + report.getDataNodeId());
+            return;
+        }
+        int dataNodeId = dataNode.getDataNodeId();
+        LongHashSet reported = new LongHashSet(report.getBlockCount());
+        long[] added = new long[1];
+        BlockReportCodec.decode(report.getBlocks().newInput(), (blockId, length) -> {
+            reported.add(blockId);
+            if (blockMap.addReplica(blockId, length, dataNodeId)) {
+                added[0]++;
+            }
+        });
+        dataNode.addReplicaCount(added[0]);
+        long removed = 0;
+        if (dataNode.getReplicaCount() != reported.size()) {
+            removed = blockMap.removeReplicas(dataNodeId, reported::contains);
+            dataNode.addReplicaCount(-removed);
+        }
+        log.info("处理全量汇报: [dataNodeId={} blocks={} added={} removed={} compressedBytes={} cost={}ms]", dataNodeId,
+                reported.size(), added[0], removed, report.getBlocks().size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        requestWrapper.sendResponse();
+    }
+
+    private void removeExpiredDataNodes() {
+        long now = System.nanoTime();
+        long expireInNanos = TimeUnit.MILLISECONDS.toNanos(nameNodeConfig.getDataNodeExpireIntervalInMs());
+        for (DataNodeInfo dataNode : dataNodes.values()) {
+            if (now - dataNode.getLastHeartbeatTime() <= expireInNanos || !dataNodes.remove(dataNode.getDataNodeId(), dataNode)) {
+                continue;
+            }
+            long removed = blockMap.removeReplicas(dataNode.getDataNodeId(), blockId -> false);
+            log.warn("DataNode心跳超时，删除它上面的副本位置: [dataNodeId={} replicas={}]", dataNode.getDataNodeId(), removed);
+        }
+    }
+
+    public BlockMap getBlockMap() {
+        return blockMap;
+    }
+
+    public DataNodeInfo getDataNode(int dataNodeId) {
+        return dataNodes.get(dataNodeId);
+    }
+
+    public Collection<DataNodeInfo> getDataNodes() {
+        return dataNodes.values();
+    }
+}
@@ -0,0 +1,342 @@
+package com.tudoujun.distribute.namenode.block;
+
+import java.util.function.LongPredicate;
+
+/**
+ * @author xiaowenjun
+ * @description 数据块id到长度和副本所在DataNode的映射，按数亿个数据块设计：
+ * 分段的开放寻址哈希表，每个段只有3个基本类型数组（块id、长度、副本所在的DataNode id），没有对象头、装箱和链表节点，
+ * 每个数据块约占 (8 + 8 + 4 * maxReplicas) / 负载因子 字节；按段加锁、按段扩容，单个数组不会超过数组长度上限，
+ * 扩容时也只需要拷贝一个段。块id 0 保留为空槽位，DataNode id 必须大于0
+ * @create: 2025/04/08 11:00
+ */
+public class BlockMap {
+
+    private static final float LOAD_FACTOR = 0.7F;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int maxReplicas;
+
+    /**
+     * @param segmentCount 段数，向上取整为2的幂
+     * @param expectedBlocks 预计的数据块数量，用于计算每个段的初始容量
+     * @param maxReplicas 每个数据块最多记录几个副本位置，超出的副本不记录
+     */
+    public BlockMap(int segmentCount, long expectedBlocks, int maxReplicas) {
+        int segments = tableSizeFor(Math.max(1, segmentCount));
+        this.segments = new Segment[segments];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segments);
+        this.maxReplicas = maxReplicas;
+        long perSegment = (long) Math.ceil(Math.max(1, expectedBlocks) / (double) segments / LOAD_FACTOR);
+        int capacity = tableSizeFor((int) Math.min(1 << 30, Math.max(MIN_SEGMENT_CAPACITY, perSegment)));
+        for (int i = 0; i < segments; i++) {
+            this.segments[i] = new Segment(capacity, maxReplicas);
+        }
+    }
+
+    /**
+     * 记录dataNodeId上有该数据块的副本，同时更新数据块长度
+     * @return 是否新增了副本位置，已经记录过或者副本位置已满时返回false
+     */
+    public boolean addReplica(long blockId, long length, int dataNodeId) {
+        checkBlockId(blockId);
+        long hash = mix(blockId);
+        return segmentFor(hash).addReplica(blockId, hash, length, dataNodeId);
+    }
+
+    /**
+     * 删除dataNodeId上的副本，数据块没有副本后从映射中删除
+     * @return 是否删除了副本位置
+     */
+    public boolean removeReplica(long blockId, int dataNodeId) {
+        checkBlockId(blockId);
+        long hash = mix(blockId);
+        return segmentFor(hash).removeReplica(blockId, hash, dataNodeId);
+    }
+
+    /**
+     * 数据块长度，不存在时返回-1
+     */
+    public long getLength(long blockId) {
+        checkBlockId(blockId);
+        long hash = mix(blockId);
+        return segmentFor(hash).getLength(blockId, hash);
+    }
+
+    /**
+     * 副本所在的DataNode id，不存在时返回空数组
+     */
+    public int[] getReplicas(long blockId) {
+        checkBlockId(blockId);
+        long hash = mix(blockId);
+        return segmentFor(hash).getReplicas(blockId, hash);
+    }
+
+    public boolean contains(long blockId) {
+        return getLength(blockId) >= 0;
+    }
+
+    /**
+     * 逐段顺序扫描，删除dataNodeId上retain不保留的副本，用于DataNode过期和全量汇报之后清理多余的副本
+     * @return 删除的副本数
+     */
+    public long removeReplicas(int dataNodeId, LongPredicate retain) {
+        long removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.removeReplicas(dataNodeId, retain);
+        }
+        return removed;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 所有段的数组占用的字节数，不包括数组对象头
+     */
+    public long memoryInBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.memoryInBytes();
+        }
+        return bytes;
+    }
+
+    public int getMaxReplicas() {
+        return maxReplicas;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift)];
+    }
+
+    private static void checkBlockId(long blockId) {
+        if (blockId == 0) {
+            throw new IllegalArgumentException("块id不能为0");
+        }
+    }
+
+    /**
+     * murmur3的64位混淆，高位选段，低位选槽位
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    /**
+     * 线性探测的哈希表，删除时把后面的元素往前移，不使用墓碑，表里只有空槽位和有效元素
+     */
+    private static final class Segment {
+
+        private final int maxReplicas;
+        private long[] keys;
+        private long[] lengths;
+        /**
+         * 每个槽位maxReplicas个DataNode id，有效的id排在前面，0表示空
+         */
+        private int[] replicas;
+        private int mask;
+        private int size;
+        private int resizeThreshold;
+
+        Segment(int capacity, int maxReplicas) {
+            this.maxReplicas = maxReplicas;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            lengths = new long[capacity];
+            replicas = new int[capacity * maxReplicas];
+            mask = capacity - 1;
+            resizeThreshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        synchronized boolean addReplica(long blockId, long hash, long length, int dataNodeId) {
+            int index = (int) hash & mask;
+            while (keys[index] != 0 && keys[index] != blockId) {
+                index = (index + 1) & mask;
+            }
+            if (keys[index] == 0) {
+                if (size >= resizeThreshold) {
+                    resize();
+                    return addReplica(blockId, hash, length, dataNodeId);
+                }
+                keys[index] = blockId;
+                size++;
+            }
+            lengths[index] = length;
+            int base = index * maxReplicas;
+            for (int i = base; i < base + maxReplicas; i++) {
+                if (replicas[i] == dataNodeId) {
+                    return false;
+                }
+                if (replicas[i] == 0) {
+                    replicas[i] = dataNodeId;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean removeReplica(long blockId, long hash, int dataNodeId) {
+            int index = find(blockId, hash);
+            return index >= 0 && removeReplicaAt(index, dataNodeId);
+        }
+
+        synchronized long getLength(long blockId, long hash) {
+            int index = find(blockId, hash);
+            return index < 0 ? -1 : lengths[index];
+        }
+
+        synchronized int[] getReplicas(long blockId, long hash) {
+            int index = find(blockId, hash);
+            if (index < 0) {
+                return new int[0];
+            }
+            int base = index * maxReplicas;
+            int count = 0;
+            while (count < maxReplicas && replicas[base + count] != 0) {
+                count++;
+            }
+            int[] result = new int[count];
+            System.arraycopy(replicas, base, result, 0, count);
+            return result;
+        }
+
+        synchronized long removeReplicas(int dataNodeId, LongPredicate retain) {
+            long removed = 0;
+            int index = 0;
+            while (index < keys.length) {
+                long blockId = keys[index];
+                if (blockId != 0 && hasReplica(index, dataNodeId) && !retain.test(blockId)) {
+                    removed++;
+                    if (removeReplicaAt(index, dataNodeId)) {
+                        // 数据块被删除后，后面的元素可能移到了当前位置，需要重新检查当前位置
+                        continue;
+                    }
+                }
+                index++;
+            }
+            return removed;
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        synchronized long memoryInBytes() {
+            return keys.length * 16L + replicas.length * 4L;
+        }
+
+        private int find(long blockId, long hash) {
+            int index = (int) hash & mask;
+            while (keys[index] != 0) {
+                if (keys[index] == blockId) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean hasReplica(int index, int dataNodeId) {
+            int base = index * maxReplicas;
+            for (int i = base; i < base + maxReplicas && replicas[i] != 0; i++) {
+                if (replicas[i] == dataNodeId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 删除index上dataNodeId的副本，最后一个有效id移到空出的位置
+         * @return 副本删除后数据块是否也被删除
+         */
+        private boolean removeReplicaAt(int index, int dataNodeId) {
+            int base = index * maxReplicas;
+            int last = base;
+            while (last + 1 < base + maxReplicas && replicas[last + 1] != 0) {
+                last++;
+            }
+            for (int i = base; i <= last; i++) {
+                if (replicas[i] == dataNodeId) {
+                    replicas[i] = replicas[last];
+                    replicas[last] = 0;
+                    if (replicas[base] == 0) {
+                        deleteAt(index);
+                        return true;
+                    }
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 删除index上的元素，探测链上后面的元素如果可以放到空出的位置就往前移
+         */
+        private void deleteAt(int index) {
+            int hole = index;
+            int next = index;
+            while (true) {
+                next = (next + 1) & mask;
+                long key = keys[next];
+                if (key == 0) {
+                    break;
+                }
+                int home = (int) mix(key) & mask;
+                // 空位在元素的初始位置和当前位置之间时，元素可以移到空位上
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = key;
+                    lengths[hole] = lengths[next];
+                    System.arraycopy(replicas, next * maxReplicas, replicas, hole * maxReplicas, maxReplicas);
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            lengths[hole] = 0;
+            for (int i = hole * maxReplicas; i < (hole + 1) * maxReplicas; i++) {
+                replicas[i] = 0;
+            }
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldLengths = lengths;
+            int[] oldReplicas = replicas;
+            allocate(oldKeys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key == 0) {
+                    continue;
+                }
+                int index = (int) mix(key) & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                lengths[index] = oldLengths[i];
+                System.arraycopy(oldReplicas, i * maxReplicas, replicas, index * maxReplicas, maxReplicas);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.tudoujun.distribute.namenode.block;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xiaowenjun
+ * @description NameNode上记录的DataNode信息
+ * @create: 2025/04/08 11:40
+ */
+public class DataNodeInfo {
+
+    private final int dataNodeId;
+    private volatile String hostname;
+    private volatile int port;
+    private volatile long capacity;
+    private volatile long used;
+    private volatile long lastHeartbeatTime;
+    /**
+     * 块映射中记录在该DataNode上的副本数
+     */
+    private final AtomicLong replicaCount = new AtomicLong();
+
+    DataNodeInfo(int dataNodeId) {
+        this.dataNodeId = dataNodeId;
+    }
+
+    void update(String hostname, int port, long capacity, long used, long now) {
+        this.hostname = hostname;
+        this.port = port;
+        heartbeat(capacity, used, now);
+    }
+
+    void heartbeat(long capacity, long used, long now) {
+        this.capacity = capacity;
+        this.used = used;
+        this.lastHeartbeatTime = now;
+    }
+
+    void addReplicaCount(long delta) {
+        replicaCount.addAndGet(delta);
+    }
+
+    public int getDataNodeId() {
+        return dataNodeId;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public long getLastHeartbeatTime() {
+        return lastHeartbeatTime;
+    }
+
+    public long getReplicaCount() {
+        return replicaCount.get();
+    }
+}
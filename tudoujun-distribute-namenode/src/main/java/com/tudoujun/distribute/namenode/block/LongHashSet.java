@@ -0,0 +1,73 @@
+package com.tudoujun.distribute.namenode.block;
+
+/**
+ * @author xiaowenjun
+ * @description 基本类型long的开放寻址集合，只支持添加和查询，用于全量汇报时记录汇报了哪些数据块。
+ * 0 保留为空槽位，不能添加。非线程安全
+ * @create: 2025/04/08 11:30
+ */
+class LongHashSet {
+
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    boolean add(long key) {
+        if (size >= keys.length * LOAD_FACTOR) {
+            resize();
+        }
+        int index = indexOf(key);
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        size++;
+        return true;
+    }
+
+    boolean contains(long key) {
+        int index = indexOf(key);
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int indexOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length << 1];
+        mask = keys.length - 1;
+        for (long key : oldKeys) {
+            if (key != 0) {
+                int index = indexOf(key);
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+            }
+        }
+    }
+}
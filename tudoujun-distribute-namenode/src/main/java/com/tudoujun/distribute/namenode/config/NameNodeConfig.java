@@ -1,5 +1,7 @@
 package com.tudoujun.distribute.namenode.config;
 
+import com.tudoujun.distribute.common.network.ExecutorMode;
+
 import org.apache.commons.lang3.StringUtils;
 
 import lombok.Builder;
@@ -21,6 +23,199 @@ public class NameNodeConfig {
     private int nameNodeApiCoreSize;
     private int nameNodeApiMaximumPoolSize;
     private int nameNodeApiQueueSize;
+    /**
+     * 处理请求的方式：ORDERED按连接串行，不同连接在work-stealing线程池上并行，线程数取nameNodeApiMaximumPoolSize；
+     * VIRTUAL同样按连接串行，每个请求一个虚拟线程，线程数不生效，nameNodeApiQueueSize限制同时处理的请求数，
+     * 需要JDK 21+，不支持时回退到ORDERED；POOL使用共享线程池，同一个连接上的请求可能乱序执行
+     */
+    @Builder.Default
+    private ExecutorMode nameNodeApiExecutorMode = ExecutorMode.ORDERED;
+    /**
+     * 背压：处理队列长度达到该值时暂停客户端连接的读取，小于等于0时取队列容量的3/4
+     */
+    private int nameNodeApiQueueHighWatermark;
+    /**
+     * 背压：处理队列长度降到该值时恢复读取，小于0时取高水位的一半
+     */
+    @Builder.Default
+    private int nameNodeApiQueueLowWatermark = -1;
+    /**
+     * 背压：处理队列已满拒绝请求时，建议客户端等待多久后重试
+     */
+    @Builder.Default
+    private long busyRetryAfterInMs = 100;
+
+    /**
+     * flush合并：最多合并多少次flush，小于等于1时不合并
+     */
+    private int flushBatchMaxSize;
+    /**
+     * flush合并：最多延迟多少微秒flush
+     */
+    private long flushBatchMaxDelayInMicros;
+
+    /**
+     * 服务端worker是否和PeerNameNode客户端共用同一组事件循环
+     */
+    private boolean shareEventLoopGroup;
+
+    /**
+     * 每个PeerNameNode额外建立多少条大流量连接，为0时大流量和控制流量共用一条连接
+     */
+    private int peerBulkConnections;
+
+    /**
+     * 编辑日志目录，为空时不开启编辑日志
+     */
+    private String editLogDir;
+    /**
+     * 编辑日志：缓冲区中的日志数量达到该值时立即fsync
+     */
+    private int editLogSyncBatchSize;
+    /**
+     * 编辑日志：不足一批时最多等待多少毫秒fsync
+     */
+    private long editLogSyncMaxDelayInMs;
+    /**
+     * 编辑日志：段文件大小，小于等于0时使用默认值
+     */
+    private long editLogSegmentSize;
+
+    /**
+     * fsimage目录，为空时和编辑日志使用同一个目录
+     */
+    private String fsImageDir;
+    /**
+     * checkpoint：距离上次checkpoint的日志数量达到该值时checkpoint，小于等于0时使用默认值
+     */
+    private long checkpointTxns;
+    /**
+     * checkpoint：距离上次checkpoint超过多少毫秒且有新日志时checkpoint，小于等于0时使用默认值
+     */
+    private long checkpointIntervalInMs;
+    /**
+     * 并行加载fsimage的线程数，小于等于0时使用CPU核数
+     */
+    private int fsImageLoadParallelism;
+
+    /**
+     * 分片：取路径的前几级作为分片键，同一个分片键下的所有文件属于同一个节点，默认为1
+     */
+    @Builder.Default
+    private int slotPathDepth = 1;
+
+    /**
+     * 槽位迁移：每秒最多发送多少字节，小于等于0时不限速
+     */
+    private long migrationBytesPerSecond;
+    /**
+     * 槽位迁移：每个数据块的最大字节数，小于等于0时使用默认值
+     */
+    private int migrationChunkSize;
+
+    /**
+     * 转发：路径不属于当前节点时是否代替客户端转发给所属节点，为false时返回重定向
+     */
+    private boolean forwardRequests;
+    /**
+     * 转发：每个转发包最多合并多少个请求，小于等于0时使用默认值
+     */
+    private int forwardBatchSize;
+    /**
+     * 转发：每个节点最多同时有多少个转发包等待响应，小于等于0时使用默认值
+     */
+    private int forwardMaxInflightBatches;
+
+    /**
+     * Controller日志目录，为空时只保存在内存中，节点重启后作为空节点重新加入
+     */
+    private String raftDir;
+    /**
+     * Controller：Leader发送心跳的间隔
+     */
+    @Builder.Default
+    private long raftHeartbeatIntervalInMs = 100;
+    /**
+     * Controller：没有Leader时的选举超时时间，实际超时在[raftElectionTimeoutInMs, 2 * raftElectionTimeoutInMs)之间随机；
+     * 有Leader时由故障检测判断Leader不可用并且租约过期后提前选举，Leader超过该时间没有得到多数派确认时主动退位
+     */
+    @Builder.Default
+    private long raftElectionTimeoutInMs = 1000;
+    /**
+     * Controller：租约时间，Follower收到Leader的消息后这段时间内拒绝给其它节点投票，
+     * Leader在多数派确认之后的这段时间内（扣除时钟漂移）可以直接在本地响应读请求
+     */
+    @Builder.Default
+    private long raftLeaseTimeoutInMs = 500;
+    /**
+     * Controller：每个AppendEntries最多携带多少条日志
+     */
+    @Builder.Default
+    private int raftMaxBatchEntries = 256;
+    /**
+     * Controller：每个Follower最多有多少个在途的AppendEntries
+     */
+    @Builder.Default
+    private int raftMaxInflightAppends = 4;
+    /**
+     * Controller：应用了多少条日志之后生成快照
+     */
+    @Builder.Default
+    private int raftSnapshotEntries = 4096;
+
+    /**
+     * 故障检测：NameNode之间发送心跳的间隔，小于等于0时不发送心跳
+     */
+    @Builder.Default
+    private long peerHeartbeatIntervalInMs = 100;
+    /**
+     * 故障检测：phi超过该值时认为节点不可用，越大误判越少但检测越慢
+     */
+    @Builder.Default
+    private double failureDetectorThreshold = 8.0;
+    /**
+     * 故障检测：心跳间隔标准差的下限，避免心跳非常稳定时一点延迟就被认为不可用
+     */
+    @Builder.Default
+    private long failureDetectorMinStdDeviationInMs = 20;
+
+    /**
+     * 副本：每个槽位的元数据保存几份，包括所属节点自身，为1时不复制。
+     * 节点按id排序成环，每个节点的编辑日志复制给环上之后的slotReplicationFactor-1个节点
+     */
+    @Builder.Default
+    private int slotReplicationFactor = 1;
+    /**
+     * 副本：每批最多复制多少条编辑日志
+     */
+    @Builder.Default
+    private int replicationBatchSize = 1024;
+    /**
+     * 副本：请求没有指定最大落后时间时，按有界过期读取副本允许落后所属节点的毫秒数
+     */
+    @Builder.Default
+    private long replicaReadMaxStalenessInMs = 1000;
+
+    /**
+     * 数据块：DataNode超过该时间没有心跳时认为已经下线，删除它上面的所有副本位置
+     */
+    @Builder.Default
+    private long dataNodeExpireIntervalInMs = 30_000;
+    /**
+     * 数据块：块映射的段数，每个段独立加锁和扩容
+     */
+    @Builder.Default
+    private int blockMapSegments = 1024;
+    /**
+     * 数据块：预计的数据块数量，用于预分配块映射的容量，避免启动后频繁扩容
+     */
+    @Builder.Default
+    private long blockMapExpectedBlocks = 1 << 20;
+    /**
+     * 数据块：每个数据块最多记录几个副本位置
+     */
+    @Builder.Default
+    private int maxBlockReplicas = 4;
 
     public int numOfNode() {
         return StringUtils.isBlank(nameNodePeerServers) ? 1 : nameNodePeerServers.split(",").length;
@@ -0,0 +1,99 @@
+package com.tudoujun.distribute.namenode.editlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * @author xiaowenjun
+ * @description 编辑日志缓冲区，每条日志的格式为 [长度(4)][CRC32C(4)][EditLog]
+ * @create: 2025/03/20 10:12
+ */
+public class EditLogBuffer {
+
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    private final CRC32C crc32c = new CRC32C();
+    private byte[] buf;
+    private int size;
+    private int numOfEdits;
+    private long firstTxId = -1;
+    private long lastTxId = -1;
+    private long firstAppendNanos;
+
+    public EditLogBuffer(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    public void append(long txId, byte[] record) {
+        ensureCapacity(size + RECORD_HEADER_SIZE + record.length);
+        crc32c.reset();
+        crc32c.update(record, 0, record.length);
+        writeInt(record.length);
+        writeInt((int) crc32c.getValue());
+        System.arraycopy(record, 0, buf, size, record.length);
+        size += record.length;
+        if (numOfEdits == 0) {
+            firstTxId = txId;
+            firstAppendNanos = System.nanoTime();
+        }
+        lastTxId = txId;
+        numOfEdits++;
+    }
+
+    /**
+     * 写入文件，返回写入的字节数
+     */
+    public int writeTo(EditLogSegment segment) throws IOException {
+        segment.write(ByteBuffer.wrap(buf, 0, size));
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        numOfEdits = 0;
+        firstTxId = -1;
+        lastTxId = -1;
+    }
+
+    public boolean isEmpty() {
+        return numOfEdits == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getNumOfEdits() {
+        return numOfEdits;
+    }
+
+    public long getFirstTxId() {
+        return firstTxId;
+    }
+
+    public long getLastTxId() {
+        return lastTxId;
+    }
+
+    /**
+     * 第一条日志写入后经过的时间
+     */
+    public long getElapsedInMs() {
+        return (System.nanoTime() - firstAppendNanos) / 1_000_000;
+    }
+
+    private void writeInt(int value) {
+        buf[size++] = (byte) (value >>> 24);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.tudoujun.distribute.namenode.editlog;
+
+import java.util.Arrays;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description 编辑日志的操作类型
+ * @create: 2025/03/20 10:05
+ */
+@Getter
+@AllArgsConstructor
+public enum EditLogOpType {
+
+    UNKNOWN(0, "未知操作"),
+    MKDIR(1, "创建目录，每个新建的目录一条日志"),
+    CREATE_FILE(2, "创建文件"),
+    DELETE(3, "删除文件或目录"),
+    RENAME(4, "重命名或移动"),
+    ;
+
+    private final int value;
+    private final String description;
+
+    public static EditLogOpType of(int value) {
+        return Arrays.stream(values())
+                .filter(t -> t.getValue() == value)
+                .findFirst()
+                .orElse(UNKNOWN);
+    }
+}
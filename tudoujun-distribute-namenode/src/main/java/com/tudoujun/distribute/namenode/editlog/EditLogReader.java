@@ -0,0 +1,64 @@
+package com.tudoujun.distribute.namenode.editlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import com.tudoujun.distribute.model.namenode.EditLog;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 读取编辑日志段文件，遇到预分配的空白区域、不完整或者校验失败的记录时停止
+ * @create: 2025/03/20 10:52
+ */
+@Slf4j
+public class EditLogReader {
+
+    /**
+     * 读取结果：最后一条有效日志的txId和有效数据的长度
+     */
+    public record Result(long lastTxId, long validLength, int numOfEdits) {
+    }
+
+    public static Result read(File file, Consumer<EditLog> consumer) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C crc32c = new CRC32C();
+            long lastTxId = -1;
+            int numOfEdits = 0;
+            while (buffer.remaining() >= EditLogBuffer.RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                // 复制到堆内存后再解析，protobuf直接解析映射内存的切片不安全
+                byte[] record = new byte[length];
+                buffer.get(record);
+                crc32c.reset();
+                crc32c.update(record, 0, length);
+                if ((int) crc32c.getValue() != checksum) {
+                    log.warn("编辑日志校验失败，忽略之后的内容: [file={} position={}]", file, start);
+                    buffer.position(start);
+                    break;
+                }
+                EditLog editLog = EditLog.parseFrom(record);
+                lastTxId = editLog.getTxId();
+                numOfEdits++;
+                if (consumer != null) {
+                    consumer.accept(editLog);
+                }
+            }
+            return new Result(lastTxId, buffer.position(), numOfEdits);
+        }
+    }
+}
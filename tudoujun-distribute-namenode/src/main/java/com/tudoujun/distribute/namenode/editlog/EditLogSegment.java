@@ -0,0 +1,108 @@
+package com.tudoujun.distribute.namenode.editlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author xiaowenjun
+ * @description 编辑日志段文件，写入前按块预分配文件空间(写入0)，减少fsync时文件元数据的更新；
+ * 写入中的文件名为 edits_inprogress_起始txId，写满后截断并重命名为 edits_起始txId-结束txId
+ * @create: 2025/03/20 10:30
+ */
+public class EditLogSegment {
+
+    public static final String IN_PROGRESS_PREFIX = "edits_inprogress_";
+    public static final Pattern IN_PROGRESS_PATTERN = Pattern.compile("edits_inprogress_(\\d+)");
+    public static final Pattern FINALIZED_PATTERN = Pattern.compile("edits_(\\d+)-(\\d+)");
+    private static final int PREALLOCATE_SIZE = 1024 * 1024;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(PREALLOCATE_SIZE);
+
+    private final File dir;
+    private final File file;
+    private final long startTxId;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private long position;
+    private long preallocatedSize;
+
+    public EditLogSegment(File dir, long startTxId) throws IOException {
+        this.dir = dir;
+        this.startTxId = startTxId;
+        this.file = new File(dir, IN_PROGRESS_PREFIX + startTxId);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.channel.truncate(0);
+    }
+
+    /**
+     * 在当前位置写入，空间不足时先预分配
+     */
+    public void write(ByteBuffer data) throws IOException {
+        preallocate(position + data.remaining());
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getStartTxId() {
+        return startTxId;
+    }
+
+    /**
+     * 截断预分配的空间，重命名为已完成的段文件
+     */
+    public void finalizeSegment(long endTxId) throws IOException {
+        channel.truncate(position);
+        channel.force(true);
+        channel.close();
+        randomAccessFile.close();
+        if (endTxId < startTxId) {
+            Files.delete(file.toPath());
+            return;
+        }
+        Files.move(file.toPath(), new File(dir, finalizedName(startTxId, endTxId)).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void preallocate(long required) throws IOException {
+        while (preallocatedSize < required) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            while (zeros.hasRemaining()) {
+                preallocatedSize += channel.write(zeros, preallocatedSize);
+            }
+        }
+    }
+
+    public static String finalizedName(long startTxId, long endTxId) {
+        return "edits_" + startTxId + "-" + endTxId;
+    }
+
+    /**
+     * 解析段文件的起始txId，不是段文件时返回-1
+     */
+    public static long parseStartTxId(String fileName) {
+        Matcher matcher = FINALIZED_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+            return Long.parseLong(matcher.group(1));
+        }
+        matcher = IN_PROGRESS_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+            return Long.parseLong(matcher.group(1));
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,362 @@
+package com.tudoujun.distribute.namenode.editlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+
+import com.tudoujun.distribute.common.utils.DefaultThread;
+import com.tudoujun.distribute.model.namenode.EditLog;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 编辑日志，双缓冲 + 组提交：
+ * 写日志时只追加到当前缓冲区，同步线程把当前缓冲区和同步缓冲区交换后，在锁外写文件并fsync，
+ * 期间新的日志继续追加到另一个缓冲区；一次fsync覆盖该批次所有请求，同步完成后按txId通知等待的请求。
+ * 通知在单独的线程上执行，等待的请求后续的处理不占用同步线程；同步失败后不再接受新的日志
+ * @create: 2025/03/20 11:10
+ */
+@Slf4j
+public class FSEditLog {
+
+    private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+    private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final File dir;
+    private final int syncBatchSize;
+    private final long syncMaxDelayInMs;
+    private final long segmentSize;
+
+    private EditLogBuffer currentBuffer = new EditLogBuffer(INITIAL_BUFFER_SIZE);
+    private EditLogBuffer syncBuffer = new EditLogBuffer(INITIAL_BUFFER_SIZE);
+    private final PriorityQueue<SyncWaiter> waiters = new PriorityQueue<>(Comparator.comparingLong(SyncWaiter::txId));
+    private final ExecutorService notifyExecutor =
+            Executors.newSingleThreadExecutor(r -> new DefaultThread("NameNode-EditLog-Notify", r, true));
+    private final ThreadLocal<Long> myTxId = ThreadLocal.withInitial(() -> 0L);
+    private long txId;
+    private volatile long syncedTxId;
+    private volatile IOException failure;
+    private volatile boolean running;
+    private long syncCount;
+    private EditLogSegment segment;
+    private Thread syncThread;
+
+    /**
+     * @param syncBatchSize 当前缓冲区的日志数量达到该值时立即同步
+     * @param syncMaxDelayInMs 不足一批时最多等待多久同步，为0时有日志就立即同步
+     * @param segmentSize 段文件超过该大小后滚动，小于等于0时使用默认的64MB
+     */
+    public FSEditLog(File dir, int syncBatchSize, long syncMaxDelayInMs, long segmentSize) {
+        this.dir = dir;
+        this.syncBatchSize = Math.max(1, syncBatchSize);
+        this.syncMaxDelayInMs = Math.max(0, syncMaxDelayInMs);
+        this.segmentSize = segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+    }
+
+    public void open() throws IOException {
+        open(0);
+    }
+
+    /**
+     * 打开编辑日志，把上次未完成的段文件截断到最后一条有效日志并完成，从下一个txId开始写新的段文件
+     * @param imageTxId 已加载的fsimage的txId，之前的段文件可能已经被清理，新的txId不能小于它
+     */
+    public void open(long imageTxId) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建编辑日志目录失败: " + dir);
+        }
+        long lastTxId = Math.max(imageTxId, recoverSegments());
+        synchronized (this) {
+            this.txId = lastTxId;
+            this.syncedTxId = lastTxId;
+        }
+        this.segment = new EditLogSegment(dir, lastTxId + 1);
+        this.running = true;
+        this.syncThread = new DefaultThread("NameNode-EditLog-Sync", this::syncLoop, true);
+        this.syncThread.start();
+        log.info("编辑日志已打开: [dir={} lastTxId={}]", dir, lastTxId);
+    }
+
+    /**
+     * 同步失败后编辑日志不再可用，调用方在修改目录树之前检查，避免目录树包含不会落盘的修改
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * 追加一条日志，返回分配的txId，调用方需要在修改目录树的锁内调用，保证日志顺序和修改顺序一致。
+     * 同步失败后不再追加，等待同步的请求都会失败
+     */
+    public long logEdit(EditLog.Builder editLog) {
+        synchronized (this) {
+            if (failure != null) {
+                return txId;
+            }
+            long id = ++txId;
+            byte[] record = editLog.setTxId(id).build().toByteArray();
+            boolean wasEmpty = currentBuffer.isEmpty();
+            currentBuffer.append(id, record);
+            if (wasEmpty || currentBuffer.getNumOfEdits() >= syncBatchSize) {
+                notifyAll();
+            }
+            myTxId.set(id);
+            return id;
+        }
+    }
+
+    /**
+     * 等待当前线程最后写入的日志同步到磁盘
+     */
+    public CompletableFuture<Long> syncAsync() {
+        return waitSync(myTxId.get());
+    }
+
+    /**
+     * 等待txId及之前的日志同步到磁盘
+     */
+    public CompletableFuture<Long> waitSync(long txId) {
+        synchronized (this) {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            if (txId <= syncedTxId) {
+                return CompletableFuture.completedFuture(syncedTxId);
+            }
+            SyncWaiter waiter = new SyncWaiter(txId, new CompletableFuture<>());
+            waiters.add(waiter);
+            return waiter.future();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            EditLogBuffer toSync;
+            synchronized (this) {
+                try {
+                    while (running) {
+                        if (currentBuffer.isEmpty()) {
+                            wait();
+                            continue;
+                        }
+                        long remainInMs = syncMaxDelayInMs - currentBuffer.getElapsedInMs();
+                        if (currentBuffer.getNumOfEdits() >= syncBatchSize || remainInMs <= 0) {
+                            break;
+                        }
+                        wait(remainInMs);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (currentBuffer.isEmpty()) {
+                    // 已经关闭且没有待同步的日志
+                    return;
+                }
+                toSync = currentBuffer;
+                currentBuffer = syncBuffer;
+                syncBuffer = toSync;
+            }
+
+            try {
+                toSync.writeTo(segment);
+                segment.sync();
+                if (segment.getPosition() >= segmentSize) {
+                    segment.finalizeSegment(toSync.getLastTxId());
+                    segment = new EditLogSegment(dir, toSync.getLastTxId() + 1);
+                }
+            } catch (IOException e) {
+                log.error("编辑日志同步失败，之后的写请求都会失败: ", e);
+                failAll(e);
+                return;
+            }
+
+            List<SyncWaiter> done = new ArrayList<>();
+            long synced = toSync.getLastTxId();
+            synchronized (this) {
+                syncedTxId = synced;
+                syncCount++;
+                while (!waiters.isEmpty() && waiters.peek().txId() <= synced) {
+                    done.add(waiters.poll());
+                }
+            }
+            toSync.clear();
+            if (!done.isEmpty()) {
+                notifyExecutor.execute(() -> {
+                    for (SyncWaiter waiter : done) {
+                        waiter.future().complete(synced);
+                    }
+                });
+            }
+        }
+    }
+
+    private void failAll(IOException e) {
+        List<SyncWaiter> failed;
+        synchronized (this) {
+            failure = e;
+            running = false;
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        notifyExecutor.execute(() -> {
+            for (SyncWaiter waiter : failed) {
+                waiter.future().completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * 完成上次未完成的段文件，返回已有日志的最大txId
+     */
+    private long recoverSegments() throws IOException {
+        long lastTxId = 0;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return lastTxId;
+        }
+        for (File file : files) {
+            Matcher finalized = EditLogSegment.FINALIZED_PATTERN.matcher(file.getName());
+            if (finalized.matches()) {
+                lastTxId = Math.max(lastTxId, Long.parseLong(finalized.group(2)));
+            }
+        }
+        for (File file : files) {
+            Matcher inProgress = EditLogSegment.IN_PROGRESS_PATTERN.matcher(file.getName());
+            if (!inProgress.matches()) {
+                continue;
+            }
+            long startTxId = Long.parseLong(inProgress.group(1));
+            EditLogReader.Result result = EditLogReader.read(file, null);
+            if (result.numOfEdits() == 0) {
+                if (!file.delete()) {
+                    throw new IOException("删除空的编辑日志失败: " + file);
+                }
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(result.validLength());
+                channel.force(true);
+            }
+            File finalizedFile = new File(dir, EditLogSegment.finalizedName(startTxId, result.lastTxId()));
+            if (!file.renameTo(finalizedFile)) {
+                throw new IOException("完成编辑日志失败: " + file);
+            }
+            log.info("完成上次未完成的编辑日志: [file={} edits={}]", finalizedFile, result.numOfEdits());
+            lastTxId = Math.max(lastTxId, result.lastTxId());
+        }
+        return lastTxId;
+    }
+
+    /**
+     * 按txId顺序回放afterTxId之后的所有已完成段文件，需要在open之后、写入新日志之前调用，返回回放的日志数量
+     */
+    public long replay(long afterTxId, Consumer<EditLog> consumer) throws IOException {
+        List<long[]> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher finalized = EditLogSegment.FINALIZED_PATTERN.matcher(file.getName());
+                if (finalized.matches() && Long.parseLong(finalized.group(2)) > afterTxId) {
+                    segments.add(new long[]{Long.parseLong(finalized.group(1)), Long.parseLong(finalized.group(2))});
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(segment -> segment[0]));
+        long expectedTxId = afterTxId + 1;
+        long[] replayed = new long[1];
+        for (long[] segment : segments) {
+            if (segment[0] > expectedTxId) {
+                throw new IOException("编辑日志不连续，缺少txId: " + expectedTxId + "-" + (segment[0] - 1));
+            }
+            long from = expectedTxId;
+            EditLogReader.read(new File(dir, EditLogSegment.finalizedName(segment[0], segment[1])), editLog -> {
+                if (editLog.getTxId() >= from) {
+                    consumer.accept(editLog);
+                    replayed[0]++;
+                }
+            });
+            expectedTxId = segment[1] + 1;
+        }
+        log.info("回放编辑日志完成: [afterTxId={} edits={}]", afterTxId, replayed[0]);
+        return replayed[0];
+    }
+
+    /**
+     * 删除结束txId不超过txId的已完成段文件，这些日志已经包含在fsimage中
+     */
+    public void purgeSegments(long txId) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Matcher finalized = EditLogSegment.FINALIZED_PATTERN.matcher(file.getName());
+            if (finalized.matches() && Long.parseLong(finalized.group(2)) <= txId) {
+                if (file.delete()) {
+                    log.info("清理编辑日志: [file={}]", file);
+                } else {
+                    log.warn("清理编辑日志失败: [file={}]", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 同步剩余的日志并完成当前段文件
+     */
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        try {
+            syncThread.join();
+            notifyExecutor.shutdown();
+            if (failure == null) {
+                segment.finalizeSegment(syncedTxId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("关闭编辑日志失败: ", e);
+        }
+        log.info("编辑日志已关闭: [syncedTxId={}]", syncedTxId);
+    }
+
+    public long getSyncedTxId() {
+        return syncedTxId;
+    }
+
+    public synchronized long getLastTxId() {
+        return txId;
+    }
+
+    /**
+     * fsync的次数
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    private record SyncWaiter(long txId, CompletableFuture<Long> future) {
+    }
+}
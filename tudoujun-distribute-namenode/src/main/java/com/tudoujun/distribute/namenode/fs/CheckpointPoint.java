@@ -0,0 +1,9 @@
+package com.tudoujun.distribute.namenode.fs;
+
+/**
+ * @author xiaowenjun
+ * @description checkpoint时刻：此时编辑日志的最后一个txId、最大的inodeId和inode数量
+ * @create: 2025/03/24 10:20
+ */
+record CheckpointPoint(long txId, long lastInodeId, long inodeCount) {
+}
@@ -0,0 +1,149 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.namenode.editlog.FSEditLog;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 负责启动时加载fsimage并回放编辑日志，以及后台定期checkpoint：
+ * 距离上次checkpoint的日志数量或时间达到阈值时，把当前目录树写成新的fsimage，
+ * 只保留最近的几个fsimage，并清理已经包含在最旧fsimage中的编辑日志
+ * @create: 2025/03/24 11:20
+ */
+@Slf4j
+public class Checkpointer {
+
+    private static final int RETAINED_IMAGES = 2;
+    private static final long DEFAULT_CHECKPOINT_TXNS = 1_000_000;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_IN_MS = 60 * 60 * 1000;
+    private static final long CHECK_INTERVAL_IN_MS = 10 * 1000;
+
+    private final FSDirectory fsDirectory;
+    private final FSEditLog editLog;
+    private final File imageDir;
+    private final long checkpointTxns;
+    private final long checkpointIntervalInMs;
+    private final DefaultScheduler scheduler = new DefaultScheduler("NameNode-Checkpoint-", 1, true);
+
+    private volatile long lastCheckpointTxId;
+    private volatile long lastCheckpointTime;
+
+    /**
+     * @param checkpointTxns 距离上次checkpoint的日志数量达到该值时checkpoint，小于等于0时使用默认值
+     * @param checkpointIntervalInMs 距离上次checkpoint超过该时间且有新日志时checkpoint，小于等于0时使用默认值
+     */
+    public Checkpointer(FSDirectory fsDirectory, FSEditLog editLog, File imageDir, long checkpointTxns,
+                        long checkpointIntervalInMs) {
+        this.fsDirectory = fsDirectory;
+        this.editLog = editLog;
+        this.imageDir = imageDir;
+        this.checkpointTxns = checkpointTxns > 0 ? checkpointTxns : DEFAULT_CHECKPOINT_TXNS;
+        this.checkpointIntervalInMs = checkpointIntervalInMs > 0 ? checkpointIntervalInMs : DEFAULT_CHECKPOINT_INTERVAL_IN_MS;
+    }
+
+    /**
+     * 加载最新的fsimage，打开编辑日志并回放fsimage之后的日志，完成后目录树开始写编辑日志
+     * @param parallelism 并行加载fsimage的线程数，小于等于0时使用CPU核数
+     */
+    public void load(int parallelism) throws IOException {
+        if (!imageDir.exists() && !imageDir.mkdirs()) {
+            throw new IOException("创建fsimage目录失败: " + imageDir);
+        }
+        long imageTxId = 0;
+        File image = FSImage.latestImage(imageDir);
+        if (image != null) {
+            long start = System.currentTimeMillis();
+            ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+            try {
+                imageTxId = FSImage.load(image, fsDirectory, pool);
+            } finally {
+                pool.shutdown();
+            }
+            log.info("加载fsimage完成: [file={} inodes={} cost={} ms]", image, fsDirectory.getInodeCount(),
+                    System.currentTimeMillis() - start);
+        }
+        editLog.open(imageTxId);
+        editLog.replay(imageTxId, fsDirectory::applyEditLog);
+        fsDirectory.setEditLog(editLog);
+        this.lastCheckpointTxId = imageTxId;
+        this.lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    public void start() {
+        scheduler.schedule("Checkpoint", this::maybeCheckpoint, CHECK_INTERVAL_IN_MS, CHECK_INTERVAL_IN_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void maybeCheckpoint() {
+        long txns = editLog.getLastTxId() - lastCheckpointTxId;
+        boolean expired = System.currentTimeMillis() - lastCheckpointTime >= checkpointIntervalInMs;
+        if (txns >= checkpointTxns || (txns > 0 && expired)) {
+            try {
+                checkpoint();
+            } catch (Exception e) {
+                log.error("checkpoint失败: ", e);
+            }
+        }
+    }
+
+    /**
+     * 立即checkpoint，返回新的fsimage文件
+     */
+    public synchronized File checkpoint() throws IOException {
+        long start = System.currentTimeMillis();
+        CheckpointPoint point = fsDirectory.beginCheckpoint();
+        File image;
+        try {
+            // fsimage只包含已经持久化的修改，避免崩溃后fsimage比编辑日志更新
+            editLog.waitSync(point.txId()).get();
+            image = FSImage.save(fsDirectory, point, imageDir);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("checkpoint被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("等待编辑日志同步失败", e.getCause());
+        } finally {
+            fsDirectory.endCheckpoint();
+        }
+        lastCheckpointTxId = point.txId();
+        lastCheckpointTime = System.currentTimeMillis();
+        log.info("checkpoint完成: [file={} inodes={} cost={} ms]", image, point.inodeCount(), lastCheckpointTime - start);
+        purge();
+        return image;
+    }
+
+    /**
+     * 只保留最近的几个fsimage，清理最旧的fsimage之前的编辑日志
+     */
+    private void purge() {
+        File[] files = imageDir.listFiles((dir, name) -> FSImage.parseTxId(name) >= 0);
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(FSImage.parseTxId(b.getName()), FSImage.parseTxId(a.getName())));
+        for (int i = RETAINED_IMAGES; i < files.length; i++) {
+            if (!files[i].delete()) {
+                log.warn("清理fsimage失败: [file={}]", files[i]);
+            }
+        }
+        File oldest = files[Math.min(RETAINED_IMAGES, files.length) - 1];
+        editLog.purgeSegments(FSImage.parseTxId(oldest.getName()));
+    }
+
+    public long getLastCheckpointTxId() {
+        return lastCheckpointTxId;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,673 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.tudoujun.distribute.common.exception.NameSpaceException;
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.namenode.editlog.EditLogOpType;
+import com.tudoujun.distribute.namenode.editlog.FSEditLog;
+
+/**
+ * @author xiaowenjun
+ * @description 内存中的文件目录树
+ * 读操作(stat/list)不加锁，直接读取目录的子节点数组快照；
+ * 写操作先无锁解析路径，然后对所有祖先目录加读锁、对被修改的目录加写锁，加锁后重新校验路径，路径变化则重试。
+ * 修改某个目录的子节点必须持有该目录的写锁，而删除或移动某个目录需要持有其父目录的写锁，
+ * 该目录下的写操作都持有其父目录的读锁，因此不会往已经删除或移动的目录中写入。
+ * 编辑日志在锁内追加，冲突的修改在日志中的顺序和实际修改顺序一致。
+ * checkpoint开始时短暂持有所有锁分段确定txId，之后修改某个目录前先保存该目录修改前的子节点数组，
+ * checkpoint线程据此遍历出txId时刻的目录树，不阻塞修改
+ * @create: 2025/03/18 10:45
+ */
+public class FSDirectory {
+
+    public static final long ROOT_ID = 1;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final byte[][] ROOT_COMPONENTS = new byte[0][];
+
+    private final INodeDirectory root = new INodeDirectory(ROOT_ID, new byte[0], System.currentTimeMillis());
+    private final AtomicLong inodeIdGenerator = new AtomicLong(ROOT_ID);
+    private final AtomicLong inodeCount = new AtomicLong(1);
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+    private FSEditLog editLog;
+    private final List<Consumer<EditLog>> editListeners = new CopyOnWriteArrayList<>();
+    private volatile int checkpointEpoch;
+    private int lastCheckpointEpoch;
+    private volatile Map<Long, INode[]> checkpointChildren = new ConcurrentHashMap<>();
+
+    /**
+     * 设置编辑日志，为空时修改不会持久化
+     */
+    public void setEditLog(FSEditLog editLog) {
+        this.editLog = editLog;
+    }
+
+    /**
+     * 添加修改监听器，在修改的锁内按修改顺序收到每一条编辑日志
+     */
+    public void addEditListener(Consumer<EditLog> editListener) {
+        editListeners.add(editListener);
+    }
+
+    /**
+     * 等待当前线程的修改同步到编辑日志，没有开启编辑日志时直接完成
+     */
+    public CompletableFuture<Long> logSync() {
+        return editLog == null ? CompletableFuture.completedFuture(0L) : editLog.syncAsync();
+    }
+
+    /**
+     * 创建目录
+     * @param createParent 父目录不存在时是否一起创建
+     * @return 目录已经存在时返回false
+     */
+    public boolean mkdir(String path, boolean createParent) {
+        byte[][] components = split(path);
+        while (true) {
+            INode[] resolved = resolve(components);
+            int existing = lastExisting(resolved);
+            if (existing == components.length) {
+                if (!resolved[existing].isDirectory()) {
+                    throw new NameSpaceException("文件已存在: " + path);
+                }
+                return false;
+            }
+            if (!resolved[existing].isDirectory()) {
+                throw new NameSpaceException("不是目录: " + toPath(components, existing));
+            }
+            if (!createParent && existing < components.length - 1) {
+                throw new NameSpaceException("父目录不存在: " + toPath(components, components.length - 1));
+            }
+            try (StripedLocks.Guard ignored = lockForUpdate(resolved, existing)) {
+                if (!isStillResolved(components, resolved, existing)
+                        || ((INodeDirectory) resolved[existing]).getChild(components[existing]) != null) {
+                    continue;
+                }
+                checkEditLog();
+                // 先在外部构造好整条目录链，最后一次挂到已存在的目录上，新目录对其它线程可见之前不会再被修改
+                long now = System.currentTimeMillis();
+                INodeDirectory top = null;
+                INodeDirectory current = null;
+                for (int i = existing; i < components.length; i++) {
+                    INodeDirectory dir = new INodeDirectory(inodeIdGenerator.incrementAndGet(), components[i], now);
+                    if (current == null) {
+                        top = dir;
+                    } else {
+                        current.addChild(dir);
+                    }
+                    current = dir;
+                    logEdit(EditLog.newBuilder()
+                            .setOpType(EditLogOpType.MKDIR.getValue())
+                            .setPath(toPath(components, i + 1))
+                            .setInodeId(dir.getId())
+                            .setModificationTime(now));
+                }
+                INodeDirectory parent = (INodeDirectory) resolved[existing];
+                beforeModify(parent);
+                parent.addChild(top);
+                parent.setModificationTime(now);
+                inodeCount.addAndGet(components.length - existing);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 创建文件，父目录必须存在
+     */
+    public INodeFile createFile(String path, short replication) {
+        byte[][] components = split(path);
+        if (components.length == 0) {
+            throw new NameSpaceException("文件已存在: /");
+        }
+        int parentDepth = components.length - 1;
+        while (true) {
+            INode[] resolved = resolve(components);
+            if (resolved[components.length] != null) {
+                throw new NameSpaceException("文件已存在: " + path);
+            }
+            INode parent = resolved[parentDepth];
+            if (parent == null) {
+                throw new NameSpaceException("父目录不存在: " + toPath(components, parentDepth));
+            }
+            if (!parent.isDirectory()) {
+                throw new NameSpaceException("不是目录: " + toPath(components, parentDepth));
+            }
+            try (StripedLocks.Guard ignored = lockForUpdate(resolved, parentDepth)) {
+                if (!isStillResolved(components, resolved, parentDepth)
+                        || ((INodeDirectory) parent).getChild(components[parentDepth]) != null) {
+                    continue;
+                }
+                checkEditLog();
+                long now = System.currentTimeMillis();
+                INodeFile file = new INodeFile(inodeIdGenerator.incrementAndGet(), components[parentDepth], now, replication);
+                beforeModify((INodeDirectory) parent);
+                ((INodeDirectory) parent).addChild(file);
+                parent.setModificationTime(now);
+                inodeCount.incrementAndGet();
+                logEdit(EditLog.newBuilder()
+                        .setOpType(EditLogOpType.CREATE_FILE.getValue())
+                        .setPath(path)
+                        .setInodeId(file.getId())
+                        .setReplication(replication)
+                        .setModificationTime(now));
+                return file;
+            }
+        }
+    }
+
+    /**
+     * 删除文件或目录
+     * @param recursive 非空目录是否递归删除
+     * @return 路径不存在时返回false
+     */
+    public boolean delete(String path, boolean recursive) {
+        byte[][] components = split(path);
+        if (components.length == 0) {
+            throw new NameSpaceException("不能删除根目录");
+        }
+        int parentDepth = components.length - 1;
+        while (true) {
+            INode[] resolved = resolve(components);
+            INode target = resolved[components.length];
+            if (target == null) {
+                return false;
+            }
+            if (!recursive && target.isDirectory() && ((INodeDirectory) target).getChildrenNum() > 0) {
+                throw new NameSpaceException("目录不为空: " + path);
+            }
+            try (StripedLocks.Guard ignored = lockForUpdate(resolved, parentDepth)) {
+                if (!isStillResolved(components, resolved, components.length)) {
+                    continue;
+                }
+                if (!recursive && target.isDirectory() && ((INodeDirectory) target).getChildrenNum() > 0) {
+                    throw new NameSpaceException("目录不为空: " + path);
+                }
+                checkEditLog();
+                long now = System.currentTimeMillis();
+                INodeDirectory parent = (INodeDirectory) resolved[parentDepth];
+                beforeModify(parent);
+                parent.removeChild(target.getName());
+                parent.setModificationTime(now);
+                inodeCount.addAndGet(-countSubtree(target));
+                logEdit(EditLog.newBuilder()
+                        .setOpType(EditLogOpType.DELETE.getValue())
+                        .setPath(path)
+                        .setRecursive(recursive)
+                        .setModificationTime(now));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 重命名或移动，目标路径不能已经存在，目标父目录必须存在
+     */
+    public void rename(String src, String dst) {
+        byte[][] srcComponents = split(src);
+        byte[][] dstComponents = split(dst);
+        if (srcComponents.length == 0 || dstComponents.length == 0) {
+            throw new NameSpaceException("不能重命名根目录");
+        }
+        if (isPrefix(srcComponents, dstComponents)) {
+            throw new NameSpaceException("不能移动到自身或子目录下: " + src + " -> " + dst);
+        }
+        int srcParentDepth = srcComponents.length - 1;
+        int dstParentDepth = dstComponents.length - 1;
+        while (true) {
+            INode[] srcResolved = resolve(srcComponents);
+            INode[] dstResolved = resolve(dstComponents);
+            INode target = srcResolved[srcComponents.length];
+            if (target == null) {
+                throw new NameSpaceException("文件不存在: " + src);
+            }
+            if (dstResolved[dstComponents.length] != null) {
+                throw new NameSpaceException("文件已存在: " + dst);
+            }
+            INode dstParent = dstResolved[dstParentDepth];
+            if (dstParent == null) {
+                throw new NameSpaceException("父目录不存在: " + toPath(dstComponents, dstParentDepth));
+            }
+            if (!dstParent.isDirectory()) {
+                throw new NameSpaceException("不是目录: " + toPath(dstComponents, dstParentDepth));
+            }
+            long[] readIds = new long[srcParentDepth + dstParentDepth];
+            for (int i = 0; i < srcParentDepth; i++) {
+                readIds[i] = srcResolved[i].getId();
+            }
+            for (int i = 0; i < dstParentDepth; i++) {
+                readIds[srcParentDepth + i] = dstResolved[i].getId();
+            }
+            long[] writeIds = {srcResolved[srcParentDepth].getId(), dstParent.getId()};
+            try (StripedLocks.Guard ignored = locks.lock(readIds, writeIds)) {
+                if (!isStillResolved(srcComponents, srcResolved, srcComponents.length)
+                        || !isStillResolved(dstComponents, dstResolved, dstParentDepth)
+                        || ((INodeDirectory) dstParent).getChild(dstComponents[dstParentDepth]) != null) {
+                    continue;
+                }
+                checkEditLog();
+                long now = System.currentTimeMillis();
+                INodeDirectory srcParent = (INodeDirectory) srcResolved[srcParentDepth];
+                INode renamed = target.withName(dstComponents[dstParentDepth]);
+                beforeModify(srcParent);
+                beforeModify((INodeDirectory) dstParent);
+                if (srcParent == dstParent) {
+                    srcParent.replaceChild(target.getName(), renamed);
+                } else {
+                    ((INodeDirectory) dstParent).addChild(renamed);
+                    srcParent.removeChild(target.getName());
+                    dstParent.setModificationTime(now);
+                }
+                srcParent.setModificationTime(now);
+                logEdit(EditLog.newBuilder()
+                        .setOpType(EditLogOpType.RENAME.getValue())
+                        .setPath(src)
+                        .setDst(dst)
+                        .setModificationTime(now));
+                return;
+            }
+        }
+    }
+
+    /**
+     * 查询文件或目录，不存在时返回null，不加锁
+     */
+    public INode getINode(String path) {
+        byte[][] components = split(path);
+        INode current = root;
+        for (byte[] component : components) {
+            if (!(current instanceof INodeDirectory dir)) {
+                return null;
+            }
+            current = dir.getChild(component);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 列出目录下的子节点快照，路径为文件时返回文件自身，不存在时返回null，不加锁
+     */
+    public INode[] listChildren(String path) {
+        INode inode = getINode(path);
+        if (inode == null) {
+            return null;
+        }
+        if (inode instanceof INodeDirectory dir) {
+            return dir.getChildren();
+        }
+        return new INode[]{inode};
+    }
+
+    /**
+     * 按编辑日志回放一次修改，只能单线程调用：启动时加载fsimage之后、对外提供服务之前回放，或者副本节点应用所属节点复制过来的日志，
+     * 新建的节点使用日志中记录的inodeId，保证和写日志时一致。回放期间可以并发读
+     */
+    public void applyEditLog(EditLog editLog) {
+        switch (EditLogOpType.of(editLog.getOpType())) {
+            case MKDIR -> addReplayed(editLog.getPath(),
+                    new INodeDirectory(editLog.getInodeId(), lastComponent(editLog.getPath()), editLog.getModificationTime()));
+            case CREATE_FILE -> addReplayed(editLog.getPath(), new INodeFile(editLog.getInodeId(),
+                    lastComponent(editLog.getPath()), editLog.getModificationTime(), (short) editLog.getReplication()));
+            case DELETE -> delete(editLog.getPath(), true);
+            case RENAME -> rename(editLog.getPath(), editLog.getDst());
+            default -> throw new NameSpaceException("未知的编辑日志类型: " + editLog.getOpType());
+        }
+    }
+
+    private void addReplayed(String path, INode inode) {
+        byte[][] components = split(path);
+        INode parent = getINode(toPath(components, components.length - 1));
+        if (!(parent instanceof INodeDirectory dir)) {
+            throw new NameSpaceException("回放编辑日志失败，父目录不存在: " + path);
+        }
+        if (!dir.addChild(inode)) {
+            throw new NameSpaceException("回放编辑日志失败，文件已存在: " + path);
+        }
+        dir.setModificationTime(inode.getModificationTime());
+        inodeCount.incrementAndGet();
+        inodeIdGenerator.accumulateAndGet(inode.getId(), Math::max);
+    }
+
+    private static byte[] lastComponent(String path) {
+        byte[][] components = split(path);
+        if (components.length == 0) {
+            throw new NameSpaceException("回放编辑日志失败，路径不能是根目录");
+        }
+        return components[components.length - 1];
+    }
+
+    /**
+     * 开始checkpoint：短暂持有所有锁分段，此时没有进行中的修改，编辑日志的最后一个txId即为checkpoint的txId
+     */
+    CheckpointPoint beginCheckpoint() {
+        try (StripedLocks.Guard ignored = locks.lockAll()) {
+            if (checkpointEpoch != 0) {
+                throw new IllegalStateException("已经有正在进行的checkpoint");
+            }
+            checkpointChildren = new ConcurrentHashMap<>();
+            checkpointEpoch = ++lastCheckpointEpoch;
+            long txId = editLog == null ? 0 : editLog.getLastTxId();
+            return new CheckpointPoint(txId, inodeIdGenerator.get(), inodeCount.get());
+        }
+    }
+
+    /**
+     * checkpoint时刻目录的子节点，每个目录只能读取一次
+     */
+    INode[] checkpointChildren(INodeDirectory dir) {
+        long[] ids = {dir.getId()};
+        try (StripedLocks.Guard ignored = locks.lock(ids, new long[0])) {
+            INode[] saved = checkpointChildren.remove(dir.getId());
+            if (saved != null) {
+                return saved;
+            }
+            // 持有读锁时没有并发修改，标记之后该目录对象的修改不再需要保存
+            dir.checkpointEpoch = checkpointEpoch;
+            return dir.getChildren();
+        }
+    }
+
+    void endCheckpoint() {
+        checkpointEpoch = 0;
+        checkpointChildren = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 在目录的写锁内、修改子节点之前调用，checkpoint进行中且该目录还没有保存过时，保存修改前的子节点
+     */
+    private void beforeModify(INodeDirectory dir) {
+        int epoch = checkpointEpoch;
+        if (epoch != 0 && dir.checkpointEpoch != epoch) {
+            checkpointChildren.putIfAbsent(dir.getId(), dir.getChildren());
+            dir.checkpointEpoch = epoch;
+        }
+    }
+
+    INodeDirectory getRoot() {
+        return root;
+    }
+
+    /**
+     * 加载fsimage之后设置inodeId和inode数量
+     */
+    void loaded(long lastInodeId, long count) {
+        inodeIdGenerator.set(lastInodeId);
+        inodeCount.set(count);
+    }
+
+    /**
+     * 在修改的锁内、修改目录树之前调用，编辑日志同步失败后拒绝修改；检查之后才失败的修改在等待同步时返回失败
+     */
+    private void checkEditLog() {
+        if (editLog != null && editLog.isFailed()) {
+            throw new NameSpaceException("编辑日志同步失败，不再接受修改");
+        }
+    }
+
+    private void logEdit(EditLog.Builder editLog) {
+        if (this.editLog != null) {
+            this.editLog.logEdit(editLog);
+        }
+        if (!editListeners.isEmpty()) {
+            EditLog edit = editLog.build();
+            for (Consumer<EditLog> listener : editListeners) {
+                listener.accept(edit);
+            }
+        }
+    }
+
+    /**
+     * 收集分片键匹配的所有子树，期间没有并发修改。分片键为第depth层的路径，或者更浅的文件和目录的路径：
+     * 对前depth-1层的所有目录加读锁，此时不能新增、删除或移动分片键；对匹配的第depth层目录加写锁，此时不能修改匹配的子树。
+     * 节点按先父后子的顺序交给consumer，更浅的目录只交出目录本身，收集完成后仍在锁内执行onLocked
+     */
+    public void collectSubtrees(int depth, Predicate<String> keyFilter, BiConsumer<String, INode> consumer, Runnable onLocked) {
+        while (true) {
+            KeyLayout layout = layoutKeys(depth, keyFilter);
+            long[] readIds = new long[layout.upper().size()];
+            for (int i = 0; i < readIds.length; i++) {
+                readIds[i] = layout.upper().get(i).getId();
+            }
+            long[] writeIds = layout.keys().stream()
+                    .filter(INode::isDirectory)
+                    .mapToLong(INode::getId)
+                    .toArray();
+            try (StripedLocks.Guard ignored = locks.lock(readIds, writeIds)) {
+                KeyLayout locked = layoutKeys(depth, keyFilter);
+                if (!locked.upper().equals(layout.upper()) || !locked.keys().equals(layout.keys())) {
+                    continue;
+                }
+                for (int i = 0; i < layout.keys().size(); i++) {
+                    INode key = layout.keys().get(i);
+                    String keyPath = layout.keyPaths().get(i);
+                    if (layout.wholeSubtree().get(i)) {
+                        collectSubtree(keyPath, key, consumer);
+                    } else {
+                        consumer.accept(keyPath, key);
+                    }
+                }
+                onLocked.run();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 无锁列出匹配的分片键路径，只包括需要整个子树的分片键，不包括更浅的目录
+     */
+    public List<String> listKeys(int depth, Predicate<String> keyFilter) {
+        KeyLayout layout = layoutKeys(depth, keyFilter);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < layout.keys().size(); i++) {
+            if (layout.wholeSubtree().get(i)) {
+                keys.add(layout.keyPaths().get(i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 无锁遍历前depth层：upper为前depth-1层的所有目录，keys为匹配的分片键节点，
+     * 第depth层的分片键和更浅的文件需要收集整个子树，更浅的目录只收集目录本身
+     */
+    private KeyLayout layoutKeys(int depth, Predicate<String> keyFilter) {
+        List<INodeDirectory> upper = new ArrayList<>();
+        List<String> keyPaths = new ArrayList<>();
+        List<INode> keys = new ArrayList<>();
+        List<Boolean> wholeSubtree = new ArrayList<>();
+        List<INodeDirectory> level = List.of(root);
+        List<String> levelPaths = List.of("");
+        upper.add(root);
+        for (int d = 1; d <= depth && !level.isEmpty(); d++) {
+            List<INodeDirectory> next = new ArrayList<>();
+            List<String> nextPaths = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                for (INode child : level.get(i).getChildren()) {
+                    String path = levelPaths.get(i) + "/" + child.getNameAsString();
+                    if (d < depth && child instanceof INodeDirectory dir) {
+                        upper.add(dir);
+                        next.add(dir);
+                        nextPaths.add(path);
+                    }
+                    if (keyFilter.test(path)) {
+                        keyPaths.add(path);
+                        keys.add(child);
+                        wholeSubtree.add(d == depth || !child.isDirectory());
+                    }
+                }
+            }
+            level = next;
+            levelPaths = nextPaths;
+        }
+        return new KeyLayout(upper, keyPaths, keys, wholeSubtree);
+    }
+
+    private static void collectSubtree(String path, INode inode, BiConsumer<String, INode> consumer) {
+        Deque<PathINode> stack = new ArrayDeque<>();
+        stack.push(new PathINode(path, inode));
+        while (!stack.isEmpty()) {
+            PathINode current = stack.pop();
+            consumer.accept(current.path(), current.inode());
+            if (current.inode() instanceof INodeDirectory dir) {
+                INode[] children = dir.getChildren();
+                for (int i = children.length - 1; i >= 0; i--) {
+                    stack.push(new PathINode(current.path() + "/" + children[i].getNameAsString(), children[i]));
+                }
+            }
+        }
+    }
+
+    private record KeyLayout(List<INodeDirectory> upper, List<String> keyPaths, List<INode> keys, List<Boolean> wholeSubtree) {
+    }
+
+    private record PathINode(String path, INode inode) {
+    }
+
+    public long getInodeCount() {
+        return inodeCount.get();
+    }
+
+    /**
+     * 对第0到depth-1层目录加读锁，对第depth层目录加写锁
+     */
+    private StripedLocks.Guard lockForUpdate(INode[] resolved, int depth) {
+        long[] readIds = new long[depth];
+        for (int i = 0; i < depth; i++) {
+            readIds[i] = resolved[i].getId();
+        }
+        return locks.lock(readIds, new long[]{resolved[depth].getId()});
+    }
+
+    /**
+     * 无锁解析路径，resolved[i]为前i个路径组成部分对应的节点，resolved[0]为根目录，不存在的部分为null
+     */
+    private INode[] resolve(byte[][] components) {
+        INode[] resolved = new INode[components.length + 1];
+        INode current = root;
+        resolved[0] = current;
+        for (int i = 0; i < components.length; i++) {
+            if (!(current instanceof INodeDirectory dir)) {
+                break;
+            }
+            current = dir.getChild(components[i]);
+            if (current == null) {
+                break;
+            }
+            resolved[i + 1] = current;
+        }
+        return resolved;
+    }
+
+    private static int lastExisting(INode[] resolved) {
+        int i = 0;
+        while (i + 1 < resolved.length && resolved[i + 1] != null) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 加锁后校验前depth层的解析结果没有变化
+     */
+    private boolean isStillResolved(byte[][] components, INode[] resolved, int depth) {
+        INode current = root;
+        for (int i = 0; i < depth; i++) {
+            if (!(current instanceof INodeDirectory dir)) {
+                return false;
+            }
+            current = dir.getChild(components[i]);
+            if (current != resolved[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long countSubtree(INode inode) {
+        long count = 0;
+        Deque<INode> stack = new ArrayDeque<>();
+        stack.push(inode);
+        while (!stack.isEmpty()) {
+            INode current = stack.pop();
+            count++;
+            if (current instanceof INodeDirectory dir) {
+                for (INode child : dir.getChildren()) {
+                    stack.push(child);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isPrefix(byte[][] prefix, byte[][] components) {
+        if (prefix.length > components.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!Arrays.equals(prefix[i], components[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把路径拆分为UTF-8编码的组成部分
+     */
+    static byte[][] split(String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new NameSpaceException("路径必须是以/开头的绝对路径: " + path);
+        }
+        String[] parts = path.split("/");
+        int count = 0;
+        for (String part : parts) {
+            if (!part.isEmpty()) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return ROOT_COMPONENTS;
+        }
+        byte[][] components = new byte[count][];
+        int i = 0;
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (".".equals(part) || "..".equals(part)) {
+                throw new NameSpaceException("路径不能包含.或..: " + path);
+            }
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_NAME_LENGTH) {
+                throw new NameSpaceException("文件名过长: " + part);
+            }
+            components[i++] = bytes;
+        }
+        return components;
+    }
+
+    private static String toPath(byte[][] components, int depth) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            builder.append('/').append(new String(components[i], StandardCharsets.UTF_8));
+        }
+        return builder.length() == 0 ? "/" : builder.toString();
+    }
+}
@@ -0,0 +1,296 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description fsimage文件，格式：
+ * [section]...[section] [header + section表] [section表偏移 long][MAGIC long]
+ * 每个section由若干目录记录组成：[目录id long][子节点数量 int][子节点]...，
+ * 子节点：[类型 byte][id long][修改时间 long][名称长度 short][名称] + 文件：[长度 long][副本数 short]。
+ * 目录按层序写入，一个section中的子节点数量达到阈值后切换到下一个section，
+ * 加载时每个section单独映射到内存并在ForkJoinPool中并行解析，最后并行把子节点数组挂到对应的目录上
+ * @create: 2025/03/24 10:30
+ */
+@Slf4j
+public class FSImage {
+
+    public static final String IMAGE_PREFIX = "fsimage_";
+    public static final Pattern IMAGE_PATTERN = Pattern.compile("fsimage_(\\d+)");
+    private static final long MAGIC = 0x54444653494D4731L;
+    private static final int VERSION = 1;
+    private static final int SECTION_INODES = 256 * 1024;
+    private static final int FOOTER_SIZE = 16;
+    private static final int HEADER_SIZE = 48;
+    private static final int SECTION_ENTRY_SIZE = 24;
+    private static final byte TYPE_FILE = 0;
+    private static final byte TYPE_DIRECTORY = 1;
+
+    /**
+     * 把checkpoint时刻的目录树写入fsimage_txId，先写临时文件，fsync后原子重命名
+     */
+    static File save(FSDirectory fsDirectory, CheckpointPoint point, File dir) throws IOException {
+        File target = new File(dir, IMAGE_PREFIX + point.txId());
+        File tmp = new File(dir, target.getName() + ".ckpt");
+        List<SectionInfo> sections = new ArrayList<>();
+        long inodeCount = 1;
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 * 1024 * 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            Deque<INodeDirectory> queue = new ArrayDeque<>();
+            queue.add(fsDirectory.getRoot());
+            long position = 0;
+            int sectionInodes = 0;
+            int sectionRecords = 0;
+            while (!queue.isEmpty()) {
+                INodeDirectory directory = queue.poll();
+                INode[] children = fsDirectory.checkpointChildren(directory);
+                if (children.length == 0) {
+                    continue;
+                }
+                out.writeLong(directory.getId());
+                out.writeInt(children.length);
+                for (INode child : children) {
+                    writeINode(out, child);
+                    if (child instanceof INodeDirectory childDirectory) {
+                        queue.add(childDirectory);
+                    }
+                }
+                inodeCount += children.length;
+                sectionInodes += children.length;
+                sectionRecords++;
+                if (sectionInodes >= SECTION_INODES) {
+                    sections.add(writeSection(channel, position, bytes, sectionRecords));
+                    position += bytes.size();
+                    bytes.reset();
+                    sectionInodes = 0;
+                    sectionRecords = 0;
+                }
+            }
+            if (sectionRecords > 0) {
+                sections.add(writeSection(channel, position, bytes, sectionRecords));
+                position += bytes.size();
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + sections.size() * SECTION_ENTRY_SIZE + FOOTER_SIZE);
+            table.putLong(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(point.txId())
+                    .putLong(point.lastInodeId())
+                    .putLong(inodeCount)
+                    .putLong(fsDirectory.getRoot().getModificationTime());
+            table.putInt(sections.size());
+            for (SectionInfo section : sections) {
+                table.putLong(section.offset()).putLong(section.length()).putInt(section.numOfRecords()).putInt(section.checksum());
+            }
+            table.putLong(position).putLong(MAGIC);
+            table.flip();
+            while (table.hasRemaining()) {
+                position += channel.write(table, position);
+            }
+            channel.force(true);
+        }
+        if (inodeCount != point.inodeCount()) {
+            log.warn("fsimage中的inode数量和checkpoint时刻的数量不一致: [image={} expected={}]", inodeCount, point.inodeCount());
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static void writeINode(DataOutputStream out, INode inode) throws IOException {
+        out.writeByte(inode.isDirectory() ? TYPE_DIRECTORY : TYPE_FILE);
+        out.writeLong(inode.getId());
+        out.writeLong(inode.getModificationTime());
+        out.writeShort(inode.getName().length);
+        out.write(inode.getName());
+        if (inode instanceof INodeFile file) {
+            out.writeLong(file.getLength());
+            out.writeShort(file.getReplication());
+        }
+    }
+
+    private static SectionInfo writeSection(FileChannel channel, long position, ByteArrayOutputStream bytes,
+                                            int numOfRecords) throws IOException {
+        byte[] data = bytes.toByteArray();
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(data, 0, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        return new SectionInfo(position, data.length, numOfRecords, (int) crc32c.getValue());
+    }
+
+    /**
+     * 加载fsimage到空的目录树中，返回fsimage的txId
+     */
+    static long load(File file, FSDirectory fsDirectory, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("fsimage文件不完整: " + file);
+            }
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_SIZE, FOOTER_SIZE);
+            long tableOffset = footer.getLong();
+            if (footer.getLong() != MAGIC || tableOffset < 0 || tableOffset > size - FOOTER_SIZE - HEADER_SIZE) {
+                throw new IOException("不是有效的fsimage文件: " + file);
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, size - FOOTER_SIZE - tableOffset);
+            if (table.getLong() != MAGIC || table.getInt() != VERSION) {
+                throw new IOException("不支持的fsimage版本: " + file);
+            }
+            long txId = table.getLong();
+            long lastInodeId = table.getLong();
+            long inodeCount = table.getLong();
+            long rootModificationTime = table.getLong();
+            int numOfSections = table.getInt();
+            SectionInfo[] sections = new SectionInfo[numOfSections];
+            for (int i = 0; i < numOfSections; i++) {
+                sections[i] = new SectionInfo(table.getLong(), table.getLong(), table.getInt(), table.getInt());
+            }
+
+            // 第一轮：并行解析各个section，目录节点登记到directories中
+            Map<Long, INodeDirectory> directories = new ConcurrentHashMap<>();
+            LoadedSection[] loaded = new LoadedSection[numOfSections];
+            parallel(pool, numOfSections, i -> loaded[i] = loadSection(channel, sections[i], directories, file));
+            // 第二轮：所有目录节点都已创建，并行把子节点数组挂到目录上
+            INodeDirectory root = fsDirectory.getRoot();
+            directories.put(FSDirectory.ROOT_ID, root);
+            parallel(pool, numOfSections, i -> {
+                LoadedSection section = loaded[i];
+                for (int j = 0; j < section.directoryIds().length; j++) {
+                    INodeDirectory directory = directories.get(section.directoryIds()[j]);
+                    if (directory == null) {
+                        throw new IOException("fsimage中目录不存在: " + section.directoryIds()[j]);
+                    }
+                    directory.setChildren(section.children()[j]);
+                }
+            });
+            root.setModificationTime(rootModificationTime);
+            fsDirectory.loaded(lastInodeId, inodeCount);
+            return txId;
+        }
+    }
+
+    private static LoadedSection loadSection(FileChannel channel, SectionInfo section, Map<Long, INodeDirectory> directories,
+                                             File file) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, section.offset(), section.length());
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(buffer.duplicate());
+        if ((int) crc32c.getValue() != section.checksum()) {
+            throw new IOException("fsimage校验失败: [file=" + file + " offset=" + section.offset() + "]");
+        }
+        long[] directoryIds = new long[section.numOfRecords()];
+        INode[][] children = new INode[section.numOfRecords()][];
+        for (int i = 0; i < section.numOfRecords(); i++) {
+            directoryIds[i] = buffer.getLong();
+            INode[] array = new INode[buffer.getInt()];
+            for (int j = 0; j < array.length; j++) {
+                byte type = buffer.get();
+                long id = buffer.getLong();
+                long modificationTime = buffer.getLong();
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                if (type == TYPE_DIRECTORY) {
+                    INodeDirectory directory = new INodeDirectory(id, name, modificationTime);
+                    directories.put(id, directory);
+                    array[j] = directory;
+                } else {
+                    long length = buffer.getLong();
+                    INodeFile inodeFile = new INodeFile(id, name, modificationTime, buffer.getShort());
+                    inodeFile.setLength(length);
+                    array[j] = inodeFile;
+                }
+            }
+            children[i] = array;
+        }
+        return new LoadedSection(directoryIds, children);
+    }
+
+    private static void parallel(ForkJoinPool pool, int n, SectionTask task) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int index = i;
+            tasks.add(() -> {
+                task.run(index);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("加载fsimage被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("加载fsimage失败", e.getCause());
+        }
+    }
+
+    /**
+     * 目录下txId最大的fsimage，没有时返回null
+     */
+    public static File latestImage(File dir) {
+        File[] files = dir.listFiles();
+        File latest = null;
+        long latestTxId = -1;
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            long txId = parseTxId(file.getName());
+            if (txId > latestTxId) {
+                latestTxId = txId;
+                latest = file;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * 解析fsimage的txId，不是fsimage时返回-1
+     */
+    public static long parseTxId(String fileName) {
+        Matcher matcher = IMAGE_PATTERN.matcher(fileName);
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private interface SectionTask {
+        void run(int index) throws IOException;
+    }
+
+    private record SectionInfo(long offset, long length, int numOfRecords, int checksum) {
+    }
+
+    private record LoadedSection(long[] directoryIds, INode[][] children) {
+    }
+}
@@ -0,0 +1,48 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author xiaowenjun
+ * @description 文件目录树节点，名称使用UTF-8字节数组保存，名称不可变，重命名时生成新的节点对象并保留id
+ * @create: 2025/03/18 10:02
+ */
+public abstract class INode {
+
+    protected final long id;
+    protected final byte[] name;
+    protected volatile long modificationTime;
+
+    protected INode(long id, byte[] name, long modificationTime) {
+        this.id = id;
+        this.name = name;
+        this.modificationTime = modificationTime;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public byte[] getName() {
+        return name;
+    }
+
+    public String getNameAsString() {
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    public long getModificationTime() {
+        return modificationTime;
+    }
+
+    public void setModificationTime(long modificationTime) {
+        this.modificationTime = modificationTime;
+    }
+
+    public abstract boolean isDirectory();
+
+    /**
+     * 生成同一个节点的新名称副本，用于重命名
+     */
+    public abstract INode withName(byte[] name);
+}
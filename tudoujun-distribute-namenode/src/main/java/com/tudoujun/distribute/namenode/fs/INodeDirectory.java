@@ -0,0 +1,143 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.util.Arrays;
+
+/**
+ * @author xiaowenjun
+ * @description 目录节点，子节点按名称字节序保存在有序数组中，二分查找。
+ * 修改时复制出新数组再整体替换，读操作不需要加锁，修改操作由FSDirectory在目录对应的锁分段上加写锁
+ * @create: 2025/03/18 10:10
+ */
+public class INodeDirectory extends INode {
+
+    private static final INode[] EMPTY = new INode[0];
+
+    private volatile INode[] children = EMPTY;
+    /**
+     * 最近一次为哪个checkpoint保存过修改前的子节点，只在持有该目录锁分段时读写
+     */
+    int checkpointEpoch;
+
+    public INodeDirectory(long id, byte[] name, long modificationTime) {
+        super(id, name, modificationTime);
+    }
+
+    private INodeDirectory(long id, byte[] name, long modificationTime, INode[] children) {
+        super(id, name, modificationTime);
+        this.children = children;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return true;
+    }
+
+    @Override
+    public INode withName(byte[] name) {
+        return new INodeDirectory(id, name, modificationTime, children);
+    }
+
+    public INode getChild(byte[] name) {
+        INode[] snapshot = children;
+        int index = search(snapshot, name);
+        return index >= 0 ? snapshot[index] : null;
+    }
+
+    /**
+     * 子节点快照，调用方不能修改
+     */
+    public INode[] getChildren() {
+        return children;
+    }
+
+    public int getChildrenNum() {
+        return children.length;
+    }
+
+    /**
+     * 加载fsimage时直接设置已经排好序的子节点
+     */
+    void setChildren(INode[] children) {
+        this.children = children;
+    }
+
+    /**
+     * 添加子节点，同名子节点已存在时返回false
+     */
+    boolean addChild(INode child) {
+        INode[] snapshot = children;
+        int index = search(snapshot, child.name);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        INode[] newChildren = new INode[snapshot.length + 1];
+        System.arraycopy(snapshot, 0, newChildren, 0, insertAt);
+        newChildren[insertAt] = child;
+        System.arraycopy(snapshot, insertAt, newChildren, insertAt + 1, snapshot.length - insertAt);
+        children = newChildren;
+        return true;
+    }
+
+    /**
+     * 删除子节点，返回被删除的节点
+     */
+    INode removeChild(byte[] name) {
+        INode[] snapshot = children;
+        int index = search(snapshot, name);
+        if (index < 0) {
+            return null;
+        }
+        INode[] newChildren = snapshot.length == 1 ? EMPTY : new INode[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, newChildren, 0, index);
+        System.arraycopy(snapshot, index + 1, newChildren, index, snapshot.length - index - 1);
+        children = newChildren;
+        return snapshot[index];
+    }
+
+    /**
+     * 同一目录下重命名，一次替换数组，读操作不会看到中间状态
+     */
+    boolean replaceChild(byte[] oldName, INode child) {
+        INode[] snapshot = children;
+        int oldIndex = search(snapshot, oldName);
+        if (oldIndex < 0 || search(snapshot, child.name) >= 0) {
+            return false;
+        }
+        INode[] newChildren = new INode[snapshot.length];
+        int j = 0;
+        boolean inserted = false;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (i == oldIndex) {
+                continue;
+            }
+            if (!inserted && Arrays.compareUnsigned(child.name, snapshot[i].name) < 0) {
+                newChildren[j++] = child;
+                inserted = true;
+            }
+            newChildren[j++] = snapshot[i];
+        }
+        if (!inserted) {
+            newChildren[j] = child;
+        }
+        children = newChildren;
+        return true;
+    }
+
+    private static int search(INode[] nodes, byte[] name) {
+        int low = 0;
+        int high = nodes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Arrays.compareUnsigned(nodes[mid].name, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
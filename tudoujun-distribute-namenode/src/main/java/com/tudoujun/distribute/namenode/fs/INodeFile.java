@@ -0,0 +1,41 @@
+package com.tudoujun.distribute.namenode.fs;
+
+/**
+ * @author xiaowenjun
+ * @description 文件节点
+ * @create: 2025/03/18 10:06
+ */
+public class INodeFile extends INode {
+
+    private volatile long length;
+    private final short replication;
+
+    public INodeFile(long id, byte[] name, long modificationTime, short replication) {
+        super(id, name, modificationTime);
+        this.replication = replication;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public short getReplication() {
+        return replication;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public INode withName(byte[] name) {
+        INodeFile file = new INodeFile(id, name, modificationTime, replication);
+        file.length = length;
+        return file;
+    }
+}
@@ -0,0 +1,89 @@
+package com.tudoujun.distribute.namenode.fs;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author xiaowenjun
+ * @description 按目录id分段的读写锁，一次操作需要的所有分段按下标升序加锁，避免死锁
+ * @create: 2025/03/18 10:31
+ */
+public class StripedLocks {
+
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    private int stripe(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * 对readIds加读锁，对writeIds加写锁，同一个分段既要读又要写时只加写锁
+     */
+    public Guard lock(long[] readIds, long[] writeIds) {
+        // 编码为 stripe << 1 | write，排序后同一分段的写锁排在读锁后面
+        int[] keys = new int[readIds.length + writeIds.length];
+        int n = 0;
+        for (long id : readIds) {
+            keys[n++] = stripe(id) << 1;
+        }
+        for (long id : writeIds) {
+            keys[n++] = stripe(id) << 1 | 1;
+        }
+        Arrays.sort(keys);
+        Lock[] acquired = new Lock[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int stripe = keys[i] >>> 1;
+            if (i + 1 < n && keys[i + 1] >>> 1 == stripe) {
+                continue;
+            }
+            boolean write = (keys[i] & 1) == 1;
+            Lock lock = write ? locks[stripe].writeLock() : locks[stripe].readLock();
+            lock.lock();
+            acquired[count++] = lock;
+        }
+        return new Guard(acquired, count);
+    }
+
+    /**
+     * 对所有分段加写锁，用于需要短暂停止所有修改的场景，例如确定checkpoint的txId
+     */
+    public Guard lockAll() {
+        Lock[] acquired = new Lock[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            acquired[i] = locks[i].writeLock();
+            acquired[i].lock();
+        }
+        return new Guard(acquired, acquired.length);
+    }
+
+    public static class Guard implements AutoCloseable {
+
+        private final Lock[] acquired;
+        private final int count;
+
+        private Guard(Lock[] acquired, int count) {
+            this.acquired = acquired;
+            this.count = count;
+        }
+
+        @Override
+        public void close() {
+            for (int i = count - 1; i >= 0; i--) {
+                acquired[i].unlock();
+            }
+        }
+    }
+}
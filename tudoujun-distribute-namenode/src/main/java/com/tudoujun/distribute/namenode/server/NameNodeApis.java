@@ -1,21 +1,50 @@
 package com.tudoujun.distribute.namenode.server;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+import com.google.protobuf.ByteString;
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.exception.NameSpaceException;
 import com.tudoujun.distribute.common.network.AbstractChannelHandler;
+import com.tudoujun.distribute.common.network.BackpressureExecutor;
 import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.sharding.SlotTable;
 import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.namenode.CreateFileRequest;
+import com.tudoujun.distribute.model.namenode.DeleteFileRequest;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.FileStatus;
+import com.tudoujun.distribute.model.namenode.ForwardBatch;
+import com.tudoujun.distribute.model.namenode.ForwardBatchResponse;
+import com.tudoujun.distribute.model.namenode.ForwardedRequest;
+import com.tudoujun.distribute.model.namenode.ForwardedResponse;
+import com.tudoujun.distribute.model.namenode.MkdirRequest;
 import com.tudoujun.distribute.model.namenode.NameNodeAwareRequest;
+import com.tudoujun.distribute.model.namenode.NameSpaceResponse;
+import com.tudoujun.distribute.model.namenode.RenameFileRequest;
+import com.tudoujun.distribute.model.namenode.SlotRedirect;
+import com.tudoujun.distribute.namenode.block.BlockManager;
 import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.fs.INode;
+import com.tudoujun.distribute.namenode.fs.INodeDirectory;
+import com.tudoujun.distribute.namenode.fs.INodeFile;
+import com.tudoujun.distribute.namenode.shard.ShardingManager;
+import com.tudoujun.distribute.namenode.shard.migration.SlotWriteGuard;
 import com.tudoujun.distribute.namenode.shard.controller.ControllerManager;
+import com.tudoujun.distribute.namenode.shard.forward.RequestForwarder;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNode;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+import com.tudoujun.distribute.namenode.shard.replication.ReplicationManager;
+
+import org.apache.commons.lang3.StringUtils;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.SocketChannel;
@@ -33,20 +62,39 @@ public class NameNodeApis extends AbstractChannelHandler {
     private final NameNodeConfig nameNodeConfig;
     private final ControllerManager controllerManager;
     private final DefaultScheduler defaultScheduler;
-    private final ThreadPoolExecutor executor;
+    private final FSDirectory fsDirectory;
+    private final ShardingManager shardingManager;
+    private final BackpressureExecutor executor;
+    private final RequestForwarder requestForwarder;
+    private final ReplicationManager replicationManager;
+    private final BlockManager blockManager;
     protected int nodeId;
 
     public NameNodeApis(PeerNameNodes peerNameNodes,
                         NameNodeConfig nameNodeConfig,
                         ControllerManager controllerManager,
-                        DefaultScheduler defaultScheduler) {
+                        DefaultScheduler defaultScheduler,
+                        FSDirectory fsDirectory,
+                        ShardingManager shardingManager,
+                        ReplicationManager replicationManager,
+                        BlockManager blockManager) {
         this.peerNameNodes = peerNameNodes;
+        this.peerNameNodes.setNameNodeApis(this);
         this.nameNodeConfig = nameNodeConfig;
         this.controllerManager = controllerManager;
         this.defaultScheduler = defaultScheduler;
-        this.executor = new ThreadPoolExecutor(nameNodeConfig.getNameNodeApiCoreSize(), nameNodeConfig.getNameNodeApiMaximumPoolSize(),
-                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(nameNodeConfig.getNameNodeApiQueueSize()));
+        this.fsDirectory = fsDirectory;
+        this.shardingManager = shardingManager;
+        this.replicationManager = replicationManager;
+        this.blockManager = blockManager;
+        this.executor = new BackpressureExecutor("NameNode-Api", nameNodeConfig.getNameNodeApiExecutorMode(),
+                nameNodeConfig.getNameNodeApiCoreSize(),
+                nameNodeConfig.getNameNodeApiMaximumPoolSize(), nameNodeConfig.getNameNodeApiQueueSize(),
+                nameNodeConfig.getNameNodeApiQueueHighWatermark(), nameNodeConfig.getNameNodeApiQueueLowWatermark(),
+                nameNodeConfig.getBusyRetryAfterInMs());
         this.nodeId = nameNodeConfig.getNameNodeId();
+        this.requestForwarder = nameNodeConfig.isForwardRequests() ? new RequestForwarder(peerNameNodes,
+                nameNodeConfig.getForwardBatchSize(), nameNodeConfig.getForwardMaxInflightBatches()) : null;
     }
 
     @Override
@@ -61,13 +109,294 @@ public class NameNodeApis extends AbstractChannelHandler {
         }
         RequestWrapper requestWrapper = new RequestWrapper(ctx, request, nodeId, bodyLength -> {});
         PacketType packetType = PacketType.of(request.getPacketType());
-        switch (packetType) {
-            case NAME_NODE_PEER_AWARE -> handleNameNodePeerAwareRequest(requestWrapper);
-            case NAME_NODE_CONTROLLER_VOTE -> controllerManager.onReceiveControllerVote(requestWrapper);
+        try {
+            switch (packetType) {
+                case NAME_NODE_PEER_AWARE -> handleNameNodePeerAwareRequest(requestWrapper);
+                case NAME_NODE_RAFT_REQUEST_VOTE -> controllerManager.onReceiveRequestVote(requestWrapper);
+                case NAME_NODE_RAFT_APPEND_ENTRIES -> controllerManager.onReceiveAppendEntries(requestWrapper);
+                case NAME_NODE_RAFT_INSTALL_SNAPSHOT -> controllerManager.onReceiveInstallSnapshot(requestWrapper);
+                case NAME_NODE_HEARTBEAT -> handleHeartbeatRequest(requestWrapper);
+                case FETCH_SLOT_TABLE -> handleFetchSlotTableRequest(requestWrapper);
+                case NAME_NODE_MIGRATE_SLOTS -> shardingManager.onReceiveMigrateSlots(requestWrapper);
+                case NAME_NODE_MIGRATION_CHUNK -> shardingManager.onReceiveMigrationChunk(requestWrapper);
+                case NAME_NODE_MIGRATION_DONE -> shardingManager.onReceiveMigrationDone(requestWrapper);
+                case NAME_NODE_MIGRATION_ABORT -> shardingManager.onReceiveMigrationAbort(requestWrapper);
+                case NAME_NODE_FORWARD_BATCH -> handleForwardBatchRequest(requestWrapper);
+                case NAME_NODE_REPLICATION_BATCH -> replicationManager.onReceiveBatch(requestWrapper);
+                case NAME_NODE_REPLICA_READ_INDEX -> replicationManager.onReceiveReadIndex(requestWrapper);
+                case DATA_NODE_REGISTER -> blockManager.onRegister(requestWrapper);
+                case DATA_NODE_HEARTBEAT -> blockManager.onHeartbeat(requestWrapper);
+                case DATA_NODE_INCREMENTAL_BLOCK_REPORT -> blockManager.onIncrementalReport(requestWrapper);
+                case DATA_NODE_FULL_BLOCK_REPORT -> blockManager.onFullReport(requestWrapper);
+                default -> handleNameSpaceRequest(packetType, requestWrapper);
+            }
+        } catch (NameSpaceException e) {
+            requestWrapper.sendError(e.getMessage());
         }
         return false;
     }
 
+    /**
+     * 处理文件目录树相关的请求，客户端直接发来的和其它节点转发来的请求都从这里处理，不是这类请求时返回false
+     */
+    private boolean handleNameSpaceRequest(PacketType packetType, RequestWrapper requestWrapper) throws Exception {
+        switch (packetType) {
+            case MKDIR -> handleMkdirRequest(requestWrapper);
+            case CREATE_FILE -> handleCreateFileRequest(requestWrapper);
+            case DELETE_FILE -> handleDeleteFileRequest(requestWrapper);
+            case RENAME_FILE -> handleRenameFileRequest(requestWrapper);
+            case LIST_FILES -> handleListFilesRequest(requestWrapper);
+            case GET_FILE_STATUS -> handleGetFileStatusRequest(requestWrapper);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 其它节点合并转发来的一批请求，逐个处理后按原来的顺序合并成一个响应，所有请求都响应之后才返回
+     */
+    private void handleForwardBatchRequest(RequestWrapper requestWrapper) throws Exception {
+        ForwardBatch forwardBatch = ForwardBatch.parseFrom(requestWrapper.getRequest().getBody());
+        int count = forwardBatch.getRequestsCount();
+        if (count == 0) {
+            // 没有请求时不会有子请求的回调触发响应，直接返回空响应，避免发送方等到超时
+            requestWrapper.sendResponse(ForwardBatchResponse.getDefaultInstance());
+            return;
+        }
+        ForwardedResponse[] responses = new ForwardedResponse[count];
+        AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            ForwardedRequest forwardedRequest = forwardBatch.getRequests(i);
+            PacketType packetType = PacketType.of(forwardedRequest.getPacketType());
+            NettyPacket request = NettyPacket.buildPacket(forwardedRequest.getBody().toByteArray(), packetType);
+            request.setForwarded(true);
+            RequestWrapper forwarded = new RequestWrapper(request, nodeId, response -> {
+                try {
+                    responses[index] = ForwardedResponse.newBuilder()
+                            .setBody(ByteString.copyFrom(response.getBody()))
+                            .setError(response.isError())
+                            .setErrorMessage(StringUtils.defaultString(response.getError()))
+                            .setRedirect(response.isRedirect())
+                            .build();
+                } finally {
+                    response.release();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    requestWrapper.sendResponse(ForwardBatchResponse.newBuilder()
+                            .addAllResponses(Arrays.asList(responses))
+                            .build());
+                }
+            });
+            try {
+                if (!handleNameSpaceRequest(packetType, forwarded)) {
+                    forwarded.sendError("不支持转发的请求类型: " + packetType);
+                }
+            } catch (Exception e) {
+                forwarded.sendError(e.getMessage());
+            } finally {
+                request.release();
+            }
+        }
+    }
+
+    /**
+     * 创建目录，目录已经存在时success为false
+     */
+    private void handleMkdirRequest(RequestWrapper requestWrapper) throws Exception {
+        MkdirRequest request = MkdirRequest.parseFrom(requestWrapper.getRequest().getBody());
+        try (SlotWriteGuard ignored = shardingManager.guardWrite(request.getPath())) {
+            if (routeIfNotLocal(requestWrapper, request.getPath())) {
+                return;
+            }
+            boolean created = fsDirectory.mkdir(request.getPath(), request.getCreateParent());
+            requestWrapper.sendResponseAfter(fsDirectory.logSync(), NameSpaceResponse.newBuilder().setSuccess(created).build());
+        }
+    }
+
+    private void handleCreateFileRequest(RequestWrapper requestWrapper) throws Exception {
+        CreateFileRequest request = CreateFileRequest.parseFrom(requestWrapper.getRequest().getBody());
+        try (SlotWriteGuard ignored = shardingManager.guardWrite(request.getPath())) {
+            if (routeIfNotLocal(requestWrapper, request.getPath())) {
+                return;
+            }
+            INodeFile file = fsDirectory.createFile(request.getPath(), (short) request.getReplication());
+            requestWrapper.sendResponseAfter(fsDirectory.logSync(), NameSpaceResponse.newBuilder()
+                    .setSuccess(true)
+                    .addFileStatus(toFileStatus(file))
+                    .build());
+        }
+    }
+
+    /**
+     * 删除文件或目录，路径不存在时success为false
+     */
+    private void handleDeleteFileRequest(RequestWrapper requestWrapper) throws Exception {
+        DeleteFileRequest request = DeleteFileRequest.parseFrom(requestWrapper.getRequest().getBody());
+        try (SlotWriteGuard ignored = shardingManager.guardWrite(request.getPath())) {
+            if (routeIfNotLocal(requestWrapper, request.getPath())) {
+                return;
+            }
+            boolean deleted = fsDirectory.delete(request.getPath(), request.getRecursive());
+            requestWrapper.sendResponseAfter(fsDirectory.logSync(), NameSpaceResponse.newBuilder().setSuccess(deleted).build());
+        }
+    }
+
+    private void handleRenameFileRequest(RequestWrapper requestWrapper) throws Exception {
+        RenameFileRequest request = RenameFileRequest.parseFrom(requestWrapper.getRequest().getBody());
+        try (SlotWriteGuard ignored = shardingManager.guardWrite(request.getSrc())) {
+            if (routeIfNotLocal(requestWrapper, request.getSrc())) {
+                return;
+            }
+            if (shardingManager.redirectOf(request.getDst()) != null) {
+                throw new NameSpaceException("不支持跨分片重命名: " + request.getSrc() + " -> " + request.getDst());
+            }
+            // 迁移只转发源槽位的修改，迁移中的槽位不能跨槽位重命名
+            if (shardingManager.slotOf(request.getSrc()) != shardingManager.slotOf(request.getDst())
+                    && (shardingManager.isMigrating(request.getSrc()) || shardingManager.isMigrating(request.getDst()))) {
+                throw new NameSpaceException("槽位迁移中，暂不支持跨槽位重命名: " + request.getSrc() + " -> " + request.getDst());
+            }
+            fsDirectory.rename(request.getSrc(), request.getDst());
+            requestWrapper.sendResponseAfter(fsDirectory.logSync(), NameSpaceResponse.newBuilder().setSuccess(true).build());
+        }
+    }
+
+    /**
+     * 列出目录下的文件，路径不存在时success为false
+     */
+    private void handleListFilesRequest(RequestWrapper requestWrapper) throws Exception {
+        FilePathRequest request = FilePathRequest.parseFrom(requestWrapper.getRequest().getBody());
+        readNameSpace(requestWrapper, request, directory -> {
+            INode[] children = directory.listChildren(request.getPath());
+            NameSpaceResponse.Builder builder = NameSpaceResponse.newBuilder().setSuccess(children != null);
+            if (children != null) {
+                for (INode child : children) {
+                    builder.addFileStatus(toFileStatus(child));
+                }
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * 查询文件或目录信息，路径不存在时success为false
+     */
+    private void handleGetFileStatusRequest(RequestWrapper requestWrapper) throws Exception {
+        FilePathRequest request = FilePathRequest.parseFrom(requestWrapper.getRequest().getBody());
+        readNameSpace(requestWrapper, request, directory -> {
+            INode inode = directory.getINode(request.getPath());
+            NameSpaceResponse.Builder builder = NameSpaceResponse.newBuilder().setSuccess(inode != null);
+            if (inode != null) {
+                builder.addFileStatus(toFileStatus(inode));
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * 只读请求：路径属于当前节点时读本地目录树；否则请求允许读副本并且当前节点上所属节点的副本满足一致性要求时读副本，
+     * 不满足时和写请求一样转发或者重定向给所属节点
+     */
+    private void readNameSpace(RequestWrapper requestWrapper, FilePathRequest request,
+                               Function<FSDirectory, NameSpaceResponse> reader) {
+        SlotRedirect redirect = shardingManager.redirectOf(request.getPath());
+        if (redirect == null) {
+            requestWrapper.sendResponse(reader.apply(fsDirectory));
+            return;
+        }
+        CompletableFuture<FSDirectory> replica = replicationManager.readReplica(redirect.getOwnerNodeId(), request);
+        if (replica == null) {
+            route(requestWrapper, redirect);
+            return;
+        }
+        replica.whenComplete((directory, cause) -> {
+            if (cause != null) {
+                route(requestWrapper, redirect);
+                return;
+            }
+            try {
+                requestWrapper.sendResponse(reader.apply(directory));
+            } catch (NameSpaceException e) {
+                requestWrapper.sendError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 返回当前的槽位分配表，客户端据此缓存路由。
+     * Controller先经过读屏障：持有租约时立即确认，租约过期时先发一轮心跳确认自己仍然是Controller，
+     * 等状态机应用到屏障开始时的commitIndex之后再读取分配表；
+     * 其它节点返回本地的分配表，可能比Controller的旧，客户端通过重定向更新
+     */
+    private void handleFetchSlotTableRequest(RequestWrapper requestWrapper) {
+        if (!controllerManager.isController()) {
+            requestWrapper.sendResponse(currentSlotTable().toProto());
+            return;
+        }
+        controllerManager.readBarrier().whenComplete((ignored, cause) -> {
+            if (cause != null) {
+                requestWrapper.sendError(cause.getMessage());
+                return;
+            }
+            try {
+                requestWrapper.sendResponse(currentSlotTable().toProto());
+            } catch (NameSpaceException e) {
+                requestWrapper.sendError(e.getMessage());
+            }
+        });
+    }
+
+    private SlotTable currentSlotTable() {
+        SlotTable slotTable = shardingManager.getSlotTable();
+        if (slotTable == null) {
+            throw new NameSpaceException("集群分片尚未就绪");
+        }
+        return slotTable;
+    }
+
+    private void handleHeartbeatRequest(RequestWrapper requestWrapper) {
+        peerNameNodes.onHeartbeat(requestWrapper.getRequest().getNodeId());
+        requestWrapper.sendResponse();
+    }
+
+    /**
+     * 路径不属于当前节点时：开启转发时代替客户端转发给所属节点；否则返回重定向响应，客户端根据重定向更新路由缓存后直接请求正确的节点。
+     * 转发来的请求只重定向不再转发，迁移切换归属的短暂窗口内由客户端重试
+     */
+    private boolean routeIfNotLocal(RequestWrapper requestWrapper, String path) {
+        SlotRedirect redirect = shardingManager.redirectOf(path);
+        if (redirect == null) {
+            return false;
+        }
+        route(requestWrapper, redirect);
+        return true;
+    }
+
+    private void route(RequestWrapper requestWrapper, SlotRedirect redirect) {
+        if (requestForwarder != null && !requestWrapper.getRequest().isForwarded()) {
+            requestForwarder.forward(requestWrapper, redirect.getOwnerNodeId());
+        } else {
+            requestWrapper.sendRedirect(redirect);
+        }
+    }
+
+    private static FileStatus toFileStatus(INode inode) {
+        FileStatus.Builder builder = FileStatus.newBuilder()
+                .setInodeId(inode.getId())
+                .setName(inode.getNameAsString())
+                .setDirectory(inode.isDirectory())
+                .setModificationTime(inode.getModificationTime());
+        if (inode instanceof INodeDirectory dir) {
+            builder.setChildrenNum(dir.getChildrenNum());
+        } else if (inode instanceof INodeFile file) {
+            builder.setLength(file.getLength())
+                    .setReplication(file.getReplication());
+        }
+        return builder.build();
+    }
+
     /**
      * 处理节点发起连接后立即发送NameNode节点请求
      */
@@ -75,10 +404,16 @@ public class NameNodeApis extends AbstractChannelHandler {
         NettyPacket request = requestWrapper.getRequest();
         ChannelHandlerContext ctx = requestWrapper.getCtx();
         NameNodeAwareRequest nameNodeAwareRequest = NameNodeAwareRequest.parseFrom(request.getBody());
+        if (TrafficClass.of(nameNodeAwareRequest.getTrafficClass()) == TrafficClass.BULK) {
+            // 大流量连接只放入连接池，不参与节点感知和Controller选举
+            peerNameNodes.addBulkPeerNode(nameNodeAwareRequest.getNameNodeId(), (SocketChannel) ctx.channel(),
+                    nameNodeAwareRequest.getServer());
+            return;
+        }
         if (nameNodeAwareRequest.getIsClient()) {
             // 只有作为服务端，才会保存新增的连接
             PeerNameNode peer = peerNameNodes.addPeerNode(nameNodeAwareRequest.getNameNodeId(), (SocketChannel) ctx.channel(),
-                    nameNodeAwareRequest.getServer(), nameNodeAwareRequest.getNameNodeId(), defaultScheduler);
+                    nameNodeAwareRequest.getServer(), nameNodeConfig.getNameNodeId());
             if (peer != null) {
                 // 作为服务端收到连接请求同时也发送自身信息给别的节点
                 controllerManager.reportSelfInfoToPeer(peer, false);
@@ -92,8 +427,35 @@ public class NameNodeApis extends AbstractChannelHandler {
         return new HashSet<>();
     }
 
+    /**
+     * NameNode之间的请求（选举、心跳、复制、迁移、转发）不暂停连接，否则客户端压力会拖慢整个集群的协调
+     */
+    @Override
+    protected boolean isThrottled(NettyPacket nettyPacket) {
+        return !isPeerPacket(nettyPacket) && super.isThrottled(nettyPacket);
+    }
+
+    /**
+     * NameNode之间和DataNode的消息按连接串行，流水线发送的AppendEntries等请求按发送顺序处理；
+     * 客户端的元数据请求之间没有顺序要求，由目录树的锁保证并发安全，不限制在一个连接的通道上
+     */
+    @Override
+    protected Object laneKey(ChannelHandlerContext ctx, NettyPacket nettyPacket) {
+        return isPeerPacket(nettyPacket) || isDataNodePacket(nettyPacket) ? ctx.channel() : null;
+    }
+
+    private static boolean isPeerPacket(NettyPacket nettyPacket) {
+        int packetType = nettyPacket.getPacketType();
+        return packetType >= PacketType.NAME_NODE_PEER_AWARE.getValue() && packetType < PacketType.DATA_NODE_REGISTER.getValue();
+    }
+
+    private static boolean isDataNodePacket(NettyPacket nettyPacket) {
+        int packetType = nettyPacket.getPacketType();
+        return packetType >= PacketType.DATA_NODE_REGISTER.getValue() && packetType < PacketType.WRITE_BLOCK.getValue();
+    }
+
     @Override
-    public ThreadPoolExecutor getExecutor() {
+    public BackpressureExecutor getExecutor() {
         return executor;
     }
 }
@@ -3,6 +3,8 @@ package com.tudoujun.distribute.namenode.server;
 import java.util.Collections;
 
 import com.tudoujun.distribute.common.network.NetServer;
+import com.tudoujun.distribute.common.network.SharedEventLoopGroups;
+import com.tudoujun.distribute.common.network.TransportType;
 import com.tudoujun.distribute.common.utils.DefaultScheduler;
 import com.tudoujun.distribute.namenode.config.NameNodeConfig;
 
@@ -22,8 +24,11 @@ public class NameNodeServer {
 
     public NameNodeServer(NameNodeConfig nameNodeConfig, DefaultScheduler defaultScheduler, NameNodeApis nameNodeApis) {
         this.nameNodeApis = nameNodeApis;
-        this.netServer = new NetServer("NameNode-Sever-", defaultScheduler);
+        this.netServer = nameNodeConfig.isShareEventLoopGroup()
+                ? new NetServer("NameNode-Sever-", defaultScheduler, SharedEventLoopGroups.clientGroup(), TransportType.defaultTransport())
+                : new NetServer("NameNode-Sever-", defaultScheduler);
         this.nameNodeConfig = nameNodeConfig;
+        this.netServer.setFlushBatching(nameNodeConfig.getFlushBatchMaxSize(), nameNodeConfig.getFlushBatchMaxDelayInMicros());
     }
 
     public void start() throws InterruptedException {
@@ -1,31 +1,478 @@
 package com.tudoujun.distribute.namenode.shard;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.exception.NameSpaceException;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.model.namenode.MigrateSlotsRequest;
+import com.tudoujun.distribute.model.namenode.RaftEntry;
+import com.tudoujun.distribute.model.namenode.SlotAssignment;
+import com.tudoujun.distribute.model.namenode.SlotMove;
+import com.tudoujun.distribute.model.namenode.SlotRedirect;
 import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.shard.controller.ControllerListener;
 import com.tudoujun.distribute.namenode.shard.controller.ControllerManager;
+import com.tudoujun.distribute.namenode.shard.migration.SlotMigrationManager;
+import com.tudoujun.distribute.namenode.shard.migration.SlotWriteGuard;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+import com.tudoujun.distribute.namenode.shard.raft.RaftEntryType;
+import com.tudoujun.distribute.namenode.shard.raft.RaftStateMachine;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * @author xiaowenjun
- * @description
+ * @description 按槽位分片：Controller选举出来后由Controller把所有槽位平均分配给各个节点，
+ * 重新分配时尽量保留槽位原来的归属，只移动超出平均数的槽位。
+ * 分配表是Controller日志的状态机：初始分配、迁移完成后的归属变更、集群成员变更都作为Controller日志提交，
+ * 各节点按日志顺序应用，分配表的版本就是产生它的日志index。
+ * 新节点加入后由Controller计算新的分配，通知源节点把槽位在线迁移到目标节点，迁移完成后再提交归属变更，
+ * 迁移过程中源节点和目标节点用ownerOverrides记录已经切换但分配表还没有更新的槽位
  * @create: 2025/03/04 17:39
  */
-public class ShardingManager {
+@Slf4j
+public class ShardingManager implements ControllerListener, RaftStateMachine {
 
     private PeerNameNodes peerNameNodes;
     private NameNodeConfig nameNodeConfig;
     private ControllerManager controllerManager;
+    private SlotMigrationManager slotMigrationManager;
+    private volatile SlotTable slotTable;
+    /**
+     * 已经应用的集群成员，节点id对应 host:port:nodeId
+     */
+    private volatile Map<Integer, String> members = Collections.emptyMap();
+    private final Map<Integer, Integer> ownerOverrides = new ConcurrentHashMap<>();
+    private final AtomicLong migrationIdGenerator = new AtomicLong();
+    /**
+     * Controller上进行中的迁移数量，迁移期间有新节点加入时等迁移结束后再重新分配
+     */
+    private int pendingMigrations;
+    private boolean rebalanceRequested;
 
-    public ShardingManager(NameNodeConfig nameNodeConfig, PeerNameNodes peerNameNodes, ControllerManager controllerManager) {
+    public ShardingManager(NameNodeConfig nameNodeConfig, PeerNameNodes peerNameNodes, ControllerManager controllerManager,
+                           FSDirectory fsDirectory) {
         this.nameNodeConfig = nameNodeConfig;
         this.peerNameNodes = peerNameNodes;
         this.controllerManager = controllerManager;
+        this.slotMigrationManager = new SlotMigrationManager(nameNodeConfig, peerNameNodes, fsDirectory, this);
+        this.controllerManager.addControllerListener(this);
+        this.controllerManager.setStateMachine(this);
     }
 
     public void start() {
         String nameNodePeerServers = nameNodeConfig.getNameNodePeerServers();
-        String[] servers = nameNodePeerServers.split(",");
-        for (String server : servers) {
+        if (StringUtils.isBlank(nameNodePeerServers)) {
+            return;
+        }
+        for (String server : nameNodePeerServers.split(",")) {
             peerNameNodes.connect(server);
         }
     }
+
+    /**
+     * 自身成为Controller时，还没有分配表就提交初始分配，否则按当前成员重新分配
+     */
+    @Override
+    public void onControllerElected(int controllerNodeId) throws InterruptedException {
+        if (controllerNodeId != nameNodeConfig.getNameNodeId()) {
+            return;
+        }
+        if (slotTable != null) {
+            // 已经有分配表时只能通过迁移改变槽位归属，否则数据还在原来的节点上
+            rebalance();
+            return;
+        }
+        SlotTable table = assign(null, new ArrayList<>(members.keySet()));
+        controllerManager.propose(RaftEntryType.SLOT_TABLE, table.toProto().toByteArray())
+                .whenComplete((index, cause) -> {
+                    if (cause != null) {
+                        log.error("提交初始槽位分配失败: {}", cause.getMessage());
+                    } else {
+                        log.info("Controller分配槽位完成: [version={} nodes={}]", index, members.keySet());
+                    }
+                });
+    }
+
+    private boolean isController() {
+        return controllerManager.isController();
+    }
+
+    /**
+     * Controller按当前所有成员重新计算分配，按(源节点, 目标节点)分组通知源节点迁移，
+     * 分配表在每组迁移完成后才更新
+     */
+    public synchronized void rebalance() throws InterruptedException {
+        SlotTable current = slotTable;
+        if (!isController() || current == null) {
+            return;
+        }
+        if (pendingMigrations > 0) {
+            rebalanceRequested = true;
+            return;
+        }
+        SlotTable target = assign(current, new ArrayList<>(members.keySet()));
+        Map<Long, List<Integer>> moves = new HashMap<>();
+        for (int slot = 0; slot < SlotTable.SLOT_COUNT; slot++) {
+            int from = current.ownerOf(slot);
+            int to = target.ownerOf(slot);
+            if (from != to) {
+                moves.computeIfAbsent((long) from << 32 | (to & 0xFFFFFFFFL), k -> new ArrayList<>()).add(slot);
+            }
+        }
+        if (moves.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Long, List<Integer>> entry : moves.entrySet()) {
+            int source = (int) (entry.getKey() >> 32);
+            MigrateSlotsRequest request = MigrateSlotsRequest.newBuilder()
+                    .setMigrationId((long) nameNodeConfig.getNameNodeId() << 48 | migrationIdGenerator.incrementAndGet())
+                    .setSourceNodeId(source)
+                    .setTargetNodeId(entry.getKey().intValue())
+                    .addAllSlots(entry.getValue())
+                    .build();
+            log.info("通知源节点迁移槽位: [migrationId={} source={} target={} slots={}]", request.getMigrationId(), source,
+                    request.getTargetNodeId(), request.getSlotsCount());
+            pendingMigrations++;
+            if (source == nameNodeConfig.getNameNodeId()) {
+                startMigration(request);
+            } else {
+                notifyMigration(source, request);
+            }
+        }
+    }
+
+    /**
+     * 通知源节点迁移，通知没有送达时源节点不会开始迁移，也不会再通知迁移结束，直接当作迁移失败
+     */
+    private void notifyMigration(int source, MigrateSlotsRequest request) {
+        NettyPacket packet = NettyPacket.buildPacket(request.toByteArray(), PacketType.NAME_NODE_MIGRATE_SLOTS);
+        peerNameNodes.sendAsync(source, packet, TrafficClass.CONTROL).whenComplete((response, cause) -> {
+            String error = cause != null ? cause.getMessage() : response.getError();
+            if (response != null) {
+                response.release();
+            }
+            if (error != null) {
+                log.warn("通知源节点迁移失败: [migrationId={} source={} error={}]", request.getMigrationId(), source, error);
+                onMigrationFinished();
+            }
+        });
+    }
+
+    /**
+     * 源节点收到Controller的迁移通知
+     */
+    public void onReceiveMigrateSlots(RequestWrapper requestWrapper) throws Exception {
+        startMigration(MigrateSlotsRequest.parseFrom(requestWrapper.getRequest().getBody()));
+        requestWrapper.sendResponse();
+    }
+
+    private void startMigration(MigrateSlotsRequest request) {
+        int[] slots = request.getSlotsList().stream().mapToInt(Integer::intValue).toArray();
+        slotMigrationManager.startMigration(request.getMigrationId(), request.getTargetNodeId(), slots);
+    }
+
+    /**
+     * 目标节点收到迁移数据
+     */
+    public void onReceiveMigrationChunk(RequestWrapper requestWrapper) throws Exception {
+        slotMigrationManager.onReceiveChunk(requestWrapper);
+    }
+
+    /**
+     * 目标节点收到源节点取消迁移的通知
+     */
+    public void onReceiveMigrationAbort(RequestWrapper requestWrapper) throws Exception {
+        slotMigrationManager.onReceiveAbort(requestWrapper);
+    }
+
+    /**
+     * 源节点迁移结束后通知Controller，成功和失败都要通知，Controller据此减少进行中的迁移数量
+     */
+    public void reportMigrationFinished(long migrationId, int targetNodeId, int[] slots, boolean success) {
+        MigrateSlotsRequest request = MigrateSlotsRequest.newBuilder()
+                .setMigrationId(migrationId)
+                .setSourceNodeId(nameNodeConfig.getNameNodeId())
+                .setTargetNodeId(targetNodeId)
+                .addAllSlots(Arrays.stream(slots).boxed().toList())
+                .setFailed(!success)
+                .build();
+        int controllerNodeId = controllerManager.getControllerNodeId();
+        try {
+            if (controllerNodeId == nameNodeConfig.getNameNodeId()) {
+                onMigrationDone(request);
+            } else {
+                peerNameNodes.send(controllerNodeId, NettyPacket.buildPacket(request.toByteArray(),
+                        PacketType.NAME_NODE_MIGRATION_DONE));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("通知Controller迁移结束被中断: [migrationId={}]", migrationId);
+        }
+    }
+
+    public void onReceiveMigrationDone(RequestWrapper requestWrapper) throws Exception {
+        onMigrationDone(MigrateSlotsRequest.parseFrom(requestWrapper.getRequest().getBody()));
+    }
+
+    /**
+     * Controller收到迁移结束的通知，成功时提交归属变更，所有迁移结束后处理期间加入的节点
+     */
+    private void onMigrationDone(MigrateSlotsRequest request) {
+        if (request.getFailed()) {
+            log.warn("槽位迁移失败，槽位归属不变: [migrationId={} source={} target={} slots={}]", request.getMigrationId(),
+                    request.getSourceNodeId(), request.getTargetNodeId(), request.getSlotsCount());
+            onMigrationFinished();
+            return;
+        }
+        SlotMove slotMove = SlotMove.newBuilder()
+                .setMigrationId(request.getMigrationId())
+                .setControllerNodeId(nameNodeConfig.getNameNodeId())
+                .setSourceNodeId(request.getSourceNodeId())
+                .setTargetNodeId(request.getTargetNodeId())
+                .addAllSlots(request.getSlotsList())
+                .build();
+        controllerManager.propose(RaftEntryType.SLOT_MOVE, slotMove.toByteArray()).whenComplete((index, cause) -> {
+            if (cause != null) {
+                log.error("提交槽位归属变更失败: [migrationId={}] {}", request.getMigrationId(), cause.getMessage());
+            } else {
+                log.info("槽位迁移完成，更新槽位分配表: [migrationId={} source={} target={} slots={} version={}]",
+                        request.getMigrationId(), request.getSourceNodeId(), request.getTargetNodeId(),
+                        request.getSlotsCount(), index);
+            }
+            onMigrationFinished();
+        });
+    }
+
+    private synchronized void onMigrationFinished() {
+        pendingMigrations = Math.max(0, pendingMigrations - 1);
+        if (pendingMigrations == 0 && rebalanceRequested) {
+            rebalanceRequested = false;
+            try {
+                rebalance();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void apply(RaftEntry entry) throws Exception {
+        SlotTable current = slotTable;
+        switch (RaftEntryType.of(entry.getType())) {
+            case SLOT_TABLE -> {
+                SlotTable proposed = SlotTable.fromProto(SlotAssignment.parseFrom(entry.getData()));
+                applySlotTable(new SlotTable(entry.getIndex(), proposed.getControllerNodeId(), proposed.getPathDepth(),
+                        proposed.copyOwners(), servers()));
+            }
+            case SLOT_MOVE -> {
+                SlotMove slotMove = SlotMove.parseFrom(entry.getData());
+                int[] owners = current.copyOwners();
+                for (int slot : slotMove.getSlotsList()) {
+                    owners[slot] = slotMove.getTargetNodeId();
+                }
+                applySlotTable(new SlotTable(entry.getIndex(), slotMove.getControllerNodeId(), current.getPathDepth(),
+                        owners, servers()));
+            }
+            default -> log.warn("未知的Controller日志类型: [type={} index={}]", entry.getType(), entry.getIndex());
+        }
+    }
+
+    /**
+     * 集群成员变更后更新分配表中的节点地址，Controller按新的成员重新分配
+     */
+    @Override
+    public void onConfigurationApplied(long index, Map<Integer, String> servers) throws Exception {
+        members = servers;
+        SlotTable current = slotTable;
+        if (current != null && index > current.getVersion() && !current.getServers().equals(servers())) {
+            applySlotTable(new SlotTable(index, current.getControllerNodeId(), current.getPathDepth(),
+                    current.copyOwners(), servers()));
+        }
+        if (isController()) {
+            log.info("集群成员变更，重新分配槽位: [index={} members={}]", index, servers.keySet());
+            rebalance();
+        }
+    }
+
+    @Override
+    public byte[] takeSnapshot() {
+        SlotTable table = slotTable;
+        return table == null ? new byte[0] : table.toProto().toByteArray();
+    }
+
+    @Override
+    public void restoreSnapshot(byte[] data) throws Exception {
+        if (data.length > 0) {
+            applySlotTable(SlotTable.fromProto(SlotAssignment.parseFrom(data)));
+        }
+    }
+
+    /**
+     * 迁移切换归属后、分配表更新前，以这里记录的归属为准
+     */
+    public void overrideOwner(int[] slots, int owner) {
+        for (int slot : slots) {
+            ownerOverrides.put(slot, owner);
+        }
+    }
+
+    public void removeOverrides(int[] slots) {
+        for (int slot : slots) {
+            ownerOverrides.remove(slot);
+        }
+    }
+
+    /**
+     * 槽位当前的归属，还没有槽位分配表时返回SlotTable#NO_OWNER
+     */
+    public int ownerOf(int slot) {
+        if (!ownerOverrides.isEmpty()) {
+            Integer owner = ownerOverrides.get(slot);
+            if (owner != null) {
+                return owner;
+            }
+        }
+        SlotTable table = slotTable;
+        return table == null ? SlotTable.NO_OWNER : table.ownerOf(slot);
+    }
+
+    public int slotOf(String path) {
+        return SlotTable.slotOf(path, nameNodeConfig.getSlotPathDepth());
+    }
+
+    /**
+     * 写请求需要在检查归属之前获取，保证切换归属时没有进行中的写请求
+     */
+    public SlotWriteGuard guardWrite(String path) {
+        return slotMigrationManager.guardWrite(path);
+    }
+
+    public boolean isMigrating(String path) {
+        return slotMigrationManager.isMigrating(path);
+    }
+
+    private synchronized boolean applySlotTable(SlotTable table) {
+        SlotTable current = slotTable;
+        if (current != null && current.getVersion() >= table.getVersion()) {
+            log.info("忽略旧版本的槽位分配表: [current={} received={}]", current.getVersion(), table.getVersion());
+            return false;
+        }
+        slotTable = table;
+        ownerOverrides.entrySet().removeIf(e -> table.ownerOf(e.getKey()) == e.getValue());
+        log.info("更新槽位分配表: [version={} controller={} slots={}]", table.getVersion(), table.getControllerNodeId(),
+                table.countOf(nameNodeConfig.getNameNodeId()));
+        return true;
+    }
+
+    /**
+     * 把槽位平均分配给nodeIds，已经属于其中某个节点且没有超出平均数的槽位保持不变
+     */
+    SlotTable assign(SlotTable old, List<Integer> nodeIds) {
+        List<Integer> sorted = new ArrayList<>(nodeIds);
+        Collections.sort(sorted);
+        Map<Integer, Integer> targets = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            int target = SlotTable.SLOT_COUNT / sorted.size() + (i < SlotTable.SLOT_COUNT % sorted.size() ? 1 : 0);
+            targets.put(sorted.get(i), target);
+        }
+        int[] owners;
+        if (old == null) {
+            owners = new int[SlotTable.SLOT_COUNT];
+            Arrays.fill(owners, SlotTable.NO_OWNER);
+        } else {
+            owners = old.copyOwners();
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int slot = 0; slot < owners.length; slot++) {
+            int owner = owners[slot];
+            int count = counts.getOrDefault(owner, 0);
+            if (targets.containsKey(owner) && count < targets.get(owner)) {
+                counts.put(owner, count + 1);
+            } else {
+                owners[slot] = SlotTable.NO_OWNER;
+            }
+        }
+        int index = 0;
+        for (int slot = 0; slot < owners.length; slot++) {
+            if (owners[slot] != SlotTable.NO_OWNER) {
+                continue;
+            }
+            while (counts.getOrDefault(sorted.get(index), 0) >= targets.get(sorted.get(index))) {
+                index++;
+            }
+            owners[slot] = sorted.get(index);
+            counts.merge(sorted.get(index), 1, Integer::sum);
+        }
+        long version = old == null ? 1 : old.getVersion() + 1;
+        return new SlotTable(version, nameNodeConfig.getNameNodeId(), nameNodeConfig.getSlotPathDepth(), owners, servers());
+    }
+
+    /**
+     * 各个成员对外服务的地址，成员的地址格式为 host:port:nodeId
+     */
+    private Map<Integer, String> servers() {
+        Map<Integer, String> servers = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : members.entrySet()) {
+            String[] info = entry.getValue().split(":");
+            servers.put(entry.getKey(), info[0] + ":" + info[1]);
+        }
+        return servers;
+    }
+
+    /**
+     * 路径不属于当前节点时返回重定向信息，属于当前节点时返回null
+     * @throws NameSpaceException 还没有槽位分配表
+     */
+    public SlotRedirect redirectOf(String path) {
+        SlotTable table = slotTable;
+        if (table == null) {
+            throw new NameSpaceException("集群分片尚未就绪");
+        }
+        int slot = table.slotOf(path);
+        int owner = ownerOf(slot);
+        if (owner == nameNodeConfig.getNameNodeId()) {
+            return null;
+        }
+        return SlotRedirect.newBuilder()
+                .setSlot(slot)
+                .setOwnerNodeId(owner)
+                .setOwnerServer(StringUtils.defaultString(serverOf(table, owner)))
+                .setVersion(table.getVersion())
+                .setPathDepth(table.getPathDepth())
+                .build();
+    }
+
+    /**
+     * 迁移到新节点的槽位在分配表更新之前就会重定向过去，这时分配表里还没有新节点的地址
+     */
+    private String serverOf(SlotTable table, int nodeId) {
+        String server = table.serverOf(nodeId);
+        return server != null ? server : servers().get(nodeId);
+    }
+
+    /**
+     * 路径所属的节点，还没有槽位分配表时返回SlotTable#NO_OWNER
+     */
+    public int route(String path) {
+        return ownerOf(slotOf(path));
+    }
+
+    public SlotTable getSlotTable() {
+        return slotTable;
+    }
 }
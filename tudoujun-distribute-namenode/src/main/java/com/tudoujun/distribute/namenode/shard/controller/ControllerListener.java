@@ -0,0 +1,20 @@
+package com.tudoujun.distribute.namenode.shard.controller;
+
+/**
+ * @author xiaowenjun
+ * @description 选举出Controller的监听器
+ * @create: 2025/03/26 11:10
+ */
+public interface ControllerListener {
+
+    /**
+     * 得知新的Controller，自身成为Controller时在应用完之前所有的Controller日志之后才通知
+     */
+    void onControllerElected(int controllerNodeId) throws Exception;
+
+    /**
+     * 收到PeerNameNode发送过来的节点信息，包括集群已经选出Controller之后新加入的节点
+     */
+    default void onPeerNameNodeAware(int nameNodeId) throws Exception {
+    }
+}
@@ -1,10 +1,11 @@
 package com.tudoujun.distribute.namenode.shard.controller;
 
-import java.util.ArrayList;
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.tudoujun.distribute.common.NettyPacket;
@@ -12,53 +13,166 @@ import com.tudoujun.distribute.common.enums.PacketType;
 import com.tudoujun.distribute.common.network.RequestWrapper;
 import com.tudoujun.distribute.common.utils.DefaultScheduler;
 import com.tudoujun.distribute.common.utils.NetUtils;
-import com.tudoujun.distribute.model.namenode.ControllerVote;
+import com.tudoujun.distribute.model.namenode.AppendEntriesRequest;
+import com.tudoujun.distribute.model.namenode.InstallSnapshotRequest;
 import com.tudoujun.distribute.model.namenode.NameNodeAwareRequest;
+import com.tudoujun.distribute.model.namenode.RequestVoteRequest;
 import com.tudoujun.distribute.namenode.config.NameNodeConfig;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNode;
-import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodeClient;
 import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+import com.tudoujun.distribute.namenode.shard.raft.RaftEntryType;
+import com.tudoujun.distribute.namenode.shard.raft.RaftListener;
+import com.tudoujun.distribute.namenode.shard.raft.RaftNode;
+import com.tudoujun.distribute.namenode.shard.raft.RaftStateMachine;
+import com.tudoujun.distribute.namenode.shard.raft.RaftStorage;
+
+import org.apache.commons.lang3.StringUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * @author xiaowenjun
- * @description
+ * @description Controller由共识模块的Leader担任，集群元数据（槽位分配表、集群成员）通过Controller日志复制到所有节点。
+ * 配置中的节点作为初始成员，之后加入的节点由Controller通过成员日志逐个加入
  * @create: 2025/02/28 13:38
  */
 @Slf4j
-public class ControllerManager {
-
-    private NameNodeConfig nameNodeConfig;
-    private AtomicInteger numOfNode;
-    private PeerNameNodes peerNameNodes;
-    private AtomicInteger newVoteCount = new AtomicInteger(0);
-    private boolean hasSelectController = false;
-    private ControllerVote currentVote;
-    private List<ControllerVote> voteList = new ArrayList<>();
-    private AtomicInteger newNodeCount = new AtomicInteger(0);
-    private AtomicBoolean isForeController = new AtomicBoolean(false);
-    private AtomicInteger voteRound = new AtomicInteger(0);
-    private AtomicBoolean startControllerElection = new AtomicBoolean(false);
+public class ControllerManager implements RaftListener {
+
+    private final NameNodeConfig nameNodeConfig;
+    private final AtomicInteger numOfNode;
+    private final PeerNameNodes peerNameNodes;
+    private final DefaultScheduler defaultScheduler;
+    private final List<ControllerListener> controllerListeners = new CopyOnWriteArrayList<>();
+    private RaftStateMachine stateMachine;
+    private volatile RaftNode raftNode;
+    private volatile int controllerNodeId = -1;
 
     public ControllerManager(NameNodeConfig nameNodeConfig,
-                             PeerNameNodes peerNameNodes) {
+                             PeerNameNodes peerNameNodes,
+                             DefaultScheduler defaultScheduler) {
         this.nameNodeConfig = nameNodeConfig;
         this.peerNameNodes = peerNameNodes;
+        this.defaultScheduler = defaultScheduler;
         this.peerNameNodes.setControllerManager(this);
         this.numOfNode = new AtomicInteger(nameNodeConfig.numOfNode());
-        this.currentVote = ControllerVote.newBuilder()
-                .setVoterNodeId(nameNodeConfig.getNameNodeId())
-                .setControllerNodeId(nameNodeConfig.getNameNodeId())
-                .setVoteRound(voteRound.get())
-                .setForce(false)
-                .build();
+    }
+
+    public void addControllerListener(ControllerListener listener) {
+        controllerListeners.add(listener);
+    }
+
+    /**
+     * 设置Controller日志的状态机，需要在start之前设置
+     */
+    public void setStateMachine(RaftStateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+    }
+
+    public void start() throws Exception {
+        RaftStorage storage = StringUtils.isBlank(nameNodeConfig.getRaftDir()) ? null
+                : new RaftStorage(new File(nameNodeConfig.getRaftDir()));
+        raftNode = new RaftNode(nameNodeConfig.getNameNodeId(), bootstrapConfiguration(), peerNameNodes, defaultScheduler,
+                stateMachine, this, storage, nameNodeConfig.getRaftHeartbeatIntervalInMs(),
+                nameNodeConfig.getRaftElectionTimeoutInMs(), nameNodeConfig.getRaftLeaseTimeoutInMs(),
+                nameNodeConfig.getRaftMaxBatchEntries(),
+                nameNodeConfig.getRaftMaxInflightAppends(), nameNodeConfig.getRaftSnapshotEntries());
+        raftNode.start();
+    }
+
+    public void shutdown() {
+        if (raftNode != null) {
+            raftNode.shutdown();
+        }
+    }
+
+    /**
+     * 配置的所有节点作为初始成员，地址格式为 host:port:nodeId
+     */
+    private Map<Integer, String> bootstrapConfiguration() {
+        Map<Integer, String> servers = new HashMap<>();
+        if (StringUtils.isNotBlank(nameNodeConfig.getNameNodePeerServers())) {
+            for (String server : nameNodeConfig.getNameNodePeerServers().split(",")) {
+                String[] info = server.split(":");
+                servers.put(Integer.parseInt(info[2]), server);
+            }
+        }
+        servers.putIfAbsent(nameNodeConfig.getNameNodeId(),
+                NetUtils.getHostName() + ":" + nameNodeConfig.getPort() + ":" + nameNodeConfig.getNameNodeId());
+        return servers;
+    }
+
+    /**
+     * 当前的Controller节点id，还没有选举出来时为-1
+     */
+    public int getControllerNodeId() {
+        return controllerNodeId;
+    }
+
+    /**
+     * 自身是Controller并且已经应用了之前的所有日志
+     */
+    public boolean isController() {
+        RaftNode node = raftNode;
+        return node != null && node.isLeaderReady();
+    }
+
+    /**
+     * 读屏障：完成后本地的状态至少和完成前的任意时刻提交的一样新，自身不是Controller时失败
+     */
+    public CompletableFuture<Void> readBarrier() {
+        RaftNode node = raftNode;
+        if (node == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Controller共识模块还没有启动"));
+        }
+        return node.readBarrier();
+    }
+
+    public RaftNode getRaftNode() {
+        return raftNode;
+    }
+
+    /**
+     * 提交一条Controller日志，应用到Controller的状态机之后完成，自身不是Controller时失败
+     */
+    public CompletableFuture<Long> propose(RaftEntryType type, byte[] data) {
+        return raftNode.propose(type, data);
+    }
+
+    @Override
+    public void onLeaderChanged(int leaderId) throws Exception {
+        controllerNodeId = leaderId;
+        if (leaderId == -1) {
+            return;
+        }
+        log.info("Controller变更: [controllerNodeId={} self={}]", leaderId, nameNodeConfig.getNameNodeId());
+        if (leaderId == nameNodeConfig.getNameNodeId()) {
+            // 成为Controller之前已经连接上的节点也要加入集群
+            for (String server : peerNameNodes.getAllServers()) {
+                raftNode.addMember(Integer.parseInt(server.split(":")[2]), server);
+            }
+        }
+        for (ControllerListener listener : controllerListeners) {
+            try {
+                listener.onControllerElected(leaderId);
+            } catch (Exception e) {
+                log.error("Exception occur on invoke controller listener: ", e);
+            }
+        }
     }
 
     /**
      * 上报自身节点信息给其它PeerNameNode
      */
     public void reportSelfInfoToPeer(PeerNameNode nameNode, boolean isClient) throws InterruptedException {
+        reportSelfInfoToPeer(nameNode, isClient, TrafficClass.CONTROL);
+    }
+
+    /**
+     * 发送自身信息，对端根据流量类型决定把连接作为控制连接还是放入大流量连接池
+     */
+    public void reportSelfInfoToPeer(PeerNameNode nameNode, boolean isClient, TrafficClass trafficClass) throws InterruptedException {
         String hostName = NetUtils.getHostName();
         NameNodeAwareRequest nameNodeInfo = NameNodeAwareRequest.newBuilder()
                 .setNameNodeId(nameNodeConfig.getNameNodeId())
@@ -66,6 +180,7 @@ public class ControllerManager {
                 .setNumOfNode(numOfNode.get())
                 .addAllServers(peerNameNodes.getAllServers())
                 .setIsClient(isClient)
+                .setTrafficClass(trafficClass.getValue())
                 .build();
         NettyPacket nettyPacket = NettyPacket.buildPacket(nameNodeInfo.toByteArray(), PacketType.NAME_NODE_PEER_AWARE);
         nameNode.send(nettyPacket);
@@ -73,135 +188,49 @@ public class ControllerManager {
     }
 
     /**
-     * 收到Controller的选举归票
-     */
-    public void onReceiveControllerVote(RequestWrapper requestWrapper) throws Exception {
-        synchronized (this) {
-            NettyPacket request = requestWrapper.getRequest();
-            ControllerVote controllerVote = ControllerVote.parseFrom(request.getBody());
-            log.info("收到Controller选举投票 [voter={} voteNodeId]={} voteRound={}]", controllerVote.getVoterNodeId(),
-                    controllerVote.getControllerNodeId(), controllerVote.getVoteRound());
-            if (hasSelectController && newVoteCount.get() > 0) {
-                log.info("集群已经有Controller节点了，让他强制承认当前集群的Controller [voter={} voteNodeId={} voteRound={}]",
-                        currentVote.getVoterNodeId(), currentVote.getControllerNodeId(), currentVote.getVoteRound());
-                ControllerVote vote = ControllerVote.newBuilder()
-                        .setVoterNodeId(currentVote.getVoterNodeId())
-                        .setControllerNodeId(currentVote.getControllerNodeId())
-                        .setVoteRound(currentVote.getVoteRound())
-                        .build();
-                NettyPacket votePackage = NettyPacket.buildPacket(vote.toByteArray(), PacketType.NAME_NODE_CONTROLLER_VOTE);
-                requestWrapper.sendResponse(votePackage, null);
-                newVoteCount.decrementAndGet();
-            } else {
-                voteList.add(controllerVote);
-                int quorum = numOfNode.get() / 2 + 1;
-                if (voteList.size() >= quorum) {
-                    notifyAll();
-                }
-            }
-        }
-    }
-
-    /**
-     * 收到PeerNameNode发过来的信息
+     * 收到PeerNameNode发过来的信息，Controller把新节点加入集群成员
      */
     public void onAwarePeerNameNode(NameNodeAwareRequest request) throws Exception {
-        newNodeCount.incrementAndGet();
         numOfNode.set(Math.max(numOfNode.get(), request.getNumOfNode()));
         request.getServersList().forEach(peerNameNodes::connect);
         log.info("收到PeerNameNode发送过来的信息: [nodeId={} curNumOfNum={} peerNodeNum={}]",
                 request.getNameNodeId(), numOfNode.get(), peerNameNodes.getConnectedCount());
-        // 自身节点无需与自身节点连接
-        if (peerNameNodes.getConnectedCount() == numOfNode.get() - 1) {
-            startControllerElection();
+        for (ControllerListener listener : controllerListeners) {
+            listener.onPeerNameNodeAware(request.getNameNodeId());
+        }
+        RaftNode node = raftNode;
+        if (node != null && node.isLeaderReady()) {
+            node.addMember(request.getNameNodeId(), request.getServer());
         }
     }
 
     /**
-     * 启动Controller选举
+     * 共识模块启动之前收到的请求直接丢弃，对端超时后会重试
      */
-    public void startControllerElection() throws Exception {
-        if (startControllerElection.compareAndSet(false, true)) {
-            voteList.add(currentVote);
-            // 发送信息给所有PeerNameNode,开始选举
-            NettyPacket nettyPacket = NettyPacket.buildPacket(currentVote.toByteArray(), PacketType.NAME_NODE_CONTROLLER_VOTE);
-            List<Integer> nodeIdList = peerNameNodes.broadcast(nettyPacket);
-            log.info("开始尝试选举Controller, 发送当前选票给所有的节点: [nodeIdList={}]", nodeIdList);
-
-            // 归票选出Controller
-            int quorum = numOfNode.get() / 2 + 1;
-            Integer controllerId;
-            while (true) {
-                if (voteList.size() != numOfNode.get()) {
-                    synchronized (this) {
-                        wait(10);
-                    }
-
-                    controllerId = getControllerFromVote(voteList, quorum);
-                    if (controllerId != null) {
-                        log.info("选举出了Controller [controllerNodeId={}]", controllerId);
-                        hasSelectController = true;
-                        return;
-                    }
-
-                    if (voteList.size() == numOfNode.get()) {
-                        log.info("当前选举无法选出Controller, 进行下一轮选举");
-                        break;
-                    }
-                }
-            }
-
-            int betterControllerNodeId = getBetterControllerNodeId(voteList);
-            this.currentVote = ControllerVote.newBuilder()
-                    .setVoterNodeId(nameNodeConfig.getNameNodeId())
-                    .setControllerNodeId(betterControllerNodeId)
-                    .setVoteRound(voteRound.get())
-                    .setForce(false)
-                    .build();
-            voteList.clear();
-            startControllerElection.set(false);
-            startControllerElection();
+    public void onReceiveRequestVote(RequestWrapper requestWrapper) throws Exception {
+        RaftNode node = raftNode;
+        if (node == null) {
+            return;
         }
+        RequestVoteRequest request = RequestVoteRequest.parseFrom(requestWrapper.getRequest().getBody());
+        requestWrapper.sendResponse(node.onRequestVote(request));
     }
 
-    /**
-     * 从选票中获取最大的controllerId
-     */
-    private int getBetterControllerNodeId(List<ControllerVote> votes) {
-        return votes.stream().map(ControllerVote::getControllerNodeId).reduce(Integer::max).orElse(0);
+    public void onReceiveAppendEntries(RequestWrapper requestWrapper) throws Exception {
+        RaftNode node = raftNode;
+        if (node == null) {
+            return;
+        }
+        AppendEntriesRequest request = AppendEntriesRequest.parseFrom(requestWrapper.getRequest().getBody());
+        requestWrapper.sendResponse(node.onAppendEntries(request));
     }
 
-    /**
-     * 从选票中归票出Controller节点
-     */
-    private Integer getControllerFromVote(List<ControllerVote> votes, int quorum) {
-        synchronized (this) {
-            Map<Integer, Integer> voteCountMap = new HashMap<>();
-            for (ControllerVote vote : votes) {
-                // 如果票据是强制有效的，直接认定是Controller
-                if (vote.getForce()) {
-                    isForeController.set(true);
-                    voteRound.set(vote.getVoteRound());
-                    this.currentVote = ControllerVote.newBuilder()
-                            .setVoterNodeId(nameNodeConfig.getNameNodeId())
-                            .setControllerNodeId(vote.getControllerNodeId())
-                            .setVoteRound(voteRound.get())
-                            .setForce(true)
-                            .build();
-                    log.info("收到强制性选票，更新Controller信息 [currentNodeId={} controllerId={} voteRound={}]",
-                            nameNodeConfig.getNameNodeId(), vote.getControllerNodeId(), voteRound.get());
-                    return vote.getControllerNodeId();
-                }
-
-                Integer controllerNodeId = vote.getControllerNodeId();
-                voteCountMap.put(controllerNodeId, voteCountMap.getOrDefault(controllerNodeId, 0) + 1);
-                for (Map.Entry<Integer, Integer> entry : voteCountMap.entrySet()) {
-                    if (entry.getValue() > quorum) {
-                        return entry.getKey();
-                    }
-                }
-            }
-            return null;
+    public void onReceiveInstallSnapshot(RequestWrapper requestWrapper) throws Exception {
+        RaftNode node = raftNode;
+        if (node == null) {
+            return;
         }
+        InstallSnapshotRequest request = InstallSnapshotRequest.parseFrom(requestWrapper.getRequest().getBody());
+        requestWrapper.sendResponse(node.onInstallSnapshot(request));
     }
 }
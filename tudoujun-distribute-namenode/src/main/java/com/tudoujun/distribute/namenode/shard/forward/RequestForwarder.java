@@ -0,0 +1,194 @@
+package com.tudoujun.distribute.namenode.shard.forward;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.ByteString;
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.model.namenode.ForwardBatch;
+import com.tudoujun.distribute.model.namenode.ForwardBatchResponse;
+import com.tudoujun.distribute.model.namenode.ForwardedRequest;
+import com.tudoujun.distribute.model.namenode.ForwardedResponse;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 把不属于当前节点的请求转发给所属节点，收到响应后用原始请求的序列号返回给客户端。
+ * 每个节点一个队列，进行中的转发包没有达到上限时立即发送，否则排队，等进行中的包返回后把排队的请求合并成一个包发送，
+ * 负载低时不增加延迟，负载高时自动合并。
+ * 转发的是客户端的业务请求，走大流量连接，不和Raft日志复制、心跳等控制流量在同一条连接上排队
+ * @create: 2025/03/31 10:20
+ */
+@Slf4j
+public class RequestForwarder {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int DEFAULT_MAX_INFLIGHT_BATCHES = 4;
+
+    private final PeerNameNodes peerNameNodes;
+    private final int batchSize;
+    private final int maxInflightBatches;
+    private final Map<Integer, PeerForwardQueue> forwardQueues = new ConcurrentHashMap<>();
+
+    /**
+     * @param batchSize          每个转发包最多合并多少个请求，小于等于0时使用默认值
+     * @param maxInflightBatches 每个节点最多同时有多少个转发包等待响应，小于等于0时使用默认值
+     */
+    public RequestForwarder(PeerNameNodes peerNameNodes, int batchSize, int maxInflightBatches) {
+        this.peerNameNodes = peerNameNodes;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.maxInflightBatches = maxInflightBatches > 0 ? maxInflightBatches : DEFAULT_MAX_INFLIGHT_BATCHES;
+    }
+
+    /**
+     * 转发请求，请求体在返回前已经复制，调用方可以照常释放请求
+     */
+    public void forward(RequestWrapper requestWrapper, int ownerNodeId) {
+        NettyPacket request = requestWrapper.getRequest();
+        ForwardedRequest forwardedRequest = ForwardedRequest.newBuilder()
+                .setPacketType(request.getPacketType())
+                .setBody(ByteString.copyFrom(request.getBody()))
+                .build();
+        forwardQueues.computeIfAbsent(ownerNodeId, PeerForwardQueue::new)
+                .add(new PendingForward(requestWrapper, forwardedRequest));
+    }
+
+    private record PendingForward(RequestWrapper requestWrapper, ForwardedRequest request) {
+
+        void relay(NettyPacket response) {
+            requestWrapper.relayResponse(response.getBody(), response.getError(), response.isRedirect());
+        }
+
+        void relay(ForwardedResponse response) {
+            requestWrapper.relayResponse(response.getBody().toByteArray(),
+                    response.getError() ? response.getErrorMessage() : null, response.getRedirect());
+        }
+    }
+
+    private class PeerForwardQueue {
+
+        private final int nodeId;
+        private final Queue<PendingForward> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inflightBatches = new AtomicInteger();
+
+        PeerForwardQueue(int nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        void add(PendingForward pendingForward) {
+            pending.add(pendingForward);
+            trySend();
+        }
+
+        /**
+         * 入队后检查进行中的数量，响应返回后先减少进行中的数量再检查队列，两边总有一方能看到对方，不会有请求滞留在队列中
+         */
+        private void trySend() {
+            while (!pending.isEmpty()) {
+                int inflight = inflightBatches.get();
+                if (inflight >= maxInflightBatches) {
+                    return;
+                }
+                if (!inflightBatches.compareAndSet(inflight, inflight + 1)) {
+                    continue;
+                }
+                List<PendingForward> batch = new ArrayList<>();
+                PendingForward pendingForward;
+                while (batch.size() < batchSize && (pendingForward = pending.poll()) != null) {
+                    batch.add(pendingForward);
+                }
+                if (batch.isEmpty()) {
+                    inflightBatches.decrementAndGet();
+                    continue;
+                }
+                if (batch.size() == 1) {
+                    sendSingle(batch.get(0));
+                } else {
+                    sendBatch(batch);
+                }
+            }
+        }
+
+        private void sendSingle(PendingForward pendingForward) {
+            ForwardedRequest forwardedRequest = pendingForward.request();
+            NettyPacket request = NettyPacket.buildPacket(forwardedRequest.getBody().toByteArray(),
+                    PacketType.of(forwardedRequest.getPacketType()));
+            request.setForwarded(true);
+            peerNameNodes.sendAsync(nodeId, request, TrafficClass.BULK).whenComplete((response, cause) -> {
+                try {
+                    if (cause != null) {
+                        fail(List.of(pendingForward), cause.getMessage());
+                    } else {
+                        try {
+                            pendingForward.relay(response);
+                        } finally {
+                            response.release();
+                        }
+                    }
+                } finally {
+                    onBatchFinished();
+                }
+            });
+        }
+
+        private void sendBatch(List<PendingForward> batch) {
+            ForwardBatch.Builder builder = ForwardBatch.newBuilder();
+            for (PendingForward pendingForward : batch) {
+                builder.addRequests(pendingForward.request());
+            }
+            NettyPacket request = NettyPacket.buildPacket(builder.build().toByteArray(), PacketType.NAME_NODE_FORWARD_BATCH);
+            request.setForwarded(true);
+            peerNameNodes.sendAsync(nodeId, request, TrafficClass.BULK).whenComplete((response, cause) -> {
+                try {
+                    if (cause != null) {
+                        fail(batch, cause.getMessage());
+                        return;
+                    }
+                    try {
+                        if (response.isError()) {
+                            fail(batch, response.getError());
+                            return;
+                        }
+                        List<ForwardedResponse> responses = ForwardBatchResponse.parseFrom(response.getBody()).getResponsesList();
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (i < responses.size()) {
+                                batch.get(i).relay(responses.get(i));
+                            } else {
+                                batch.get(i).requestWrapper().sendError("转发响应缺失");
+                            }
+                        }
+                    } finally {
+                        response.release();
+                    }
+                } catch (Exception e) {
+                    log.error("处理批量转发响应失败: [nodeId={}] ", nodeId, e);
+                    fail(batch, e.getMessage());
+                } finally {
+                    onBatchFinished();
+                }
+            });
+        }
+
+        private void fail(List<PendingForward> batch, String error) {
+            log.warn("转发请求失败: [nodeId={} count={} error={}]", nodeId, batch.size(), error);
+            for (PendingForward pendingForward : batch) {
+                pendingForward.requestWrapper().sendError("转发请求到节点" + nodeId + "失败: " + error);
+            }
+        }
+
+        private void onBatchFinished() {
+            inflightBatches.decrementAndGet();
+            trySend();
+        }
+    }
+}
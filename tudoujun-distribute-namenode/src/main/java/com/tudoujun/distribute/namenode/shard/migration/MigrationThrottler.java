@@ -0,0 +1,44 @@
+package com.tudoujun.distribute.namenode.shard.migration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xiaowenjun
+ * @description 令牌桶限速，所有迁移任务共用，最多允许1秒的突发流量
+ * @create: 2025/03/28 10:10
+ */
+public class MigrationThrottler {
+
+    private static final long ONE_SECOND_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private long availableBytes;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond 小于等于0时不限速
+     */
+    public MigrationThrottler(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.availableBytes = bytesPerSecond;
+    }
+
+    /**
+     * 获取发送bytes字节的令牌，令牌不足时阻塞到足够为止
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        // 令牌最多攒1秒，空闲很久之后直接相乘会溢出
+        long elapsedNanos = Math.min(now - lastRefillNanos, ONE_SECOND_IN_NANOS);
+        availableBytes = Math.min(bytesPerSecond, availableBytes + elapsedNanos * bytesPerSecond / ONE_SECOND_IN_NANOS);
+        lastRefillNanos = now;
+        availableBytes -= bytes;
+        if (availableBytes < 0) {
+            TimeUnit.NANOSECONDS.sleep((long) Math.min(Long.MAX_VALUE,
+                    -availableBytes * (double) ONE_SECOND_IN_NANOS / bytesPerSecond));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.tudoujun.distribute.namenode.shard.migration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.tudoujun.distribute.common.exception.NameSpaceException;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.common.utils.DefaultThread;
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.model.namenode.MigrationAbort;
+import com.tudoujun.distribute.model.namenode.MigrationAbortResponse;
+import com.tudoujun.distribute.model.namenode.MigrationChunk;
+import com.tudoujun.distribute.model.namenode.MigrationEntry;
+import com.tudoujun.distribute.model.namenode.MigrationItem;
+import com.tudoujun.distribute.model.namenode.NameSpaceResponse;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.editlog.EditLogOpType;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.fs.INode;
+import com.tudoujun.distribute.namenode.fs.INodeFile;
+import com.tudoujun.distribute.namenode.shard.ShardingManager;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 槽位迁移：作为源节点执行迁移任务、转发迁移中槽位的修改，作为目标节点应用收到的迁移数据。
+ * 目标节点记录每次迁移的状态：收到结束标记后接管槽位，收到取消通知后丢弃已经收到的数据，两者只有一个能生效
+ * @create: 2025/03/28 11:20
+ */
+@Slf4j
+public class SlotMigrationManager {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final NameNodeConfig nameNodeConfig;
+    private final PeerNameNodes peerNameNodes;
+    private final FSDirectory fsDirectory;
+    private final ShardingManager shardingManager;
+    private final MigrationThrottler throttler;
+    private final Map<Integer, SlotMigrationTask> migratingSlots = new ConcurrentHashMap<>();
+    /**
+     * 作为目标节点收到的迁移，迁移次数很少，结束后也保留，源节点重试取消时据此回复
+     */
+    private final Map<Long, ReceivingMigration> receivingMigrations = new ConcurrentHashMap<>();
+
+    public SlotMigrationManager(NameNodeConfig nameNodeConfig, PeerNameNodes peerNameNodes, FSDirectory fsDirectory,
+                                ShardingManager shardingManager) {
+        this.nameNodeConfig = nameNodeConfig;
+        this.peerNameNodes = peerNameNodes;
+        this.fsDirectory = fsDirectory;
+        this.shardingManager = shardingManager;
+        this.throttler = new MigrationThrottler(nameNodeConfig.getMigrationBytesPerSecond());
+        this.fsDirectory.addEditListener(this::onEdit);
+    }
+
+    /**
+     * 作为源节点开始迁移，不属于自身或者已经在迁移中的槽位会被忽略
+     */
+    public synchronized void startMigration(long migrationId, int targetNodeId, int[] slots) {
+        int[] accepted = Arrays.stream(slots)
+                .filter(slot -> shardingManager.ownerOf(slot) == nameNodeConfig.getNameNodeId())
+                .filter(slot -> !migratingSlots.containsKey(slot))
+                .toArray();
+        if (accepted.length != slots.length) {
+            log.warn("部分槽位不属于当前节点或者正在迁移中，忽略: [migrationId={} requested={} accepted={}]", migrationId,
+                    slots.length, accepted.length);
+        }
+        int chunkSize = nameNodeConfig.getMigrationChunkSize() > 0 ? nameNodeConfig.getMigrationChunkSize() : DEFAULT_CHUNK_SIZE;
+        SlotMigrationTask task = new SlotMigrationTask(migrationId, nameNodeConfig.getNameNodeId(), targetNodeId, accepted,
+                nameNodeConfig.getSlotPathDepth(), chunkSize, fsDirectory, peerNameNodes, throttler, this);
+        for (int slot : accepted) {
+            migratingSlots.put(slot, task);
+        }
+        log.info("开始迁移槽位: [migrationId={} target={} slots={}]", migrationId, targetNodeId, accepted.length);
+        new DefaultThread("NameNode-SlotMigration-" + migrationId, task, true).start();
+    }
+
+    /**
+     * 写请求在检查槽位归属之前获取，槽位不在迁移中时不需要等待
+     */
+    public SlotWriteGuard guardWrite(String path) {
+        if (migratingSlots.isEmpty()) {
+            return SlotWriteGuard.NOOP;
+        }
+        SlotMigrationTask task = migratingSlots.get(slotOf(path));
+        return task == null ? SlotWriteGuard.NOOP : task.guardWrite();
+    }
+
+    public boolean isMigrating(String path) {
+        return !migratingSlots.isEmpty() && migratingSlots.containsKey(slotOf(path));
+    }
+
+    private int slotOf(String path) {
+        return SlotTable.slotOf(path, nameNodeConfig.getSlotPathDepth());
+    }
+
+    /**
+     * 迁移中的槽位不允许跨槽位重命名，因此只需要按源路径判断是否转发
+     */
+    private void onEdit(EditLog edit) {
+        if (migratingSlots.isEmpty()) {
+            return;
+        }
+        int slot = slotOf(edit.getPath());
+        SlotMigrationTask task = migratingSlots.get(slot);
+        if (task != null) {
+            task.onEdit(slot, edit);
+        }
+    }
+
+    void flip(int[] slots, int targetNodeId) {
+        shardingManager.overrideOwner(slots, targetNodeId);
+    }
+
+    /**
+     * 源节点确认取消迁移后恢复槽位归属
+     */
+    void restoreOwner(int[] slots) {
+        shardingManager.removeOverrides(slots);
+    }
+
+    /**
+     * 迁移成功后删除本地已迁移的元数据，成功和失败都通知Controller。
+     * 失败时槽位归属已经由迁移任务确认目标节点取消后恢复，或者无法确认时保持重定向到目标节点
+     */
+    void onTaskFinished(SlotMigrationTask task, boolean success) {
+        for (int slot : task.getSlots()) {
+            migratingSlots.remove(slot, task);
+        }
+        if (success) {
+            deleteSlots(task.getSlots());
+        }
+        shardingManager.reportMigrationFinished(task.getMigrationId(), task.getTargetNodeId(), task.getSlots(), success);
+    }
+
+    /**
+     * 作为目标节点应用迁移数据，处理完一块后才会收到下一块，因此按源节点的修改顺序应用。
+     * 第一块数据先清理槽位上残留的数据，结束标记到达时接管槽位，之后源节点才切换归属，客户端不会在两个节点之间来回重定向
+     */
+    public void onReceiveChunk(RequestWrapper requestWrapper) throws Exception {
+        MigrationChunk chunk = MigrationChunk.parseFrom(requestWrapper.getRequest().getBody());
+        ReceivingMigration migration = chunk.getBegin()
+                ? receivingMigrations.computeIfAbsent(chunk.getMigrationId(), id -> new ReceivingMigration())
+                : receivingMigrations.get(chunk.getMigrationId());
+        if (migration == null) {
+            requestWrapper.sendError("未知的槽位迁移: " + chunk.getMigrationId());
+            return;
+        }
+        synchronized (migration) {
+            if (migration.state != ReceivingState.RECEIVING) {
+                requestWrapper.sendError("槽位迁移已经结束: [migrationId=" + chunk.getMigrationId() + " state=" + migration.state + "]");
+                return;
+            }
+            if (chunk.getBegin()) {
+                resetSlots(toSlots(chunk.getSlotsList()));
+            }
+            for (MigrationItem item : chunk.getItemsList()) {
+                try {
+                    if (item.getItemCase() == MigrationItem.ItemCase.ENTRY) {
+                        applyEntry(item.getEntry());
+                    } else {
+                        applyEdit(item.getEdit());
+                    }
+                } catch (NameSpaceException e) {
+                    log.debug("应用迁移数据失败: [migrationId={} item={} error={}]", chunk.getMigrationId(), item, e.getMessage());
+                }
+            }
+            if (chunk.getDone()) {
+                int[] slots = toSlots(chunk.getSlotsList());
+                shardingManager.overrideOwner(slots, nameNodeConfig.getNameNodeId());
+                migration.state = ReceivingState.COMMITTED;
+                log.info("接收槽位迁移完成: [migrationId={} source={} slots={}]", chunk.getMigrationId(),
+                        chunk.getSourceNodeId(), slots.length);
+            }
+        }
+        requestWrapper.sendResponseAfter(fsDirectory.logSync(), NameSpaceResponse.newBuilder().setSuccess(true).build());
+    }
+
+    /**
+     * 作为目标节点收到取消迁移的通知：还没有收到结束标记时丢弃已经收到的数据，之后迟到的数据块也不再应用；
+     * 已经接管槽位时回复committed，由源节点按迁移成功处理
+     */
+    public void onReceiveAbort(RequestWrapper requestWrapper) throws Exception {
+        MigrationAbort abort = MigrationAbort.parseFrom(requestWrapper.getRequest().getBody());
+        ReceivingMigration migration = receivingMigrations.computeIfAbsent(abort.getMigrationId(), id -> new ReceivingMigration());
+        boolean committed;
+        synchronized (migration) {
+            if (migration.state == ReceivingState.RECEIVING) {
+                migration.state = ReceivingState.ABORTED;
+                resetSlots(toSlots(abort.getSlotsList()));
+                log.info("取消接收槽位迁移: [migrationId={} source={} slots={}]", abort.getMigrationId(),
+                        abort.getSourceNodeId(), abort.getSlotsCount());
+            }
+            committed = migration.state == ReceivingState.COMMITTED;
+        }
+        requestWrapper.sendResponseAfter(fsDirectory.logSync(), MigrationAbortResponse.newBuilder().setCommitted(committed).build());
+    }
+
+    /**
+     * 删除不属于当前节点的槽位上的数据，用来清理之前失败的迁移残留的数据
+     */
+    private void resetSlots(int[] slots) {
+        int self = nameNodeConfig.getNameNodeId();
+        deleteSlots(Arrays.stream(slots).filter(slot -> shardingManager.ownerOf(slot) != self).toArray());
+    }
+
+    private void deleteSlots(int[] slotArray) {
+        if (slotArray.length == 0) {
+            return;
+        }
+        Set<Integer> slots = Arrays.stream(slotArray).boxed().collect(Collectors.toSet());
+        int depth = nameNodeConfig.getSlotPathDepth();
+        for (String key : fsDirectory.listKeys(depth, path -> slots.contains(SlotTable.slotOf(path, depth)))) {
+            try {
+                fsDirectory.delete(key, true);
+            } catch (NameSpaceException e) {
+                log.warn("删除槽位上的元数据失败: [path={} error={}]", key, e.getMessage());
+            }
+        }
+    }
+
+    private static int[] toSlots(List<Integer> slots) {
+        return slots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void applyEntry(MigrationEntry entry) {
+        if (entry.getDirectory()) {
+            fsDirectory.mkdir(entry.getPath(), true);
+            return;
+        }
+        fsDirectory.mkdir(parentOf(entry.getPath()), true);
+        INodeFile file = fsDirectory.createFile(entry.getPath(), (short) entry.getReplication());
+        file.setLength(entry.getLength());
+    }
+
+    private void applyEdit(EditLog edit) {
+        switch (EditLogOpType.of(edit.getOpType())) {
+            case MKDIR -> fsDirectory.mkdir(edit.getPath(), true);
+            case CREATE_FILE -> {
+                fsDirectory.mkdir(parentOf(edit.getPath()), true);
+                fsDirectory.createFile(edit.getPath(), (short) edit.getReplication());
+            }
+            case DELETE -> fsDirectory.delete(edit.getPath(), true);
+            case RENAME -> {
+                INode target = fsDirectory.getINode(edit.getPath());
+                if (target != null) {
+                    fsDirectory.mkdir(parentOf(edit.getDst()), true);
+                    fsDirectory.rename(edit.getPath(), edit.getDst());
+                }
+            }
+            default -> log.warn("未知的编辑日志类型: [opType={}]", edit.getOpType());
+        }
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index <= 0 ? "/" : path.substring(0, index);
+    }
+
+    private enum ReceivingState {
+        RECEIVING,
+        COMMITTED,
+        ABORTED
+    }
+
+    private static class ReceivingMigration {
+        private ReceivingState state = ReceivingState.RECEIVING;
+    }
+}
@@ -0,0 +1,281 @@
+package com.tudoujun.distribute.namenode.shard.migration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.model.namenode.MigrationAbort;
+import com.tudoujun.distribute.model.namenode.MigrationAbortResponse;
+import com.tudoujun.distribute.model.namenode.MigrationChunk;
+import com.tudoujun.distribute.model.namenode.MigrationEntry;
+import com.tudoujun.distribute.model.namenode.MigrationItem;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.fs.INode;
+import com.tudoujun.distribute.namenode.fs.INodeFile;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 源节点上的一次槽位迁移：
+ * 1. 按批收集槽位的元数据快照，收集时槽位没有并发修改，同一把锁内开启双写，之后该槽位的修改同时转发给目标节点；
+ * 2. 快照和转发的修改按产生顺序进入同一个队列，按数据块大小打包、限速后发送，目标节点确认后再发下一块，保证顺序；
+ * 3. 队列基本追上后切换归属：阻塞写请求，发送剩余数据和结束标记，目标节点收到结束标记后先接管槽位，源节点再切换，
+ * 没有收到确认时也切换，不确定目标节点是否接管期间不能继续在本地修改；
+ * 4. 目标节点确认后删除本地已迁移的元数据，通知Controller更新槽位分配表；
+ * 5. 失败时通知目标节点取消迁移、丢弃已经收到的数据。发出结束标记之后失败的，要等目标节点回复：
+ * 已经接管按成功处理，已经取消才恢复本地的归属，否则一直重试
+ * @create: 2025/03/28 10:30
+ */
+@Slf4j
+public class SlotMigrationTask implements Runnable {
+
+    private static final int SNAPSHOT_BATCH_SLOTS = 64;
+    private static final int CATCH_UP_ITEMS = 1024;
+    private static final long CHUNK_TIMEOUT_IN_MS = 30_000;
+    private static final long ABORT_TIMEOUT_IN_MS = 3_000;
+    private static final long ABORT_RETRY_INTERVAL_IN_MS = 1_000;
+    private static final int ABORT_RETRIES = 3;
+
+    private final long migrationId;
+    private final int sourceNodeId;
+    private final int targetNodeId;
+    private final int[] slots;
+    private final int pathDepth;
+    private final int chunkSize;
+    private final FSDirectory fsDirectory;
+    private final PeerNameNodes peerNameNodes;
+    private final MigrationThrottler throttler;
+    private final SlotMigrationManager manager;
+
+    private final ReentrantReadWriteLock flipLock = new ReentrantReadWriteLock();
+    private final Set<Integer> forwardingSlots = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<MigrationItem> queue = new LinkedBlockingQueue<>();
+    private long sentItems;
+    private long sentBytes;
+    private boolean begun;
+    /**
+     * 已经发出结束标记，目标节点可能已经接管槽位
+     */
+    private boolean committing;
+
+    SlotMigrationTask(long migrationId, int sourceNodeId, int targetNodeId, int[] slots, int pathDepth, int chunkSize,
+                      FSDirectory fsDirectory, PeerNameNodes peerNameNodes, MigrationThrottler throttler,
+                      SlotMigrationManager manager) {
+        this.migrationId = migrationId;
+        this.sourceNodeId = sourceNodeId;
+        this.targetNodeId = targetNodeId;
+        this.slots = slots;
+        this.pathDepth = pathDepth;
+        this.chunkSize = chunkSize;
+        this.fsDirectory = fsDirectory;
+        this.peerNameNodes = peerNameNodes;
+        this.throttler = throttler;
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            for (int i = 0; i < slots.length; i += SNAPSHOT_BATCH_SLOTS) {
+                Set<Integer> batch = Arrays.stream(slots, i, Math.min(slots.length, i + SNAPSHOT_BATCH_SLOTS))
+                        .boxed()
+                        .collect(Collectors.toSet());
+                fsDirectory.collectSubtrees(pathDepth, path -> batch.contains(SlotTable.slotOf(path, pathDepth)),
+                        (path, inode) -> queue.add(toItem(path, inode)),
+                        () -> forwardingSlots.addAll(batch));
+                drain(0);
+            }
+            // 追上双写的进度后再切换，切换时阻塞写请求的时间只取决于剩余的少量数据
+            drain(CATCH_UP_ITEMS);
+            flipLock.writeLock().lock();
+            try {
+                drain(0);
+                committing = true;
+                try {
+                    sendChunk(new ArrayList<>(), true);
+                } finally {
+                    manager.flip(slots, targetNodeId);
+                }
+            } finally {
+                flipLock.writeLock().unlock();
+            }
+            success = true;
+            log.info("槽位迁移完成: [migrationId={} target={} slots={} items={} bytes={} cost={} ms]", migrationId,
+                    targetNodeId, slots.length, sentItems, sentBytes, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("槽位迁移被中断: [migrationId={} target={}]", migrationId, targetNodeId);
+        } catch (Exception e) {
+            log.error("槽位迁移失败: [migrationId={} target={}] ", migrationId, targetNodeId, e);
+        }
+        if (!success) {
+            success = abort();
+        }
+        manager.onTaskFinished(this, success);
+    }
+
+    /**
+     * 通知目标节点取消迁移，返回目标节点是否已经接管了槽位。
+     * 还没有发出结束标记时目标节点不会接管，尽力通知几次即可，没有通知到的残留数据在下次迁移这些槽位时清理；
+     * 已经发出结束标记时本地已经切换归属，一直重试到目标节点回复为止，被中断时保持切换，由后续的分配表更新恢复
+     */
+    private boolean abort() {
+        boolean interrupted = Thread.interrupted();
+        for (int i = 0; committing || i < ABORT_RETRIES; i++) {
+            if (interrupted) {
+                break;
+            }
+            try {
+                boolean committed = sendAbort();
+                if (committed) {
+                    log.info("目标节点已经接管槽位，按迁移成功处理: [migrationId={} target={}]", migrationId, targetNodeId);
+                } else if (committing) {
+                    manager.restoreOwner(slots);
+                }
+                return committed;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (Exception e) {
+                log.warn("通知目标节点取消迁移失败: [migrationId={} target={} retry={} error={}]", migrationId, targetNodeId, i,
+                        e.getMessage());
+                try {
+                    Thread.sleep(ABORT_RETRY_INTERVAL_IN_MS);
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (committing) {
+            log.error("无法确认目标节点是否接管槽位，保持重定向到目标节点: [migrationId={} target={}]", migrationId, targetNodeId);
+        }
+        return false;
+    }
+
+    private boolean sendAbort() throws Exception {
+        MigrationAbort.Builder builder = MigrationAbort.newBuilder()
+                .setMigrationId(migrationId)
+                .setSourceNodeId(sourceNodeId);
+        for (int slot : slots) {
+            builder.addSlots(slot);
+        }
+        NettyPacket request = NettyPacket.buildPacket(builder.build().toByteArray(), PacketType.NAME_NODE_MIGRATION_ABORT);
+        NettyPacket response = peerNameNodes.sendAsync(targetNodeId, request, TrafficClass.CONTROL)
+                .get(ABORT_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+        try {
+            if (response.isError()) {
+                throw new IllegalStateException(response.getError());
+            }
+            return MigrationAbortResponse.parseFrom(response.getBody()).getCommitted();
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * 在修改的锁内收到编辑日志，已经开启双写的槽位转发给目标节点
+     */
+    void onEdit(int slot, EditLog edit) {
+        if (forwardingSlots.contains(slot)) {
+            queue.add(MigrationItem.newBuilder().setEdit(edit).build());
+        }
+    }
+
+    /**
+     * 写请求在检查归属之前获取，切换归属时等待所有已经获取的写请求完成
+     */
+    SlotWriteGuard guardWrite() {
+        ReentrantReadWriteLock.ReadLock lock = flipLock.readLock();
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * 发送队列中的数据，直到剩余数量不超过remaining
+     */
+    private void drain(int remaining) throws Exception {
+        while (queue.size() > remaining) {
+            List<MigrationItem> items = new ArrayList<>();
+            int bytes = 0;
+            MigrationItem item;
+            while (bytes < chunkSize && (item = queue.poll()) != null) {
+                items.add(item);
+                bytes += item.getSerializedSize();
+            }
+            sendChunk(items, false);
+        }
+    }
+
+    /**
+     * 第一块数据带上begin标记，目标节点先清理槽位上残留的数据；第一块和结束标记都带上槽位
+     */
+    private void sendChunk(List<MigrationItem> items, boolean done) throws Exception {
+        boolean begin = !begun;
+        MigrationChunk.Builder builder = MigrationChunk.newBuilder()
+                .setMigrationId(migrationId)
+                .setSourceNodeId(sourceNodeId)
+                .addAllItems(items)
+                .setBegin(begin)
+                .setDone(done);
+        begun = true;
+        if (begin || done) {
+            for (int slot : slots) {
+                builder.addSlots(slot);
+            }
+        }
+        byte[] body = builder.build().toByteArray();
+        throttler.acquire(body.length);
+        NettyPacket request = NettyPacket.buildPacket(body, PacketType.NAME_NODE_MIGRATION_CHUNK);
+        NettyPacket response = peerNameNodes.sendAsync(targetNodeId, request, TrafficClass.BULK)
+                .get(CHUNK_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+        try {
+            if (response.isError()) {
+                throw new IllegalStateException("目标节点处理迁移数据失败: " + response.getError());
+            }
+        } finally {
+            response.release();
+        }
+        sentItems += items.size();
+        sentBytes += body.length;
+    }
+
+    private static MigrationItem toItem(String path, INode inode) {
+        MigrationEntry.Builder entry = MigrationEntry.newBuilder()
+                .setPath(path)
+                .setDirectory(inode.isDirectory());
+        if (inode instanceof INodeFile file) {
+            entry.setReplication(file.getReplication())
+                    .setLength(file.getLength());
+        }
+        return MigrationItem.newBuilder().setEntry(entry).build();
+    }
+
+    public long getMigrationId() {
+        return migrationId;
+    }
+
+    public int getTargetNodeId() {
+        return targetNodeId;
+    }
+
+    public int[] getSlots() {
+        return slots;
+    }
+}
@@ -0,0 +1,15 @@
+package com.tudoujun.distribute.namenode.shard.migration;
+
+/**
+ * @author xiaowenjun
+ * @description 写请求持有的槽位保护，迁移中的槽位在切换归属时会等待所有持有保护的写请求完成
+ * @create: 2025/03/28 10:05
+ */
+public interface SlotWriteGuard extends AutoCloseable {
+
+    SlotWriteGuard NOOP = () -> {
+    };
+
+    @Override
+    void close();
+}
@@ -0,0 +1,64 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.tudoujun.distribute.common.NettyPacket;
+
+/**
+ * @author xiaowenjun
+ * @description 收集广播的响应，满足策略要求的成功响应数或者所有节点都完成时完成future
+ * @create: 2025/03/17 10:31
+ */
+class BroadcastCollector {
+
+    private final int numOfPeers;
+    private final int requiredResponses;
+    private final long startTime = System.currentTimeMillis();
+    private final List<NettyPacket> responses = new ArrayList<>();
+    private final Map<Integer, Long> latencyInMs = new HashMap<>();
+    private final Set<Integer> failedNodeIds = new HashSet<>();
+    private final CompletableFuture<BroadcastResult> future = new CompletableFuture<>();
+    private int finished;
+
+    BroadcastCollector(int numOfPeers, int requiredResponses) {
+        this.numOfPeers = numOfPeers;
+        this.requiredResponses = requiredResponses;
+        if (numOfPeers == 0 || requiredResponses <= 0) {
+            complete();
+        }
+    }
+
+    CompletableFuture<BroadcastResult> future() {
+        return future;
+    }
+
+    synchronized void onComplete(int nodeId, NettyPacket response, Throwable cause) {
+        finished++;
+        if (future.isDone()) {
+            if (response != null) {
+                response.release();
+            }
+            return;
+        }
+        latencyInMs.put(nodeId, System.currentTimeMillis() - startTime);
+        if (cause != null || response == null) {
+            failedNodeIds.add(nodeId);
+        } else {
+            responses.add(response);
+        }
+        if (responses.size() >= requiredResponses || finished >= numOfPeers) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        future.complete(new BroadcastResult(new ArrayList<>(responses), new HashMap<>(latencyInMs),
+                new HashSet<>(failedNodeIds), numOfPeers, requiredResponses));
+    }
+}
@@ -0,0 +1,32 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description 异步广播的完成策略
+ * @create: 2025/03/17 10:12
+ */
+@Getter
+@AllArgsConstructor
+public enum BroadcastPolicy {
+
+    FIRST("收到第一个成功响应即完成"),
+    QUORUM("收到过半(N/2+1)节点的成功响应即完成，N为本次广播的节点数"),
+    ALL("所有节点都响应或失败后完成"),
+    ;
+
+    private final String description;
+
+    /**
+     * 需要多少个成功响应
+     */
+    public int requiredResponses(int numOfPeers) {
+        return switch (this) {
+            case FIRST -> Math.min(1, numOfPeers);
+            case QUORUM -> numOfPeers / 2 + 1;
+            case ALL -> numOfPeers;
+        };
+    }
+}
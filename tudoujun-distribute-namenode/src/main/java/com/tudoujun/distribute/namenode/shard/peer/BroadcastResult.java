@@ -0,0 +1,45 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.tudoujun.distribute.common.NettyPacket;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description 异步广播的结果，只包含完成时已经收到的响应，之后到达的响应会被直接释放
+ * @create: 2025/03/17 10:20
+ */
+@Getter
+@AllArgsConstructor
+public class BroadcastResult {
+
+    /**
+     * 成功的响应，使用完毕后需要调用release
+     */
+    private final List<NettyPacket> responses;
+    /**
+     * 每个已完成节点的耗时
+     */
+    private final Map<Integer, Long> latencyInMs;
+    private final Set<Integer> failedNodeIds;
+    private final int numOfPeers;
+    private final int requiredResponses;
+
+    /**
+     * 是否满足广播策略要求的成功响应数
+     */
+    public boolean isSatisfied() {
+        return responses.size() >= requiredResponses;
+    }
+
+    public void release() {
+        for (NettyPacket response : responses) {
+            response.release();
+        }
+    }
+}
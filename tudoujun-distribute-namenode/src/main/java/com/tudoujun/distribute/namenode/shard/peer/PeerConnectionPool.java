@@ -0,0 +1,148 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tudoujun.distribute.common.NettyPacket;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 单个PeerNameNode的大流量连接池，选择进行中请求最少的连接，
+ * 连续失败的连接在冷却时间内不参与选择
+ * @create: 2025/03/14 10:20
+ */
+@Slf4j
+public class PeerConnectionPool {
+
+    /**
+     * 连续失败多少次后标记为不健康
+     */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    /**
+     * 不健康的连接多久之后重新参与选择
+     */
+    private static final long UNHEALTHY_COOLDOWN_MS = 5000;
+
+    private final int targetNodeId;
+    private final List<PooledPeer> peers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    public PeerConnectionPool(int targetNodeId) {
+        this.targetNodeId = targetNodeId;
+    }
+
+    public void add(PeerNameNode peer) {
+        peers.add(new PooledPeer(peer));
+        // 作为服务端的连接断开后不会重连，由对端重新发起连接，这里顺便清理掉
+        peers.removeIf(p -> p.peer instanceof PeerNameNodeServer && !p.peer.isConnected());
+    }
+
+    /**
+     * 选择负载最小的健康连接，没有可用连接时返回null
+     */
+    public PeerNameNode select() {
+        PooledPeer pooledPeer = selectPooledPeer();
+        return pooledPeer == null ? null : pooledPeer.peer;
+    }
+
+    /**
+     * 通过负载最小的连接异步发送，根据结果更新连接的健康状态
+     */
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket) {
+        PooledPeer pooledPeer = selectPooledPeer();
+        if (pooledPeer == null) {
+            nettyPacket.release();
+            return CompletableFuture.failedFuture(new IllegalStateException("没有可用的连接: [nodeId=" + targetNodeId + "]"));
+        }
+        return pooledPeer.peer.sendAsync(nettyPacket)
+                .whenComplete((response, cause) -> pooledPeer.record(cause == null));
+    }
+
+    private PooledPeer selectPooledPeer() {
+        Object[] snapshot = peers.toArray();
+        int size = snapshot.length;
+        if (size == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(roundRobin.getAndIncrement(), size);
+        PooledPeer best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            PooledPeer candidate = (PooledPeer) snapshot[(start + i) % size];
+            if (!candidate.peer.isConnected() || !candidate.isHealthy(now)) {
+                continue;
+            }
+            int load = candidate.peer.getInFlightCount();
+            if (load < bestLoad) {
+                best = candidate;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 收到响应，交给对应的服务端连接处理
+     */
+    public boolean onMessage(NettyPacket nettyPacket) {
+        for (PooledPeer pooledPeer : peers) {
+            if (pooledPeer.peer instanceof PeerNameNodeServer server && server.onMessage(nettyPacket)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * 健康的连接数量
+     */
+    public int getHealthyCount() {
+        long now = System.currentTimeMillis();
+        return (int) peers.stream()
+                .filter(p -> p.peer.isConnected() && p.isHealthy(now))
+                .count();
+    }
+
+    public void close() {
+        for (PooledPeer pooledPeer : peers) {
+            pooledPeer.peer.close();
+        }
+        peers.clear();
+    }
+
+    private static class PooledPeer {
+
+        private final PeerNameNode peer;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long unhealthyUntil;
+
+        private PooledPeer(PeerNameNode peer) {
+            this.peer = peer;
+        }
+
+        private boolean isHealthy(long now) {
+            return now >= unhealthyUntil;
+        }
+
+        private void record(boolean success) {
+            if (success) {
+                consecutiveFailures.set(0);
+                return;
+            }
+            if (consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+                consecutiveFailures.set(0);
+                unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_COOLDOWN_MS;
+                log.warn("PeerNameNode连接连续失败，暂停使用: [nodeId={} cooldown={}ms]", peer.getTargetNodeId(), UNHEALTHY_COOLDOWN_MS);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.tudoujun.distribute.namenode.shard.peer;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
+import com.tudoujun.distribute.common.network.ChunkedResponseListener;
+import com.tudoujun.distribute.common.network.RequestMetrics;
 
 /**
  * @author xiaowenjun
@@ -15,11 +20,37 @@ public interface PeerNameNode {
      */
     void send(NettyPacket nettyPacket) throws InterruptedException;
 
+    /**
+     * 往PeerNodeName节点批量发送网络包，所有网络包写入后只flush一次
+     */
+    void sendBatch(List<NettyPacket> nettyPackets) throws InterruptedException;
+
     /**
      * 往PeerNodeName节点发送网络包，同步发送
+     * 响应的消息体可能是池化缓冲区的切片，使用完毕后需要调用release
      */
     NettyPacket sendSync(NettyPacket nettyPacket) throws InterruptedException, RequestTimeoutException;
 
+    /**
+     * 往PeerNodeName节点发送网络包，分块响应逐块回调监听器，用于元数据快照等大响应的传输
+     */
+    NettyPacket sendSync(NettyPacket nettyPacket, ChunkedResponseListener listener) throws InterruptedException, RequestTimeoutException;
+
+    /**
+     * 往PeerNodeName节点异步发送网络包，收到响应时在网络线程中完成future，连接断开时返回失败的future
+     */
+    CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket);
+
+    /**
+     * 同步/异步请求的统计：成功、超时、失败次数
+     */
+    RequestMetrics getRequestMetrics();
+
+    /**
+     * 已发送还未收到响应的请求数量，用于选择负载最小的连接
+     */
+    int getInFlightCount();
+
     /**
      * 关闭连接
      */
@@ -1,8 +1,13 @@
 package com.tudoujun.distribute.namenode.shard.peer;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
+import com.tudoujun.distribute.common.network.ChunkedResponseListener;
 import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.network.RequestMetrics;
 
 /**
  * @author xiaowenjun
@@ -23,11 +28,36 @@ public class PeerNameNodeClient extends AbstractPeerNameNode {
         netClient.send(nettyPacket);
     }
 
+    @Override
+    public void sendBatch(List<NettyPacket> nettyPackets) throws InterruptedException {
+        netClient.sendBatch(nettyPackets);
+    }
+
     @Override
     public NettyPacket sendSync(NettyPacket nettyPacket) throws InterruptedException, RequestTimeoutException {
         return netClient.sendSync(nettyPacket);
     }
 
+    @Override
+    public NettyPacket sendSync(NettyPacket nettyPacket, ChunkedResponseListener listener) throws InterruptedException, RequestTimeoutException {
+        return netClient.sendSync(nettyPacket, listener);
+    }
+
+    @Override
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket) {
+        return netClient.sendAsync(nettyPacket);
+    }
+
+    @Override
+    public RequestMetrics getRequestMetrics() {
+        return netClient.getRequestMetrics();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return netClient.getInFlightCount();
+    }
+
     @Override
     public void close() {
         netClient.shutdown();
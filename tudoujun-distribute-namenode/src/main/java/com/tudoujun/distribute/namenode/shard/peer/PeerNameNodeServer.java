@@ -1,10 +1,13 @@
 package com.tudoujun.distribute.namenode.shard.peer;
 
-import com.tudoujun.distribute.common.Constants;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import com.tudoujun.distribute.common.NettyPacket;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
+import com.tudoujun.distribute.common.network.ChunkedResponseListener;
+import com.tudoujun.distribute.common.network.RequestMetrics;
 import com.tudoujun.distribute.common.network.SyncRequestSupport;
-import com.tudoujun.distribute.common.utils.DefaultScheduler;
 
 import io.netty.channel.socket.SocketChannel;
 
@@ -22,10 +25,10 @@ public class PeerNameNodeServer extends AbstractPeerNameNode {
     private volatile SocketChannel socketChannel;
     private final SyncRequestSupport syncRequestSupport;
 
-    public PeerNameNodeServer(SocketChannel socketChannel, int currentNodeId, int targetNodeId, String server, DefaultScheduler defaultScheduler) {
+    public PeerNameNodeServer(SocketChannel socketChannel, int currentNodeId, int targetNodeId, String server) {
         super(currentNodeId, targetNodeId, server);
         this.name = "NameNode-PeerNode-" + currentNodeId + "-" + targetNodeId;
-        this.syncRequestSupport = new SyncRequestSupport(this.name, defaultScheduler, 5000);
+        this.syncRequestSupport = new SyncRequestSupport(this.name, 5000);
         this.setSocketChannel(socketChannel);
     }
 
@@ -39,6 +42,26 @@ public class PeerNameNodeServer extends AbstractPeerNameNode {
 
     @Override
     public void send(NettyPacket nettyPacket) throws InterruptedException {
+        waitConnected();
+        nettyPacket.setSequence(syncRequestSupport.nextSequence());
+        socketChannel.writeAndFlush(nettyPacket);
+    }
+
+    @Override
+    public void sendBatch(List<NettyPacket> nettyPackets) throws InterruptedException {
+        waitConnected();
+        SocketChannel channel = socketChannel;
+        for (NettyPacket nettyPacket : nettyPackets) {
+            nettyPacket.setSequence(syncRequestSupport.nextSequence());
+            channel.write(nettyPacket, channel.voidPromise());
+        }
+        channel.flush();
+    }
+
+    /**
+     * 等待连接重新建立
+     */
+    private void waitConnected() {
         synchronized (this) {
             while(!isConnected()) {
                 try {
@@ -48,8 +71,6 @@ public class PeerNameNodeServer extends AbstractPeerNameNode {
                 }
             }
         }
-        nettyPacket.setSequence(name + "-" + Constants.REQUEST_COUNTER.getAndIncrement());
-        socketChannel.writeAndFlush(nettyPacket);
     }
 
     @Override
@@ -57,6 +78,11 @@ public class PeerNameNodeServer extends AbstractPeerNameNode {
         return syncRequestSupport.sendRequest(nettyPacket);
     }
 
+    @Override
+    public NettyPacket sendSync(NettyPacket nettyPacket, ChunkedResponseListener listener) throws InterruptedException, RequestTimeoutException {
+        return syncRequestSupport.sendRequest(nettyPacket, listener);
+    }
+
     /**
      * 收到消息响应
      */
@@ -64,6 +90,21 @@ public class PeerNameNodeServer extends AbstractPeerNameNode {
         return syncRequestSupport.onResponse(nettyPacket);
     }
 
+    @Override
+    public CompletableFuture<NettyPacket> sendAsync(NettyPacket nettyPacket) {
+        return syncRequestSupport.sendAsync(nettyPacket);
+    }
+
+    @Override
+    public RequestMetrics getRequestMetrics() {
+        return syncRequestSupport.getRequestMetrics();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return syncRequestSupport.getInFlightCount();
+    }
+
     @Override
     public void close() {
         socketChannel.close();
@@ -6,12 +6,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
 import com.tudoujun.distribute.common.exception.RequestTimeoutException;
 import com.tudoujun.distribute.common.network.NetClient;
 import com.tudoujun.distribute.common.utils.DefaultScheduler;
@@ -30,10 +32,14 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class PeerNameNodes {
 
+    private static final int FAILURE_DETECTOR_SAMPLE_SIZE = 200;
+
     private ControllerManager controllerManager;
     private NameNodeConfig nameNodeConfig;
     private DefaultScheduler defaultScheduler;
     private Map<Integer, PeerNameNode> peerNameNodeMap = new ConcurrentHashMap<>();
+    private Map<Integer, PeerConnectionPool> bulkConnectionPools = new ConcurrentHashMap<>();
+    private Map<Integer, PhiAccrualFailureDetector> failureDetectors = new ConcurrentHashMap<>();
     private NameNodeApis nameNodeApis;
 
     public PeerNameNodes(DefaultScheduler defaultScheduler, NameNodeConfig nameNodeConfig) {
@@ -49,6 +55,16 @@ public class PeerNameNodes {
         this.nameNodeApis = nameNodeApis;
     }
 
+    /**
+     * 开始定时给所有连接上的节点发送心跳
+     */
+    public void start() {
+        long interval = nameNodeConfig.getPeerHeartbeatIntervalInMs();
+        if (interval > 0) {
+            defaultScheduler.schedule("PeerNameNode心跳", this::sendHeartbeats, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
     public void connect(String server) {
         connect(server, false);
     }
@@ -73,25 +89,102 @@ public class PeerNameNodes {
                 }
                 NetClient netClient = new NetClient("NameNode-PeerNode-" + targetNodeId, defaultScheduler);
                 netClient.addHandlers(Collections.singletonList(nameNodeApis));
+                netClient.setFlushBatching(nameNodeConfig.getFlushBatchMaxSize(), nameNodeConfig.getFlushBatchMaxDelayInMicros());
                 PeerNameNode newPeer = new PeerNameNodeClient(netClient, nameNodeConfig.getNameNodeId(), targetNodeId, server);
                 peerNameNodeMap.put(targetNodeId, newPeer);
                 netClient.addConnectListener((connected) -> {
-                    controllerManager.reportSelfInfoToPeer(newPeer, true);
+                    // 断开时不能发送，否则会阻塞网络线程直到重新连上
+                    if (connected) {
+                        controllerManager.reportSelfInfoToPeer(newPeer, true);
+                    }
                 });
                 netClient.connect(hostname, port);
                 log.info("新建PeerNameNode连接: [hostname={} port={} nameNodeId={}]", hostname, port, targetNodeId);
+                connectBulk(hostname, port, targetNodeId, server);
+            }
+        }
+    }
+
+    /**
+     * 建立大流量连接池，连接建立后告知对端该连接只用于大流量
+     * 和主连接一样由id大的节点往id小的节点发起，避免两端重复建立
+     */
+    private void connectBulk(String hostname, int port, int targetNodeId, String server) {
+        int bulkConnections = nameNodeConfig.getPeerBulkConnections();
+        if (bulkConnections <= 0 || nameNodeConfig.getNameNodeId() < targetNodeId) {
+            return;
+        }
+        PeerConnectionPool oldPool = bulkConnectionPools.remove(targetNodeId);
+        if (oldPool != null) {
+            oldPool.close();
+        }
+        PeerConnectionPool pool = new PeerConnectionPool(targetNodeId);
+        for (int i = 0; i < bulkConnections; i++) {
+            NetClient netClient = new NetClient("NameNode-PeerNode-Bulk-" + targetNodeId + "-" + i, defaultScheduler);
+            netClient.addHandlers(Collections.singletonList(nameNodeApis));
+            netClient.setFlushBatching(nameNodeConfig.getFlushBatchMaxSize(), nameNodeConfig.getFlushBatchMaxDelayInMicros());
+            PeerNameNode bulkPeer = new PeerNameNodeClient(netClient, nameNodeConfig.getNameNodeId(), targetNodeId, server);
+            netClient.addConnectListener((connected) -> {
+                if (connected) {
+                    controllerManager.reportSelfInfoToPeer(bulkPeer, true, TrafficClass.BULK);
+                }
+            });
+            pool.add(bulkPeer);
+            netClient.connect(hostname, port);
+        }
+        bulkConnectionPools.put(targetNodeId, pool);
+        log.info("新建PeerNameNode大流量连接: [nameNodeId={} connections={}]", targetNodeId, bulkConnections);
+    }
+
+    /**
+     * 作为服务端收到大流量连接，放入对应节点的连接池
+     */
+    public void addBulkPeerNode(int nameNodeId, SocketChannel socketChannel, String server) {
+        PeerNameNode peer = new PeerNameNodeServer(socketChannel, nameNodeConfig.getNameNodeId(), nameNodeId, server);
+        bulkConnectionPools.computeIfAbsent(nameNodeId, PeerConnectionPool::new).add(peer);
+        log.info("收到PeerNameNode大流量连接 [nodeId={}]", nameNodeId);
+    }
+
+    /**
+     * 根据流量类型选择连接：控制流量使用节点的主连接，大流量选择连接池中负载最小的健康连接，
+     * 没有可用的大流量连接时回退到主连接
+     */
+    public PeerNameNode select(int nameNodeId, TrafficClass trafficClass) {
+        if (trafficClass == TrafficClass.BULK) {
+            PeerConnectionPool pool = bulkConnectionPools.get(nameNodeId);
+            PeerNameNode peer = pool == null ? null : pool.select();
+            if (peer != null) {
+                return peer;
             }
         }
+        return peerNameNodeMap.get(nameNodeId);
+    }
+
+    /**
+     * 按流量类型异步发送请求，大流量请求的结果会用于更新连接的健康状态
+     */
+    public CompletableFuture<NettyPacket> sendAsync(int nameNodeId, NettyPacket request, TrafficClass trafficClass) {
+        if (trafficClass == TrafficClass.BULK) {
+            PeerConnectionPool pool = bulkConnectionPools.get(nameNodeId);
+            if (pool != null && pool.getHealthyCount() > 0) {
+                return pool.sendAsync(request);
+            }
+        }
+        PeerNameNode peer = peerNameNodeMap.get(nameNodeId);
+        if (peer == null) {
+            request.release();
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid nodeId: " + nameNodeId));
+        }
+        return peer.sendAsync(request);
     }
 
     /**
      * 作为服务端添加PeerNode, 收到其它NameNode节点的请求
      */
-    public PeerNameNode addPeerNode(int nameNodeId, SocketChannel socketChannel, String server,
-                                    int selfNameNodeId, DefaultScheduler defaultScheduler) {
+    public PeerNameNode addPeerNode(int nameNodeId, SocketChannel socketChannel, String server, int selfNameNodeId) {
         synchronized (this) {
             PeerNameNode oldPeer = peerNameNodeMap.get(nameNodeId);
-            PeerNameNode newPeer = new PeerNameNodeServer(socketChannel, nameNodeConfig.getNameNodeId(), nameNodeId, server, defaultScheduler);
+            PeerNameNode newPeer = new PeerNameNodeServer(socketChannel, nameNodeConfig.getNameNodeId(), nameNodeId, server);
             if (oldPeer == null) {
                 log.info("收到新的PeerNameNode通知包，保存连接以便下次使用 [nodeId={}]", nameNodeId);
                 peerNameNodeMap.put(nameNodeId, newPeer);
@@ -128,7 +221,7 @@ public class PeerNameNodes {
     }
 
     /**
-     * 广播给所有的NameNode
+     * 广播给所有的NameNode，每个节点发送独立的副本，网络包本身仍由调用方持有
      */
     public List<Integer> broadcast(NettyPacket nettyPacket, Set<Integer> excludeNodeIds) {
         try {
@@ -137,7 +230,7 @@ public class PeerNameNodes {
                 if (excludeNodeIds.contains(peer.getTargetNodeId())) {
                     continue;
                 }
-                peer.send(nettyPacket);
+                peer.send(NettyPacket.copy(nettyPacket));
                 result.add(peer.getTargetNodeId());
             }
             return result;
@@ -148,35 +241,73 @@ public class PeerNameNodes {
     }
 
     /**
-     * 广播给所有NameNode节点，同步获取结果
+     * 批量广播给所有的NameNode，每个节点的所有网络包只flush一次，网络包本身仍由调用方持有
      */
-    public List<NettyPacket> broadcastSync(NettyPacket request) {
+    public List<Integer> broadcastBatch(List<NettyPacket> nettyPackets, Set<Integer> excludeNodeIds) {
         try {
-            if (peerNameNodeMap.size() == 0) {
-                return Collections.emptyList();
-            }
-            List<NettyPacket> result = new CopyOnWriteArrayList<>();
-            CountDownLatch latch = new CountDownLatch(peerNameNodeMap.size());
+            List<Integer> result = new ArrayList<>();
             for (PeerNameNode peer : peerNameNodeMap.values()) {
-                defaultScheduler.scheduleOnce("同步请求PeerNameNode", () -> {
-                    NettyPacket response;
-                    NettyPacket requestCopy = NettyPacket.copy(request);
-                    try {
-                        response = peer.sendSync(requestCopy);
-                        result.add(response);
-                    } catch (Exception e) {
-                        log.error("同步请求PeerNode失败 [nodeId={} sequenceId={}]", peer.getTargetNodeId(), requestCopy.getSequence(), e);
-                    } finally {
-                        latch.countDown();
-                    }
-                });
+                if (excludeNodeIds.contains(peer.getTargetNodeId())) {
+                    continue;
+                }
+                List<NettyPacket> copies = new ArrayList<>(nettyPackets.size());
+                for (NettyPacket nettyPacket : nettyPackets) {
+                    copies.add(NettyPacket.copy(nettyPacket));
+                }
+                peer.sendBatch(copies);
+                result.add(peer.getTargetNodeId());
             }
-            latch.wait();
             return result;
         } catch (Exception e) {
+            log.error("PeerNameNodes#broadcastBatch has been interrupted!", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 广播给所有NameNode节点，同步等待所有节点响应或失败，返回的响应使用完毕后需要release
+     */
+    public List<NettyPacket> broadcastSync(NettyPacket request) {
+        try {
+            return broadcastAsync(request, BroadcastPolicy.ALL).get().getResponses();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             log.error("PeerNameNodes#broadcastSync has been interrupted!", e);
             return Collections.emptyList();
+        } catch (ExecutionException e) {
+            log.error("PeerNameNodes#broadcastSync failed!", e);
+            return Collections.emptyList();
+        }
+    }
+
+    public CompletableFuture<BroadcastResult> broadcastAsync(NettyPacket request, BroadcastPolicy policy) {
+        return broadcastAsync(request, policy, Collections.emptySet(), TrafficClass.CONTROL);
+    }
+
+    /**
+     * 异步广播给所有NameNode节点，不占用任何线程等待，按照策略在收到足够的成功响应后完成future，
+     * 所有节点都完成仍不满足策略时同样正常完成，由调用方通过BroadcastResult#isSatisfied判断。
+     * 每个节点发送独立的副本，网络包本身仍由调用方持有
+     */
+    public CompletableFuture<BroadcastResult> broadcastAsync(NettyPacket request, BroadcastPolicy policy,
+                                                             Set<Integer> excludeNodeIds, TrafficClass trafficClass) {
+        List<Integer> nodeIds = new ArrayList<>();
+        for (Integer nodeId : peerNameNodeMap.keySet()) {
+            if (!excludeNodeIds.contains(nodeId)) {
+                nodeIds.add(nodeId);
+            }
+        }
+        BroadcastCollector collector = new BroadcastCollector(nodeIds.size(), policy.requiredResponses(nodeIds.size()));
+        for (Integer nodeId : nodeIds) {
+            sendAsync(nodeId, NettyPacket.copy(request), trafficClass)
+                    .whenComplete((response, cause) -> {
+                        if (cause != null) {
+                            log.warn("广播请求PeerNode失败 [nodeId={} ex={}]", nodeId, cause.getMessage());
+                        }
+                        collector.onComplete(nodeId, response, cause);
+                    });
         }
+        return collector.future();
     }
 
     /**
@@ -187,6 +318,63 @@ public class PeerNameNodes {
         for (PeerNameNode peer : peerNameNodeMap.values()) {
             peer.close();
         }
+        for (PeerConnectionPool pool : bulkConnectionPools.values()) {
+            pool.close();
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (PeerNameNode peer : peerNameNodeMap.values()) {
+            if (!peer.isConnected()) {
+                continue;
+            }
+            NettyPacket heartbeat = NettyPacket.buildPacket(new byte[0], PacketType.NAME_NODE_HEARTBEAT);
+            heartbeat.setNodeId(nameNodeConfig.getNameNodeId());
+            heartbeat.setTimeoutInMs((int) (nameNodeConfig.getPeerHeartbeatIntervalInMs() * 10));
+            peer.sendAsync(heartbeat).whenComplete((response, cause) -> {
+                if (response != null) {
+                    response.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * 收到其它节点的心跳
+     */
+    public void onHeartbeat(int nameNodeId) {
+        failureDetectors.computeIfAbsent(nameNodeId, id -> new PhiAccrualFailureDetector(
+                nameNodeConfig.getFailureDetectorThreshold(), FAILURE_DETECTOR_SAMPLE_SIZE,
+                nameNodeConfig.getFailureDetectorMinStdDeviationInMs(), 0,
+                nameNodeConfig.getPeerHeartbeatIntervalInMs())).heartbeat(now());
+    }
+
+    /**
+     * 节点当前的phi值，还没有收到过心跳时为0
+     */
+    public double getPhi(int nameNodeId) {
+        PhiAccrualFailureDetector detector = failureDetectors.get(nameNodeId);
+        return detector == null ? 0 : detector.phi(now());
+    }
+
+    /**
+     * 按心跳判断节点是否存活，还没有收到过心跳时认为存活
+     */
+    public boolean isAlive(int nameNodeId) {
+        PhiAccrualFailureDetector detector = failureDetectors.get(nameNodeId);
+        return detector == null || detector.isAvailable(now());
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * 和节点之间的主连接是否可用
+     */
+    public boolean isConnected(int nameNodeId) {
+        PeerNameNode peer = peerNameNodeMap.get(nameNodeId);
+        return peer != null && peer.isConnected();
     }
 
     public List<String> getAllServers() {
@@ -215,6 +403,11 @@ public class PeerNameNodes {
      * 收到消息，确认消息是否先被PeerNameNodeServer消费
      */
     public boolean onMessage(NettyPacket request) {
+        PeerConnectionPool pool = bulkConnectionPools.get(request.getNodeId());
+        if (pool != null && pool.onMessage(request)) {
+            return true;
+        }
+
         PeerNameNode peer = peerNameNodeMap.get(request.getNodeId());
         if (peer == null) {
             return false;
@@ -236,6 +429,18 @@ public class PeerNameNodes {
         }
     }
 
+    /**
+     * 批量发送给指定节点，合并为一次flush
+     */
+    public void sendBatch(int nameNodeId, List<NettyPacket> nettyPackets) throws InterruptedException {
+        PeerNameNode peer = peerNameNodeMap.get(nameNodeId);
+        if (peer != null) {
+            peer.sendBatch(nettyPackets);
+        } else {
+            log.warn("找不到peer节点 [nodeId={}]", nameNodeId);
+        }
+    }
+
     public NettyPacket sendSync(int nameNodeId, NettyPacket request) throws InterruptedException, RequestTimeoutException {
         PeerNameNode peer = peerNameNodeMap.get(nameNodeId);
         if (peer != null) {
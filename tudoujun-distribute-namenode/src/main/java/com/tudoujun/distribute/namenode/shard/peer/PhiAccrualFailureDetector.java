@@ -0,0 +1,84 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+/**
+ * @author xiaowenjun
+ * @description Phi累积故障检测器：记录最近maxSampleSize次心跳的到达间隔，按间隔的均值和标准差估计正态分布，
+ * phi = -log10(下一次心跳在距上次心跳这么久之后才到达的概率)。网络抖动大时分布变宽，phi增长变慢，
+ * 不需要针对不同的网络手动调整超时时间。还没有收到心跳时认为节点可用
+ * @create: 2025/04/03 10:15
+ */
+public class PhiAccrualFailureDetector {
+
+    private final double threshold;
+    private final long minStdDeviationInMs;
+    private final long acceptablePauseInMs;
+    private final long[] intervals;
+    private int sampleCount;
+    private int nextSample;
+    private double intervalSum;
+    private double squaredIntervalSum;
+    private long lastHeartbeatTime = -1;
+
+    /**
+     * @param firstHeartbeatEstimateInMs 只收到第一次心跳时用来估计分布的心跳间隔，一般为发送心跳的间隔
+     */
+    public PhiAccrualFailureDetector(double threshold, int maxSampleSize, long minStdDeviationInMs,
+                                     long acceptablePauseInMs, long firstHeartbeatEstimateInMs) {
+        this.threshold = threshold;
+        this.minStdDeviationInMs = minStdDeviationInMs;
+        this.acceptablePauseInMs = acceptablePauseInMs;
+        this.intervals = new long[maxSampleSize];
+        // 用估计值的均值和1/4的标准差作为初始样本，避免第二次心跳之前分布为空
+        long stdDeviation = firstHeartbeatEstimateInMs / 4;
+        addInterval(firstHeartbeatEstimateInMs - stdDeviation);
+        addInterval(firstHeartbeatEstimateInMs + stdDeviation);
+    }
+
+    public synchronized void heartbeat(long now) {
+        if (lastHeartbeatTime >= 0) {
+            addInterval(now - lastHeartbeatTime);
+        }
+        lastHeartbeatTime = now;
+    }
+
+    private void addInterval(long interval) {
+        if (sampleCount == intervals.length) {
+            long evicted = intervals[nextSample];
+            intervalSum -= evicted;
+            squaredIntervalSum -= (double) evicted * evicted;
+        } else {
+            sampleCount++;
+        }
+        intervals[nextSample] = interval;
+        nextSample = (nextSample + 1) % intervals.length;
+        intervalSum += interval;
+        squaredIntervalSum += (double) interval * interval;
+    }
+
+    /**
+     * 当前的phi值，还没有收到心跳时为0
+     */
+    public synchronized double phi(long now) {
+        if (lastHeartbeatTime < 0) {
+            return 0;
+        }
+        double mean = intervalSum / sampleCount;
+        double variance = squaredIntervalSum / sampleCount - mean * mean;
+        double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDeviationInMs);
+        double y = (now - lastHeartbeatTime - mean - acceptablePauseInMs) / stdDeviation;
+        // 正态分布累积函数的logistic近似，避免直接计算1 - cdf时精度不够
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    public boolean isAvailable(long now) {
+        return phi(now) < threshold;
+    }
+
+    public synchronized long getLastHeartbeatTime() {
+        return lastHeartbeatTime;
+    }
+}
@@ -0,0 +1,30 @@
+package com.tudoujun.distribute.namenode.shard.peer;
+
+import java.util.Arrays;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description PeerNameNode之间的流量类型，不同类型的流量使用不同的连接，避免大流量阻塞选举等控制请求
+ * @create: 2025/03/14 10:05
+ */
+@Getter
+@AllArgsConstructor
+public enum TrafficClass {
+
+    CONTROL(0, "控制流量：节点感知、Controller选举等"),
+    BULK(1, "大流量：元数据复制、迁移、请求转发等"),
+    ;
+
+    private final int value;
+    private final String description;
+
+    public static TrafficClass of(int value) {
+        return Arrays.stream(values())
+                .filter(t -> t.getValue() == value)
+                .findFirst()
+                .orElse(CONTROL);
+    }
+}
@@ -0,0 +1,32 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+import java.util.Arrays;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author xiaowenjun
+ * @description Controller日志的类型
+ * @create: 2025/04/01 10:05
+ */
+@Getter
+@AllArgsConstructor
+public enum RaftEntryType {
+
+    NOOP(0, "空日志：新的Leader提交一条自己任期的日志后才能确定之前的日志已经提交"),
+    CONFIGURATION(1, "集群成员，消息体为RaftConfiguration，追加到日志后立即生效"),
+    SLOT_TABLE(2, "初始的槽位分配表，消息体为SlotAssignment"),
+    SLOT_MOVE(3, "槽位迁移完成后更新归属，消息体为SlotMove"),
+    ;
+
+    private final int value;
+    private final String description;
+
+    public static RaftEntryType of(int value) {
+        return Arrays.stream(values())
+                .filter(t -> t.getValue() == value)
+                .findFirst()
+                .orElse(NOOP);
+    }
+}
@@ -0,0 +1,15 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+/**
+ * @author xiaowenjun
+ * @description Leader变化的监听器，在应用线程中调用
+ * @create: 2025/04/01 10:10
+ */
+public interface RaftListener {
+
+    /**
+     * 得知新的Leader；自身成为Leader时，在本任期的第一条日志应用之后才通知，这时状态机已经是最新的。
+     * 自身不再是Leader时leaderId为-1
+     */
+    void onLeaderChanged(int leaderId) throws Exception;
+}
@@ -0,0 +1,140 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tudoujun.distribute.model.namenode.RaftEntry;
+import com.tudoujun.distribute.model.namenode.RaftSnapshot;
+
+/**
+ * @author xiaowenjun
+ * @description Controller日志：最近一次快照加上快照之后的日志，index从1开始连续递增。
+ * 非线程安全，由RaftNode加锁访问；storage为null时只保存在内存中
+ * @create: 2025/04/01 10:20
+ */
+public class RaftLog {
+
+    private final RaftStorage storage;
+    private final List<RaftEntry> entries = new ArrayList<>();
+    private RaftSnapshot snapshot = RaftSnapshot.getDefaultInstance();
+
+    public RaftLog(RaftStorage storage) {
+        this.storage = storage;
+    }
+
+    public void load() throws IOException {
+        if (storage == null) {
+            return;
+        }
+        RaftSnapshot loaded = storage.loadSnapshot();
+        if (loaded != null) {
+            snapshot = loaded;
+        }
+        entries.addAll(storage.loadLog(snapshot.getLastIncludedIndex()));
+    }
+
+    public RaftSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public long snapshotIndex() {
+        return snapshot.getLastIncludedIndex();
+    }
+
+    public long lastIndex() {
+        return snapshotIndex() + entries.size();
+    }
+
+    public long lastTerm() {
+        return entries.isEmpty() ? snapshot.getLastIncludedTerm() : entries.get(entries.size() - 1).getTerm();
+    }
+
+    /**
+     * 日志的任期，快照之前或者不存在的日志返回-1
+     */
+    public long termOf(long index) {
+        if (index == snapshotIndex()) {
+            return snapshot.getLastIncludedTerm();
+        }
+        if (index < snapshotIndex() || index > lastIndex()) {
+            return -1;
+        }
+        return entries.get((int) (index - snapshotIndex() - 1)).getTerm();
+    }
+
+    public RaftEntry get(long index) {
+        return entries.get((int) (index - snapshotIndex() - 1));
+    }
+
+    /**
+     * 从from开始最多maxCount条日志，from必须在快照之后
+     */
+    public List<RaftEntry> slice(long from, int maxCount) {
+        int start = (int) (from - snapshotIndex() - 1);
+        int end = (int) Math.min(entries.size(), (long) start + maxCount);
+        if (start >= end) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(entries.subList(start, end));
+    }
+
+    /**
+     * 追加日志并持久化，返回前已经fsync
+     */
+    public void append(List<RaftEntry> newEntries) throws IOException {
+        if (storage != null) {
+            storage.append(newEntries);
+        }
+        entries.addAll(newEntries);
+    }
+
+    /**
+     * 删除index及之后的日志，只用于删除和Leader冲突的未提交日志
+     */
+    public void truncateFrom(long index) throws IOException {
+        int from = (int) (index - snapshotIndex() - 1);
+        if (from < 0 || from >= entries.size()) {
+            return;
+        }
+        if (storage != null) {
+            storage.truncateFrom(index);
+        }
+        entries.subList(from, entries.size()).clear();
+    }
+
+    /**
+     * 安装快照：日志中有和快照最后一条相同的日志时保留之后的日志，否则丢弃所有日志
+     */
+    public void installSnapshot(RaftSnapshot newSnapshot) throws IOException {
+        long index = newSnapshot.getLastIncludedIndex();
+        List<RaftEntry> retained = termOf(index) == newSnapshot.getLastIncludedTerm() && index <= lastIndex()
+                ? new ArrayList<>(entries.subList((int) (index - snapshotIndex()), entries.size()))
+                : new ArrayList<>();
+        if (storage != null) {
+            storage.saveSnapshot(newSnapshot);
+            storage.rewrite(index + 1, retained);
+        }
+        snapshot = newSnapshot;
+        entries.clear();
+        entries.addAll(retained);
+    }
+
+    /**
+     * 从后往前找最近的一条集群成员日志，没有时返回null
+     */
+    public RaftEntry lastConfigurationEntry() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).getType() == RaftEntryType.CONFIGURATION.getValue()) {
+                return entries.get(i);
+            }
+        }
+        return null;
+    }
+
+    public void close() throws IOException {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+}
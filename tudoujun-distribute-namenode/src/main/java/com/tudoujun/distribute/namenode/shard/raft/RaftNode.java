@@ -0,0 +1,1087 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.common.utils.DefaultThread;
+import com.tudoujun.distribute.model.namenode.AppendEntriesRequest;
+import com.tudoujun.distribute.model.namenode.AppendEntriesResponse;
+import com.tudoujun.distribute.model.namenode.InstallSnapshotRequest;
+import com.tudoujun.distribute.model.namenode.InstallSnapshotResponse;
+import com.tudoujun.distribute.model.namenode.RaftConfiguration;
+import com.tudoujun.distribute.model.namenode.RaftEntry;
+import com.tudoujun.distribute.model.namenode.RaftSnapshot;
+import com.tudoujun.distribute.model.namenode.RequestVoteRequest;
+import com.tudoujun.distribute.model.namenode.RequestVoteResponse;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description Controller的共识模块，按Raft实现：
+ * 1. 选举：选举超时后先预投票，拿到多数派的预投票才增加任期正式投票，刚收到过Leader心跳的节点拒绝投票，
+ * 避免新加入或者网络恢复的节点不断抬高任期打断正常的Leader；
+ * 2. 复制：Leader对每个Follower流水线发送AppendEntries，不等响应继续发送，最多maxInflightAppends个在途，
+ * 在途达到上限时新日志排队，下一次发送合并成一批；没有日志时按心跳间隔发送空的AppendEntries；
+ * 3. 提交：多数派复制的本任期日志提交，由单独的应用线程按顺序应用到状态机，Leader在应用本任期的第一条日志后才对外生效；
+ * 4. 快照：应用的日志超过snapshotEntries条后生成快照并删除之前的日志，落后到快照之前的Follower直接安装快照；
+ * 5. 成员变更：每次只增加一个节点，新的成员日志追加后立即生效，上一次变更提交之后才能开始下一次；
+ * 6. 租约：Follower收到Leader消息后leaseTimeout内拒绝投票，所以Leader在多数派确认的请求发出后
+ * leaseTimeout（扣除时钟漂移）内不会有新的Leader，期间可以直接在本地响应读请求；
+ * Follower通过心跳的故障检测判断Leader不可用并且租约过期后立即选举，不用等待选举超时，
+ * Leader超过选举超时没有得到多数派确认时主动退位
+ * @create: 2025/04/01 11:00
+ */
+@Slf4j
+public class RaftNode {
+
+    private static final long TICK_INTERVAL_IN_MS = 10;
+    private static final int APPLY_BATCH_SIZE = 1024;
+    /**
+     * 租约扣除的时钟漂移比例
+     */
+    private static final double LEASE_CLOCK_DRIFT_RATIO = 0.1;
+
+    private final int selfId;
+    private final PeerNameNodes peerNameNodes;
+    private final DefaultScheduler defaultScheduler;
+    private final RaftStateMachine stateMachine;
+    private final RaftListener listener;
+    private final RaftStorage storage;
+    private final RaftLog raftLog;
+    private final Map<Integer, String> bootstrapConfiguration;
+    private final long heartbeatIntervalInMs;
+    private final long electionTimeoutInMs;
+    private final long leaseTimeoutInMs;
+    private final int maxBatchEntries;
+    private final int maxInflightAppends;
+    private final int snapshotEntries;
+    private final ExecutorService applyExecutor;
+    private final AtomicBoolean applyScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 需要持久化的状态
+     */
+    private long currentTerm;
+    private int votedFor = -1;
+
+    private RaftRole role = RaftRole.FOLLOWER;
+    private volatile int leaderId = -1;
+    private long commitIndex;
+    private Map<Integer, String> configuration;
+    private long configurationIndex;
+    private long electionDeadline;
+    private long lastLeaderContact;
+    /**
+     * 怀疑Leader不可用之后的随机等待时间，避免所有Follower同时发起选举
+     */
+    private long suspicionDelay;
+    private long nextCampaignTime;
+    private boolean preVoting;
+    private final Set<Integer> grantedVotes = new HashSet<>();
+
+    /**
+     * Leader的状态
+     */
+    private final Map<Integer, Replicator> replicators = new HashMap<>();
+    private final Map<Long, CompletableFuture<Long>> pendingProposals = new ConcurrentHashMap<>();
+    private final Map<Integer, String> pendingMembers = new LinkedHashMap<>();
+    private long leaderReadyIndex = -1;
+    private volatile boolean leaderReady;
+    private long leaderSince;
+    private final List<CompletableFuture<Void>> pendingLeaseReads = new ArrayList<>();
+    /**
+     * 读屏障确认租约后等待应用到的commitIndex，按index排序
+     */
+    private final PriorityQueue<AppliedRead> pendingAppliedReads = new PriorityQueue<>(Comparator.comparingLong(AppliedRead::index));
+
+    /**
+     * 应用线程的状态
+     */
+    private volatile long lastApplied;
+    private Map<Integer, String> appliedConfiguration;
+
+    private final AtomicLong appliedEntries = new AtomicLong();
+
+    /**
+     * @param bootstrapConfiguration 日志和快照中都没有集群成员时使用的初始成员，节点id对应 host:port:nodeId
+     * @param storage 为null时只保存在内存中
+     */
+    public RaftNode(int selfId, Map<Integer, String> bootstrapConfiguration, PeerNameNodes peerNameNodes,
+                    DefaultScheduler defaultScheduler, RaftStateMachine stateMachine, RaftListener listener,
+                    RaftStorage storage, long heartbeatIntervalInMs, long electionTimeoutInMs, long leaseTimeoutInMs,
+                    int maxBatchEntries, int maxInflightAppends, int snapshotEntries) {
+        this.selfId = selfId;
+        this.bootstrapConfiguration = Collections.unmodifiableMap(new HashMap<>(bootstrapConfiguration));
+        this.peerNameNodes = peerNameNodes;
+        this.defaultScheduler = defaultScheduler;
+        this.stateMachine = stateMachine;
+        this.listener = listener;
+        this.storage = storage;
+        this.raftLog = new RaftLog(storage);
+        this.heartbeatIntervalInMs = heartbeatIntervalInMs;
+        this.electionTimeoutInMs = electionTimeoutInMs;
+        this.leaseTimeoutInMs = leaseTimeoutInMs;
+        this.maxBatchEntries = maxBatchEntries;
+        this.maxInflightAppends = maxInflightAppends;
+        this.snapshotEntries = snapshotEntries;
+        this.applyExecutor = Executors.newSingleThreadExecutor(r -> new DefaultThread("NameNode-Raft-Apply", r, true));
+    }
+
+    public void start() throws Exception {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            raftLog.load();
+            if (storage != null) {
+                long[] meta = storage.loadMeta();
+                if (meta != null) {
+                    currentTerm = meta[0];
+                    votedFor = (int) meta[1];
+                }
+            }
+            reloadConfiguration();
+            commitIndex = raftLog.snapshotIndex();
+            resetElectionDeadline();
+            log.info("启动Controller共识模块: [nodeId={} term={} lastIndex={} configuration={}]", selfId, currentTerm,
+                    raftLog.lastIndex(), configuration.keySet());
+        }
+        executeOnApplyThread(() -> {
+            try {
+                appliedConfiguration = bootstrapConfiguration;
+                stateMachine.onConfigurationApplied(0, bootstrapConfiguration);
+            } catch (Exception e) {
+                log.error("应用初始集群成员失败: ", e);
+            }
+        });
+        scheduleApply();
+        synchronized (this) {
+            if (configuration.size() == 1 && configuration.containsKey(selfId)) {
+                // 单节点不需要等待选举超时
+                startPreVote();
+            }
+        }
+        defaultScheduler.schedule("Controller共识定时检查", this::tick, TICK_INTERVAL_IN_MS, TICK_INTERVAL_IN_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (running.compareAndSet(true, false)) {
+            synchronized (this) {
+                becomeFollower(currentTerm);
+                try {
+                    raftLog.close();
+                } catch (IOException e) {
+                    log.error("关闭Controller日志失败: ", e);
+                }
+            }
+            applyExecutor.shutdown();
+        }
+    }
+
+    private void checkRunning() {
+        if (!running.get()) {
+            throw new IllegalStateException("Controller共识模块没有运行");
+        }
+    }
+
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    /**
+     * 自身是Leader并且已经应用了之前所有任期的日志
+     */
+    public boolean isLeaderReady() {
+        return leaderReady;
+    }
+
+    /**
+     * 自身是Leader并且租约有效，期间不会有其它Leader
+     */
+    public synchronized boolean hasLease() {
+        return leaderReady && role == RaftRole.LEADER && now() < leaseExpireTime();
+    }
+
+    /**
+     * 读屏障：记录开始时的commitIndex，租约有效时立即确认，否则立即发送一轮心跳，多数派确认后确认；
+     * 确认后再等待状态机应用到记录的commitIndex，不再是Leader时失败
+     */
+    public synchronized CompletableFuture<Void> readBarrier() {
+        if (role != RaftRole.LEADER || !leaderReady) {
+            return CompletableFuture.failedFuture(new IllegalStateException("当前节点不是Controller: [leaderId=" + leaderId + "]"));
+        }
+        long readIndex = commitIndex;
+        if (now() < leaseExpireTime()) {
+            return waitApplied(readIndex);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingLeaseReads.add(future);
+        replicateAll(true);
+        return future.thenCompose(ignored -> waitApplied(readIndex));
+    }
+
+    private synchronized CompletableFuture<Void> waitApplied(long index) {
+        if (lastApplied >= index) {
+            return CompletableFuture.completedFuture(null);
+        }
+        AppliedRead read = new AppliedRead(index, new CompletableFuture<>());
+        pendingAppliedReads.add(read);
+        return read.future();
+    }
+
+    /**
+     * 应用线程更新lastApplied之后调用，完成已经应用到的读屏障
+     */
+    private void completeAppliedReads() {
+        List<AppliedRead> done = new ArrayList<>();
+        synchronized (this) {
+            while (!pendingAppliedReads.isEmpty() && pendingAppliedReads.peek().index() <= lastApplied) {
+                done.add(pendingAppliedReads.poll());
+            }
+        }
+        done.forEach(read -> read.future().complete(null));
+    }
+
+    /**
+     * 多数派确认的请求中最晚的发送时间，自身按当前时间计算
+     */
+    private long quorumAckSendTime() {
+        List<Long> sendTimes = new ArrayList<>();
+        for (int nodeId : configuration.keySet()) {
+            if (nodeId == selfId) {
+                sendTimes.add(now());
+            } else {
+                Replicator replicator = replicators.get(nodeId);
+                sendTimes.add(replicator == null ? 0 : replicator.lastAckSendTime);
+            }
+        }
+        sendTimes.sort(Collections.reverseOrder());
+        return sendTimes.get(configuration.size() / 2);
+    }
+
+    private long leaseExpireTime() {
+        long ackSendTime = quorumAckSendTime();
+        return ackSendTime == 0 ? 0 : ackSendTime + (long) (leaseTimeoutInMs * (1 - LEASE_CLOCK_DRIFT_RATIO));
+    }
+
+    private void completeLeaseReads() {
+        if (pendingLeaseReads.isEmpty() || now() >= leaseExpireTime()) {
+            return;
+        }
+        pendingLeaseReads.forEach(future -> future.complete(null));
+        pendingLeaseReads.clear();
+    }
+
+    public synchronized long getCurrentTerm() {
+        return currentTerm;
+    }
+
+    public synchronized long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public long getLastApplied() {
+        return lastApplied;
+    }
+
+    public long getAppliedEntries() {
+        return appliedEntries.get();
+    }
+
+    public synchronized Map<Integer, String> getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * 提交一条日志，日志应用到Leader的状态机之后返回日志的index，不是Leader时立即失败
+     */
+    public synchronized CompletableFuture<Long> propose(RaftEntryType type, byte[] data) {
+        if (role != RaftRole.LEADER) {
+            return CompletableFuture.failedFuture(new IllegalStateException("当前节点不是Controller: [leaderId=" + leaderId + "]"));
+        }
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        try {
+            long index = appendAsLeader(type, data);
+            pendingProposals.put(index, future);
+        } catch (IOException e) {
+            log.error("追加Controller日志失败: ", e);
+            return CompletableFuture.failedFuture(e);
+        }
+        replicateAll(false);
+        advanceCommitIndex();
+        return future;
+    }
+
+    /**
+     * 增加集群成员，只有Leader处理，上一次成员变更提交之后才会追加新的成员日志
+     */
+    public synchronized void addMember(int nodeId, String server) {
+        if (role != RaftRole.LEADER || configuration.containsKey(nodeId)) {
+            return;
+        }
+        pendingMembers.put(nodeId, server);
+        maybeChangeMembership();
+    }
+
+    private void tick() {
+        if (!running.get()) {
+            return;
+        }
+        synchronized (this) {
+            long now = now();
+            if (role == RaftRole.LEADER) {
+                if (now - Math.max(quorumAckSendTime(), leaderSince) >= electionTimeoutInMs) {
+                    log.warn("超过选举超时没有得到多数派的确认，Controller退位: [nodeId={} term={}]", selfId, currentTerm);
+                    becomeFollower(currentTerm);
+                    return;
+                }
+                for (Replicator replicator : replicators.values()) {
+                    if (now - replicator.lastSendTime >= heartbeatIntervalInMs) {
+                        replicator.replicate(true);
+                    }
+                }
+                return;
+            }
+            if (now >= electionDeadline || (now >= nextCampaignTime && isLeaderSuspected(now))) {
+                resetElectionDeadline();
+                if (configuration.containsKey(selfId)) {
+                    nextCampaignTime = now + heartbeatIntervalInMs + suspicionDelay;
+                    startPreVote();
+                }
+            }
+        }
+    }
+
+    /**
+     * Leader的租约已经过期，并且故障检测认为Leader不可用
+     */
+    private boolean isLeaderSuspected(long now) {
+        return leaderId != -1 && leaderId != selfId
+                && now - lastLeaderContact >= leaseTimeoutInMs + suspicionDelay
+                && !peerNameNodes.isAlive(leaderId);
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadline = now() + electionTimeoutInMs + ThreadLocalRandom.current().nextLong(electionTimeoutInMs);
+        suspicionDelay = ThreadLocalRandom.current().nextLong(2 * heartbeatIntervalInMs);
+    }
+
+    /**
+     * 租约时间内收到过Leader的消息
+     */
+    private boolean hasActiveLeader() {
+        return role == RaftRole.LEADER || (leaderId != -1 && now() - lastLeaderContact < leaseTimeoutInMs);
+    }
+
+    /**
+     * 单调递增的毫秒时间，不受系统时间调整的影响
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    // ---------------------------------------- 选举 ----------------------------------------
+
+    private void startPreVote() {
+        preVoting = true;
+        grantedVotes.clear();
+        grantedVotes.add(selfId);
+        log.info("选举超时，开始预投票: [nodeId={} term={}]", selfId, currentTerm + 1);
+        if (hasQuorum(grantedVotes)) {
+            startElection();
+            return;
+        }
+        requestVotes(currentTerm + 1, true);
+    }
+
+    private void startElection() {
+        preVoting = false;
+        role = RaftRole.CANDIDATE;
+        leaderId = -1;
+        currentTerm++;
+        votedFor = selfId;
+        persistMeta();
+        grantedVotes.clear();
+        grantedVotes.add(selfId);
+        log.info("开始选举Controller: [nodeId={} term={}]", selfId, currentTerm);
+        if (hasQuorum(grantedVotes)) {
+            becomeLeader();
+            return;
+        }
+        requestVotes(currentTerm, false);
+    }
+
+    private void requestVotes(long term, boolean preVote) {
+        RequestVoteRequest request = RequestVoteRequest.newBuilder()
+                .setTerm(term)
+                .setCandidateId(selfId)
+                .setLastLogIndex(raftLog.lastIndex())
+                .setLastLogTerm(raftLog.lastTerm())
+                .setPreVote(preVote)
+                .build();
+        for (int nodeId : configuration.keySet()) {
+            if (nodeId == selfId) {
+                continue;
+            }
+            send(nodeId, request, PacketType.NAME_NODE_RAFT_REQUEST_VOTE).whenComplete((response, cause) -> {
+                if (response == null) {
+                    return;
+                }
+                try {
+                    onRequestVoteResponse(nodeId, request, RequestVoteResponse.parseFrom(response.getBody()));
+                } catch (Exception e) {
+                    log.error("处理投票响应失败: ", e);
+                } finally {
+                    response.release();
+                }
+            });
+        }
+    }
+
+    private synchronized void onRequestVoteResponse(int nodeId, RequestVoteRequest request, RequestVoteResponse response) {
+        if (response.getTerm() > currentTerm) {
+            becomeFollower(response.getTerm());
+            return;
+        }
+        if (!response.getVoteGranted()) {
+            return;
+        }
+        if (request.getPreVote()) {
+            if (!preVoting || request.getTerm() != currentTerm + 1 || role == RaftRole.LEADER) {
+                return;
+            }
+            grantedVotes.add(nodeId);
+            if (hasQuorum(grantedVotes)) {
+                startElection();
+            }
+        } else {
+            if (role != RaftRole.CANDIDATE || request.getTerm() != currentTerm) {
+                return;
+            }
+            grantedVotes.add(nodeId);
+            if (hasQuorum(grantedVotes)) {
+                becomeLeader();
+            }
+        }
+    }
+
+    /**
+     * 收到投票请求，包括预投票，预投票不改变自身的任何状态
+     */
+    public synchronized RequestVoteResponse onRequestVote(RequestVoteRequest request) {
+        checkRunning();
+        boolean upToDate = request.getLastLogTerm() > raftLog.lastTerm()
+                || (request.getLastLogTerm() == raftLog.lastTerm() && request.getLastLogIndex() >= raftLog.lastIndex());
+        if (request.getPreVote()) {
+            boolean granted = request.getTerm() > currentTerm && !hasActiveLeader() && upToDate;
+            return RequestVoteResponse.newBuilder().setTerm(currentTerm).setVoteGranted(granted).build();
+        }
+        if (request.getTerm() < currentTerm || (request.getTerm() > currentTerm && hasActiveLeader())) {
+            return RequestVoteResponse.newBuilder().setTerm(currentTerm).setVoteGranted(false).build();
+        }
+        if (request.getTerm() > currentTerm) {
+            becomeFollower(request.getTerm());
+        }
+        boolean granted = (votedFor == -1 || votedFor == request.getCandidateId()) && upToDate;
+        if (granted) {
+            votedFor = request.getCandidateId();
+            persistMeta();
+            resetElectionDeadline();
+        }
+        log.info("收到投票请求: [candidate={} term={} granted={}]", request.getCandidateId(), request.getTerm(), granted);
+        return RequestVoteResponse.newBuilder().setTerm(currentTerm).setVoteGranted(granted).build();
+    }
+
+    private boolean hasQuorum(Set<Integer> votes) {
+        int count = 0;
+        for (int nodeId : votes) {
+            if (configuration.containsKey(nodeId)) {
+                count++;
+            }
+        }
+        return count > configuration.size() / 2;
+    }
+
+    private void becomeLeader() {
+        role = RaftRole.LEADER;
+        leaderId = selfId;
+        leaderReady = false;
+        leaderSince = now();
+        preVoting = false;
+        replicators.clear();
+        pendingMembers.clear();
+        for (int nodeId : configuration.keySet()) {
+            if (nodeId != selfId) {
+                replicators.put(nodeId, new Replicator(nodeId, raftLog.lastIndex() + 1));
+            }
+        }
+        try {
+            leaderReadyIndex = appendAsLeader(RaftEntryType.NOOP, new byte[0]);
+        } catch (IOException e) {
+            log.error("追加Controller日志失败，放弃成为Leader: ", e);
+            becomeFollower(currentTerm);
+            return;
+        }
+        log.info("成为Controller: [nodeId={} term={} lastIndex={}]", selfId, currentTerm, raftLog.lastIndex());
+        replicateAll(true);
+        advanceCommitIndex();
+    }
+
+    /**
+     * 成为Follower，term大于当前任期时更新任期并清空投票
+     */
+    private void becomeFollower(long term) {
+        boolean wasLeader = role == RaftRole.LEADER;
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = -1;
+            persistMeta();
+            if (!wasLeader && leaderId != -1) {
+                // 进入新的任期，之前的Leader不再有效
+                leaderId = -1;
+                notifyLeaderChanged(-1);
+            }
+        }
+        role = RaftRole.FOLLOWER;
+        preVoting = false;
+        if (wasLeader) {
+            log.info("不再是Controller: [nodeId={} term={}]", selfId, currentTerm);
+            leaderId = -1;
+            leaderReady = false;
+            leaderReadyIndex = -1;
+            replicators.clear();
+            pendingMembers.clear();
+            IllegalStateException cause = new IllegalStateException("Controller已经切换");
+            pendingProposals.values().forEach(future -> future.completeExceptionally(cause));
+            pendingProposals.clear();
+            pendingLeaseReads.forEach(future -> future.completeExceptionally(cause));
+            pendingLeaseReads.clear();
+            notifyLeaderChanged(-1);
+        }
+    }
+
+    private void persistMeta() {
+        if (storage == null) {
+            return;
+        }
+        try {
+            storage.saveMeta(currentTerm, votedFor);
+        } catch (IOException e) {
+            // 任期和投票没有持久化时重启后可能重复投票，不能继续运行
+            throw new IllegalStateException("保存Controller任期失败", e);
+        }
+    }
+
+    // ---------------------------------------- 复制 ----------------------------------------
+
+    private long appendAsLeader(RaftEntryType type, byte[] data) throws IOException {
+        RaftEntry entry = RaftEntry.newBuilder()
+                .setTerm(currentTerm)
+                .setIndex(raftLog.lastIndex() + 1)
+                .setType(type.getValue())
+                .setData(ByteString.copyFrom(data))
+                .build();
+        raftLog.append(Collections.singletonList(entry));
+        if (type == RaftEntryType.CONFIGURATION) {
+            reloadConfiguration();
+        }
+        return entry.getIndex();
+    }
+
+    private void replicateAll(boolean heartbeat) {
+        for (Replicator replicator : replicators.values()) {
+            replicator.replicate(heartbeat);
+        }
+    }
+
+    /**
+     * 多数派已经复制的最大index，只有本任期的日志能通过计数提交
+     */
+    private void advanceCommitIndex() {
+        if (role != RaftRole.LEADER) {
+            return;
+        }
+        List<Long> matchIndexes = new ArrayList<>();
+        for (int nodeId : configuration.keySet()) {
+            if (nodeId == selfId) {
+                matchIndexes.add(raftLog.lastIndex());
+            } else {
+                Replicator replicator = replicators.get(nodeId);
+                matchIndexes.add(replicator == null ? 0 : replicator.matchIndex);
+            }
+        }
+        matchIndexes.sort(Collections.reverseOrder());
+        long quorumIndex = matchIndexes.get(configuration.size() / 2);
+        if (quorumIndex > commitIndex && raftLog.termOf(quorumIndex) == currentTerm) {
+            commitIndex = quorumIndex;
+            scheduleApply();
+            maybeChangeMembership();
+        }
+    }
+
+    private void maybeChangeMembership() {
+        if (role != RaftRole.LEADER || commitIndex < leaderReadyIndex || configurationIndex > commitIndex) {
+            return;
+        }
+        pendingMembers.keySet().removeIf(configuration::containsKey);
+        if (pendingMembers.isEmpty()) {
+            return;
+        }
+        Map.Entry<Integer, String> member = pendingMembers.entrySet().iterator().next();
+        pendingMembers.remove(member.getKey());
+        Map<Integer, String> servers = new HashMap<>(configuration);
+        servers.put(member.getKey(), member.getValue());
+        log.info("增加Controller集群成员: [nodeId={} server={} members={}]", member.getKey(), member.getValue(),
+                servers.keySet());
+        try {
+            appendAsLeader(RaftEntryType.CONFIGURATION,
+                    RaftConfiguration.newBuilder().putAllServers(servers).build().toByteArray());
+        } catch (IOException e) {
+            log.error("追加Controller日志失败: ", e);
+            return;
+        }
+        replicateAll(false);
+        advanceCommitIndex();
+    }
+
+    /**
+     * 以日志中最近的成员日志为准，没有时依次使用快照和初始成员；Leader同时为新成员创建复制器
+     */
+    private void reloadConfiguration() {
+        RaftEntry entry = raftLog.lastConfigurationEntry();
+        RaftSnapshot snapshot = raftLog.getSnapshot();
+        if (entry != null) {
+            try {
+                configuration = RaftConfiguration.parseFrom(entry.getData()).getServersMap();
+            } catch (Exception e) {
+                throw new IllegalStateException("集群成员日志格式错误: " + entry.getIndex(), e);
+            }
+            configurationIndex = entry.getIndex();
+        } else if (snapshot.hasConfiguration()) {
+            configuration = snapshot.getConfiguration().getServersMap();
+            configurationIndex = snapshot.getLastIncludedIndex();
+        } else {
+            configuration = bootstrapConfiguration;
+            configurationIndex = 0;
+        }
+        if (role == RaftRole.LEADER) {
+            for (int nodeId : configuration.keySet()) {
+                if (nodeId != selfId && !replicators.containsKey(nodeId)) {
+                    replicators.put(nodeId, new Replicator(nodeId, raftLog.lastIndex() + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * 收到Leader的日志复制或心跳
+     */
+    public synchronized AppendEntriesResponse onAppendEntries(AppendEntriesRequest request) throws IOException {
+        checkRunning();
+        AppendEntriesResponse.Builder response = AppendEntriesResponse.newBuilder().setSuccess(false);
+        if (request.getTerm() < currentTerm) {
+            return response.setTerm(currentTerm).build();
+        }
+        acceptLeader(request.getTerm(), request.getLeaderId());
+        response.setTerm(currentTerm);
+        long prevLogIndex = request.getPrevLogIndex();
+        if (prevLogIndex > raftLog.lastIndex()) {
+            return response.setConflictIndex(raftLog.lastIndex() + 1).build();
+        }
+        if (prevLogIndex >= raftLog.snapshotIndex() && raftLog.termOf(prevLogIndex) != request.getPrevLogTerm()) {
+            // 跳过整个冲突的任期，减少回退的次数
+            long conflictTerm = raftLog.termOf(prevLogIndex);
+            long conflictIndex = prevLogIndex;
+            while (conflictIndex - 1 > raftLog.snapshotIndex() && raftLog.termOf(conflictIndex - 1) == conflictTerm) {
+                conflictIndex--;
+            }
+            return response.setConflictIndex(Math.max(conflictIndex, commitIndex + 1)).build();
+        }
+        List<RaftEntry> newEntries = new ArrayList<>();
+        boolean configurationChanged = false;
+        for (RaftEntry entry : request.getEntriesList()) {
+            long index = entry.getIndex();
+            if (index <= raftLog.snapshotIndex()) {
+                continue;
+            }
+            if (newEntries.isEmpty() && index <= raftLog.lastIndex()) {
+                if (raftLog.termOf(index) == entry.getTerm()) {
+                    continue;
+                }
+                log.info("删除和Leader冲突的Controller日志: [from={} lastIndex={}]", index, raftLog.lastIndex());
+                raftLog.truncateFrom(index);
+                configurationChanged |= configurationIndex >= index;
+            }
+            newEntries.add(entry);
+            configurationChanged |= entry.getType() == RaftEntryType.CONFIGURATION.getValue();
+        }
+        raftLog.append(newEntries);
+        if (configurationChanged) {
+            reloadConfiguration();
+        }
+        long lastNewIndex = prevLogIndex + request.getEntriesCount();
+        if (request.getLeaderCommit() > commitIndex) {
+            long newCommitIndex = Math.min(request.getLeaderCommit(), lastNewIndex);
+            if (newCommitIndex > commitIndex) {
+                commitIndex = newCommitIndex;
+                scheduleApply();
+            }
+        }
+        return response.setSuccess(true).setMatchIndex(lastNewIndex).build();
+    }
+
+    /**
+     * 收到Leader发送的快照
+     */
+    public synchronized InstallSnapshotResponse onInstallSnapshot(InstallSnapshotRequest request) throws IOException {
+        checkRunning();
+        if (request.getTerm() < currentTerm) {
+            return InstallSnapshotResponse.newBuilder().setTerm(currentTerm).build();
+        }
+        acceptLeader(request.getTerm(), request.getLeaderId());
+        RaftSnapshot snapshot = request.getSnapshot();
+        if (snapshot.getLastIncludedIndex() > raftLog.snapshotIndex()) {
+            log.info("安装Controller快照: [lastIncludedIndex={} lastIncludedTerm={} lastIndex={}]",
+                    snapshot.getLastIncludedIndex(), snapshot.getLastIncludedTerm(), raftLog.lastIndex());
+            raftLog.installSnapshot(snapshot);
+            reloadConfiguration();
+            commitIndex = Math.max(commitIndex, snapshot.getLastIncludedIndex());
+            scheduleApply();
+        }
+        return InstallSnapshotResponse.newBuilder()
+                .setTerm(currentTerm)
+                .setLastIncludedIndex(snapshot.getLastIncludedIndex())
+                .build();
+    }
+
+    private void acceptLeader(long term, int newLeaderId) {
+        if (term > currentTerm || role != RaftRole.FOLLOWER) {
+            becomeFollower(term);
+        }
+        lastLeaderContact = now();
+        resetElectionDeadline();
+        if (leaderId != newLeaderId) {
+            leaderId = newLeaderId;
+            log.info("Controller变更: [leaderId={} term={}]", newLeaderId, currentTerm);
+            notifyLeaderChanged(newLeaderId);
+        }
+    }
+
+    private void onAppendEntriesResponse(Replicator replicator, AppendEntriesRequest request, long sendTime,
+                                         NettyPacket response, Throwable cause) {
+        synchronized (this) {
+            if (role != RaftRole.LEADER || request.getTerm() != currentTerm || replicators.get(replicator.nodeId) != replicator) {
+                return;
+            }
+            replicator.inflight = Math.max(0, replicator.inflight - 1);
+            if (cause != null) {
+                replicator.nextIndex = replicator.matchIndex + 1;
+                return;
+            }
+            AppendEntriesResponse appendEntriesResponse;
+            try {
+                appendEntriesResponse = AppendEntriesResponse.parseFrom(response.getBody());
+            } catch (Exception e) {
+                log.error("处理日志复制响应失败: ", e);
+                return;
+            }
+            if (appendEntriesResponse.getTerm() > currentTerm) {
+                becomeFollower(appendEntriesResponse.getTerm());
+                return;
+            }
+            replicator.lastAckSendTime = Math.max(replicator.lastAckSendTime, sendTime);
+            completeLeaseReads();
+            if (appendEntriesResponse.getSuccess()) {
+                replicator.matchIndex = Math.max(replicator.matchIndex, appendEntriesResponse.getMatchIndex());
+                replicator.nextIndex = Math.max(replicator.nextIndex, replicator.matchIndex + 1);
+                advanceCommitIndex();
+            } else {
+                replicator.nextIndex = Math.max(replicator.matchIndex + 1,
+                        Math.min(replicator.nextIndex, appendEntriesResponse.getConflictIndex()));
+            }
+            replicator.replicate(false);
+        }
+    }
+
+    private void onInstallSnapshotResponse(Replicator replicator, long term, long sendTime, NettyPacket response,
+                                           Throwable cause) {
+        synchronized (this) {
+            if (role != RaftRole.LEADER || term != currentTerm || replicators.get(replicator.nodeId) != replicator) {
+                return;
+            }
+            replicator.inflight = Math.max(0, replicator.inflight - 1);
+            if (cause != null) {
+                return;
+            }
+            InstallSnapshotResponse installSnapshotResponse;
+            try {
+                installSnapshotResponse = InstallSnapshotResponse.parseFrom(response.getBody());
+            } catch (Exception e) {
+                log.error("处理快照响应失败: ", e);
+                return;
+            }
+            if (installSnapshotResponse.getTerm() > currentTerm) {
+                becomeFollower(installSnapshotResponse.getTerm());
+                return;
+            }
+            replicator.lastAckSendTime = Math.max(replicator.lastAckSendTime, sendTime);
+            completeLeaseReads();
+            replicator.matchIndex = Math.max(replicator.matchIndex, installSnapshotResponse.getLastIncludedIndex());
+            replicator.nextIndex = replicator.matchIndex + 1;
+            advanceCommitIndex();
+            replicator.replicate(false);
+        }
+    }
+
+    private CompletableFuture<NettyPacket> send(int nodeId, MessageLite request, PacketType packetType) {
+        NettyPacket packet = NettyPacket.buildPacket(request.toByteArray(), packetType);
+        // 响应超时后释放在途名额，之后重新发送
+        packet.setTimeoutInMs((int) electionTimeoutInMs);
+        return peerNameNodes.sendAsync(nodeId, packet, TrafficClass.CONTROL);
+    }
+
+    /**
+     * Leader对单个Follower的复制状态，由RaftNode加锁访问
+     */
+    private class Replicator {
+
+        private final int nodeId;
+        private long nextIndex;
+        private long matchIndex;
+        private int inflight;
+        private long lastSendTime;
+        /**
+         * 收到响应的请求中最晚的发送时间，用于计算租约
+         */
+        private long lastAckSendTime;
+
+        Replicator(int nodeId, long nextIndex) {
+            this.nodeId = nodeId;
+            this.nextIndex = nextIndex;
+        }
+
+        /**
+         * 在途没有达到上限时发送nextIndex之后的日志，每次最多maxBatchEntries条；heartbeat为true时没有日志也发送一次
+         */
+        void replicate(boolean heartbeat) {
+            while (inflight < maxInflightAppends) {
+                if (nextIndex <= raftLog.snapshotIndex()) {
+                    // 需要的日志已经被快照删除，等在途的请求都返回后发送快照
+                    if (inflight == 0) {
+                        sendSnapshot();
+                    }
+                    return;
+                }
+                if (nextIndex > raftLog.lastIndex() && !heartbeat) {
+                    return;
+                }
+                List<RaftEntry> entries = raftLog.slice(nextIndex, maxBatchEntries);
+                AppendEntriesRequest request = AppendEntriesRequest.newBuilder()
+                        .setTerm(currentTerm)
+                        .setLeaderId(selfId)
+                        .setPrevLogIndex(nextIndex - 1)
+                        .setPrevLogTerm(raftLog.termOf(nextIndex - 1))
+                        .addAllEntries(entries)
+                        .setLeaderCommit(commitIndex)
+                        .build();
+                nextIndex += entries.size();
+                inflight++;
+                long sendTime = now();
+                lastSendTime = sendTime;
+                heartbeat = false;
+                CompletableFuture<NettyPacket> future = send(nodeId, request, PacketType.NAME_NODE_RAFT_APPEND_ENTRIES);
+                future.whenComplete((response, cause) -> {
+                    try {
+                        onAppendEntriesResponse(this, request, sendTime, response, cause);
+                    } finally {
+                        if (response != null) {
+                            response.release();
+                        }
+                    }
+                });
+                // 没有连接时立即失败，等下一次心跳再重试
+                if (entries.isEmpty() || future.isCompletedExceptionally()) {
+                    return;
+                }
+            }
+        }
+
+        private void sendSnapshot() {
+            RaftSnapshot snapshot = raftLog.getSnapshot();
+            log.info("Follower落后到快照之前，发送快照: [nodeId={} nextIndex={} lastIncludedIndex={}]", nodeId, nextIndex,
+                    snapshot.getLastIncludedIndex());
+            InstallSnapshotRequest request = InstallSnapshotRequest.newBuilder()
+                    .setTerm(currentTerm)
+                    .setLeaderId(selfId)
+                    .setSnapshot(snapshot)
+                    .build();
+            long term = currentTerm;
+            inflight++;
+            long sendTime = now();
+            lastSendTime = sendTime;
+            send(nodeId, request, PacketType.NAME_NODE_RAFT_INSTALL_SNAPSHOT).whenComplete((response, cause) -> {
+                try {
+                    onInstallSnapshotResponse(this, term, sendTime, response, cause);
+                } finally {
+                    if (response != null) {
+                        response.release();
+                    }
+                }
+            });
+        }
+    }
+
+    // ---------------------------------------- 应用 ----------------------------------------
+
+    private void scheduleApply() {
+        if (applyScheduled.compareAndSet(false, true)) {
+            executeOnApplyThread(() -> {
+                applyScheduled.set(false);
+                applyCommitted();
+            });
+        }
+    }
+
+    private void notifyLeaderChanged(int newLeaderId) {
+        executeOnApplyThread(() -> {
+            try {
+                listener.onLeaderChanged(newLeaderId);
+            } catch (Exception e) {
+                log.error("通知Controller变更失败: ", e);
+            }
+        });
+    }
+
+    private void executeOnApplyThread(Runnable task) {
+        try {
+            applyExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.info("Controller共识模块已经停止，忽略应用任务");
+        }
+    }
+
+    /**
+     * 在应用线程中按顺序应用已经提交的日志，落后到快照之前时先从快照恢复
+     */
+    private void applyCommitted() {
+        while (running.get()) {
+            RaftSnapshot snapshot = null;
+            List<RaftEntry> entries;
+            synchronized (this) {
+                if (lastApplied < raftLog.snapshotIndex()) {
+                    snapshot = raftLog.getSnapshot();
+                    entries = null;
+                } else {
+                    entries = raftLog.slice(lastApplied + 1, (int) Math.min(APPLY_BATCH_SIZE, commitIndex - lastApplied));
+                }
+            }
+            try {
+                if (snapshot != null) {
+                    stateMachine.restoreSnapshot(snapshot.getData().toByteArray());
+                    appliedConfiguration = snapshot.getConfiguration().getServersMap();
+                    stateMachine.onConfigurationApplied(snapshot.getLastIncludedIndex(), appliedConfiguration);
+                    lastApplied = snapshot.getLastIncludedIndex();
+                    completeAppliedReads();
+                    log.info("从快照恢复Controller状态: [lastIncludedIndex={}]", lastApplied);
+                    continue;
+                }
+                if (entries.isEmpty()) {
+                    return;
+                }
+                for (RaftEntry entry : entries) {
+                    apply(entry);
+                }
+                maybeSnapshot();
+            } catch (Exception e) {
+                // 状态机应用失败时各节点的状态可能不一致，停止应用，等待人工处理
+                log.error("应用Controller日志失败: [lastApplied={}] ", lastApplied, e);
+                return;
+            }
+        }
+    }
+
+    private void apply(RaftEntry entry) throws Exception {
+        RaftEntryType type = RaftEntryType.of(entry.getType());
+        if (type == RaftEntryType.CONFIGURATION) {
+            appliedConfiguration = RaftConfiguration.parseFrom(entry.getData()).getServersMap();
+            stateMachine.onConfigurationApplied(entry.getIndex(), appliedConfiguration);
+        } else if (type != RaftEntryType.NOOP) {
+            stateMachine.apply(entry);
+        }
+        lastApplied = entry.getIndex();
+        appliedEntries.incrementAndGet();
+        completeAppliedReads();
+        CompletableFuture<Long> future = pendingProposals.remove(entry.getIndex());
+        if (future != null) {
+            future.complete(entry.getIndex());
+        }
+        boolean ready;
+        synchronized (this) {
+            ready = role == RaftRole.LEADER && entry.getIndex() == leaderReadyIndex && entry.getTerm() == currentTerm;
+            if (ready) {
+                leaderReady = true;
+            }
+        }
+        if (ready) {
+            log.info("Controller已经应用之前所有的日志，开始对外生效: [nodeId={} term={} index={}]", selfId,
+                    entry.getTerm(), entry.getIndex());
+            listener.onLeaderChanged(selfId);
+        }
+    }
+
+    private void maybeSnapshot() throws Exception {
+        long index = lastApplied;
+        synchronized (this) {
+            if (index - raftLog.snapshotIndex() < snapshotEntries) {
+                return;
+            }
+        }
+        byte[] data = stateMachine.takeSnapshot();
+        synchronized (this) {
+            if (index <= raftLog.snapshotIndex()) {
+                // 生成快照期间已经安装了Leader发来的更新的快照
+                return;
+            }
+            RaftSnapshot snapshot = RaftSnapshot.newBuilder()
+                    .setLastIncludedIndex(index)
+                    .setLastIncludedTerm(raftLog.termOf(index))
+                    .setConfiguration(RaftConfiguration.newBuilder().putAllServers(appliedConfiguration))
+                    .setData(ByteString.copyFrom(data))
+                    .build();
+            raftLog.installSnapshot(snapshot);
+            log.info("生成Controller快照: [lastIncludedIndex={} bytes={} remaining={}]", index, data.length,
+                    raftLog.lastIndex() - index);
+        }
+    }
+
+    private record AppliedRead(long index, CompletableFuture<Void> future) {
+    }
+}
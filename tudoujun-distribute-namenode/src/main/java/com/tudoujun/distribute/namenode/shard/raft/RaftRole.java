@@ -0,0 +1,12 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+/**
+ * @author xiaowenjun
+ * @description 节点在当前任期的角色
+ * @create: 2025/04/01 10:05
+ */
+public enum RaftRole {
+    FOLLOWER,
+    CANDIDATE,
+    LEADER,
+}
@@ -0,0 +1,34 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+import java.util.Map;
+
+import com.tudoujun.distribute.model.namenode.RaftEntry;
+
+/**
+ * @author xiaowenjun
+ * @description Controller日志的状态机，所有方法都在同一个应用线程中按日志顺序调用
+ * @create: 2025/04/01 10:10
+ */
+public interface RaftStateMachine {
+
+    /**
+     * 应用已经提交的日志，不包括NOOP和CONFIGURATION
+     */
+    void apply(RaftEntry entry) throws Exception;
+
+    /**
+     * 应用集群成员，启动时以配置的初始成员调用一次，index为0
+     * @param servers 节点id对应的地址 host:port:nodeId
+     */
+    void onConfigurationApplied(long index, Map<Integer, String> servers) throws Exception;
+
+    /**
+     * 生成快照，包含到目前为止应用的所有日志
+     */
+    byte[] takeSnapshot() throws Exception;
+
+    /**
+     * 从快照恢复，之后从快照之后的日志继续应用
+     */
+    void restoreSnapshot(byte[] data) throws Exception;
+}
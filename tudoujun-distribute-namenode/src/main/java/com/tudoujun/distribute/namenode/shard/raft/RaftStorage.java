@@ -0,0 +1,196 @@
+package com.tudoujun.distribute.namenode.shard.raft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tudoujun.distribute.model.namenode.RaftEntry;
+import com.tudoujun.distribute.model.namenode.RaftSnapshot;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description Controller日志的持久化，目录下三个文件：
+ * raft-meta保存当前任期和投票，raft-snapshot保存最近的快照，都是先写临时文件再原子重命名；
+ * raft-log顺序追加 [长度][RaftEntry]，每批追加后fsync，截断时直接截断文件，快照之后重写只保留快照之后的日志
+ * @create: 2025/04/01 10:30
+ */
+@Slf4j
+public class RaftStorage {
+
+    private static final String META_FILE = "raft-meta";
+    private static final String SNAPSHOT_FILE = "raft-snapshot";
+    private static final String LOG_FILE = "raft-log";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private FileChannel logChannel;
+    /**
+     * 每条日志在文件中的起始位置，第i个元素对应index为firstIndex + i的日志
+     */
+    private final List<Long> offsets = new ArrayList<>();
+    private long firstIndex;
+
+    public RaftStorage(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("创建Controller日志目录失败: " + dir);
+        }
+        this.dir = dir;
+    }
+
+    /**
+     * @return [term, votedFor]，还没有保存过时返回null
+     */
+    public long[] loadMeta() throws IOException {
+        File file = new File(dir, META_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        return new long[]{buffer.getLong(), buffer.getInt()};
+    }
+
+    public void saveMeta(long term, int votedFor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putLong(term).putInt(votedFor).flip();
+        writeAtomically(META_FILE, buffer);
+    }
+
+    public RaftSnapshot loadSnapshot() throws IOException {
+        File file = new File(dir, SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        return RaftSnapshot.parseFrom(Files.readAllBytes(file.toPath()));
+    }
+
+    public void saveSnapshot(RaftSnapshot snapshot) throws IOException {
+        writeAtomically(SNAPSHOT_FILE, ByteBuffer.wrap(snapshot.toByteArray()));
+    }
+
+    /**
+     * 读取snapshotIndex之后的日志，最后一条没有写完整的日志会被截掉
+     */
+    public List<RaftEntry> loadLog(long snapshotIndex) throws IOException {
+        File file = new File(dir, LOG_FILE);
+        List<RaftEntry> entries = new ArrayList<>();
+        boolean skipped = false;
+        long validLength = 0;
+        if (file.exists()) {
+            byte[] data = Files.readAllBytes(file.toPath());
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                RaftEntry entry = RaftEntry.parseFrom(bytes);
+                validLength = buffer.position();
+                if (entry.getIndex() <= snapshotIndex) {
+                    skipped = true;
+                    continue;
+                }
+                long expected = snapshotIndex + entries.size() + 1;
+                if (entry.getIndex() != expected) {
+                    log.warn("Controller日志不连续，丢弃之后的日志: [expected={} actual={}]", expected, entry.getIndex());
+                    skipped = true;
+                    break;
+                }
+                entries.add(entry);
+            }
+            if (validLength < data.length) {
+                log.warn("Controller日志末尾不完整，截断: [length={} valid={}]", data.length, validLength);
+            }
+        }
+        // 快照之后没来得及重写或者末尾不完整时直接重写，之后文件中的日志和内存中一一对应
+        rewrite(snapshotIndex + 1, entries);
+        if (skipped) {
+            log.info("重写Controller日志: [firstIndex={} entries={}]", snapshotIndex + 1, entries.size());
+        }
+        return entries;
+    }
+
+    public void append(List<RaftEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        int size = 0;
+        List<byte[]> records = new ArrayList<>(entries.size());
+        for (RaftEntry entry : entries) {
+            byte[] bytes = entry.toByteArray();
+            records.add(bytes);
+            size += 4 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long position = logChannel.size();
+        for (byte[] bytes : records) {
+            offsets.add(position + buffer.position());
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            logChannel.write(buffer, position + buffer.position());
+        }
+        logChannel.force(false);
+    }
+
+    /**
+     * 删除index及之后的日志
+     */
+    public void truncateFrom(long index) throws IOException {
+        int from = (int) (index - firstIndex);
+        if (from < 0 || from >= offsets.size()) {
+            return;
+        }
+        logChannel.truncate(offsets.get(from));
+        logChannel.force(false);
+        offsets.subList(from, offsets.size()).clear();
+    }
+
+    /**
+     * 用entries重写日志文件，entries的第一条日志index为firstIndex
+     */
+    public void rewrite(long firstIndex, List<RaftEntry> entries) throws IOException {
+        close();
+        File tmp = new File(dir, LOG_FILE + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), new File(dir, LOG_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        this.logChannel = FileChannel.open(new File(dir, LOG_FILE).toPath(), StandardOpenOption.WRITE);
+        this.firstIndex = firstIndex;
+        this.offsets.clear();
+        append(entries);
+    }
+
+    public void close() throws IOException {
+        if (logChannel != null) {
+            logChannel.close();
+            logChannel = null;
+        }
+    }
+
+    private void writeAtomically(String name, ByteBuffer buffer) throws IOException {
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), new File(dir, name).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,275 @@
+package com.tudoujun.distribute.namenode.shard.replication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.enums.ReadConsistency;
+import com.tudoujun.distribute.common.exception.NameSpaceException;
+import com.tudoujun.distribute.common.network.RequestWrapper;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.common.utils.DefaultThread;
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.ReplicaReadIndex;
+import com.tudoujun.distribute.model.namenode.ReplicationAck;
+import com.tudoujun.distribute.model.namenode.ReplicationBatch;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.shard.ShardingManager;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 槽位元数据副本：节点按id排序成环，每个节点把自己的编辑日志复制给环上之后的slotReplicationFactor-1个节点。
+ * 副本跟随的是节点而不是单个槽位，同一个节点上跨槽位的重命名在副本上也能原样应用；迁移到该节点的槽位数据也会产生编辑日志，随之复制出去。
+ * 所属节点给每条修改分配复制序号，副本节点为每个源节点维护一份独立的目录树，异步按序号应用，
+ * 只读请求按一致性要求由副本响应：有界过期读要求副本最近追上源节点的时间在允许范围内；
+ * 读索引先向源节点查询最新的复制序号，副本应用到该序号之后再响应，能读到请求发出之前已经完成的所有修改
+ * @create: 2025/04/07 10:40
+ */
+@Slf4j
+public class ReplicationManager {
+
+    private static final long READ_INDEX_TIMEOUT_IN_MS = 1000;
+    private static final long DEFAULT_HEARTBEAT_INTERVAL_IN_MS = 100;
+
+    private final NameNodeConfig nameNodeConfig;
+    private final PeerNameNodes peerNameNodes;
+    private final FSDirectory fsDirectory;
+    private final ShardingManager shardingManager;
+    private final DefaultScheduler defaultScheduler;
+    private final long heartbeatIntervalInMs;
+    /**
+     * 作为所属节点：副本节点id对应的复制会话
+     */
+    private final Map<Integer, ShardReplicator> replicators = new ConcurrentHashMap<>();
+    /**
+     * 已经收集完快照、正在接收修改的复制会话
+     */
+    private final List<ShardReplicator> activeReplicators = new CopyOnWriteArrayList<>();
+    /**
+     * 作为副本节点：源节点id对应的副本
+     */
+    private final Map<Integer, ShardReplica> replicas = new ConcurrentHashMap<>();
+    private final AtomicLong epochGenerator = new AtomicLong();
+    private long lastSeq;
+
+    public ReplicationManager(NameNodeConfig nameNodeConfig, PeerNameNodes peerNameNodes, FSDirectory fsDirectory,
+                              ShardingManager shardingManager, DefaultScheduler defaultScheduler) {
+        this.nameNodeConfig = nameNodeConfig;
+        this.peerNameNodes = peerNameNodes;
+        this.fsDirectory = fsDirectory;
+        this.shardingManager = shardingManager;
+        this.defaultScheduler = defaultScheduler;
+        this.heartbeatIntervalInMs = nameNodeConfig.getPeerHeartbeatIntervalInMs() > 0
+                ? nameNodeConfig.getPeerHeartbeatIntervalInMs() : DEFAULT_HEARTBEAT_INTERVAL_IN_MS;
+        this.fsDirectory.addEditListener(this::onEdit);
+    }
+
+    /**
+     * 副本数大于1时定时按集群成员调整复制会话和副本
+     */
+    public void start() {
+        if (nameNodeConfig.getSlotReplicationFactor() <= 1) {
+            return;
+        }
+        defaultScheduler.schedule("槽位副本调整", this::refresh, heartbeatIntervalInMs, heartbeatIntervalInMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        for (ShardReplicator replicator : replicators.values()) {
+            replicator.stop();
+        }
+        replicators.clear();
+        for (ShardReplica replica : replicas.values()) {
+            replica.close();
+        }
+        replicas.clear();
+    }
+
+    /**
+     * 为新的副本节点开始复制会话，停止不再是副本节点的会话，丢弃不再跟随的源节点的副本
+     */
+    private void refresh() {
+        SlotTable slotTable = shardingManager.getSlotTable();
+        if (slotTable == null) {
+            return;
+        }
+        List<Integer> nodeIds = new ArrayList<>(slotTable.getServers().keySet());
+        Collections.sort(nodeIds);
+        int selfId = nameNodeConfig.getNameNodeId();
+        List<Integer> followers = followersOf(nodeIds, selfId);
+        for (int followerId : followers) {
+            replicators.computeIfAbsent(followerId, id -> {
+                ShardReplicator replicator = new ShardReplicator(selfId, id, nameNodeConfig.getSlotPathDepth(),
+                        nameNodeConfig.getReplicationBatchSize(), heartbeatIntervalInMs, fsDirectory, peerNameNodes, this);
+                replicator.start(new DefaultThread("NameNode-Replicator-" + id, replicator, true));
+                log.info("开始复制元数据到副本节点: [follower={}]", id);
+                return replicator;
+            });
+        }
+        replicators.values().removeIf(replicator -> {
+            if (followers.contains(replicator.getFollowerNodeId())) {
+                return false;
+            }
+            replicator.stop();
+            log.info("停止复制元数据到副本节点: [follower={}]", replicator.getFollowerNodeId());
+            return true;
+        });
+        replicas.entrySet().removeIf(entry -> {
+            if (followersOf(nodeIds, entry.getKey()).contains(selfId)) {
+                return false;
+            }
+            entry.getValue().close();
+            log.info("不再作为副本节点，丢弃副本: [source={}]", entry.getKey());
+            return true;
+        });
+    }
+
+    /**
+     * 环上nodeId之后的slotReplicationFactor-1个节点
+     */
+    private List<Integer> followersOf(List<Integer> sortedNodeIds, int nodeId) {
+        int index = sortedNodeIds.indexOf(nodeId);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        int count = Math.min(nameNodeConfig.getSlotReplicationFactor() - 1, sortedNodeIds.size() - 1);
+        List<Integer> followers = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            followers.add(sortedNodeIds.get((index + i) % sortedNodeIds.size()));
+        }
+        return followers;
+    }
+
+    /**
+     * 在修改的锁内收到编辑日志，分配复制序号后交给正在接收修改的会话，冲突的修改按加锁的顺序分配序号。
+     * 没有正在接收修改的会话时也要分配序号：旧会话的副本已经应用到的序号不能再对应之后的修改，否则读索引会读到过期的副本
+     */
+    private void onEdit(EditLog edit) {
+        if (nameNodeConfig.getSlotReplicationFactor() <= 1) {
+            return;
+        }
+        synchronized (this) {
+            long seq = ++lastSeq;
+            if (activeReplicators.isEmpty()) {
+                return;
+            }
+            EditLog replicated = edit.toBuilder().setTxId(seq).build();
+            for (ShardReplicator replicator : activeReplicators) {
+                replicator.append(replicated);
+            }
+        }
+    }
+
+    /**
+     * 在冻结目录树的锁内调用，会话开始接收修改，返回快照对应的复制序号
+     */
+    synchronized long activate(ShardReplicator replicator) {
+        activeReplicators.add(replicator);
+        return lastSeq;
+    }
+
+    void deactivate(ShardReplicator replicator) {
+        activeReplicators.remove(replicator);
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    long nextEpoch() {
+        return epochGenerator.incrementAndGet();
+    }
+
+    /**
+     * 作为副本节点应用一批编辑日志，会话不匹配或者应用失败时返回异常，所属节点会从快照重新开始
+     */
+    public void onReceiveBatch(RequestWrapper requestWrapper) throws Exception {
+        ReplicationBatch batch = ReplicationBatch.parseFrom(requestWrapper.getRequest().getBody());
+        int sourceNodeId = batch.getSourceNodeId();
+        ShardReplica replica;
+        if (batch.getReset()) {
+            replica = new ShardReplica(sourceNodeId, batch.getEpoch());
+            ShardReplica old = replicas.put(sourceNodeId, replica);
+            if (old != null) {
+                old.close();
+            }
+            log.info("开始接收副本快照: [source={} epoch={}]", sourceNodeId, batch.getEpoch());
+        } else {
+            replica = replicas.get(sourceNodeId);
+            if (replica == null || replica.getEpoch() != batch.getEpoch()) {
+                requestWrapper.sendError("副本会话不匹配: " + sourceNodeId);
+                return;
+            }
+        }
+        try {
+            replica.apply(batch, System.nanoTime());
+        } catch (NameSpaceException e) {
+            replicas.remove(sourceNodeId, replica);
+            replica.close();
+            log.warn("应用复制的编辑日志失败，丢弃副本: [source={} error={}]", sourceNodeId, e.getMessage());
+            requestWrapper.sendError("应用复制的编辑日志失败: " + e.getMessage());
+            return;
+        }
+        requestWrapper.sendResponse(ReplicationAck.newBuilder().setAppliedSeq(replica.getAppliedSeq()).build());
+    }
+
+    /**
+     * 作为所属节点返回最新的复制序号
+     */
+    public void onReceiveReadIndex(RequestWrapper requestWrapper) {
+        requestWrapper.sendResponse(ReplicaReadIndex.newBuilder().setSeq(getLastSeq()).build());
+    }
+
+    /**
+     * 按请求的一致性要求选择ownerNodeId的副本，不允许或者没有可用的副本时返回null；
+     * 返回的future完成时副本已经满足一致性要求，失败时由所属节点响应
+     */
+    public CompletableFuture<FSDirectory> readReplica(int ownerNodeId, FilePathRequest request) {
+        ReadConsistency consistency = ReadConsistency.of(request.getReadConsistency());
+        if (consistency == ReadConsistency.OWNER) {
+            return null;
+        }
+        ShardReplica replica = replicas.get(ownerNodeId);
+        if (replica == null || !replica.isLoaded()) {
+            return null;
+        }
+        if (consistency == ReadConsistency.BOUNDED_STALENESS) {
+            long maxStalenessInMs = request.getMaxStalenessInMs() > 0 ? request.getMaxStalenessInMs()
+                    : nameNodeConfig.getReplicaReadMaxStalenessInMs();
+            return replica.getStalenessInMs(System.nanoTime()) <= maxStalenessInMs
+                    ? CompletableFuture.completedFuture(replica.getDirectory()) : null;
+        }
+        NettyPacket readIndex = NettyPacket.buildPacket(new byte[0], PacketType.NAME_NODE_REPLICA_READ_INDEX);
+        readIndex.setTimeoutInMs((int) READ_INDEX_TIMEOUT_IN_MS);
+        return peerNameNodes.sendAsync(ownerNodeId, readIndex, TrafficClass.CONTROL)
+                .thenCompose(response -> {
+                    try {
+                        if (response.isError()) {
+                            throw new IllegalStateException("查询复制序号失败: " + response.getError());
+                        }
+                        return replica.waitApplied(ReplicaReadIndex.parseFrom(response.getBody()).getSeq());
+                    } catch (Exception e) {
+                        return CompletableFuture.failedFuture(e);
+                    } finally {
+                        response.release();
+                    }
+                })
+                .orTimeout(READ_INDEX_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+    }
+}
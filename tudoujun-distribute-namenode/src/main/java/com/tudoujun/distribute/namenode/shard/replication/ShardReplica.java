@@ -0,0 +1,128 @@
+package com.tudoujun.distribute.namenode.shard.replication;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.model.namenode.ReplicationBatch;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+
+/**
+ * @author xiaowenjun
+ * @description 副本节点上某个源节点的元数据副本：每次复制会话从快照开始，之后按复制序号顺序应用源节点的修改。
+ * 同一时刻只有一个批次在应用，读请求直接无锁读取副本目录树
+ * @create: 2025/04/07 11:05
+ */
+class ShardReplica {
+
+    private final int sourceNodeId;
+    private final long epoch;
+    private final FSDirectory directory = new FSDirectory();
+    private final PriorityQueue<SeqWaiter> waiters = new PriorityQueue<>(Comparator.comparingLong(SeqWaiter::seq));
+    private volatile boolean loaded;
+    private volatile long appliedSeq;
+    /**
+     * 最近一次追上源节点时收到批次的时间，还没有追上过时为-1
+     */
+    private volatile long syncedTime = -1;
+    private boolean closed;
+
+    ShardReplica(int sourceNodeId, long epoch) {
+        this.sourceNodeId = sourceNodeId;
+        this.epoch = epoch;
+    }
+
+    /**
+     * 应用一个批次：快照记录只加载数据，快照完成后副本从baseSeq开始可读；
+     * 应用后的序号不小于源节点发送时的最新序号，说明副本至少和源节点发送时一样新
+     */
+    void apply(ReplicationBatch batch, long receiveTime) {
+        for (EditLog edit : batch.getEditsList()) {
+            directory.applyEditLog(edit);
+            if (loaded) {
+                appliedSeq = edit.getTxId();
+            }
+        }
+        if (batch.getSnapshotDone()) {
+            appliedSeq = batch.getBaseSeq();
+            loaded = true;
+        }
+        if (loaded && appliedSeq >= batch.getLastSeq()) {
+            syncedTime = receiveTime;
+        }
+        if (loaded) {
+            completeWaiters();
+        }
+    }
+
+    /**
+     * 等待副本应用到seq，副本关闭时失败
+     */
+    synchronized CompletableFuture<FSDirectory> waitApplied(long seq) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("副本已经关闭: " + sourceNodeId));
+        }
+        if (loaded && appliedSeq >= seq) {
+            return CompletableFuture.completedFuture(directory);
+        }
+        SeqWaiter waiter = new SeqWaiter(seq, new CompletableFuture<>());
+        waiters.add(waiter);
+        return waiter.future();
+    }
+
+    private void completeWaiters() {
+        List<SeqWaiter> done = new ArrayList<>();
+        synchronized (this) {
+            while (!waiters.isEmpty() && waiters.peek().seq() <= appliedSeq) {
+                done.add(waiters.poll());
+            }
+        }
+        for (SeqWaiter waiter : done) {
+            waiter.future().complete(directory);
+        }
+    }
+
+    void close() {
+        List<SeqWaiter> failed;
+        synchronized (this) {
+            closed = true;
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        IllegalStateException cause = new IllegalStateException("副本已经关闭: " + sourceNodeId);
+        for (SeqWaiter waiter : failed) {
+            waiter.future().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 副本落后源节点的毫秒数上限，还没有追上过源节点时为Long.MAX_VALUE，不包括批次在网络上的单程延迟
+     */
+    long getStalenessInMs(long now) {
+        long synced = syncedTime;
+        return synced < 0 ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(now - synced);
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    FSDirectory getDirectory() {
+        return directory;
+    }
+
+    private record SeqWaiter(long seq, CompletableFuture<FSDirectory> future) {
+    }
+}
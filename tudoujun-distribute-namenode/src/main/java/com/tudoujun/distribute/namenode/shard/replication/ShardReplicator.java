@@ -0,0 +1,199 @@
+package com.tudoujun.distribute.namenode.shard.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.model.namenode.ReplicationBatch;
+import com.tudoujun.distribute.namenode.editlog.EditLogOpType;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.fs.INode;
+import com.tudoujun.distribute.namenode.fs.INodeFile;
+import com.tudoujun.distribute.namenode.shard.peer.PeerNameNodes;
+import com.tudoujun.distribute.namenode.shard.peer.TrafficClass;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author xiaowenjun
+ * @description 所属节点上复制给某个副本节点的会话：
+ * 1. 冻结目录树收集快照，同一把锁内开始接收修改，快照对应的复制序号为此时的最新序号；
+ * 2. 快照和之后的修改按批发送，副本确认后再发下一批，保证顺序；没有修改时按心跳间隔发送空批次，副本据此判断自己有多新；
+ * 3. 发送失败、副本不认识当前会话或者待发送的修改超过上限时结束会话，等待一段时间后从快照重新开始
+ * @create: 2025/04/07 11:40
+ */
+@Slf4j
+class ShardReplicator implements Runnable {
+
+    private static final int MAX_PENDING_EDITS = 1 << 20;
+    private static final long BATCH_TIMEOUT_IN_MS = 30_000;
+    private static final long MAX_RETRY_DELAY_IN_MS = 5_000;
+
+    private final int sourceNodeId;
+    private final int followerNodeId;
+    private final int pathDepth;
+    private final int batchSize;
+    private final long heartbeatIntervalInMs;
+    private final FSDirectory fsDirectory;
+    private final PeerNameNodes peerNameNodes;
+    private final ReplicationManager manager;
+    private final LinkedBlockingQueue<EditLog> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+    private volatile boolean overflow;
+    private long retryDelayInMs;
+    private Thread thread;
+
+    ShardReplicator(int sourceNodeId, int followerNodeId, int pathDepth, int batchSize, long heartbeatIntervalInMs,
+                    FSDirectory fsDirectory, PeerNameNodes peerNameNodes, ReplicationManager manager) {
+        this.sourceNodeId = sourceNodeId;
+        this.followerNodeId = followerNodeId;
+        this.pathDepth = pathDepth;
+        this.batchSize = batchSize;
+        this.heartbeatIntervalInMs = heartbeatIntervalInMs;
+        this.fsDirectory = fsDirectory;
+        this.peerNameNodes = peerNameNodes;
+        this.manager = manager;
+    }
+
+    void start(Thread thread) {
+        this.thread = thread;
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 在修改的锁内按复制序号顺序收到修改，超过上限后丢弃，会话结束后重新发送快照
+     */
+    void append(EditLog edit) {
+        if (overflow) {
+            return;
+        }
+        if (queue.size() >= MAX_PENDING_EDITS) {
+            overflow = true;
+            return;
+        }
+        queue.add(edit);
+    }
+
+    @Override
+    public void run() {
+        retryDelayInMs = heartbeatIntervalInMs;
+        while (running) {
+            try {
+                awaitFollower();
+                replicate();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.warn("复制编辑日志失败，稍后重新发送快照: [follower={} error={}]", followerNodeId, e.getMessage());
+            } finally {
+                manager.deactivate(this);
+                queue.clear();
+                overflow = false;
+            }
+            try {
+                Thread.sleep(retryDelayInMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryDelayInMs = Math.min(retryDelayInMs * 2, MAX_RETRY_DELAY_IN_MS);
+        }
+    }
+
+    /**
+     * 副本节点连接上并且没有被判断为不可用时才开始会话，避免反复收集快照
+     */
+    private void awaitFollower() throws InterruptedException {
+        while (running && !(peerNameNodes.isConnected(followerNodeId) && peerNameNodes.isAlive(followerNodeId))) {
+            Thread.sleep(heartbeatIntervalInMs);
+        }
+    }
+
+    private void replicate() throws Exception {
+        long epoch = manager.nextEpoch();
+        List<EditLog> snapshot = new ArrayList<>();
+        long[] baseSeq = new long[1];
+        fsDirectory.collectSubtrees(pathDepth, path -> true, (path, inode) -> snapshot.add(toEdit(path, inode)),
+                () -> baseSeq[0] = manager.activate(this));
+        int offset = 0;
+        do {
+            int end = Math.min(snapshot.size(), offset + batchSize);
+            send(ReplicationBatch.newBuilder()
+                    .setEpoch(epoch)
+                    .setReset(offset == 0)
+                    .setSnapshotDone(end == snapshot.size())
+                    .setBaseSeq(baseSeq[0])
+                    .setLastSeq(manager.getLastSeq())
+                    .addAllEdits(snapshot.subList(offset, end)));
+            offset = end;
+        } while (offset < snapshot.size());
+        log.info("副本快照发送完成，开始复制编辑日志: [follower={} epoch={} entries={} baseSeq={}]", followerNodeId, epoch,
+                snapshot.size(), baseSeq[0]);
+        snapshot.clear();
+        retryDelayInMs = heartbeatIntervalInMs;
+
+        List<EditLog> edits = new ArrayList<>();
+        while (running && !overflow) {
+            EditLog first = queue.poll(heartbeatIntervalInMs, TimeUnit.MILLISECONDS);
+            // 先取出第一条再读最新序号，之后取出的修改覆盖到该序号，副本应用完这批就追上了读序号时的所属节点
+            long lastSeq = manager.getLastSeq();
+            if (first != null) {
+                edits.add(first);
+                queue.drainTo(edits, batchSize - 1);
+            }
+            send(ReplicationBatch.newBuilder()
+                    .setEpoch(epoch)
+                    .setLastSeq(lastSeq)
+                    .addAllEdits(edits));
+            edits.clear();
+        }
+        if (overflow) {
+            throw new IllegalStateException("副本节点跟不上，待复制的编辑日志超过上限");
+        }
+    }
+
+    private void send(ReplicationBatch.Builder batch) throws Exception {
+        batch.setSourceNodeId(sourceNodeId);
+        NettyPacket request = NettyPacket.buildPacket(batch.build().toByteArray(), PacketType.NAME_NODE_REPLICATION_BATCH);
+        NettyPacket response = peerNameNodes.sendAsync(followerNodeId, request, TrafficClass.BULK)
+                .get(BATCH_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+        try {
+            if (response.isError()) {
+                throw new IllegalStateException("副本节点应用编辑日志失败: " + response.getError());
+            }
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * 快照按先父后子的顺序转换成创建记录，保留所属节点上的inodeId
+     */
+    private static EditLog toEdit(String path, INode inode) {
+        EditLog.Builder edit = EditLog.newBuilder()
+                .setPath(path)
+                .setInodeId(inode.getId())
+                .setModificationTime(inode.getModificationTime());
+        if (inode instanceof INodeFile file) {
+            edit.setOpType(EditLogOpType.CREATE_FILE.getValue())
+                    .setReplication(file.getReplication());
+        } else {
+            edit.setOpType(EditLogOpType.MKDIR.getValue());
+        }
+        return edit.build();
+    }
+
+    int getFollowerNodeId() {
+        return followerNodeId;
+    }
+}
@@ -0,0 +1,86 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.tudoujun.distribute.common.block.BlockReportCodec;
+import com.tudoujun.distribute.namenode.block.BlockMap;
+
+/**
+ * @author xiaowenjun
+ * @description 块映射的吞吐量和内存占用：BLOCKS个数据块各3个副本，对比HashMap<Long, 对象>的内存占用；
+ * 然后测试一个DataNode全量汇报BLOCKS个数据块时的编码、压缩后大小和解码时间，最后删除一个DataNode的全部副本
+ * @create: 2025/04/08 16:00
+ */
+public class BlockMapBenchmark {
+
+    private static final int BLOCKS = 4_000_000;
+    private static final int REPLICAS = 3;
+
+    public static void main(String[] args) throws Exception {
+        long before = usedMemory();
+        BlockMap blockMap = new BlockMap(1024, BLOCKS, 4);
+        long start = System.nanoTime();
+        for (int i = 1; i <= BLOCKS; i++) {
+            for (int dataNodeId = 1; dataNodeId <= REPLICAS; dataNodeId++) {
+                blockMap.addReplica(i, 128L * 1024 * 1024, dataNodeId);
+            }
+        }
+        long cost = System.nanoTime() - start;
+        System.out.printf("block map add: %.0f replicas/s size=%d%n", BLOCKS * REPLICAS / (cost / 1e9), blockMap.size());
+        System.out.printf("block map memory: arrays=%.1f bytes/block heap=%.1f bytes/block%n",
+                blockMap.memoryInBytes() / (double) BLOCKS, (usedMemory() - before) / (double) BLOCKS);
+
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            found += blockMap.getReplicas(ThreadLocalRandom.current().nextInt(1, BLOCKS + 1)).length;
+        }
+        cost = System.nanoTime() - start;
+        System.out.printf("block map lookup: %.0f ops/s replicas=%d%n", BLOCKS / (cost / 1e9), found);
+
+        long[] blockIds = new long[BLOCKS];
+        long[] lengths = new long[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            blockIds[i] = i + 1;
+            lengths[i] = 128L * 1024 * 1024 - ThreadLocalRandom.current().nextInt(1024);
+        }
+        start = System.nanoTime();
+        byte[] encoded = BlockReportCodec.encode(blockIds, lengths, BLOCKS);
+        long encodeCost = System.nanoTime() - start;
+        start = System.nanoTime();
+        long[] checksum = new long[1];
+        int decoded = BlockReportCodec.decode(new ByteArrayInputStream(encoded), (blockId, length) -> checksum[0] += blockId);
+        long decodeCost = System.nanoTime() - start;
+        System.out.printf("full report %d blocks: raw=%d bytes compressed=%d bytes encode=%.0f ms decode=%.0f ms ok=%b%n",
+                BLOCKS, BLOCKS * 16L, encoded.length, encodeCost / 1e6, decodeCost / 1e6,
+                decoded == BLOCKS && checksum[0] == (long) BLOCKS * (BLOCKS + 1) / 2);
+
+        start = System.nanoTime();
+        long removed = blockMap.removeReplicas(1, blockId -> false);
+        System.out.printf("remove data node: removed=%d cost=%.0f ms size=%d replicasOfFirst=%d%n", removed,
+                (System.nanoTime() - start) / 1e6, blockMap.size(), blockMap.getReplicas(1).length);
+        blockMap = null;
+
+        before = usedMemory();
+        Map<Long, BlockInfo> hashMap = new HashMap<>();
+        for (int i = 1; i <= BLOCKS; i++) {
+            hashMap.put((long) i, new BlockInfo(128L * 1024 * 1024, new int[]{1, 2, 3}));
+        }
+        System.out.printf("HashMap memory: heap=%.1f bytes/block size=%d%n", (usedMemory() - before) / (double) BLOCKS,
+                hashMap.size());
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private record BlockInfo(long length, int[] replicas) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.shard.raft.RaftNode;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上启动3个NameNode，测试Controller持有租约时获取槽位分配表的延迟，
+ * 然后停止Controller，测试从停止到新Controller生效的时间
+ * @create: 2025/04/03 15:20
+ */
+public class ControllerLeaseBenchmark {
+
+    private static final int BASE_PORT = 9770;
+    private static final int NODES = 3;
+    private static final int READS = 20_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        List<NameNode> nameNodes = new ArrayList<>();
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            nameNodes.add(start(nodeId));
+        }
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Lease-Client-Scheduler-");
+        for (int round = 1; round <= ROUNDS; round++) {
+            NameNode controller = awaitController(nameNodes, null);
+            int controllerId = nameNodes.indexOf(controller) + 1;
+            NetClient client = new NetClient("Lease-Client-" + round, defaultScheduler, -1, 10_000);
+            client.connect("localhost", BASE_PORT + controllerId);
+            client.ensureConnected(10_000);
+            awaitSlotTable(client);
+            long[] latencies = new long[READS];
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                NettyPacket response = client.sendSync(NettyPacket.buildPacket(new byte[0], PacketType.FETCH_SLOT_TABLE));
+                latencies[i] = System.nanoTime() - start;
+                response.release();
+            }
+            Arrays.sort(latencies);
+            System.out.printf("round %d: controller=%d lease read avg=%.1f us p99=%.1f us%n", round, controllerId,
+                    Arrays.stream(latencies).average().orElse(0) / 1000.0, latencies[READS * 99 / 100] / 1000.0);
+            client.shutdown();
+
+            if (round == ROUNDS) {
+                break;
+            }
+            long start = System.nanoTime();
+            controller.shutdown();
+            NameNode newController = awaitController(nameNodes, controller);
+            System.out.printf("round %d: failover %d -> %d in %.1f ms%n", round, controllerId,
+                    nameNodes.indexOf(newController) + 1, (System.nanoTime() - start) / 1e6);
+            // 重新启动停止的节点，保持3个节点
+            int index = nameNodes.indexOf(controller);
+            nameNodes.set(index, start(controllerId));
+        }
+        System.exit(0);
+    }
+
+    private static void awaitSlotTable(NetClient client) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            NettyPacket response = client.sendSync(NettyPacket.buildPacket(new byte[0], PacketType.FETCH_SLOT_TABLE));
+            boolean ready = !response.isError();
+            response.release();
+            if (ready) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("timeout");
+    }
+
+    private static NameNode awaitController(List<NameNode> nameNodes, NameNode excluded) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (NameNode nameNode : nameNodes) {
+                RaftNode raftNode = nameNode.getControllerManager().getRaftNode();
+                if (nameNode != excluded && raftNode != null && raftNode.hasLease()) {
+                    return nameNode;
+                }
+            }
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("timeout");
+    }
+
+    private static NameNode start(int nodeId) {
+        List<String> servers = new ArrayList<>();
+        for (int i = 1; i <= NODES; i++) {
+            servers.add("localhost:" + (BASE_PORT + i) + ":" + i);
+        }
+        NameNodeConfig config = NameNodeConfig.builder()
+                .nameNodeId(nodeId)
+                .nameNodePeerServers(String.join(",", servers))
+                .port(BASE_PORT + nodeId)
+                .nameNodeApiCoreSize(8)
+                .nameNodeApiMaximumPoolSize(16)
+                .nameNodeApiQueueSize(4096)
+                .build();
+        NameNode nameNode = new NameNode(config);
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+        return nameNode;
+    }
+}
@@ -0,0 +1,104 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+import com.tudoujun.distribute.namenode.shard.raft.RaftEntryType;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上分别启动3个和5个NameNode，测试Controller日志每秒提交的条数，
+ * 以及停止Controller之后到新Controller生效的故障切换时间
+ * @create: 2025/04/02 16:40
+ */
+public class ControllerRaftBenchmark {
+
+    private static final int BASE_PORT = 9750;
+    private static final int SECONDS = 5;
+    private static final int MAX_OUTSTANDING = 1024;
+
+    public static void main(String[] args) throws Exception {
+        run(3, BASE_PORT);
+        run(5, BASE_PORT + 10);
+        System.exit(0);
+    }
+
+    private static void run(int nodes, int basePort) throws Exception {
+        List<NameNode> nameNodes = new ArrayList<>();
+        for (int nodeId = 1; nodeId <= nodes; nodeId++) {
+            nameNodes.add(start(nodeId, nodes, basePort));
+        }
+        NameNode leader = awaitController(nameNodes, null);
+
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+        AtomicLong committed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + SECONDS * 1000L;
+        while (System.currentTimeMillis() < deadline) {
+            outstanding.acquire();
+            leader.getControllerManager().propose(RaftEntryType.NOOP, new byte[0]).whenComplete((index, cause) -> {
+                if (cause == null) {
+                    committed.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                outstanding.release();
+            });
+        }
+        outstanding.acquire(MAX_OUTSTANDING);
+        System.out.printf("%d nodes: %.0f committed entries/s failed=%d%n", nodes, committed.get() / (double) SECONDS,
+                failed.get());
+
+        long start = System.nanoTime();
+        leader.shutdown();
+        NameNode newLeader = awaitController(nameNodes, leader);
+        System.out.printf("%d nodes: failover %d -> %d in %.1f ms%n", nodes,
+                nameNodes.indexOf(leader) + 1, nameNodes.indexOf(newLeader) + 1, (System.nanoTime() - start) / 1e6);
+        for (NameNode nameNode : nameNodes) {
+            nameNode.shutdown();
+        }
+    }
+
+    private static NameNode awaitController(List<NameNode> nameNodes, NameNode excluded) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (NameNode nameNode : nameNodes) {
+                if (nameNode != excluded && nameNode.getControllerManager().isController()) {
+                    return nameNode;
+                }
+            }
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("timeout");
+    }
+
+    private static NameNode start(int nodeId, int nodes, int basePort) {
+        List<String> servers = new ArrayList<>();
+        for (int i = 1; i <= nodes; i++) {
+            servers.add("localhost:" + (basePort + i) + ":" + i);
+        }
+        NameNodeConfig config = NameNodeConfig.builder()
+                .nameNodeId(nodeId)
+                .nameNodePeerServers(String.join(",", servers))
+                .port(basePort + nodeId)
+                .nameNodeApiCoreSize(8)
+                .nameNodeApiMaximumPoolSize(16)
+                .nameNodeApiQueueSize(4096)
+                .build();
+        NameNode nameNode = new NameNode(config);
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+        return nameNode;
+    }
+}
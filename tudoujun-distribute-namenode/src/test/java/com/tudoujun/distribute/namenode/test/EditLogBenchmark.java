@@ -0,0 +1,62 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.tudoujun.distribute.model.namenode.EditLog;
+import com.tudoujun.distribute.namenode.editlog.EditLogOpType;
+import com.tudoujun.distribute.namenode.editlog.FSEditLog;
+
+/**
+ * @author xiaowenjun
+ * @description 编辑日志压测：多个线程并发写日志并等待fsync完成，对比不同的同步批次大小下每秒的修改次数
+ * 参数: [并发线程数，默认64] [每个线程的修改次数，默认2000]
+ * @create: 2025/03/20 15:40
+ */
+public class EditLogBenchmark {
+
+    private static final int[] SYNC_BATCH_SIZES = {1, 16, 64, 256};
+    private static final long SYNC_MAX_DELAY_IN_MS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int editsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        for (int syncBatchSize : SYNC_BATCH_SIZES) {
+            File dir = Files.createTempDirectory("editlog-benchmark").toFile();
+            FSEditLog editLog = new FSEditLog(dir, syncBatchSize, SYNC_MAX_DELAY_IN_MS, 0);
+            editLog.open();
+            CountDownLatch latch = new CountDownLatch(threads);
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                Thread worker = new Thread(() -> {
+                    for (int i = 0; i < editsPerThread; i++) {
+                        editLog.logEdit(EditLog.newBuilder()
+                                .setOpType(EditLogOpType.CREATE_FILE.getValue())
+                                .setPath("/benchmark/t" + index + "/file-" + i)
+                                .setReplication(3)
+                                .setModificationTime(System.currentTimeMillis()));
+                        editLog.syncAsync().join();
+                    }
+                    latch.countDown();
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            latch.await();
+            long cost = System.nanoTime() - start;
+            long edits = (long) threads * editsPerThread;
+            System.out.printf("syncBatchSize=%d: %.0f mutations/s, %d fsync, %.1f edits/fsync%n", syncBatchSize,
+                    edits * 1e9 / cost, editLog.getSyncCount(), (double) edits / editLog.getSyncCount());
+            editLog.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
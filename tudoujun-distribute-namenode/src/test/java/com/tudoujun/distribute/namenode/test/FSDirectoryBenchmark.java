@@ -0,0 +1,94 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+
+/**
+ * @author xiaowenjun
+ * @description 文件目录树压测：构建大量inode后统计内存占用，并发读的同时有线程持续创建和删除文件，统计查询延迟
+ * 参数: [inode数量，默认2000000] [读线程数，默认8]
+ * @create: 2025/03/18 15:20
+ */
+public class FSDirectoryBenchmark {
+
+    private static final int FILES_PER_DIR = 100;
+    private static final int LOOKUPS_PER_THREAD = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int numOfInodes = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int numOfDirs = numOfInodes / FILES_PER_DIR;
+
+        long usedBefore = usedMemory();
+        FSDirectory fsDirectory = new FSDirectory();
+        long start = System.nanoTime();
+        for (int d = 0; d < numOfDirs; d++) {
+            String dir = dirPath(d);
+            fsDirectory.mkdir(dir, true);
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                fsDirectory.createFile(dir + "/part-" + f, (short) 3);
+            }
+        }
+        long buildCost = System.nanoTime() - start;
+        long usedAfter = usedMemory();
+        System.out.printf("build %d inodes: %.1f s, %.0f bytes/inode%n", fsDirectory.getInodeCount(),
+                buildCost / 1e9, (double) (usedAfter - usedBefore) / fsDirectory.getInodeCount());
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            long i = 0;
+            while (running.get()) {
+                String path = dirPath((int) (i % numOfDirs)) + "/tmp-" + i;
+                fsDirectory.createFile(path, (short) 3);
+                fsDirectory.delete(path, false);
+                i++;
+            }
+            System.out.printf("writer: %d create+delete%n", i);
+        });
+        writer.start();
+
+        CountDownLatch latch = new CountDownLatch(readers);
+        long[][] latencies = new long[readers][];
+        for (int t = 0; t < readers; t++) {
+            int index = t;
+            new Thread(() -> {
+                long[] samples = new long[LOOKUPS_PER_THREAD];
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                    String path = dirPath(random.nextInt(numOfDirs)) + "/part-" + random.nextInt(FILES_PER_DIR);
+                    long begin = System.nanoTime();
+                    if (fsDirectory.getINode(path) == null) {
+                        throw new IllegalStateException("missing " + path);
+                    }
+                    samples[i] = System.nanoTime() - begin;
+                }
+                latencies[index] = samples;
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        running.set(false);
+        writer.join();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("lookup with %d readers: avg=%.0f ns p50=%d ns p99=%d ns p999=%d ns%n", readers,
+                Arrays.stream(all).average().orElse(0), all[all.length / 2], all[(int) (all.length * 0.99)],
+                all[(int) (all.length * 0.999)]);
+    }
+
+    private static String dirPath(int d) {
+        return "/user/u" + (d % 100) + "/d" + d;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
@@ -0,0 +1,123 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tudoujun.distribute.namenode.editlog.FSEditLog;
+import com.tudoujun.distribute.namenode.fs.Checkpointer;
+import com.tudoujun.distribute.namenode.fs.FSDirectory;
+import com.tudoujun.distribute.namenode.fs.INode;
+import com.tudoujun.distribute.namenode.fs.INodeDirectory;
+
+/**
+ * @author xiaowenjun
+ * @description fsimage压测：构建大量inode后在后台checkpoint，期间有线程持续创建、重命名和删除文件，统计写操作的最大停顿；
+ * 然后用新的目录树加载fsimage并回放编辑日志，统计加载耗时并校验和原目录树完全一致
+ * 参数: [inode数量，默认5000000] [加载线程数，默认CPU核数]
+ * @create: 2025/03/24 15:10
+ */
+public class FSImageBenchmark {
+
+    private static final int FILES_PER_DIR = 100;
+
+    public static void main(String[] args) throws Exception {
+        int numOfInodes = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        int numOfDirs = numOfInodes / FILES_PER_DIR;
+        File dir = Files.createTempDirectory("fsimage-benchmark").toFile();
+
+        FSDirectory fsDirectory = new FSDirectory();
+        FSEditLog editLog = new FSEditLog(dir, 4096, 5, 0);
+        Checkpointer checkpointer = new Checkpointer(fsDirectory, editLog, dir, 0, 0);
+        checkpointer.load(parallelism);
+        long start = System.nanoTime();
+        for (int d = 0; d < numOfDirs; d++) {
+            String path = dirPath(d);
+            fsDirectory.mkdir(path, true);
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                fsDirectory.createFile(path + "/part-" + f, (short) 3);
+            }
+        }
+        System.out.printf("build %d inodes: %.1f s%n", fsDirectory.getInodeCount(), (System.nanoTime() - start) / 1e9);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong maxStallInNanos = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            long i = 0;
+            while (running.get()) {
+                String parent = dirPath((int) (i % numOfDirs));
+                long begin = System.nanoTime();
+                fsDirectory.createFile(parent + "/tmp-" + i, (short) 3);
+                fsDirectory.rename(parent + "/tmp-" + i, dirPath((int) ((i + 1) % numOfDirs)) + "/moved-" + i);
+                if (i % 2 == 0) {
+                    fsDirectory.delete(dirPath((int) ((i + 1) % numOfDirs)) + "/moved-" + i, false);
+                }
+                maxStallInNanos.accumulateAndGet(System.nanoTime() - begin, Math::max);
+                i++;
+            }
+            System.out.printf("writer during checkpoint: %d mutations, max stall %.2f ms%n", i * 2 + i / 2,
+                    maxStallInNanos.get() / 1e6);
+        });
+        writer.start();
+        Thread.sleep(200);
+        start = System.nanoTime();
+        File image = checkpointer.checkpoint();
+        System.out.printf("checkpoint: %.1f s, %d MB%n", (System.nanoTime() - start) / 1e9, image.length() >> 20);
+        Thread.sleep(200);
+        running.set(false);
+        writer.join();
+        editLog.close();
+
+        FSDirectory loaded = new FSDirectory();
+        FSEditLog reopened = new FSEditLog(dir, 4096, 5, 0);
+        start = System.nanoTime();
+        new Checkpointer(loaded, reopened, dir, 0, 0).load(parallelism);
+        System.out.printf("load fsimage + replay edit log: %.2f s, %d inodes%n", (System.nanoTime() - start) / 1e9,
+                loaded.getInodeCount());
+        reopened.close();
+        compare(fsDirectory, loaded);
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * 逐个目录比较子节点的id和名称
+     */
+    private static void compare(FSDirectory expected, FSDirectory actual) {
+        if (expected.getInodeCount() != actual.getInodeCount()) {
+            throw new IllegalStateException("inode数量不一致: " + expected.getInodeCount() + " != " + actual.getInodeCount());
+        }
+        Deque<INodeDirectory[]> queue = new ArrayDeque<>();
+        queue.add(new INodeDirectory[]{(INodeDirectory) expected.getINode("/"), (INodeDirectory) actual.getINode("/")});
+        long count = 1;
+        while (!queue.isEmpty()) {
+            INodeDirectory[] pair = queue.poll();
+            INode[] a = pair[0].getChildren();
+            INode[] b = pair[1].getChildren();
+            if (a.length != b.length) {
+                throw new IllegalStateException("子节点数量不一致: " + pair[0].getId());
+            }
+            for (int i = 0; i < a.length; i++) {
+                if (a[i].getId() != b[i].getId() || !new String(a[i].getName()).equals(new String(b[i].getName()))) {
+                    throw new IllegalStateException("子节点不一致: " + a[i].getId() + " != " + b[i].getId());
+                }
+                if (a[i] instanceof INodeDirectory childDir) {
+                    queue.add(new INodeDirectory[]{childDir, (INodeDirectory) b[i]});
+                }
+            }
+            count += a.length;
+        }
+        System.out.printf("verified %d inodes%n", count);
+    }
+
+    private static String dirPath(int d) {
+        return "/user/u" + (d % 100) + "/d" + d;
+    }
+}
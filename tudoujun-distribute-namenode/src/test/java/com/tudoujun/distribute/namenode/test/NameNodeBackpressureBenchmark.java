@@ -0,0 +1,113 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.BackpressureExecutor;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.MkdirRequest;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+/**
+ * @author xiaowenjun
+ * @description 启动1个处理线程、队列很小的NameNode，客户端不等响应连续异步发送大量查询请求：
+ * 统计成功、服务繁忙和超时的请求数，服务繁忙的请求按建议的时间等待后重试，最后打印暂停连接和拒绝的次数
+ * @create: 2025/04/09 11:00
+ */
+public class NameNodeBackpressureBenchmark {
+
+    private static final int PORT = 9800;
+    private static final int QUEUE_SIZE = 256;
+    private static final int REQUESTS = 200_000;
+    private static final int MAX_IN_FLIGHT = 8192;
+
+    public static void main(String[] args) throws Exception {
+        NameNode nameNode = new NameNode(NameNodeConfig.builder()
+                .nameNodeId(1)
+                .port(PORT)
+                .nameNodeApiCoreSize(1)
+                .nameNodeApiMaximumPoolSize(1)
+                .nameNodeApiQueueSize(QUEUE_SIZE)
+                .build());
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode");
+        thread.setDaemon(true);
+        thread.start();
+
+        NetClient client = new NetClient("Backpressure-Client", new DefaultScheduler("Backpressure-Client-Scheduler-"), -1, 30_000);
+        client.connect("localhost", PORT);
+        client.ensureConnected(10_000);
+        NettyPacket mkdir = client.sendSync(NettyPacket.buildPacket(
+                MkdirRequest.newBuilder().setPath("/backpressure").setCreateParent(true).build().toByteArray(), PacketType.MKDIR));
+        mkdir.release();
+
+        AtomicLong ok = new AtomicLong();
+        AtomicLong busy = new AtomicLong();
+        AtomicLong retried = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong maxRetryAfter = new AtomicLong();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        byte[] body = FilePathRequest.newBuilder().setPath("/backpressure").build().toByteArray();
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            inFlight.acquire();
+            send(client, body, false, ok, busy, retried, failed, maxRetryAfter, inFlight);
+        }
+        inFlight.acquire(MAX_IN_FLIGHT);
+        long cost = System.nanoTime() - start;
+
+        BackpressureExecutor executor = nameNode.getNameNodeApis().getExecutor();
+        System.out.printf("%d requests in %.0f ms: %.0f ops/s ok=%d busy=%d retriedOk=%d failed=%d retryAfter=%d ms%n",
+                REQUESTS, cost / 1e6, REQUESTS / (cost / 1e9), ok.get(), busy.get(), retried.get(), failed.get(),
+                maxRetryAfter.get());
+        System.out.printf("server: pauseCount=%d rejectedCount=%d pausedChannels=%d queueDepth=%d%n",
+                executor.getPauseCount(), executor.getRejectedCount(), executor.getPausedChannelCount(),
+                executor.getQueueDepth());
+        System.exit(0);
+    }
+
+    private static void send(NetClient client, byte[] body, boolean retry, AtomicLong ok, AtomicLong busy, AtomicLong retried,
+                             AtomicLong failed, AtomicLong maxRetryAfter, Semaphore inFlight) {
+        CompletableFuture<NettyPacket> future = client.sendAsync(NettyPacket.buildPacket(body, PacketType.GET_FILE_STATUS));
+        future.whenComplete((response, error) -> {
+            if (error != null) {
+                failed.incrementAndGet();
+                inFlight.release();
+                return;
+            }
+            try {
+                if (response.isBusy()) {
+                    busy.incrementAndGet();
+                    long retryAfter = response.getRetryAfterInMs();
+                    maxRetryAfter.accumulateAndGet(retryAfter, Math::max);
+                    CompletableFuture.delayedExecutor(retryAfter, TimeUnit.MILLISECONDS)
+                            .execute(() -> send(client, body, true, ok, busy, retried, failed, maxRetryAfter, inFlight));
+                    return;
+                }
+                if (response.isError()) {
+                    failed.incrementAndGet();
+                } else {
+                    ok.incrementAndGet();
+                    if (retry) {
+                        retried.incrementAndGet();
+                    }
+                }
+                inFlight.release();
+            } finally {
+                response.release();
+            }
+        });
+    }
+}
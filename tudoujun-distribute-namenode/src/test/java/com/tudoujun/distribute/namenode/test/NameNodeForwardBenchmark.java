@@ -0,0 +1,185 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.sharding.SlotRoutingCache;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.namenode.CreateFileRequest;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.ForwardBatch;
+import com.tudoujun.distribute.model.namenode.ForwardBatchResponse;
+import com.tudoujun.distribute.model.namenode.MkdirRequest;
+import com.tudoujun.distribute.model.namenode.NameSpaceResponse;
+import com.tudoujun.distribute.model.namenode.SlotAssignment;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上启动3个开启转发的NameNode，对比两种客户端创建文件的吞吐量和平均延迟：
+ * 按槽位分配表直连所属节点的客户端，以及不感知分片、所有请求都发给第1个节点由它转发的客户端
+ * @create: 2025/03/31 15:10
+ */
+public class NameNodeForwardBenchmark {
+
+    private static final int BASE_PORT = 9740;
+    private static final int NODES = 3;
+    private static final int DIRS = 256;
+    private static final int CLIENT_THREADS = 32;
+    private static final int SECONDS = 5;
+
+    private static final AtomicReference<String> lastError = new AtomicReference<>();
+
+    public static void main(String[] args) throws Exception {
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            start(nodeId);
+        }
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Forward-Client-Scheduler-");
+        List<NetClient> clients = new ArrayList<>();
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            NetClient client = new NetClient("Forward-Client-" + nodeId, defaultScheduler, -1, 10_000);
+            client.connect("localhost", BASE_PORT + nodeId);
+            client.ensureConnected(10_000);
+            clients.add(client);
+        }
+        // 每个节点都应用了分配表之后才开始，否则转发到还没有分配表的节点会失败
+        SlotRoutingCache routingCache = new SlotRoutingCache();
+        long deadline = System.currentTimeMillis() + 30_000;
+        for (NetClient client : clients) {
+            SlotTable slotTable = null;
+            while (slotTable == null || slotTable.countOf(NODES) == 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("timeout");
+                }
+                Thread.sleep(100);
+                NettyPacket response = client.sendSync(NettyPacket.buildPacket(new byte[0], PacketType.FETCH_SLOT_TABLE));
+                try {
+                    if (!response.isError()) {
+                        slotTable = SlotTable.fromProto(SlotAssignment.parseFrom(response.getBody()));
+                    }
+                } finally {
+                    response.release();
+                }
+            }
+            routingCache.update(slotTable);
+        }
+
+        // 目录也通过第1个节点转发创建
+        for (int i = 0; i < DIRS; i++) {
+            NameSpaceResponse response = call(clients.get(0), PacketType.MKDIR,
+                    MkdirRequest.newBuilder().setPath("/user-" + i).setCreateParent(true).build().toByteArray());
+            if (response == null || !response.getSuccess()) {
+                throw new IllegalStateException("mkdir failed: /user-" + i + " " + lastError.get());
+            }
+        }
+
+        run("routed", path -> clients.get(routingCache.getSlotTable().ownerOf(routingCache.getSlotTable().slotOf(path)) - 1));
+        run("forwarded", path -> clients.get(0));
+
+        NameSpaceResponse response = call(clients.get(0), PacketType.GET_FILE_STATUS,
+                FilePathRequest.newBuilder().setPath("/user-" + (DIRS - 1) + "/file-forwarded-0-" + (DIRS - 1)).build().toByteArray());
+        System.out.printf("check forwarded file: %s lastError=%s%n", response != null && response.getSuccess(), lastError.get());
+
+        // 空的转发批次也要立即响应，不能让发送方等到超时
+        long start = System.currentTimeMillis();
+        NettyPacket batchResponse = clients.get(0).sendSync(NettyPacket.buildPacket(
+                ForwardBatch.getDefaultInstance().toByteArray(), PacketType.NAME_NODE_FORWARD_BATCH));
+        try {
+            System.out.printf("check empty forward batch: responses=%d error=%s in %d ms%n",
+                    ForwardBatchResponse.parseFrom(batchResponse.getBody()).getResponsesCount(), batchResponse.getError(),
+                    System.currentTimeMillis() - start);
+        } finally {
+            batchResponse.release();
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, Function<String, NetClient> selector) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong ops = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong latencyNanos = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                long i = 0;
+                while (running.get()) {
+                    String path = "/user-" + (i % DIRS) + "/file-" + name + "-" + thread + "-" + i;
+                    i++;
+                    long start = System.nanoTime();
+                    try {
+                        NameSpaceResponse response = call(selector.apply(path), PacketType.CREATE_FILE,
+                                CreateFileRequest.newBuilder().setPath(path).setReplication(3).build().toByteArray());
+                        if (response != null && response.getSuccess()) {
+                            ops.incrementAndGet();
+                            latencyNanos.addAndGet(System.nanoTime() - start);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        lastError.set(e.toString());
+                        failed.incrementAndGet();
+                    }
+                }
+            }, "Forward-Load-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        Thread.sleep(SECONDS * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("%s: %.0f ops/s avg latency=%.1f us failed=%d%n", name, ops.get() / (double) SECONDS,
+                latencyNanos.get() / 1000.0 / Math.max(1, ops.get()), failed.get());
+    }
+
+    private static NameSpaceResponse call(NetClient client, PacketType packetType, byte[] body) throws Exception {
+        NettyPacket response = client.sendSync(NettyPacket.buildPacket(body, packetType));
+        try {
+            if (response.isError() || response.isRedirect()) {
+                lastError.set(response.isError() ? response.getError() : "redirect");
+                return null;
+            }
+            return NameSpaceResponse.parseFrom(response.getBody());
+        } finally {
+            response.release();
+        }
+    }
+
+    private static void start(int nodeId) {
+        List<String> servers = new ArrayList<>();
+        for (int i = 1; i <= NODES; i++) {
+            servers.add("localhost:" + (BASE_PORT + i) + ":" + i);
+        }
+        NameNodeConfig config = NameNodeConfig.builder()
+                .nameNodeId(nodeId)
+                .nameNodePeerServers(String.join(",", servers))
+                .port(BASE_PORT + nodeId)
+                .nameNodeApiCoreSize(8)
+                .nameNodeApiMaximumPoolSize(16)
+                .nameNodeApiQueueSize(4096)
+                .forwardRequests(true)
+                .build();
+        NameNode nameNode = new NameNode(config);
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,256 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.sharding.SlotRoutingCache;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.namenode.CreateFileRequest;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.MkdirRequest;
+import com.tudoujun.distribute.model.namenode.NameSpaceResponse;
+import com.tudoujun.distribute.model.namenode.SlotAssignment;
+import com.tudoujun.distribute.model.namenode.SlotRedirect;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上启动3个NameNode，持续创建文件的同时依次加入第4、5个节点，
+ * 统计迁移期间的吞吐量和迁移耗时，最后按路由检查所有创建成功的文件都还在
+ * @create: 2025/03/28 15:40
+ */
+public class NameNodeRebalanceHarness {
+
+    private static final int BASE_PORT = 9731;
+    private static final int INITIAL_NODES = 3;
+    private static final int MAX_NODES = 5;
+    private static final int DIRS = 1024;
+    private static final int CLIENT_THREADS = 8;
+    private static final int STEADY_SECONDS = 5;
+
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong redirects = new AtomicLong();
+    private static final Queue<String> createdPaths = new ConcurrentLinkedQueue<>();
+    private static final AtomicReference<String> lastError = new AtomicReference<>();
+
+    public static void main(String[] args) throws Exception {
+        List<NameNode> nameNodes = new ArrayList<>();
+        for (int nodeId = 1; nodeId <= INITIAL_NODES; nodeId++) {
+            nameNodes.add(start(nodeId, INITIAL_NODES));
+        }
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Rebalance-Client-Scheduler-");
+        RoutingClient client = new RoutingClient(defaultScheduler);
+        waitUntil(() -> client.refresh(server(1)) && client.table().countOf(INITIAL_NODES) > 0, 30_000);
+        System.out.printf("cluster ready: nodes=%d version=%d%n", INITIAL_NODES, client.table().getVersion());
+
+        for (int i = 0; i < DIRS; i++) {
+            NameSpaceResponse response = client.call(PacketType.MKDIR, "/user-" + i,
+                    MkdirRequest.newBuilder().setPath("/user-" + i).setCreateParent(true).build().toByteArray());
+            if (response == null || !response.getSuccess()) {
+                throw new IllegalStateException("mkdir failed: /user-" + i);
+            }
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> load(client, thread, running), "Rebalance-Load-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+
+        phase("steady-" + INITIAL_NODES, STEADY_SECONDS);
+        for (int nodeId = INITIAL_NODES + 1; nodeId <= MAX_NODES; nodeId++) {
+            int joined = nodeId;
+            long start = System.currentTimeMillis();
+            long before = created.get();
+            nameNodes.add(start(nodeId, nodeId));
+            int expected = SlotTable.SLOT_COUNT / nodeId;
+            waitUntil(() -> client.refresh(server(1)) && client.table().countOf(joined) >= expected
+                    && client.table().getServers().size() == joined, 120_000);
+            long cost = System.currentTimeMillis() - start;
+            System.out.printf("node %d joined: slots=%d version=%d cost=%d ms throughput during rebalance=%.0f ops/s%n",
+                    joined, client.table().countOf(joined), client.table().getVersion(), cost,
+                    (created.get() - before) * 1000.0 / Math.max(1, cost));
+            phase("steady-" + joined, STEADY_SECONDS);
+        }
+
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long missing = 0;
+        for (String path : createdPaths) {
+            NameSpaceResponse response = client.call(PacketType.GET_FILE_STATUS, path,
+                    FilePathRequest.newBuilder().setPath(path).build().toByteArray());
+            if (response == null || !response.getSuccess()) {
+                missing++;
+            }
+        }
+        System.out.printf("created=%d failed=%d redirects=%d missing=%d lastError=%s%n", created.get(), failed.get(),
+                redirects.get(), missing, lastError.get());
+        System.exit(missing == 0 ? 0 : 1);
+    }
+
+    private static NameNode start(int nodeId, int numOfNode) {
+        List<String> servers = new ArrayList<>();
+        for (int i = 1; i <= numOfNode; i++) {
+            servers.add("localhost:" + (BASE_PORT + i) + ":" + i);
+        }
+        NameNodeConfig config = NameNodeConfig.builder()
+                .nameNodeId(nodeId)
+                .nameNodePeerServers(String.join(",", servers))
+                .port(BASE_PORT + nodeId)
+                .nameNodeApiCoreSize(8)
+                .nameNodeApiMaximumPoolSize(16)
+                .nameNodeApiQueueSize(4096)
+                .build();
+        NameNode nameNode = new NameNode(config);
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+        return nameNode;
+    }
+
+    private static String server(int nodeId) {
+        return "localhost:" + (BASE_PORT + nodeId);
+    }
+
+    private static void load(RoutingClient client, int thread, AtomicBoolean running) {
+        long i = 0;
+        while (running.get()) {
+            String path = "/user-" + (i % DIRS) + "/file-" + thread + "-" + i;
+            i++;
+            try {
+                NameSpaceResponse response = client.call(PacketType.CREATE_FILE, path,
+                        CreateFileRequest.newBuilder().setPath(path).setReplication(3).build().toByteArray());
+                if (response != null && response.getSuccess()) {
+                    created.incrementAndGet();
+                    createdPaths.add(path);
+                } else {
+                    failed.incrementAndGet();
+                }
+            } catch (Exception e) {
+                lastError.set(e.toString());
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    private static void phase(String name, int seconds) throws InterruptedException {
+        long before = created.get();
+        Thread.sleep(seconds * 1000L);
+        System.out.printf("%s: %.0f ops/s%n", name, (created.get() - before) / (double) seconds);
+    }
+
+    private static void waitUntil(BooleanSupplier condition, long timeoutInMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutInMs;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("timeout");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * 按路由缓存发送请求，收到重定向后更新缓存并重试
+     */
+    private static class RoutingClient {
+
+        private static final int MAX_ATTEMPTS = 64;
+
+        private final DefaultScheduler defaultScheduler;
+        private final SlotRoutingCache routingCache = new SlotRoutingCache();
+        private final Map<String, NetClient> netClients = new ConcurrentHashMap<>();
+
+        RoutingClient(DefaultScheduler defaultScheduler) {
+            this.defaultScheduler = defaultScheduler;
+        }
+
+        SlotTable table() {
+            return routingCache.getSlotTable();
+        }
+
+        boolean refresh(String server) {
+            try {
+                NettyPacket response = client(server).sendSync(NettyPacket.buildPacket(new byte[0], PacketType.FETCH_SLOT_TABLE));
+                try {
+                    if (response.isError()) {
+                        return false;
+                    }
+                    routingCache.update(SlotTable.fromProto(SlotAssignment.parseFrom(response.getBody())));
+                    return true;
+                } finally {
+                    response.release();
+                }
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        NameSpaceResponse call(PacketType packetType, String path, byte[] body) throws Exception {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                String server = routingCache.route(path);
+                if (server == null) {
+                    server = server(1);
+                }
+                NettyPacket response = client(server).sendSync(NettyPacket.buildPacket(body, packetType));
+                try {
+                    if (response.isRedirect()) {
+                        redirects.incrementAndGet();
+                        SlotRedirect redirect = SlotRedirect.parseFrom(response.getBody());
+                        if (routingCache.onRedirect(redirect)) {
+                            refresh(server);
+                        }
+                        if (attempt > 2) {
+                            // 迁移失败后源节点确认目标节点是否接管之前，两个节点会互相重定向
+                            Thread.sleep(1);
+                        }
+                        continue;
+                    }
+                    if (response.isError()) {
+                        lastError.set(response.getError());
+                        return null;
+                    }
+                    return NameSpaceResponse.parseFrom(response.getBody());
+                } finally {
+                    response.release();
+                }
+            }
+            return null;
+        }
+
+        private NetClient client(String server) throws InterruptedException {
+            NetClient netClient = netClients.computeIfAbsent(server, s -> {
+                String[] info = s.split(":");
+                NetClient client = new NetClient("Rebalance-Client-" + s, defaultScheduler, -1, 10_000);
+                client.connect(info[0], Integer.parseInt(info[1]));
+                return client;
+            });
+            netClient.ensureConnected(10_000);
+            return netClient;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.tudoujun.distribute.namenode.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.tudoujun.distribute.common.NettyPacket;
+import com.tudoujun.distribute.common.enums.PacketType;
+import com.tudoujun.distribute.common.enums.ReadConsistency;
+import com.tudoujun.distribute.common.network.NetClient;
+import com.tudoujun.distribute.common.sharding.SlotTable;
+import com.tudoujun.distribute.common.utils.DefaultScheduler;
+import com.tudoujun.distribute.model.namenode.CreateFileRequest;
+import com.tudoujun.distribute.model.namenode.FilePathRequest;
+import com.tudoujun.distribute.model.namenode.MkdirRequest;
+import com.tudoujun.distribute.model.namenode.NameSpaceResponse;
+import com.tudoujun.distribute.model.namenode.SlotAssignment;
+import com.tudoujun.distribute.namenode.NameNode;
+import com.tudoujun.distribute.namenode.config.NameNodeConfig;
+
+/**
+ * @author xiaowenjun
+ * @description 在本机回环地址上启动3个副本数为3的NameNode，所有读请求都查询同一个热点目录下的文件：
+ * 只读所属节点时全部请求落在一个节点上，允许读副本时请求分散到3个节点，对比吞吐量和平均延迟；
+ * 最后在所属节点上创建文件后立即用读索引从副本节点查询，检查能否读到刚完成的修改
+ * @create: 2025/04/07 15:30
+ */
+public class NameNodeReplicaReadBenchmark {
+
+    private static final int BASE_PORT = 9780;
+    private static final int NODES = 3;
+    private static final int FILES = 1024;
+    private static final int CLIENT_THREADS = 32;
+    private static final int SECONDS = 5;
+    private static final String HOT_DIR = "/hot";
+
+    private static final AtomicReference<String> lastError = new AtomicReference<>();
+
+    public static void main(String[] args) throws Exception {
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            start(nodeId);
+        }
+        DefaultScheduler defaultScheduler = new DefaultScheduler("Replica-Client-Scheduler-");
+        List<NetClient> clients = new ArrayList<>();
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            NetClient client = new NetClient("Replica-Client-" + nodeId, defaultScheduler, -1, 10_000);
+            client.connect("localhost", BASE_PORT + nodeId);
+            client.ensureConnected(10_000);
+            clients.add(client);
+        }
+        SlotTable slotTable = awaitSlotTable(clients.get(0));
+        NetClient owner = clients.get(slotTable.ownerOf(HOT_DIR) - 1);
+        call(owner, PacketType.MKDIR, MkdirRequest.newBuilder().setPath(HOT_DIR).setCreateParent(true).build().toByteArray());
+        for (int i = 0; i < FILES; i++) {
+            NameSpaceResponse response = call(owner, PacketType.CREATE_FILE,
+                    CreateFileRequest.newBuilder().setPath(HOT_DIR + "/file-" + i).setReplication(3).build().toByteArray());
+            if (response == null || !response.getSuccess()) {
+                throw new IllegalStateException("create failed: " + lastError.get());
+            }
+        }
+        // 等待副本追上
+        Thread.sleep(1000);
+
+        run("owner only", List.of(owner), ReadConsistency.OWNER);
+        run("bounded staleness", clients, ReadConsistency.BOUNDED_STALENESS);
+        run("read index", clients, ReadConsistency.READ_INDEX);
+
+        int visible = 0;
+        NetClient follower = clients.get(slotTable.ownerOf(HOT_DIR) % NODES);
+        for (int i = 0; i < 100; i++) {
+            String path = HOT_DIR + "/check-" + i;
+            call(owner, PacketType.CREATE_FILE, CreateFileRequest.newBuilder().setPath(path).setReplication(3).build().toByteArray());
+            NameSpaceResponse response = call(follower, PacketType.GET_FILE_STATUS, FilePathRequest.newBuilder()
+                    .setPath(path)
+                    .setReadConsistency(ReadConsistency.READ_INDEX.getValue())
+                    .build()
+                    .toByteArray());
+            if (response != null && response.getSuccess()) {
+                visible++;
+            }
+        }
+        System.out.printf("read index after write: %d/100 visible on follower lastError=%s%n", visible, lastError.get());
+        System.exit(0);
+    }
+
+    private static void run(String name, List<NetClient> targets, ReadConsistency consistency) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong ops = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong latencyNanos = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            NetClient client = targets.get(t % targets.size());
+            Thread worker = new Thread(() -> {
+                long i = 0;
+                while (running.get()) {
+                    byte[] body = FilePathRequest.newBuilder()
+                            .setPath(HOT_DIR + "/file-" + (i++ % FILES))
+                            .setReadConsistency(consistency.getValue())
+                            .build()
+                            .toByteArray();
+                    long start = System.nanoTime();
+                    try {
+                        NameSpaceResponse response = call(client, PacketType.GET_FILE_STATUS, body);
+                        if (response != null && response.getSuccess()) {
+                            ops.incrementAndGet();
+                            latencyNanos.addAndGet(System.nanoTime() - start);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        lastError.set(e.toString());
+                        failed.incrementAndGet();
+                    }
+                }
+            }, "Replica-Load-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        Thread.sleep(SECONDS * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("%s: %.0f ops/s avg latency=%.1f us failed=%d%n", name, ops.get() / (double) SECONDS,
+                latencyNanos.get() / 1000.0 / Math.max(1, ops.get()), failed.get());
+    }
+
+    private static SlotTable awaitSlotTable(NetClient client) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            NettyPacket response = client.sendSync(NettyPacket.buildPacket(new byte[0], PacketType.FETCH_SLOT_TABLE));
+            try {
+                if (!response.isError()) {
+                    SlotTable slotTable = SlotTable.fromProto(SlotAssignment.parseFrom(response.getBody()));
+                    if (slotTable.countOf(NODES) > 0) {
+                        return slotTable;
+                    }
+                }
+            } finally {
+                response.release();
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("timeout");
+    }
+
+    private static NameSpaceResponse call(NetClient client, PacketType packetType, byte[] body) throws Exception {
+        NettyPacket response = client.sendSync(NettyPacket.buildPacket(body, packetType));
+        try {
+            if (response.isError() || response.isRedirect()) {
+                lastError.set(response.isError() ? response.getError() : "redirect");
+                return null;
+            }
+            return NameSpaceResponse.parseFrom(response.getBody());
+        } finally {
+            response.release();
+        }
+    }
+
+    private static void start(int nodeId) {
+        List<String> servers = new ArrayList<>();
+        for (int i = 1; i <= NODES; i++) {
+            servers.add("localhost:" + (BASE_PORT + i) + ":" + i);
+        }
+        NameNodeConfig config = NameNodeConfig.builder()
+                .nameNodeId(nodeId)
+                .nameNodePeerServers(String.join(",", servers))
+                .port(BASE_PORT + nodeId)
+                .nameNodeApiCoreSize(8)
+                .nameNodeApiMaximumPoolSize(16)
+                .nameNodeApiQueueSize(4096)
+                .slotReplicationFactor(NODES)
+                .build();
+        NameNode nameNode = new NameNode(config);
+        Thread thread = new Thread(() -> {
+            try {
+                nameNode.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "NameNode-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}